@@ -10,6 +10,9 @@ public class Address
     private final String streetName;
     private final String postalCode;
     private final String cityName;
+    private final double latitude;
+    private final double longitude;
+    private long         fingerprint;
 
     private static final int VALID_MIN_UNIT_NUMBER_LENGTH = 1;
     private static final int VALID_MAX_UNIT_NUMBER_LENGTH = 4;
@@ -21,6 +24,17 @@ public class Address
     private static final int VALID_MAX_POSTAL_CODE_LENGTH = 6;
     private static final int VALID_MIN_CITY_NAME_LENGTH = 1;
     private static final int VALID_MAX_CITY_NAME_LENGTH = 30;
+    private static final double VALID_MIN_LATITUDE = -90.0;
+    private static final double VALID_MAX_LATITUDE = 90.0;
+    private static final double VALID_MIN_LONGITUDE = -180.0;
+    private static final double VALID_MAX_LONGITUDE = 180.0;
+    private static final long   FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long   FNV_PRIME = 0x100000001B3L;
+    private static final String[][] STREET_ABBREVIATIONS = {
+            {"street", "st"}, {"avenue", "ave"}, {"av", "ave"}, {"road", "rd"}, {"drive", "dr"},
+            {"boulevard", "blvd"}, {"crescent", "cres"}, {"place", "pl"}, {"court", "ct"}, {"lane", "ln"},
+            {"highway", "hwy"}, {"parkway", "pkwy"}, {"terrace", "terr"}, {"north", "n"}, {"south", "s"},
+            {"east", "e"}, {"west", "w"}, {"first", "1st"}, {"second", "2nd"}, {"third", "3rd"}};
 
     /**
      * Constructor, valid all address information before initialize the object.
@@ -34,6 +48,38 @@ public class Address
     public Address(final String unitNumber, final int streetNumber,
                    final String streetName, final String postalCode, final String cityName)
     {
+        this(unitNumber, streetNumber, streetName, postalCode, cityName, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructor, valid all address information, including the coordinates, before initialize the object.
+     * @param unitNumber The unit number of the address, has length limit.
+     * @param streetNumber The street number of the address, has value limit.
+     * @param streetName The street name of the address, has length limit.
+     * @param postalCode The postal code of the address, has length limit.
+     * @param cityName The city name of the address, has length limit.
+     * @param latitude The latitude of the address in degrees, or NaN together with longitude if unknown.
+     * @param longitude The longitude of the address in degrees, or NaN together with latitude if unknown.
+     * @throws IllegalArgumentException if the parameters exceed the length or value limits.
+     */
+    public Address(final String unitNumber, final int streetNumber, final String streetName,
+                   final String postalCode, final String cityName, final double latitude, final double longitude)
+    {
+        if(Double.isNaN(latitude) != Double.isNaN(longitude))
+        {
+            throw new IllegalArgumentException("Invalid coordinates: " + latitude + ", " + longitude);
+        }
+
+        if(latitude < VALID_MIN_LATITUDE || latitude > VALID_MAX_LATITUDE)
+        {
+            throw new IllegalArgumentException("Invalid latitude: " + latitude);
+        }
+
+        if(longitude < VALID_MIN_LONGITUDE || longitude > VALID_MAX_LONGITUDE)
+        {
+            throw new IllegalArgumentException("Invalid longitude: " + longitude);
+        }
+
         if(unitNumber != null)
         {
             if(unitNumber.length() < VALID_MIN_UNIT_NUMBER_LENGTH || unitNumber.length() > VALID_MAX_UNIT_NUMBER_LENGTH)
@@ -88,6 +134,83 @@ public class Address
         this.streetName   = streetName;
         this.postalCode   = postalCode;
         this.cityName     = cityName;
+        this.latitude     = latitude;
+        this.longitude    = longitude;
+    }
+
+    /**
+     * This method checks the address information as the constructor does, without throwing or building any
+     * object, so rejecting a bad row costs only the checks. Only the lengths of the texts are read.
+     * @param unitNumber The unit number of the address, or null if none.
+     * @param streetNumber The street number of the address.
+     * @param streetName The street name of the address.
+     * @param postalCode The postal code of the address.
+     * @param cityName The city name of the address.
+     * @param latitude The latitude of the address in degrees, or NaN together with longitude if unknown.
+     * @param longitude The longitude of the address in degrees, or NaN together with latitude if unknown.
+     * @return The first check the constructor would fail, or null if it would succeed.
+     */
+    public static ValidationError validate(final CharSequence unitNumber, final int streetNumber,
+                                           final CharSequence streetName, final CharSequence postalCode,
+                                           final CharSequence cityName, final double latitude,
+                                           final double longitude)
+    {
+        if(Double.isNaN(latitude) != Double.isNaN(longitude))
+        {
+            return ValidationError.INVALID_COORDINATES;
+        }
+
+        if(latitude < VALID_MIN_LATITUDE || latitude > VALID_MAX_LATITUDE)
+        {
+            return ValidationError.INVALID_LATITUDE;
+        }
+
+        if(longitude < VALID_MIN_LONGITUDE || longitude > VALID_MAX_LONGITUDE)
+        {
+            return ValidationError.INVALID_LONGITUDE;
+        }
+
+        if(unitNumber != null &&
+                (unitNumber.length() < VALID_MIN_UNIT_NUMBER_LENGTH || unitNumber.length() > VALID_MAX_UNIT_NUMBER_LENGTH))
+        {
+            return ValidationError.INVALID_UNIT_NUMBER;
+        }
+
+        if(streetNumber < VALID_MIN_STREET_NUMBER || streetNumber > VALID_MAX_STREET_NUMBER)
+        {
+            return ValidationError.INVALID_STREET_NUMBER;
+        }
+
+        if(streetName == null)
+        {
+            return ValidationError.MISSING_STREET_NAME;
+        }
+
+        if(streetName.length() < VALID_MIN_STREET_NAME_LENGTH || streetName.length() > VALID_MAX_STREET_NAME_LENGTH)
+        {
+            return ValidationError.INVALID_STREET_NAME;
+        }
+
+        if(postalCode == null)
+        {
+            return ValidationError.MISSING_POSTAL_CODE;
+        }
+
+        if(postalCode.length() < VALID_MIN_POSTAL_CODE_LENGTH || postalCode.length() > VALID_MAX_POSTAL_CODE_LENGTH)
+        {
+            return ValidationError.INVALID_POSTAL_CODE;
+        }
+
+        if(cityName == null)
+        {
+            return ValidationError.MISSING_CITY;
+        }
+
+        if(cityName.length() < VALID_MIN_CITY_NAME_LENGTH || cityName.length() > VALID_MAX_CITY_NAME_LENGTH)
+        {
+            return ValidationError.INVALID_CITY;
+        }
+        return null;
     }
 
     /**
@@ -130,6 +253,150 @@ public class Address
         return cityName;
     }
 
+    /**
+     * @return The latitude of the address in degrees, or NaN if the address has no coordinates.
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * @return The longitude of the address in degrees, or NaN if the address has no coordinates.
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+    /**
+     * @return True if the address has a latitude and longitude, otherwise false.
+     */
+    public boolean hasCoordinates()
+    {
+        return !Double.isNaN(latitude);
+    }
+
+    /**
+     * @return The canonical form of the address: the unit, street number, street name, postal code and city,
+     * lower-cased, stripped of punctuation such as the "#" before a unit, with street words
+     * abbreviated, such as "4 | 1111 | maple st | v8y3r5 | vancouver". Coordinates are not part of it.
+     */
+    public String getCanonicalForm()
+    {
+        String unit;
+        unit = unitNumber == null ? "" : normalize(unitNumber);
+
+        return unit + " | " + streetNumber + " | " + abbreviate(normalize(streetName)) + " | " +
+                normalize(postalCode).replace(" ", "") + " | " + normalize(cityName);
+    }
+
+    /**
+     * @return A 64-bit FNV-1a hash of the canonical form, equal for addresses that differ only in case,
+     * spacing, punctuation or street word abbreviations.
+     */
+    public long getFingerprint()
+    {
+        long hash;
+        hash = fingerprint;
+
+        if(hash == 0)
+        {
+            String canonical;
+
+            canonical = getCanonicalForm();
+            hash      = FNV_OFFSET_BASIS;
+
+            for(int i = 0; i < canonical.length(); i++)
+            {
+                hash ^= canonical.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            fingerprint = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * @param other The object to be compared.
+     * @return True if the other object is an address with the same canonical form, otherwise false.
+     */
+    @Override
+    public boolean equals(final Object other)
+    {
+        if(this == other)
+        {
+            return true;
+        }
+
+        if(!(other instanceof Address))
+        {
+            return false;
+        }
+        return getFingerprint() == ((Address) other).getFingerprint() &&
+                getCanonicalForm().equals(((Address) other).getCanonicalForm());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(getFingerprint());
+    }
+
+    /**
+     * @return The text lower-cased, with every run of characters other than letters and digits made one space.
+     */
+    private static String normalize(final String text)
+    {
+        StringBuilder normalized;
+        boolean       space;
+
+        normalized = new StringBuilder(text.length());
+        space      = false;
+
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c;
+            c = Character.toLowerCase(text.charAt(i));
+
+            if(Character.isLetterOrDigit(c))
+            {
+                if(space && normalized.length() > 0)
+                {
+                    normalized.append(' ');
+                }
+                normalized.append(c);
+                space = false;
+            }
+            else
+            {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return The normalized street name with each word replaced by its usual abbreviation.
+     */
+    private static String abbreviate(final String normalizedStreetName)
+    {
+        String[] words;
+        words = normalizedStreetName.split(" ");
+
+        for(int i = 0; i < words.length; i++)
+        {
+            for(String[] abbreviation : STREET_ABBREVIATIONS)
+            {
+                if(words[i].equals(abbreviation[0]))
+                {
+                    words[i] = abbreviation[1];
+                }
+            }
+        }
+        return String.join(" ", words);
+    }
+
     /**
      * @return The formatted String of the unit number.
      */
@@ -182,4 +449,22 @@ public class Address
         }
         return formattedCityName;
     }
+
+    /**
+     * @return The estimated bytes of the address object, without its strings, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // four references, the street number, the coordinates and the fingerprint
+        return MemoryFootprint.object(4 * MemoryFootprint.REFERENCE + Integer.BYTES + 2 * Double.BYTES + Long.BYTES);
+    }
+
+    /**
+     * @return The estimated bytes of the unit number, street name, postal code and city, see MemoryFootprint.
+     */
+    long estimateStringBytes()
+    {
+        return MemoryFootprint.string(unitNumber) + MemoryFootprint.string(streetName) +
+                MemoryFootprint.string(postalCode) + MemoryFootprint.string(cityName);
+    }
 }
@@ -58,6 +58,39 @@ class AddressTest
         assertEquals("west vancouver", address2.getCity());
     }
 
+    @Test
+    void getCoordinates()
+    {
+        Address located = new Address(null, 123, "main street", "v7r2g2", "west vancouver", 49.33, -123.16);
+
+        assertTrue(located.hasCoordinates());
+        assertEquals(49.33, located.getLatitude());
+        assertEquals(-123.16, located.getLongitude());
+
+        assertFalse(address1.hasCoordinates());
+        assertTrue(Double.isNaN(address1.getLatitude()));
+        assertTrue(Double.isNaN(address1.getLongitude()));
+    }
+
+    @Test
+    void getExpectedExceptionsCoordinates()
+    {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            address1 = new Address("1a",777, "56th avenue", "v7n2m8", "surrey", 90.5, 0);
+        });
+        assertTrue(ex.getMessage().equals("Invalid latitude: 90.5"));
+
+        ex = assertThrows(IllegalArgumentException.class, ()->{
+            address1 = new Address("1a",777, "56th avenue", "v7n2m8", "surrey", 0, -180.5);
+        });
+        assertTrue(ex.getMessage().equals("Invalid longitude: -180.5"));
+
+        ex = assertThrows(IllegalArgumentException.class, ()->{
+            address1 = new Address("1a",777, "56th avenue", "v7n2m8", "surrey", Double.NaN, 0);
+        });
+        assertTrue(ex.getMessage().equals("Invalid coordinates: NaN, 0.0"));
+    }
+
     @Test
     void getExpectedExceptionsUnitNumber()
     {
@@ -142,4 +175,50 @@ class AddressTest
         });
         assertTrue(ex.getMessage().equals("Invalid city: 0123456789012345678901234567890"));
     }
+
+    @Test
+    void getFingerprint()
+    {
+        Address same = new Address("#1A", 777, "56th  Ave.", "V7N2M8", "Surrey");
+        Address other = new Address("1b", 777, "56th avenue", "v7n2m8", "surrey");
+
+        assertEquals("1a | 777 | 56th ave | v7n2m8 | surrey", address1.getCanonicalForm());
+        assertEquals(address1.getFingerprint(), same.getFingerprint());
+        assertNotEquals(address1.getFingerprint(), other.getFingerprint());
+        assertNotEquals(address1.getFingerprint(), address2.getFingerprint());
+        assertEquals(" | 123 | main st | v7r2g2 | west vancouver", address2.getCanonicalForm());
+    }
+
+    @Test
+    void equalsHashCode()
+    {
+        Address same = new Address("#1a", 777, "56TH AVENUE", "v7n2m8", "surrey", 49.1, -122.8);
+
+        assertEquals(address1, same);
+        assertEquals(address1.hashCode(), same.hashCode());
+        assertNotEquals(address1, address2);
+        assertNotEquals(address1, null);
+        assertNotEquals(address1, "1a 777 56th avenue");
+    }
+
+    @Test
+    void validate()
+    {
+        assertNull(Address.validate("1a", 777, "56th avenue", "v7n2m8", "surrey", Double.NaN, Double.NaN));
+        assertNull(Address.validate(null, 0, new StringBuilder("main street"), "v7r2g2", "west vancouver", 49, -123));
+        assertEquals(ValidationError.INVALID_COORDINATES,
+                Address.validate("1a", 777, "56th avenue", "v7n2m8", "surrey", 49, Double.NaN));
+        assertEquals(ValidationError.INVALID_LONGITUDE,
+                Address.validate("1a", 777, "56th avenue", "v7n2m8", "surrey", 49, 181));
+        assertEquals(ValidationError.INVALID_UNIT_NUMBER,
+                Address.validate("", 777, "56th avenue", "v7n2m8", "surrey", Double.NaN, Double.NaN));
+        assertEquals(ValidationError.INVALID_STREET_NUMBER,
+                Address.validate("1a", -1, "56th avenue", "v7n2m8", "surrey", Double.NaN, Double.NaN));
+        assertEquals(ValidationError.MISSING_STREET_NAME,
+                Address.validate("1a", 777, null, "v7n2m8", "surrey", Double.NaN, Double.NaN));
+        assertEquals(ValidationError.INVALID_POSTAL_CODE,
+                Address.validate("1a", 777, "56th avenue", "v7n2m8x", "surrey", Double.NaN, Double.NaN));
+        assertEquals(ValidationError.MISSING_CITY,
+                Address.validate("1a", 777, "56th avenue", "v7n2m8", null, Double.NaN, Double.NaN));
+    }
 }
@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models cost-based admission control for Agency queries. Each query states its estimated cost,
+ * in rows visited, taken from the agency's statistics (the query planner's cost, or the listing count for a
+ * full scan). Queries run while the total cost in flight stays within the budget; a query that does not fit
+ * waits in a bounded queue until enough cost completes or its deadline passes, and is rejected if the queue
+ * is full. Cheap queries, such as point lookups and selective index paths, are always admitted at once, so
+ * their latency does not depend on the expensive scans running beside them.
+ */
+public class AdmissionController
+{
+    private final double        costBudget;
+    private final double        cheapCost;
+    private final int           maxQueued;
+    private final ReentrantLock lock;
+    private final Condition     released;
+    private final AtomicLong    admitted;
+    private final AtomicLong    rejected;
+    private double              costInFlight;
+    private int                 queued;
+
+    private static final long CANCEL_POLL_MILLIS = 50;
+
+    /**
+     * Constructor, valid all admission limits.
+     * @param costBudget The total estimated cost allowed in flight, must be positive.
+     * @param cheapCost The cost up to which a query is always admitted, not negative.
+     * @param maxQueued The maximum number of queries waiting for budget, not negative.
+     * @throws IllegalArgumentException If a limit is out of range.
+     */
+    AdmissionController(final double costBudget, final double cheapCost, final int maxQueued)
+    {
+        if(!(costBudget > 0))
+        {
+            throw new IllegalArgumentException("Invalid cost budget: " + costBudget);
+        }
+
+        if(!(cheapCost >= 0))
+        {
+            throw new IllegalArgumentException("Invalid cheap cost: " + cheapCost);
+        }
+
+        if(maxQueued < 0)
+        {
+            throw new IllegalArgumentException("Invalid max queued: " + maxQueued);
+        }
+
+        this.costBudget = costBudget;
+        this.cheapCost  = cheapCost;
+        this.maxQueued  = maxQueued;
+        this.lock       = new ReentrantLock();
+        this.released   = lock.newCondition();
+        this.admitted   = new AtomicLong();
+        this.rejected   = new AtomicLong();
+    }
+
+    /**
+     * This method runs the query once it is admitted.
+     * @param cost The estimated cost of the query, in rows visited.
+     * @param context The cancellation token and deadline of the query; it bounds the wait in the queue.
+     * @param query The query.
+     * @param <T> The type of the result.
+     * @return The result of the query.
+     * @throws RejectedExecutionException If the queue is full or the deadline passes while waiting.
+     * @throws java.util.concurrent.CancellationException If the query is cancelled.
+     */
+    public <T> T run(final double cost, final QueryContext context, final Supplier<T> query)
+    {
+        acquire(cost, context);
+
+        try
+        {
+            context.check();
+            return query.get();
+        }
+        finally
+        {
+            release(cost);
+        }
+    }
+
+    /**
+     * @param agency The agency to be queried.
+     * @param query The composite query.
+     * @param context The cancellation token and deadline of the query.
+     * @return Agency.getProperties of the query, admitted at the cost of its plan.
+     */
+    public ArrayList<Property> getProperties(final Agency agency, final ListingQuery query,
+                                             final QueryContext context)
+    {
+        return run(agency.plan(query).getCost(), context, () -> agency.getProperties(query, context));
+    }
+
+    /**
+     * @param agency The agency to be queried.
+     * @param filter The filter the properties must pass.
+     * @param context The cancellation token and deadline of the scan.
+     * @return Agency.getPropertiesMatching of the filter, admitted at the cost of a full scan.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Agency agency, final Predicate<Property> filter,
+                                                     final QueryContext context)
+    {
+        return run(agency.getPropertyCount(), context, () -> agency.getPropertiesMatching(filter, context));
+    }
+
+    /**
+     * @param agency The agency to be queried.
+     * @param propertyType The property type to be matched.
+     * @param context The cancellation token and deadline of the scan.
+     * @return Agency.getPropertiesOfType of the type, admitted at the cost of a full scan.
+     */
+    public ArrayList<String> getPropertiesOfType(final Agency agency, final String propertyType,
+                                                 final QueryContext context)
+    {
+        return run(agency.getPropertyCount(), context, () -> agency.getPropertiesOfType(propertyType, context));
+    }
+
+    /**
+     * @return The number of queries admitted so far.
+     */
+    public long getAdmittedCount()
+    {
+        return admitted.get();
+    }
+
+    /**
+     * @return The number of queries rejected so far.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * @return The total estimated cost of the queries running now.
+     */
+    public double getCostInFlight()
+    {
+        lock.lock();
+        try
+        {
+            return costInFlight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method waits until the cost fits in the budget, then adds it to the cost in flight.
+     */
+    private void acquire(final double cost, final QueryContext context)
+    {
+        lock.lock();
+        try
+        {
+            if(cost > cheapCost && !fits(cost))
+            {
+                if(queued >= maxQueued)
+                {
+                    throw reject(cost);
+                }
+
+                queued++;
+                try
+                {
+                    while(!fits(cost))
+                    {
+                        long remaining;
+                        remaining = context.getRemainingMillis();
+
+                        if(remaining == 0)
+                        {
+                            throw reject(cost);
+                        }
+                        context.check();
+
+                        // wake up now and then to notice a cancel, which does not signal the condition
+                        released.await(Math.min(remaining, CANCEL_POLL_MILLIS), TimeUnit.MILLISECONDS);
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw reject(cost);
+                }
+                finally
+                {
+                    queued--;
+                }
+            }
+
+            costInFlight += cost;
+            admitted.incrementAndGet();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void release(final double cost)
+    {
+        lock.lock();
+        try
+        {
+            costInFlight -= cost;
+            released.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return True if the cost fits in the budget; a query costing more than the whole budget fits when
+     * nothing else runs, so it is slowed down but never starved outright.
+     */
+    private boolean fits(final double cost)
+    {
+        return costInFlight <= 0 || costInFlight + cost <= costBudget;
+    }
+
+    private RejectedExecutionException reject(final double cost)
+    {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException("Query rejected: cost " + cost);
+    }
+}
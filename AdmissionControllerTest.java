@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest
+{
+    private AdmissionController controller;
+    private CountDownLatch started;
+    private CountDownLatch finish;
+    private Thread expensive;
+
+    @BeforeEach
+    void setUp() throws InterruptedException
+    {
+        controller = new AdmissionController(1000, 10, 1);
+        started    = new CountDownLatch(1);
+        finish     = new CountDownLatch(1);
+        expensive  = new Thread(() -> controller.run(800, QueryContext.create(), () -> {
+            started.countDown();
+            try
+            {
+                finish.await();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        expensive.start();
+        started.await();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException
+    {
+        finish.countDown();
+        expensive.join();
+        controller = null;
+    }
+
+    @Test
+    void cheapQueriesBypass()
+    {
+        assertEquals("lookup", controller.run(5, QueryContext.create(), () -> "lookup"));
+        assertEquals("fits", controller.run(200, QueryContext.create(), () -> "fits"));
+        assertEquals(800, controller.getCostInFlight());
+    }
+
+    @Test
+    void expensiveQueryWaitsUntilDeadline()
+    {
+        assertThrows(RejectedExecutionException.class, () -> controller.run(500, QueryContext.withTimeout(20), () -> 1));
+        assertEquals(1, controller.getRejectedCount());
+    }
+
+    @Test
+    void queuedQueryRunsAfterRelease() throws InterruptedException
+    {
+        AtomicReference<Object> result  = new AtomicReference<>();
+        Thread                  waiting = new Thread(() -> result.set(
+                controller.run(500, QueryContext.withTimeout(10000), () -> "ran")));
+
+        waiting.start();
+        while(controller.getAdmittedCount() < 1 || waiting.getState() != Thread.State.TIMED_WAITING)
+        {
+            Thread.sleep(1);
+        }
+
+        // the queue holds one query, so a second expensive one is turned away at once
+        assertThrows(RejectedExecutionException.class, () -> controller.run(500, QueryContext.withTimeout(10000), () -> 1));
+
+        finish.countDown();
+        waiting.join();
+
+        assertEquals("ran", result.get());
+        assertEquals(0, controller.getCostInFlight());
+    }
+
+    @Test
+    void agencyQueries()
+    {
+        Agency agency = new Agency("Admit Ltd");
+
+        agency.addProperty(new Property(1000, new Address(null, 1, "elm street", "90210", "la"), 2, false,
+                "retail", "p1"));
+
+        assertEquals(1, controller.getProperties(agency, new ListingQuery().ofType("retail"),
+                QueryContext.create()).size());
+        assertEquals(1, controller.getPropertiesMatching(agency, PropertyFilters.all(), QueryContext.create()).size());
+        assertEquals(2, controller.getPropertiesOfType(agency, "retail", QueryContext.create()).size());
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(0, 1, 1));
+    }
+}
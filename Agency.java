@@ -1,7 +1,23 @@
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * @author Tian Lan
@@ -11,176 +27,2505 @@ import java.util.Set;
 public class Agency
 {
     private final String                name;
-    private final Map<String, Property> Properties;
+    private final PropertyIdMap         Properties;
+    private final TrigramIndex          streetIndex;
+    private final TrigramIndex          cityIndex;
+    private SpatialIndex                spatialIndex;
+    private final PropertyColumns       columns;
+    private final QueryPlanner          planner;
+    private final QuantileSketch        priceSketch;
+    private Map<String, QuantileSketch> typeSketches;
+    private Map<String, QuantileSketch> citySketches;
+    private final VersionStore          versions;
+    private ComparablesIndex            comparables;
+    private final ExpiryWheel           expiries;
+    private final Map<Long, ArrayList<Property>> fingerprints;
+    private final Map<String, String>   aliases;
+    private ChangeFeed                  changeFeed;
+    private DuplicatePolicy             duplicatePolicy;
+    private ColdListingStore            coldTier;
+    private LinkedHashMap<String, Boolean> hotOrder;
+    private int                         hotCapacity;
+    private long                        promotions;
+    private long                        demotions;
+    private long                        memoryBudget;
+    private int                         addsSinceBudgetCheck;
+    private volatile WorkloadRecorder   recorder;
+    private Iterator<Property>          versionBase;
+    private ColdListingStore            versionBaseCold;
+    private volatile ReentrantReadWriteLock locks;
+    private volatile long               lockOrder;
     private static final int VALID_MIN_NAME_LENGTH = 1;
     private static final int VALID_MAX_NAME_LENGTH = 30;
+    private static final long EXPIRY_TICK_MILLIS = 1000;
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
+    private static final int MAX_SPILL_ROUNDS = 4;
+    private static final int VERSION_BASE_BATCH = 1024;
+    private static final long NOT_RECORDED = Long.MIN_VALUE;
+    private static final double[] NO_NUMBERS = {};
+    private static final AtomicLong LOCK_ORDERS = new AtomicLong();
+    private static final MemoryFootprint.Component[] HOT_COMPONENTS = {
+            MemoryFootprint.Component.LISTINGS, MemoryFootprint.Component.STRINGS,
+            MemoryFootprint.Component.PRICE_HISTORIES, MemoryFootprint.Component.ID_MAP,
+            MemoryFootprint.Component.COLUMNS, MemoryFootprint.Component.PLANNER_INDEXES,
+            MemoryFootprint.Component.SPATIAL_INDEX, MemoryFootprint.Component.COMPARABLES_INDEX,
+            MemoryFootprint.Component.DUPLICATE_INDEX
+    };
+
+    /**
+     * What addProperty does with a listing at the address of a listing already held under another ID.
+     */
+    public enum DuplicatePolicy
+    {
+        /** Add it as usual; getDuplicates and getDuplicateGroups report it. */
+        FLAG,
+        /** Do not add it; the listing already held takes its price and its ID becomes an alias. */
+        MERGE
+    }
 
     /**
      * Constructor, valid all agency information before initialize the object.
      * @param name The name of the agency, has length limit.
      * @throws IllegalArgumentException If the length of the name exceed the limit.
      */
-    Agency(final String name)
+    Agency(final String name)
+    {
+        Properties   = new PropertyIdMap();
+        streetIndex  = new TrigramIndex();
+        cityIndex    = new TrigramIndex();
+        spatialIndex = new SpatialIndex();
+        columns      = new PropertyColumns();
+        planner      = new QueryPlanner(this);
+        priceSketch  = new QuantileSketch();
+        typeSketches = new HashMap<>();
+        citySketches = new HashMap<>();
+        versions     = new VersionStore(System::currentTimeMillis);
+        comparables  = new ComparablesIndex();
+        expiries     = new ExpiryWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+        fingerprints = new HashMap<>();
+        aliases      = new HashMap<>();
+        locks        = new ReentrantReadWriteLock();
+        lockOrder    = nextLockOrder();
+
+        duplicatePolicy = DuplicatePolicy.FLAG;
+
+        if(name.length() < VALID_MIN_NAME_LENGTH || name.length() > VALID_MAX_NAME_LENGTH)
+        {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        this.name = name;
+    }
+
+    /**
+     * This method adds the non-null property to the map Properties, replacing any property with the same ID.
+     * A property at the address of a listing held under another ID is handled by the duplicate policy.
+     * @param property The property to be added.
+     */
+    public void addProperty(final Property property)
+    {
+        long startNanos;
+        startNanos = startCall();
+
+        add(property);
+        endCall(WorkloadRecorder.Call.ADD_PROPERTY, startNanos, property);
+    }
+
+    /**
+     * This method adds the property as addProperty does, and schedules its removal at the expiry time.
+     * Removing or replacing the property cancels the expiry. A property merged into a listing held under
+     * another ID only extends the expiry of that listing, to the later of the two times; a listing that does
+     * not expire keeps not expiring.
+     * @param property The property to be added.
+     * @param expiresAtMillis The time the listing expires, in epoch milliseconds.
+     */
+    public void addProperty(final Property property, final long expiresAtMillis)
+    {
+        long startNanos;
+        startNanos = startCall();
+
+        add(property, expiresAtMillis);
+        endCall(WorkloadRecorder.Call.ADD_PROPERTY, startNanos, property);
+    }
+
+    /**
+     * This method is the body of addProperty, which is recorded once for every call.
+     * @param property The property to be added, or null.
+     */
+    private void add(final Property property)
+    {
+        add(property, NO_EXPIRY);
+    }
+
+    /**
+     * This method adds the property and schedules the expiry of the listing it ends up as under the same
+     * hold of the write lock, so expireListings never sees one without the other.
+     * @param property The property to be added, or null.
+     * @param expiresAtMillis The time the listing expires, in epoch milliseconds, or NO_EXPIRY.
+     */
+    private void add(final Property property, final long expiresAtMillis)
+    {
+        if(property != null)
+        {
+            Property original;
+            Lock     lock;
+            lock = locks.writeLock();
+
+            lock.lock();
+            try
+            {
+                original = insert(property);
+
+                if(expiresAtMillis != NO_EXPIRY)
+                {
+                    schedule(original == null ? property : original, original != null, expiresAtMillis);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            mergePrice(original, property);
+        }
+    }
+
+    /**
+     * This method adds the property, or under MERGE makes its ID an alias of the listing held at its address;
+     * the caller holds the write lock.
+     * @param property The property to be added, not null.
+     * @return The listing the property was merged into, or null if it was added.
+     */
+    private Property insert(final Property property)
+    {
+        Property replaced;
+
+        // a cold listing with the ID is promoted first, so it is replaced like a hot one
+        promote(property.getPropertyId());
+
+        if(duplicatePolicy == DuplicatePolicy.MERGE && Properties.get(property.getPropertyId()) == null)
+        {
+            Property original;
+            original = findDuplicate(property);
+
+            if(original != null)
+            {
+                aliases.put(property.getPropertyId(), original.getPropertyId());
+                return original;
+            }
+        }
+
+        replaced = Properties.put(property);
+
+        if(replaced != null)
+        {
+            unindex(replaced);
+            publish(ChangeEvent.Type.REMOVE, replaced, replaced.getPriceUsd(), Double.NaN);
+        }
+        index(property);
+        publish(ChangeEvent.Type.ADD, property, Double.NaN, property.getPriceUsd());
+
+        if(coldTier != null && Properties.size() > hotCapacity + Math.max(1, hotCapacity / 4))
+        {
+            demoteColdListings();
+        }
+
+        if(memoryBudget > 0 &&
+                ++addsSinceBudgetCheck >= Math.max(BUDGET_CHECK_INTERVAL, Properties.size() / 8))
+        {
+            enforceMemoryBudget();
+        }
+        return null;
+    }
+
+    /**
+     * This method schedules the expiry of the listing; the caller holds the write lock.
+     * @param listing The listing to expire.
+     * @param merged True if a property was merged into the listing, which then keeps its expiry if it is later
+     * or if it does not expire.
+     * @param expiresAtMillis The time the listing expires, in epoch milliseconds.
+     */
+    private void schedule(final Property listing, final boolean merged, final long expiresAtMillis)
+    {
+        long expiry;
+        expiry = expiries.getExpiry(listing.getPropertyId());
+
+        if(!merged || expiry != -1 && expiry < expiresAtMillis)
+        {
+            expiries.schedule(listing.getPropertyId(), expiresAtMillis);
+        }
+    }
+
+    /**
+     * This method gives the listing a property was merged into the property's price. It is called without
+     * the write lock, as Property.setPriceUsd takes the write lock of every agency holding the listing.
+     * @param original The listing the property was merged into, or null if it was added.
+     * @param merged The property that was added.
+     */
+    private static void mergePrice(final Property original, final Property merged)
+    {
+        if(original != null && original.getPriceUsd() != merged.getPriceUsd())
+        {
+            original.setPriceUsd(merged.getPriceUsd());
+        }
+    }
+
+    /**
+     * This method removes every listing whose expiry time has passed, through removeProperty, so every
+     * index, aggregate and the change feed see an ordinary removal. Call it periodically.
+     * @param nowMillis The current time, in epoch milliseconds.
+     * @return The number of listings removed.
+     */
+    public int expireListings(final long nowMillis)
+    {
+        List<String> expired;
+        Lock         lock;
+        lock = locks.writeLock();
+
+        // the removals share the hold, so a listing re-added meanwhile is not removed in place of the expired one
+        lock.lock();
+        try
+        {
+            expired = expiries.advance(nowMillis);
+
+            for(String propertyId : expired)
+            {
+                removeProperty(propertyId);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return expired.size();
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return The expiry time of the listing, rounded up to the second, or -1 if it does not expire.
+     */
+    public long getExpiry(final String propertyId)
+    {
+        return expiries.getExpiry(propertyId);
+    }
+
+    /**
+     * @param policy What addProperty does with a listing at the address of a listing already held, not null.
+     * @throws NullPointerException If the policy is null.
+     */
+    public void setDuplicatePolicy(final DuplicatePolicy policy)
+    {
+        if(policy == null)
+        {
+            throw new NullPointerException("Invalid duplicate policy: null");
+        }
+        duplicatePolicy = policy;
+    }
+
+    /**
+     * @return What addProperty does with a listing at the address of a listing already held.
+     */
+    public DuplicatePolicy getDuplicatePolicy()
+    {
+        return duplicatePolicy;
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return An ArrayList of the other listings at the same address as the listing, in the order they were
+     * added, or null if the listing is not held or has no duplicates.
+     */
+    public ArrayList<Property> getDuplicates(final String propertyId)
+    {
+        Property            property;
+        ArrayList<Property> duplicates;
+
+        property = Properties.get(propertyId);
+
+        if(property == null || !fingerprints.containsKey(property.getAddress().getFingerprint()))
+        {
+            return null;
+        }
+
+        duplicates = new ArrayList<>();
+
+        for(Property candidate : fingerprints.get(property.getAddress().getFingerprint()))
+        {
+            if(candidate != property && candidate.getAddress().equals(property.getAddress()))
+            {
+                duplicates.add(candidate);
+            }
+        }
+        return duplicates.isEmpty() ? null : duplicates;
+    }
+
+    /**
+     * @return An ArrayList of every group of two or more listings at the same address, each in the order the
+     * listings were added, or null if there are no duplicates.
+     */
+    public ArrayList<ArrayList<Property>> getDuplicateGroups()
+    {
+        ArrayList<ArrayList<Property>> groups;
+        groups = new ArrayList<>();
+
+        for(ArrayList<Property> bucket : fingerprints.values())
+        {
+            if(bucket.size() > 1)
+            {
+                Map<Address, ArrayList<Property>> byAddress;
+                byAddress = new LinkedHashMap<>();
+
+                // a bucket holds one address unless two canonical forms collide on the 64-bit hash
+                for(Property property : bucket)
+                {
+                    byAddress.computeIfAbsent(property.getAddress(), k -> new ArrayList<>()).add(property);
+                }
+
+                for(ArrayList<Property> group : byAddress.values())
+                {
+                    if(group.size() > 1)
+                    {
+                        groups.add(group);
+                    }
+                }
+            }
+        }
+        return groups.isEmpty() ? null : groups;
+    }
+
+    /**
+     * This method merges every group of listings at the same address into the listing of the group added first.
+     * The other listings are removed through removeProperty and their IDs become aliases of the one kept.
+     * @return The number of listings removed.
+     */
+    public int dedupe()
+    {
+        ArrayList<ArrayList<Property>> groups;
+        int                            removed;
+
+        groups  = getDuplicateGroups();
+        removed = 0;
+
+        if(groups == null)
+        {
+            return removed;
+        }
+
+        for(ArrayList<Property> group : groups)
+        {
+            for(int i = 1; i < group.size(); i++)
+            {
+                removeProperty(group.get(i).getPropertyId());
+                aliases.put(group.get(i).getPropertyId(), group.get(0).getPropertyId());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param propertyId The property ID to be resolved.
+     * @return The ID of the listing the ID was merged into, or the ID itself if it was never merged.
+     */
+    public String getCanonicalId(final String propertyId)
+    {
+        return aliases.getOrDefault(propertyId, propertyId);
+    }
+
+    /**
+     * This method moves the least recently looked-up listings to a cold tier of segment files in the
+     * directory whenever more than a quarter over hotCapacity listings are on the heap. Every query method
+     * keeps answering over both tiers: scans stream the cold segments, and index-driven queries add the
+     * matching cold listings to the indexed hot ones. getProperty, setPropertyPrice, removeProperty and
+     * addProperty of a cold listing promote it back to the heap. Listings read from the cold tier by
+     * other queries are copies, so a change to a listing must go through getProperty or setPropertyPrice.
+     * Duplicate detection and query planning cover the hot listings. Calling it again keeps the existing tier.
+     * While the tier is enabled getProperty changes the agency, since it promotes and reorders listings, so
+     * callers that query from several threads must serialize getProperty like a change; the other queries
+     * only read, and the segments' page caches are safe to share.
+     * @param directory The directory the cold segments are written to, cannot be null.
+     * @param hotCapacity The number of listings kept on the heap, must be positive.
+     * @param pageCacheCapacity The maximum number of pages of PropertySegment.PAGE_SIZE each segment caches,
+     * must be positive.
+     * @throws IllegalArgumentException If a capacity is not positive.
+     * @throws java.io.UncheckedIOException If a segment cannot be written.
+     */
+    public void enableTieredStorage(final Path directory, final int hotCapacity, final int pageCacheCapacity)
+    {
+        if(hotCapacity < 1)
+        {
+            throw new IllegalArgumentException("Invalid hot capacity: " + hotCapacity);
+        }
+
+        if(coldTier == null)
+        {
+            Lock lock;
+            lock = locks.writeLock();
+
+            lock.lock();
+            try
+            {
+                coldTier         = new ColdListingStore(directory, pageCacheCapacity);
+                hotOrder         = new LinkedHashMap<>(16, 0.75f, true);
+                this.hotCapacity = hotCapacity;
+
+                for(Property property : Properties)
+                {
+                    hotOrder.put(property.getPropertyId(), Boolean.TRUE);
+                }
+                demoteColdListings();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This method promotes every cold listing back to the heap and deletes the cold segments.
+     */
+    public void disableTieredStorage()
+    {
+        if(coldTier != null)
+        {
+            ColdListingStore cold;
+            List<String>     coldIds;
+            Lock             lock;
+
+            cold    = coldTier;
+            coldIds = new ArrayList<>();
+            lock    = locks.writeLock();
+
+            for(Property property : cold)
+            {
+                coldIds.add(property.getPropertyId());
+            }
+
+            lock.lock();
+            try
+            {
+                for(String propertyId : coldIds)
+                {
+                    promote(propertyId);
+                }
+
+                cold.close();
+                coldTier = null;
+                hotOrder = null;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This method demotes the least recently looked-up listings to the cold tier until at most hotCapacity
+     * listings are on the heap. It does nothing unless tiered storage is enabled.
+     * @return The number of listings demoted.
+     * @throws java.io.UncheckedIOException If the segment cannot be written.
+     */
+    public int demoteColdListings()
+    {
+        List<Property> demoted;
+        Lock           lock;
+
+        demoted = new ArrayList<>();
+        lock    = locks.writeLock();
+
+        // the victims are chosen under the lock, so a listing removed or re-added meanwhile is never demoted
+        lock.lock();
+        try
+        {
+            if(coldTier == null || Properties.size() <= hotCapacity)
+            {
+                return 0;
+            }
+
+            for(String propertyId : hotOrder.keySet())
+            {
+                if(demoted.size() >= Properties.size() - hotCapacity)
+                {
+                    break;
+                }
+                demoted.add(Properties.get(propertyId));
+            }
+
+            // the segment is written first, so a failed write leaves every listing on the heap
+            coldTier.demote(demoted);
+
+            for(Property property : demoted)
+            {
+                Properties.remove(property.getPropertyId());
+                hotOrder.remove(property.getPropertyId());
+                unindexHot(property);
+            }
+            demotions += demoted.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return demoted.size();
+    }
+
+    /**
+     * @return The number of listings on the heap.
+     */
+    public int getHotPropertyCount()
+    {
+        return Properties.size();
+    }
+
+    /**
+     * @return The number of listings in the cold tier, 0 if tiered storage is not enabled.
+     */
+    public int getColdPropertyCount()
+    {
+        return coldTier == null ? 0 : coldTier.size();
+    }
+
+    /**
+     * @return The number of listings promoted from the cold tier to the heap so far.
+     */
+    public long getPromotionCount()
+    {
+        return promotions;
+    }
+
+    /**
+     * @return The number of listings demoted from the heap to the cold tier so far.
+     */
+    public long getDemotionCount()
+    {
+        return demotions;
+    }
+
+    /**
+     * @return The cold tier, with its segments and page cache counts, or null if tiered storage is not enabled.
+     */
+    public ColdListingStore getColdTier()
+    {
+        return coldTier;
+    }
+
+    /**
+     * @return An estimate of the heap the agency retains, by component, see MemoryFootprint. It visits every
+     * listing on the heap, so it costs about as much as a scan.
+     */
+    public MemoryFootprint getMemoryFootprint()
+    {
+        Map<MemoryFootprint.Component, Long> bytes;
+        long listingBytes;
+        long stringBytes;
+        long historyBytes;
+        long duplicateBytes;
+        long sketchBytes;
+
+        bytes          = new EnumMap<>(MemoryFootprint.Component.class);
+        listingBytes   = 0;
+        stringBytes    = 0;
+        historyBytes   = 0;
+        duplicateBytes = MemoryFootprint.hashMap(fingerprints.size()) + MemoryFootprint.hashMap(aliases.size());
+        sketchBytes    = priceSketch.estimateBytes();
+
+        for(Property property : Properties)
+        {
+            listingBytes += property.estimateBytes() + property.getAddress().estimateBytes();
+            stringBytes  += MemoryFootprint.string(property.getPropertyId()) +
+                    property.getAddress().estimateStringBytes();
+            historyBytes += property.getPriceHistory().estimateBytes();
+        }
+
+        for(ArrayList<Property> bucket : fingerprints.values())
+        {
+            duplicateBytes += MemoryFootprint.boxedLong() + MemoryFootprint.arrayList(bucket.size());
+        }
+
+        for(String alias : aliases.keySet())
+        {
+            // the canonical IDs are held by the listings, the aliases only here
+            duplicateBytes += MemoryFootprint.string(alias);
+        }
+
+        if(typeSketches != null)
+        {
+            sketchBytes += estimateSketchBytes(typeSketches) + estimateSketchBytes(citySketches);
+        }
+
+        bytes.put(MemoryFootprint.Component.LISTINGS, listingBytes);
+        bytes.put(MemoryFootprint.Component.STRINGS, stringBytes);
+        bytes.put(MemoryFootprint.Component.PRICE_HISTORIES, historyBytes);
+        bytes.put(MemoryFootprint.Component.ID_MAP, Properties.estimateBytes());
+        bytes.put(MemoryFootprint.Component.COLUMNS, columns.estimateBytes());
+        bytes.put(MemoryFootprint.Component.PLANNER_INDEXES, planner.estimateBytes());
+        bytes.put(MemoryFootprint.Component.TRIGRAM_INDEXES, streetIndex.estimateBytes() + cityIndex.estimateBytes());
+        bytes.put(MemoryFootprint.Component.SPATIAL_INDEX, spatialIndex == null ? 0 : spatialIndex.estimateBytes());
+        bytes.put(MemoryFootprint.Component.COMPARABLES_INDEX, comparables == null ? 0 : comparables.estimateBytes());
+        bytes.put(MemoryFootprint.Component.DUPLICATE_INDEX, duplicateBytes);
+        bytes.put(MemoryFootprint.Component.SKETCHES, sketchBytes);
+        bytes.put(MemoryFootprint.Component.VERSIONS, versions.estimateBytes(frozen -> {
+            Property live;
+            live = Properties.get(frozen.getPropertyId());
+
+            return live != null && live.getAddress() == frozen.getAddress();
+        }));
+        bytes.put(MemoryFootprint.Component.EXPIRIES, expiries.estimateBytes());
+        bytes.put(MemoryFootprint.Component.CHANGE_FEED, changeFeed == null ? 0
+                : changeFeed.estimateBytes(property -> Properties.get(property.getPropertyId()) == property));
+        bytes.put(MemoryFootprint.Component.TIERING, coldTier == null ? 0
+                : MemoryFootprint.linkedHashMap(hotOrder.size()) + coldTier.estimateBytes());
+        bytes.put(MemoryFootprint.Component.PAGE_CACHE, coldTier == null ? 0 : coldTier.estimatePageCacheBytes());
+        return new MemoryFootprint(bytes);
+    }
+
+    /**
+     * This method sets a budget on the estimated heap of the agency and enforces it at once, see
+     * enforceMemoryBudget. It is enforced again after every 1024 additions, or every eighth of the heap
+     * listings if that is more, so the cost of estimating stays small next to the cost of adding.
+     * @param bytes The budget, in bytes, must be positive.
+     * @throws IllegalArgumentException If the budget is not positive.
+     * @throws java.io.UncheckedIOException If listings cannot be written to the cold tier.
+     */
+    public void setMemoryBudget(final long bytes)
+    {
+        if(bytes <= 0)
+        {
+            throw new IllegalArgumentException("Invalid memory budget: " + bytes);
+        }
+
+        memoryBudget = bytes;
+        enforceMemoryBudget();
+    }
+
+    /**
+     * @return The memory budget, in bytes, or 0 if there is none.
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * This method removes the memory budget and rebuilds the optional indexes it dropped. Listings demoted
+     * to the cold tier stay there, and the hot capacity stays as the budget left it.
+     */
+    public void clearMemoryBudget()
+    {
+        memoryBudget = 0;
+
+        if(comparables == null)
+        {
+            comparables = new ComparablesIndex();
+
+            for(Property property : Properties)
+            {
+                comparables.add(property);
+            }
+        }
+
+        if(spatialIndex == null)
+        {
+            spatialIndex = new SpatialIndex();
+
+            for(Property property : Properties)
+            {
+                spatialIndex.add(property);
+            }
+        }
+
+        if(typeSketches == null)
+        {
+            typeSketches = new HashMap<>();
+            citySketches = new HashMap<>();
+
+            for(Property property : listings())
+            {
+                typeSketches.computeIfAbsent(property.getType().toLowerCase(), k -> new QuantileSketch())
+                        .add(property.getPriceUsd());
+                citySketches.computeIfAbsent(property.getAddress().getCity().toLowerCase(), k -> new QuantileSketch())
+                        .add(property.getPriceUsd());
+            }
+        }
+    }
+
+    /**
+     * This method frees heap until the estimated footprint is within the memory budget, giving up the
+     * cheapest to lose first. It clears the page caches of the cold tier; then drops the comparables index,
+     * the spatial index and the price sketches by type and by city, one at a time, whose queries fall back
+     * to scans; and last, if tiered storage is enabled, lowers the hot capacity and demotes the least
+     * recently looked-up listings to the compact cold segments. Query results stay the same throughout.
+     * @return True if the footprint is within the budget, or there is no budget, otherwise false.
+     * @throws java.io.UncheckedIOException If listings cannot be written to the cold tier.
+     */
+    public boolean enforceMemoryBudget()
+    {
+        MemoryFootprint footprint;
+        long            total;
+        long            perListing;
+        long            freed;
+
+        addsSinceBudgetCheck = 0;
+
+        if(memoryBudget == 0)
+        {
+            return true;
+        }
+
+        footprint = getMemoryFootprint();
+        total     = footprint.getTotalBytes();
+
+        if(total > memoryBudget && footprint.getBytes(MemoryFootprint.Component.PAGE_CACHE) > 0)
+        {
+            coldTier.clearPageCaches();
+            total -= footprint.getBytes(MemoryFootprint.Component.PAGE_CACHE);
+        }
+
+        if(total > memoryBudget && comparables != null)
+        {
+            comparables = null;
+            total -= footprint.getBytes(MemoryFootprint.Component.COMPARABLES_INDEX);
+        }
+
+        if(total > memoryBudget && spatialIndex != null)
+        {
+            spatialIndex = null;
+            total -= footprint.getBytes(MemoryFootprint.Component.SPATIAL_INDEX);
+        }
+
+        if(total > memoryBudget && typeSketches != null)
+        {
+            typeSketches = null;
+            citySketches = null;
+            total -= footprint.getBytes(MemoryFootprint.Component.SKETCHES) - priceSketch.estimateBytes();
+        }
+
+        // the cold tier keeps the strings its version copies share, and tables sized for the heap listings only
+        // shrink in steps, so each round re-estimates from what the last demotion actually freed
+        perListing = 0;
+
+        for(int round = 0; round < MAX_SPILL_ROUNDS && total > memoryBudget && coldTier != null &&
+                Properties.size() > 1; round++)
+        {
+            int demoted;
+
+            footprint   = getMemoryFootprint();
+            total       = footprint.getTotalBytes();
+            perListing  = perListing > 0 ? perListing : Math.max(1, estimateHotBytes(footprint) / Properties.size());
+            hotCapacity = (int) Math.max(1, Properties.size() - Math.max(1, (total - memoryBudget + perListing - 1)
+                    / perListing));
+
+            demoted    = demoteColdListings();
+            freed      = total - getMemoryFootprint().getTotalBytes();
+            total     -= freed;
+            perListing = demoted > 0 && freed > 0 ? Math.max(1, freed / demoted) : 0;
+        }
+        return total <= memoryBudget;
+    }
+
+    /**
+     * @return The estimated bytes of the components that grow with the number of heap listings.
+     */
+    private static long estimateHotBytes(final MemoryFootprint footprint)
+    {
+        long bytes;
+        bytes = 0;
+
+        for(MemoryFootprint.Component component : HOT_COMPONENTS)
+        {
+            bytes += footprint.getBytes(component);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The estimated bytes of the sketches and their keys.
+     */
+    private static long estimateSketchBytes(final Map<String, QuantileSketch> sketches)
+    {
+        long bytes;
+        bytes = MemoryFootprint.hashMap(sketches.size());
+
+        for(Map.Entry<String, QuantileSketch> entry : sketches.entrySet())
+        {
+            bytes += MemoryFootprint.string(entry.getKey()) + entry.getValue().estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * This method removes the property whose ID matches the parameter, from the map Properties.
+     * @param propertyId The property ID to be removed.
+     */
+    public void removeProperty(final String propertyId)
+    {
+        Property removed;
+        Lock     lock;
+        long     startNanos;
+
+        startNanos = startCall();
+        lock       = locks.writeLock();
+
+        lock.lock();
+        try
+        {
+            promote(propertyId);
+            removed = Properties.remove(propertyId);
+
+            if(removed != null)
+            {
+                unindex(removed);
+                publish(ChangeEvent.Type.REMOVE, removed, removed.getPriceUsd(), Double.NaN);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        endCall(WorkloadRecorder.Call.REMOVE_PROPERTY, startNanos, propertyId);
+    }
+
+    /**
+     * This method sets the price of the property whose ID matches the parameter. The property is looked up
+     * under the write lock and re-priced after it is released, through Property.setPriceUsd.
+     * @param propertyId The ID of the property to be re-priced.
+     * @param priceInUsd The new price, in USD, finite and not negative.
+     * @throws IllegalArgumentException If the price is not valid.
+     * @throws IllegalStateException If the caller holds a lock of an agency holding the property, see
+     * Property.setPriceUsd.
+     */
+    public void setPropertyPrice(final String propertyId, final double priceInUsd)
+    {
+        Property property;
+        Lock     lock;
+        long     startNanos;
+
+        if(!Property.isValidPrice(priceInUsd))
+        {
+            throw new IllegalArgumentException("Invalid price: " + priceInUsd);
+        }
+
+        startNanos = startCall();
+        lock       = locks.writeLock();
+
+        lock.lock();
+        try
+        {
+            property = lookUp(propertyId);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if(property != null)
+        {
+            property.setPriceUsd(priceInUsd);
+        }
+        endCall(WorkloadRecorder.Call.SET_PROPERTY_PRICE, startNanos, propertyId, priceInUsd);
+    }
+
+    /**
+     * This method is called by Property.setPriceUsd for every property held by the agency before it changes
+     * the price, so the version store can keep the listing as it was, see VersionStore.preserve.
+     * @param property The property about to be re-priced.
+     */
+    void priceChanging(final Property property)
+    {
+        versions.preserve(property);
+    }
+
+    /**
+     * This method is called by Property.setPriceUsd for every property held by the agency, and brings the
+     * price column and the change feed up to date.
+     * @param property The re-priced property.
+     * @param oldPriceInUsd The price before the change, in USD.
+     */
+    void priceChanged(final Property property, final double oldPriceInUsd)
+    {
+        columns.updatePrice(property);
+        planner.priceChanged(property, oldPriceInUsd);
+        sketch(property, oldPriceInUsd, false);
+        sketch(property, property.getPriceUsd(), true);
+        versions.put(property);
+
+        if(comparables != null)
+        {
+            comparables.priceChanged(property);
+        }
+        publish(ChangeEvent.Type.PRICE_CHANGE, property, oldPriceInUsd, property.getPriceUsd());
+    }
+
+    /**
+     * This method starts recording every add, remove and price change to a change feed.
+     * Calling it again keeps the existing feed.
+     * @param capacity The number of events the feed retains, must be a power of two.
+     * @return The change feed of the agency.
+     * @throws IllegalArgumentException If the capacity is not a power of two.
+     */
+    public ChangeFeed enableChangeFeed(final int capacity)
+    {
+        if(changeFeed == null)
+        {
+            changeFeed = new ChangeFeed(capacity);
+        }
+        return changeFeed;
+    }
+
+    /**
+     * @return The change feed of the agency, or null if it was never enabled.
+     */
+    public ChangeFeed getChangeFeed()
+    {
+        return changeFeed;
+    }
+
+    /**
+     * This method records a change on the change feed, if it is enabled.
+     */
+    private void publish(final ChangeEvent.Type type, final Property property,
+                         final double oldPriceInUsd, final double newPriceInUsd)
+    {
+        if(changeFeed != null)
+        {
+            changeFeed.publish(type, property, oldPriceInUsd, newPriceInUsd);
+        }
+    }
+
+    /**
+     * @return The version of the agency: the number of adds, removes and price changes so far.
+     */
+    public long getVersion()
+    {
+        return versions.getVersion();
+    }
+
+    /**
+     * This method pins the current version. The agency keeps no copies while no snapshot is open and no
+     * history is retained, so a snapshot taken then copies the listings first, see copyVersionBase; writers
+     * wait for one batch of copies at a time, never for the whole pass.
+     * @return A snapshot of the agency at its current version, which must be closed when done.
+     */
+    public AgencySnapshot snapshot()
+    {
+        long pinned;
+        pinned = versions.tryPin();
+
+        if(pinned == VersionStore.UNTRACKED)
+        {
+            Lock lock;
+            lock = locks.writeLock();
+
+            lock.lock();
+            try
+            {
+                trackVersions();
+                pinned = versions.pin();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        copyVersionBase();
+        return new AgencySnapshot(name, versions, pinned, columns.getRates());
+    }
+
+    /**
+     * @param epochMillis The time, in epoch milliseconds, such as last Tuesday at noon.
+     * @return A snapshot of the agency as it was at that time, which must be closed when done.
+     * @throws IllegalStateException If the time is older than the history retained, see retainHistory.
+     */
+    public AgencySnapshot snapshotAsOf(final long epochMillis)
+    {
+        long pinned;
+        pinned = versions.tryPinAsOf(epochMillis);
+
+        if(pinned == VersionStore.UNTRACKED)
+        {
+            Lock lock;
+            lock = locks.writeLock();
+
+            lock.lock();
+            try
+            {
+                trackVersions();
+                pinned = versions.pinAsOf(epochMillis);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        copyVersionBase();
+        return new AgencySnapshot(name, versions, pinned, columns.getRates());
+    }
+
+    /**
+     * This method keeps superseded versions for the period so that snapshotAsOf can read them. Without it
+     * a superseded version is freed as soon as no snapshot pins it, and no copies are kept at all while no
+     * snapshot is open.
+     * @param retentionMillis How long history is kept, in milliseconds, not negative.
+     * @throws IllegalArgumentException If the retention is negative.
+     */
+    public void retainHistory(final long retentionMillis)
+    {
+        Lock lock;
+
+        if(retentionMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid retention: " + retentionMillis);
+        }
+
+        lock = locks.writeLock();
+
+        lock.lock();
+        try
+        {
+            versions.setRetention(retentionMillis);
+
+            if(retentionMillis > 0)
+            {
+                trackVersions();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        copyVersionBase();
+    }
+
+    /**
+     * This method starts keeping copies of the listings if none are kept, taking no copies yet: it freezes
+     * the heap listings and retains the cold segments as they are now, the base that copyVersionBase copies
+     * from. The caller holds the write lock.
+     */
+    private void trackVersions()
+    {
+        if(versions.track())
+        {
+            Iterator<Property> hot;
+
+            releaseVersionBase();
+            hot             = Properties.frozenIterator();
+            versionBaseCold = coldTier;
+
+            if(versionBaseCold == null)
+            {
+                versionBase = hot;
+            }
+            else
+            {
+                Iterator<Property> cold;
+                cold        = versionBaseCold.retain();
+                versionBase = new Iterator<Property>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return hot.hasNext() || cold.hasNext();
+                    }
+
+                    @Override
+                    public Property next()
+                    {
+                        return hot.hasNext() ? hot.next() : cold.next();
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * This method copies the base listings into the version store, VERSION_BASE_BATCH at a time under the
+     * write lock, until every one is copied, so writers wait for one batch, not for the whole pass. A writer
+     * preserves a listing before it changes it, so a listing copied in a later batch is still as it was at the
+     * base. Every caller about to read a pinned version runs it, as the base may still be copied by another.
+     */
+    private void copyVersionBase()
+    {
+        Lock lock;
+        lock = locks.writeLock();
+
+        while(versions.isBasePending())
+        {
+            lock.lock();
+            try
+            {
+                for(int i = 0; i < VERSION_BASE_BATCH && versionBase != null && versionBase.hasNext(); i++)
+                {
+                    versions.preserve(versionBase.next());
+                }
+
+                if(versionBase == null || !versionBase.hasNext())
+                {
+                    releaseVersionBase();
+                    versions.finishBase();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This method drops the iterator over the base and releases the cold segments it reads; the caller holds
+     * the write lock.
+     */
+    private void releaseVersionBase()
+    {
+        if(versionBaseCold != null)
+        {
+            versionBaseCold.release();
+        }
+        versionBase     = null;
+        versionBaseCold = null;
+    }
+
+    /**
+     * This method adds the property to the secondary indexes.
+     * @param property The property to be indexed.
+     */
+    private void index(final Property property)
+    {
+        indexHot(property);
+        streetIndex.add(property.getAddress().getStreetName(), property.getPropertyId());
+        cityIndex.add(property.getAddress().getCity(), property.getPropertyId());
+        sketch(property, property.getPriceUsd(), true);
+        versions.put(property);
+        aliases.remove(property.getPropertyId());
+    }
+
+    /**
+     * This method adds the property to the indexes that hold heap listings only. The trigram indexes,
+     * sketches and versions also cover the cold tier, so they are left alone on demotion and promotion.
+     */
+    private void indexHot(final Property property)
+    {
+        property.attach(this);
+        columns.add(property);
+        planner.add(property);
+
+        if(spatialIndex != null)
+        {
+            spatialIndex.add(property);
+        }
+
+        if(comparables != null)
+        {
+            comparables.add(property);
+        }
+        fingerprints.computeIfAbsent(property.getAddress().getFingerprint(), k -> new ArrayList<>()).add(property);
+
+        if(hotOrder != null)
+        {
+            hotOrder.put(property.getPropertyId(), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * This method removes the property from the secondary indexes.
+     * @param property The property to be unindexed.
+     */
+    private void unindex(final Property property)
+    {
+        unindexHot(property);
+        streetIndex.remove(property.getAddress().getStreetName(), property.getPropertyId());
+        cityIndex.remove(property.getAddress().getCity(), property.getPropertyId());
+        sketch(property, property.getPriceUsd(), false);
+        versions.remove(property);
+        expiries.cancel(property.getPropertyId());
+
+        if(hotOrder != null)
+        {
+            hotOrder.remove(property.getPropertyId());
+        }
+    }
+
+    /**
+     * This method removes the property from the indexes that hold heap listings only.
+     */
+    private void unindexHot(final Property property)
+    {
+        property.detach(this);
+        columns.remove(property);
+        planner.remove(property);
+
+        if(spatialIndex != null)
+        {
+            spatialIndex.remove(property);
+        }
+
+        if(comparables != null)
+        {
+            comparables.remove(property);
+        }
+        unfingerprint(property);
+    }
+
+    /**
+     * This method moves the cold listing with the ID back to the heap, if there is one.
+     */
+    private void promote(final String propertyId)
+    {
+        Property property;
+
+        if(coldTier == null || Properties.get(propertyId) != null)
+        {
+            return;
+        }
+
+        property = coldTier.remove(propertyId);
+
+        if(property != null)
+        {
+            // a cold listing of a version base still being copied is read from a retained segment, which
+            // no longer returns it once it is removed from the tier
+            versions.preserve(property);
+            Properties.put(property);
+            indexHot(property);
+            promotions++;
+        }
+    }
+
+    /**
+     * @return The listing with the ID from either tier, without promoting a cold one, or null if there is none.
+     */
+    private Property peek(final String propertyId)
+    {
+        Property property;
+        property = Properties.get(propertyId);
+
+        if(property == null && coldTier != null)
+        {
+            property = coldTier.get(propertyId);
+        }
+        return property;
+    }
+
+    /**
+     * @return The heap and cold listings; the cold ones are streamed from disk as copies.
+     */
+    private Iterable<Property> listings()
+    {
+        if(coldTier == null)
+        {
+            return Properties;
+        }
+
+        return () -> new Iterator<Property>()
+        {
+            private Iterator<Property> current = Properties.iterator();
+            private boolean            inCold;
+
+            @Override
+            public boolean hasNext()
+            {
+                if(!current.hasNext() && !inCold)
+                {
+                    current = coldTier.iterator();
+                    inCold  = true;
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Property next()
+            {
+                if(!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * This method adds the cold listings that pass the filter to the results of an index-driven query.
+     */
+    private void addCold(final Collection<Property> results, final Predicate<Property> filter)
+    {
+        if(coldTier != null)
+        {
+            for(Property property : coldTier)
+            {
+                if(filter.test(property))
+                {
+                    results.add(property);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method adds the listings an index-driven query does not see to its results: the cold listings,
+     * and the heap listings too if the index is dropped to stay within the memory budget.
+     */
+    private void addUnindexed(final Collection<Property> results, final boolean indexed,
+                              final Predicate<Property> filter)
+    {
+        if(!indexed)
+        {
+            for(Property property : Properties)
+            {
+                if(filter.test(property))
+                {
+                    results.add(property);
+                }
+            }
+        }
+        addCold(results, filter);
+    }
+
+    /**
+     * This method removes the property from the fingerprint index.
+     */
+    private void unfingerprint(final Property property)
+    {
+        ArrayList<Property> bucket;
+        bucket = fingerprints.get(property.getAddress().getFingerprint());
+
+        if(bucket != null)
+        {
+            bucket.removeIf(candidate -> candidate == property);
+
+            if(bucket.isEmpty())
+            {
+                fingerprints.remove(property.getAddress().getFingerprint());
+            }
+        }
+    }
+
+    /**
+     * @return The listing added first at the address of the property under another ID, or null if there is none.
+     */
+    private Property findDuplicate(final Property property)
+    {
+        ArrayList<Property> bucket;
+        bucket = fingerprints.get(property.getAddress().getFingerprint());
+
+        if(bucket != null)
+        {
+            for(Property candidate : bucket)
+            {
+                if(candidate.getAddress().equals(property.getAddress()))
+                {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method counts or uncounts the price in the agency, type and city quantile sketches; the type and
+     * city sketches are skipped while they are dropped to stay within the memory budget.
+     */
+    private void sketch(final Property property, final double priceInUsd, final boolean added)
+    {
+        QuantileSketch[] sketches;
+
+        if(typeSketches == null)
+        {
+            sketches = new QuantileSketch[]{priceSketch};
+        }
+        else
+        {
+            sketches = new QuantileSketch[]{
+                    priceSketch,
+                    typeSketches.computeIfAbsent(property.getType().toLowerCase(), k -> new QuantileSketch()),
+                    citySketches.computeIfAbsent(property.getAddress().getCity().toLowerCase(),
+                            k -> new QuantileSketch())
+            };
+        }
+
+        for(QuantileSketch sketch : sketches)
+        {
+            if(added)
+            {
+                sketch.add(priceInUsd);
+            }
+            else
+            {
+                sketch.remove(priceInUsd);
+            }
+        }
+    }
+
+    /**
+     * With tiered storage enabled this method promotes a cold listing and marks the listing most recently
+     * used, so it changes the agency and must be serialized with other calls like addProperty.
+     * @param propertyId The property ID to be matched.
+     * @return The property whose ID matches the parameter from the map, or null if there is no match.
+     */
+    public Property getProperty(final String propertyId)
+    {
+        Property property;
+        long     startNanos;
+
+        startNanos = startCall();
+        property   = lookUp(propertyId);
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTY, startNanos, propertyId);
+        return property;
+    }
+
+    /**
+     * This method is the body of getProperty, which is recorded once for every call.
+     * @param propertyId The property ID to be matched.
+     * @return The property whose ID matches the parameter, or null if there is no match.
+     */
+    private Property lookUp(final String propertyId)
+    {
+        if(coldTier != null)
+        {
+            Lock lock;
+            lock = locks.writeLock();
+
+            lock.lock();
+            try
+            {
+                promote(propertyId);
+
+                // a lookup makes the listing the most recently used
+                hotOrder.get(propertyId);
+                return Properties.get(propertyId);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        return Properties.get(propertyId);
+    }
+
+    /**
+     * @return The total amount in USD of all Properties.
+     */
+    public double getTotalPropertyValues()
+    {
+        double totalPropertyValues;
+        long   startNanos;
+
+        startNanos          = startCall();
+        totalPropertyValues = 0;
+
+        for(Property property : listings())
+        {
+            totalPropertyValues += property.getPriceUsd();
+        }
+
+        endCall(WorkloadRecorder.Call.GET_TOTAL_PROPERTY_VALUES, startNanos, null);
+        return totalPropertyValues;
+    }
+
+    /**
+     * @param currency The currency of the total, a code of the FX rate table, see setFxRates.
+     * @return The total amount of all Properties in the currency, summed over its precomputed price column.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double getTotalPropertyValues(final String currency)
+    {
+        FxRateTable rates;
+        double      totalPropertyValues;
+        long        startNanos;
+
+        startNanos          = startCall();
+        rates               = columns.getRates();
+        totalPropertyValues = columns.total(currency);
+
+        if(coldTier != null)
+        {
+            for(Property property : coldTier)
+            {
+                totalPropertyValues += rates.convert(property.getPriceUsd(), currency);
+            }
+        }
+
+        endCall(WorkloadRecorder.Call.GET_TOTAL_PROPERTY_VALUES_IN, startNanos, currency);
+        return totalPropertyValues;
+    }
+
+    /**
+     * @return The number of properties in the agency.
+     */
+    public int getPropertyCount()
+    {
+        return Properties.size() + getColdPropertyCount();
+    }
+
+    /**
+     * This method performs the action for every property, in no particular order. The agency must not be
+     * changed while the action runs.
+     * @param action The action to be performed.
+     */
+    public void forEachProperty(final Consumer<Property> action)
+    {
+        for(Property property : listings())
+        {
+            action.accept(property);
+        }
+    }
+
+    /**
+     * @param filter The filter the properties must pass, such as PropertyFilters.priceBetween.
+     * @return An ArrayList of the properties that pass the filter, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Predicate<Property> filter)
+    {
+        return getPropertiesMatching(filter, QueryContext.create());
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @param context The cancellation token and deadline of the scan.
+     * @return An ArrayList of the properties that pass the filter, or null if there are none.
+     * @throws java.util.concurrent.CancellationException If the scan is cancelled or runs past its deadline.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Predicate<Property> filter, final QueryContext context)
+    {
+        return matching(listings(), filter, context);
+    }
+
+    /**
+     * @param listings The listings to be scanned, such as those of an AgencySnapshot.
+     * @param filter The filter the properties must pass.
+     * @param context The cancellation token and deadline of the scan.
+     * @return The properties of getPropertiesMatching.
+     */
+    static ArrayList<Property> matching(final Iterable<Property> listings, final Predicate<Property> filter,
+                                        final QueryContext context)
+    {
+        ArrayList<Property> propertiesMatching;
+        propertiesMatching = new ArrayList<>();
+
+        for(Property property : listings)
+        {
+            context.tick();
+
+            if(filter.test(property))
+            {
+                propertiesMatching.add(property);
+            }
+        }
+
+        if(propertiesMatching.size() == 0)
+        {
+            return null;
+        }
+        return propertiesMatching;
+    }
+
+    /**
+     * @param filter The filter the properties must pass, such as PropertyFilters.ofType.
+     * @return The count, total, minimum, maximum and average price of the properties that pass the filter.
+     */
+    public PriceStatistics getPriceStatistics(final Predicate<Property> filter)
+    {
+        return statisticsOf(listings(), filter);
+    }
+
+    /**
+     * @param listings The listings to be scanned.
+     * @param filter The filter the properties must pass.
+     * @return The price statistics of getPriceStatistics.
+     */
+    static PriceStatistics statisticsOf(final Iterable<Property> listings, final Predicate<Property> filter)
+    {
+        PriceStatistics statistics;
+        statistics = new PriceStatistics();
+
+        for(Property property : listings)
+        {
+            if(filter.test(property))
+            {
+                statistics.add(property.getPriceUsd());
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @param q The quantile, from 0 to 1, such as 0.5 for the median or 0.9 for p90.
+     * @param filter The filter the properties must pass. PropertyFilters.all, ofType and inCity are answered
+     * from the maintained sketches, see getPriceSketch; any other filter scans the listings.
+     * @return The price at the quantile of the matching properties, within 1% of the true price,
+     * or NaN if there are none.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double getPriceQuantile(final double q, final Predicate<Property> filter)
+    {
+        return getPriceSketch(filter).quantile(q);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return A quantile sketch of the prices of the matching properties. For PropertyFilters.all, ofType and
+     * inCity it is a copy of the sketch the agency maintains, as getPriceSketch, getPriceSketchOfType and
+     * getPriceSketchIn return; for any other filter it is built in one pass without sorting.
+     */
+    public QuantileSketch getPriceSketch(final Predicate<Property> filter)
+    {
+        if(PropertyFilters.isAll(filter))
+        {
+            return getPriceSketch();
+        }
+
+        if(filter instanceof PropertyFilters.TypeFilter &&
+                ((PropertyFilters.TypeFilter) filter).getPropertyType() != null)
+        {
+            return getPriceSketchOfType(((PropertyFilters.TypeFilter) filter).getPropertyType());
+        }
+
+        if(filter instanceof PropertyFilters.CityFilter &&
+                ((PropertyFilters.CityFilter) filter).getCityName() != null)
+        {
+            return getPriceSketchIn(((PropertyFilters.CityFilter) filter).getCityName());
+        }
+        return sketchOf(listings(), filter);
+    }
+
+    /**
+     * @param listings The listings to be scanned.
+     * @param filter The filter the properties must pass.
+     * @return The quantile sketch of getPriceSketch.
+     */
+    static QuantileSketch sketchOf(final Iterable<Property> listings, final Predicate<Property> filter)
+    {
+        QuantileSketch sketch;
+        sketch = new QuantileSketch();
+
+        for(Property property : listings)
+        {
+            if(filter.test(property))
+            {
+                sketch.add(property.getPriceUsd());
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * @return A copy of the quantile sketch of every price, kept up to date on add, remove and price change.
+     */
+    public QuantileSketch getPriceSketch()
+    {
+        return priceSketch.copy();
+    }
+
+    /**
+     * @param propertyType The property type, case-insensitive.
+     * @return A copy of the maintained quantile sketch of the prices of that type, empty if there are none.
+     * While the sketches by type are dropped to stay within the memory budget, it is built by a scan.
+     */
+    public QuantileSketch getPriceSketchOfType(final String propertyType)
+    {
+        if(typeSketches == null)
+        {
+            return sketchOf(listings(), PropertyFilters.ofType(propertyType));
+        }
+        return copyOf(typeSketches.get(propertyType.toLowerCase()));
+    }
+
+    /**
+     * @param city The city, case-insensitive.
+     * @return A copy of the maintained quantile sketch of the prices in that city, empty if there are none.
+     * While the sketches by city are dropped to stay within the memory budget, it is built by a scan.
+     */
+    public QuantileSketch getPriceSketchIn(final String city)
+    {
+        if(citySketches == null)
+        {
+            return sketchOf(listings(), PropertyFilters.inCity(city));
+        }
+        return copyOf(citySketches.get(city.toLowerCase()));
+    }
+
+    private static QuantileSketch copyOf(final QuantileSketch sketch)
+    {
+        if(sketch == null)
+        {
+            return new QuantileSketch();
+        }
+        return sketch.copy();
+    }
+
+    /**
+     * @param property The property to be valued, which need not belong to the agency, cannot be null.
+     * @param k The number of comparables to return.
+     * @return An ArrayList of up to k other properties most similar in price, bedrooms, type, pool and
+     * location, most similar first, see ComparablesIndex. While the index is dropped to stay within the
+     * memory budget, every listing is compared.
+     */
+    public ArrayList<Property> findComparables(final Property property, final int k)
+    {
+        ArrayList<Property> nearest;
+        long                startNanos;
+
+        if(property == null)
+        {
+            throw new NullPointerException("Invalid property: null");
+        }
+
+        startNanos = startCall();
+        nearest    = comparables == null ? new ArrayList<>() : comparables.nearest(property, k);
+
+        if((coldTier != null || comparables == null) && k > 0)
+        {
+            addUnindexed(nearest, comparables != null, comparableTo(property));
+            keepNearest(nearest, property, k);
+        }
+
+        endCall(WorkloadRecorder.Call.FIND_COMPARABLES, startNanos, property, k);
+        return nearest;
+    }
+
+    /**
+     * @param property The property to be valued.
+     * @return A filter passing every other listing than the property, the candidates of findComparables.
+     */
+    static Predicate<Property> comparableTo(final Property property)
+    {
+        return candidate -> candidate != property && !candidate.getPropertyId().equals(property.getPropertyId());
+    }
+
+    /**
+     * This method sorts the candidates most similar to the property first and keeps the first k.
+     * @param candidates The candidates, see ComparablesIndex.distance.
+     * @param property The property to be valued.
+     * @param k The number of comparables to keep.
+     */
+    static void keepNearest(final List<Property> candidates, final Property property, final int k)
+    {
+        candidates.sort(Comparator.comparingDouble(candidate -> ComparablesIndex.distance(property, candidate)));
+
+        if(candidates.size() > k)
+        {
+            candidates.subList(Math.max(0, k), candidates.size()).clear();
+        }
+    }
+
+    /**
+     * @param sinceEpochMillis The start of the period, such as 30 days ago, in epoch milliseconds.
+     * @param k The number of properties to return.
+     * @return An ArrayList of up to k properties whose price fell during the period, largest drop in USD
+     * first. A property listed during the period is measured from its first price.
+     */
+    public ArrayList<Property> getLargestPriceDrops(final long sinceEpochMillis, final int k)
+    {
+        ArrayList<Property> largestDrops;
+        long                startNanos;
+
+        startNanos   = startCall();
+        largestDrops = largestDrops(listings(), sinceEpochMillis, k);
+
+        endCall(WorkloadRecorder.Call.GET_LARGEST_PRICE_DROPS, startNanos, null, sinceEpochMillis, k);
+        return largestDrops;
+    }
+
+    /**
+     * @param listings The listings to be scanned.
+     * @param sinceEpochMillis The start of the period, in epoch milliseconds.
+     * @param k The number of properties to return.
+     * @return The properties of getLargestPriceDrops.
+     */
+    static ArrayList<Property> largestDrops(final Iterable<Property> listings, final long sinceEpochMillis,
+                                            final int k)
+    {
+        Map<Property, Double> drops;
+        ArrayList<Property>   largestDrops;
+
+        drops        = new IdentityHashMap<>();
+        largestDrops = new ArrayList<>();
+
+        for(Property property : listings)
+        {
+            double drop;
+            drop = property.getPriceHistory().dropSince(sinceEpochMillis);
+
+            if(drop > 0)
+            {
+                drops.put(property, drop);
+                largestDrops.add(property);
+            }
+        }
+
+        largestDrops.sort(Comparator.comparingDouble(drops::get).reversed());
+
+        if(largestDrops.size() > k)
+        {
+            largestDrops.subList(Math.max(0, k), largestDrops.size()).clear();
+        }
+        return largestDrops;
+    }
+
+    /**
+     * @param fraction The minimum reduction, as a fraction of the price at the start, such as 0.1 for 10%.
+     * @param sinceEpochMillis The start of the period, in epoch milliseconds.
+     * @return An ArrayList of the properties whose price was reduced by at least the fraction during the period,
+     * or null if there are none.
+     * @throws IllegalArgumentException If the fraction is not between 0 exclusive and 1 inclusive.
+     */
+    public ArrayList<Property> getPropertiesReducedBy(final double fraction, final long sinceEpochMillis)
+    {
+        return getPropertiesMatching(reducedBy(fraction, sinceEpochMillis));
+    }
+
+    /**
+     * @param fraction The minimum reduction, as a fraction of the price at the start.
+     * @param sinceEpochMillis The start of the period, in epoch milliseconds.
+     * @return The filter of getPropertiesReducedBy.
+     * @throws IllegalArgumentException If the fraction is not between 0 exclusive and 1 inclusive.
+     */
+    static Predicate<Property> reducedBy(final double fraction, final long sinceEpochMillis)
+    {
+        if(!(fraction > 0 && fraction <= 1))
+        {
+            throw new IllegalArgumentException("Invalid fraction: " + fraction);
+        }
+
+        return property -> {
+            PriceHistory history;
+            double       start;
+
+            history = property.getPriceHistory();
+            start   = history.priceSince(sinceEpochMillis);
+
+            return start > 0 && history.dropSince(sinceEpochMillis) >= start * fraction;
+        };
+    }
+
+    /**
+     * @param dimensions The dimensions to group by, such as CITY or TYPE and BEDROOMS.
+     * @return The count, sum, minimum, maximum and average price of every group, from one pass over the listings.
+     */
+    public GroupAggregation aggregate(final GroupAggregation.Dimension... dimensions)
+    {
+        return aggregate(PropertyFilters.all(), dimensions);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group of the matching properties.
+     */
+    public GroupAggregation aggregate(final Predicate<Property> filter, final GroupAggregation.Dimension... dimensions)
+    {
+        return aggregateOf(listings(), filter, dimensions);
+    }
+
+    /**
+     * @param listings The listings to be scanned.
+     * @param filter The filter the properties must pass.
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group, as aggregate returns them.
+     */
+    static GroupAggregation aggregateOf(final Iterable<Property> listings, final Predicate<Property> filter,
+                                        final GroupAggregation.Dimension... dimensions)
+    {
+        GroupAggregation aggregation;
+        aggregation = new GroupAggregation(dimensions);
+
+        for(Property property : listings)
+        {
+            if(filter.test(property))
+            {
+                aggregation.add(property);
+            }
+        }
+        return aggregation;
+    }
+
+    /**
+     * This method splits the listings into one slice per worker of the common fork/join pool, aggregates
+     * each slice separately and merges the partial aggregations. The agency must not be changed meanwhile.
+     * @param parallelism The number of slices, must be positive.
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group, equal to aggregate.
+     * @throws IllegalArgumentException If the parallelism is not positive.
+     */
+    public GroupAggregation aggregateParallel(final int parallelism, final GroupAggregation.Dimension... dimensions)
+    {
+        List<CompletableFuture<GroupAggregation>> partials;
+        GroupAggregation                          aggregation;
+        int                                       rows;
+        int                                       sliceSize;
+
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+
+        aggregation = new GroupAggregation(dimensions);
+        partials    = new ArrayList<>();
+        rows        = columns.size();
+        sliceSize   = Math.max(1, (rows + parallelism - 1) / parallelism);
+
+        for(int start = 0; start < rows; start += sliceSize)
+        {
+            final int from = start;
+            final int to   = Math.min(rows, start + sliceSize);
+
+            partials.add(CompletableFuture.supplyAsync(() -> {
+                GroupAggregation partial;
+                partial = new GroupAggregation(dimensions);
+
+                for(int i = from; i < to; i++)
+                {
+                    partial.add(columns.get(i));
+                }
+                return partial;
+            }));
+        }
+
+        for(CompletableFuture<GroupAggregation> partial : partials)
+        {
+            aggregation.merge(partial.join());
+        }
+
+        if(coldTier != null)
+        {
+            GroupAggregation cold;
+            cold = new GroupAggregation(dimensions);
+
+            for(Property property : coldTier)
+            {
+                cold.add(property);
+            }
+            aggregation.merge(cold);
+        }
+        return aggregation;
+    }
+
+    /**
+     * @return An ArrayList of the properties with the swimming pool, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesWithPools()
+    {
+        ArrayList<Property> propertiesWithPools;
+        long                startNanos;
+
+        startNanos          = startCall();
+        propertiesWithPools = new ArrayList<>();
+
+        for(Property property : listings())
+        {
+            if(property.hasSwimmingPool())
+            {
+                propertiesWithPools.add(property);
+            }
+        }
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_WITH_POOLS, startNanos, null);
+
+        if(propertiesWithPools.size() == 0)
+        {
+            return null;
+        }
+        return propertiesWithPools;
+    }
+
+    /**
+     * @param minUsd The minimum price of the property, in USD.
+     * @param maxUsd The maximum price of the property, in USD.
+     * @return An array of properties whose price falls in the range specified by the parameters, or null if there are none.
+     */
+    public Property[] getPropertiesBetween(final double minUsd, final double maxUsd)
+    {
+        Property[] propertiesBetween;
+        long       startNanos;
+
+        startNanos = startCall();
+
+        // evaluated over the packed price column, see PropertyColumns and RangeFilterKernel
+        propertiesBetween = columns.select(columns.priceMask(minUsd, maxUsd));
+
+        if(coldTier != null)
+        {
+            ArrayList<Property> matches;
+            matches = new ArrayList<>(List.of(propertiesBetween));
+
+            addCold(matches, property -> property.getPriceUsd() >= minUsd && property.getPriceUsd() <= maxUsd);
+            propertiesBetween = matches.toArray(new Property[0]);
+        }
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_BETWEEN, startNanos, null, minUsd, maxUsd);
+
+        if(propertiesBetween.length == 0)
+        {
+            return null;
+        }
+        return propertiesBetween;
+    }
+
+    /**
+     * @param min The minimum price of the property, in the currency.
+     * @param max The maximum price of the property, in the currency.
+     * @param currency The currency of the range, a code of the FX rate table, see setFxRates.
+     * @return An array of properties whose price in the currency falls in the range, or null if there are none.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public Property[] getPropertiesBetween(final double min, final double max, final String currency)
+    {
+        Property[]  propertiesBetween;
+        FxRateTable rates;
+        long        startNanos;
+
+        startNanos = startCall();
+        rates      = columns.getRates();
+
+        // evaluated over the precomputed price column of the currency, as the USD range is
+        propertiesBetween = columns.select(columns.priceMask(currency, min, max));
+
+        if(coldTier != null)
+        {
+            ArrayList<Property> matches;
+            matches = new ArrayList<>(List.of(propertiesBetween));
+
+            addCold(matches, property -> {
+                double price;
+                price = rates.convert(property.getPriceUsd(), currency);
+
+                return price >= min && price <= max;
+            });
+            propertiesBetween = matches.toArray(new Property[0]);
+        }
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_BETWEEN_IN, startNanos, currency, min, max);
+
+        if(propertiesBetween.length == 0)
+        {
+            return null;
+        }
+        return propertiesBetween;
+    }
+
+    /**
+     * @param k The number of properties to return.
+     * @param currency The currency the properties are ranked in, a code of the FX rate table, see setFxRates.
+     * @return An ArrayList of up to k properties with the highest prices in the currency, most expensive first.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public ArrayList<Property> getMostExpensive(final int k, final String currency)
+    {
+        ArrayList<Property> mostExpensive;
+        long                startNanos;
+
+        startNanos    = startCall();
+        mostExpensive = new ArrayList<>();
+
+        for(int ordinal : columns.top(k, currency))
+        {
+            mostExpensive.add(columns.get(ordinal));
+        }
+
+        if(coldTier != null && k > 0)
+        {
+            // the top k of the heap and the cold listings go through a min-heap of k, never a full sort
+            mostExpensive = mostExpensive(List.of(mostExpensive, coldTier), k);
+        }
+
+        endCall(WorkloadRecorder.Call.GET_MOST_EXPENSIVE, startNanos, currency, k);
+        return mostExpensive;
+    }
+
+    /**
+     * @param listings The listings to be ranked.
+     * @param k The number of properties to return.
+     * @return An ArrayList of up to k of the listings with the highest prices, most expensive first. They are
+     * kept in a min-heap of k on price, so the listings are never sorted as a whole; a converted price is the
+     * USD price times a positive rate, so the order holds in every currency.
+     */
+    static ArrayList<Property> mostExpensive(final Iterable<Property> listings, final int k)
     {
-        Properties = new HashMap<>();
+        return mostExpensive(List.of(listings), k);
+    }
 
-        if(name.length() < VALID_MIN_NAME_LENGTH || name.length() > VALID_MAX_NAME_LENGTH)
+    /**
+     * @param sources The sources of the listings to be ranked, in turn.
+     * @param k The number of properties to return.
+     * @return An ArrayList of up to k of the listings of every source with the highest prices, most expensive
+     * first.
+     */
+    private static ArrayList<Property> mostExpensive(final List<Iterable<Property>> sources, final int k)
+    {
+        PriorityQueue<Property> top;
+        ArrayList<Property>     mostExpensive;
+
+        top = new PriorityQueue<>(Comparator.comparingDouble(Property::getPriceUsd));
+
+        for(Iterable<Property> listings : sources)
         {
-            throw new IllegalArgumentException("Invalid name: " + name);
+            for(Property property : listings)
+            {
+                if(k <= 0)
+                {
+                    break;
+                }
+
+                if(top.size() < k)
+                {
+                    top.add(property);
+                }
+                else if(property.getPriceUsd() > top.peek().getPriceUsd())
+                {
+                    top.poll();
+                    top.add(property);
+                }
+            }
         }
-        this.name = name;
+
+        mostExpensive = new ArrayList<>(top);
+        mostExpensive.sort(Comparator.comparingDouble(Property::getPriceUsd).reversed());
+        return mostExpensive;
     }
 
     /**
-     * This method adds the non-null property to the HashMap Properties.
-     * @param property The property to be added.
+     * This method replaces the FX rates prices are converted at, and rebuilds the price column of every
+     * supported currency in one batch. Load a new table and call it again when the rates change.
+     * @param rates The rate table, cannot be null.
      */
-    public void addProperty(final Property property)
+    public void setFxRates(final FxRateTable rates)
     {
-        if(property != null)
+        if(rates == null)
         {
-            Properties.put(property.getPropertyId(), property);
+            throw new NullPointerException("Invalid rates: null");
         }
+        columns.setRates(rates);
     }
 
     /**
-     * This method removes the property whose ID matches the parameter, from the HashMap Properties.
-     * @param propertyId The property ID to be removed.
+     * @return The FX rates prices are converted at; only USD is supported until setFxRates is called.
      */
-    public void removeProperty(final String propertyId)
+    public FxRateTable getFxRates()
     {
-        Properties.remove(propertyId);
+        return columns.getRates();
     }
 
     /**
-     * @param propertyId The property ID to be matched.
-     * @return The property whose ID matches the parameter from the HashMap, or null if there is no match.
+     * @param streetName The street name to be matched.
+     * @return An ArrayList of addresses which are on the specified street name, or null if there are none.
      */
-    public Property getProperty(final String propertyId)
+    public ArrayList<Address> getPropertiesOn(final String streetName)
     {
-        return Properties.get(propertyId);
+        ArrayList<Address> propertiesOnStreet;
+        long startNanos;
+
+        startNanos = startCall();
+        propertiesOnStreet = addressesOn(listings(), streetName);
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_ON, startNanos, streetName);
+        return propertiesOnStreet;
     }
 
     /**
-     * @return The total amount in USD of all Properties.
+     * @param listings The listings to be scanned.
+     * @param streetName The street name to be matched.
+     * @return The addresses of getPropertiesOn.
      */
-    public double getTotalPropertyValues()
+    static ArrayList<Address> addressesOn(final Iterable<Property> listings, final String streetName)
     {
-        double totalPropertyValues;
-        Set<String> propertyIds;
+        ArrayList<Address> propertiesOnStreet;
+        String propertyStreetName;
 
-        totalPropertyValues = 0;
-        propertyIds = Properties.keySet();
+        propertiesOnStreet = new ArrayList<>();
 
-        for(String propertyId : propertyIds)
+        for(Property property : listings)
         {
-            totalPropertyValues += Properties.get(propertyId).getPriceUsd();
+            propertyStreetName = property.getAddress().getStreetName();
+            if(propertyStreetName.equalsIgnoreCase(streetName))
+            {
+                propertiesOnStreet.add(property.getAddress());
+            }
         }
-        return totalPropertyValues;
+
+        if(propertiesOnStreet.size() == 0)
+        {
+            return null;
+        }
+        return propertiesOnStreet;
     }
 
     /**
-     * @return An ArrayList of the properties with the swimming pool, or null if there are none.
+     * @param streetQuery The street name to be matched, possibly misspelled or abbreviated, such as "mapel st".
+     * @param maxResults The maximum number of addresses to return.
+     * @return An ArrayList of addresses on the streets most similar to the query, best match first,
+     * or null if there are none.
      */
-    public ArrayList<Property> getPropertiesWithPools()
+    public ArrayList<Address> searchPropertiesOn(final String streetQuery, final int maxResults)
     {
-        ArrayList<Property> propertiesWithPools;
-        Set<String> propertyIds;
+        ArrayList<Address> addresses;
+        long               startNanos;
 
-        propertiesWithPools = new ArrayList<>();
-        propertyIds         = Properties.keySet();
+        startNanos = startCall();
+        addresses  = search(streetIndex, this::peek, streetQuery, maxResults);
 
-        for(String propertyId : propertyIds)
+        endCall(WorkloadRecorder.Call.SEARCH_PROPERTIES_ON, startNanos, streetQuery, maxResults);
+        return addresses;
+    }
+
+    /**
+     * @param cityQuery The city name to be matched, possibly misspelled, such as "vancuver".
+     * @param maxResults The maximum number of addresses to return.
+     * @return An ArrayList of addresses in the cities most similar to the query, best match first,
+     * or null if there are none.
+     */
+    public ArrayList<Address> searchPropertiesIn(final String cityQuery, final int maxResults)
+    {
+        ArrayList<Address> addresses;
+        long               startNanos;
+
+        startNanos = startCall();
+        addresses  = search(cityIndex, this::peek, cityQuery, maxResults);
+
+        endCall(WorkloadRecorder.Call.SEARCH_PROPERTIES_IN, startNanos, cityQuery, maxResults);
+        return addresses;
+    }
+
+    /**
+     * @param index The trigram index to be searched.
+     * @param listings The lookup of the listing with an ID the index returns.
+     * @param query The text to be matched.
+     * @param maxResults The maximum number of addresses to return.
+     * @return An ArrayList of addresses of the ranked matching terms, or null if there are none.
+     */
+    static ArrayList<Address> search(final TrigramIndex index, final Function<String, Property> listings,
+                                     final String query, final int maxResults)
+    {
+        ArrayList<Address> addresses;
+        addresses = new ArrayList<>();
+
+        for(TrigramIndex.Match match : index.search(query, maxResults))
         {
-            if(Properties.get(propertyId).hasSwimmingPool())
+            for(String propertyId : match.getPropertyIds())
             {
-                propertiesWithPools.add(Properties.get(propertyId));
+                if(addresses.size() < maxResults)
+                {
+                    addresses.add(listings.apply(propertyId).getAddress());
+                }
             }
         }
 
-        if(propertiesWithPools.size() == 0)
+        if(addresses.size() == 0)
         {
             return null;
         }
-        return propertiesWithPools;
+        return addresses;
     }
 
     /**
-     * @param minUsd The minimum price of the property, in USD.
-     * @param maxUsd The maximum price of the property, in USD.
-     * @return An array of properties whose price falls in the range specified by the parameters, or null if there are none.
+     * @param minLatitude The southern edge of the box, in degrees.
+     * @param minLongitude The western edge of the box, in degrees.
+     * @param maxLatitude The northern edge of the box, in degrees.
+     * @param maxLongitude The eastern edge of the box, in degrees.
+     * @return An ArrayList of the properties with coordinates inside the box, or null if there are none.
      */
-    public Property[] getPropertiesBetween(final double minUsd, final double maxUsd)
+    public ArrayList<Property> getPropertiesWithin(final double minLatitude, final double minLongitude,
+                                                   final double maxLatitude, final double maxLongitude)
     {
-        Property[] propertiesBetween;
-        Set<String> propertyIds;
-        int i;
-        int counter;
+        ArrayList<Property> propertiesWithin;
+        long                startNanos;
 
-        propertyIds = Properties.keySet();
+        startNanos       = startCall();
+        propertiesWithin = getPropertiesWithin(minLatitude, minLongitude, maxLatitude, maxLongitude,
+                PropertyFilters.all());
 
-        counter = 0;
-        for(String propertyId : propertyIds)
-        {
-            double propertyPriceInUsd;
-            propertyPriceInUsd = Properties.get(propertyId).getPriceUsd();
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_WITHIN, startNanos, null, minLatitude, minLongitude,
+                maxLatitude, maxLongitude);
+        return propertiesWithin;
+    }
 
-            if(propertyPriceInUsd >= minUsd && propertyPriceInUsd <= maxUsd)
-            {
-                counter++;
-            }
-        }
+    /**
+     * @param minLatitude The southern edge of the box, in degrees.
+     * @param minLongitude The western edge of the box, in degrees.
+     * @param maxLatitude The northern edge of the box, in degrees.
+     * @param maxLongitude The eastern edge of the box, in degrees.
+     * @param filter The filter the properties must also pass, such as PropertyFilters.priceBetween.
+     * @return An ArrayList of the properties with coordinates inside the box that pass the filter,
+     * or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesWithin(final double minLatitude, final double minLongitude,
+                                                   final double maxLatitude, final double maxLongitude,
+                                                   final Predicate<Property> filter)
+    {
+        ArrayList<Property> propertiesWithin;
+        propertiesWithin = spatialIndex == null ? new ArrayList<>()
+                : spatialIndex.within(minLatitude, minLongitude, maxLatitude, maxLongitude, filter);
 
-        // decide the Property[] length
-        propertiesBetween = new Property[counter];
+        addUnindexed(propertiesWithin, spatialIndex != null,
+                within(minLatitude, minLongitude, maxLatitude, maxLongitude, filter));
 
-        i = 0;
-        for(String propertyId : propertyIds)
+        if(propertiesWithin.size() == 0)
         {
-            double propertyPriceInUsd;
-            propertyPriceInUsd = Properties.get(propertyId).getPriceUsd();
-
-            if(propertyPriceInUsd >= minUsd && propertyPriceInUsd <= maxUsd)
-            {
-                propertiesBetween[i] = Properties.get(propertyId);
-                i++;
-            }
+            return null;
         }
+        return propertiesWithin;
+    }
 
-        if(propertiesBetween.length == 0)
+    /**
+     * @return A filter passing the properties with coordinates inside the box that pass the filter, the
+     * scan equivalent of the spatial index; a box whose western edge is east of its eastern edge crosses
+     * the antimeridian.
+     */
+    static Predicate<Property> within(final double minLatitude, final double minLongitude,
+                                      final double maxLatitude, final double maxLongitude,
+                                      final Predicate<Property> filter)
+    {
+        return property -> {
+            Address address;
+            address = property.getAddress();
+
+            return address.hasCoordinates() && filter.test(property) &&
+                    address.getLatitude() >= minLatitude && address.getLatitude() <= maxLatitude &&
+                    (minLongitude <= maxLongitude
+                            ? address.getLongitude() >= minLongitude && address.getLongitude() <= maxLongitude
+                            : address.getLongitude() >= minLongitude || address.getLongitude() <= maxLongitude);
+        };
+    }
+
+    /**
+     * @param latitude The latitude of the centre, in degrees.
+     * @param longitude The longitude of the centre, in degrees.
+     * @param radiusKm The radius around the centre, in kilometres.
+     * @return An ArrayList of the properties with coordinates within the radius, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesNear(final double latitude, final double longitude, final double radiusKm)
+    {
+        ArrayList<Property> propertiesNear;
+        long                startNanos;
+
+        startNanos     = startCall();
+        propertiesNear = getPropertiesNear(latitude, longitude, radiusKm, PropertyFilters.all());
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_NEAR, startNanos, null, latitude, longitude, radiusKm);
+        return propertiesNear;
+    }
+
+    /**
+     * @param latitude The latitude of the centre, in degrees.
+     * @param longitude The longitude of the centre, in degrees.
+     * @param radiusKm The radius around the centre, in kilometres.
+     * @param filter The filter the properties must also pass, such as PropertyFilters.withPool.
+     * @return An ArrayList of the properties with coordinates within the radius that pass the filter,
+     * or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesNear(final double latitude, final double longitude, final double radiusKm,
+                                                 final Predicate<Property> filter)
+    {
+        ArrayList<Property> propertiesNear;
+        propertiesNear = spatialIndex == null ? new ArrayList<>()
+                : spatialIndex.near(latitude, longitude, radiusKm, filter);
+
+        addUnindexed(propertiesNear, spatialIndex != null, near(latitude, longitude, radiusKm, filter));
+
+        if(propertiesNear.size() == 0)
         {
             return null;
         }
-        return propertiesBetween;
+        return propertiesNear;
     }
 
     /**
-     * @param streetName The street name to be matched.
-     * @return An ArrayList of addresses which are on the specified street name, or null if there are none.
+     * @return A filter passing the properties with coordinates within the radius that pass the filter, the
+     * scan equivalent of the spatial index.
      */
-    public ArrayList<Address> getPropertiesOn(final String streetName)
+    static Predicate<Property> near(final double latitude, final double longitude, final double radiusKm,
+                                    final Predicate<Property> filter)
     {
-        ArrayList<Address> propertiesOnStreet;
-        Set<String> propertyIds;
-        String propertyStreetName;
+        return property -> property.getAddress().hasCoordinates() && filter.test(property) &&
+                SpatialIndex.distanceKm(latitude, longitude, property.getAddress().getLatitude(),
+                        property.getAddress().getLongitude()) <= radiusKm;
+    }
 
-        propertiesOnStreet = new ArrayList<>();
-        propertyIds        = Properties.keySet();
+    /**
+     * @param query The composite query to be matched, cannot be null.
+     * @return An ArrayList of the properties matching every criterion of the query, or null if there are none.
+     * The access path is chosen by the query planner, see plan.
+     */
+    public ArrayList<Property> getProperties(final ListingQuery query)
+    {
+        ArrayList<Property> properties;
+        long                startNanos;
+
+        startNanos = startCall();
+        properties = getProperties(query, QueryContext.create());
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES, startNanos, query);
+        return properties;
+    }
+
+    /**
+     * @param query The composite query to be matched, cannot be null.
+     * @param context The cancellation token and deadline of the query.
+     * @return An ArrayList of the properties matching every criterion of the query, or null if there are none.
+     * @throws java.util.concurrent.CancellationException If the query is cancelled or runs past its deadline.
+     */
+    public ArrayList<Property> getProperties(final ListingQuery query, final QueryContext context)
+    {
+        QueryPlan                 plan;
+        ArrayList<Property>       properties;
+        ArrayList<Property>       cold;
+        List<Predicate<Property>> criteria;
+
+        plan       = plan(query);
+        properties = planner.execute(plan, context);
 
-        for(String propertyId : propertyIds)
+        // a full scan already streams the cold listings; the planner's indexes hold only the hot ones
+        if(coldTier == null || plan.getAccess() == QueryPlan.Access.FULL_SCAN)
         {
-            propertyStreetName = Properties.get(propertyId).getAddress().getStreetName();
-            if(propertyStreetName.equalsIgnoreCase(streetName))
+            return properties;
+        }
+
+        cold     = new ArrayList<>();
+        criteria = query.residualFilters(null);
+
+        addCold(cold, property -> {
+            context.tick();
+
+            for(Predicate<Property> criterion : criteria)
             {
-                propertiesOnStreet.add(Properties.get(propertyId).getAddress());
+                if(!criterion.test(property))
+                {
+                    return false;
+                }
             }
+            return true;
+        });
+
+        if(properties == null)
+        {
+            return cold.isEmpty() ? null : cold;
         }
+        properties.addAll(cold);
+        return properties;
+    }
 
-        if(propertiesOnStreet.size() == 0)
+    /**
+     * @param query The composite query to be planned, cannot be null.
+     * @return The plan the query planner chose for the query.
+     */
+    public QueryPlan plan(final ListingQuery query)
+    {
+        if(query == null)
         {
-            return null;
+            throw new NullPointerException("Invalid query: null");
         }
-        return propertiesOnStreet;
+        return planner.plan(query);
+    }
+
+    /**
+     * @param query The composite query to be planned, cannot be null.
+     * @return A readable description of the plan chosen for the query, with the estimated rows and cost
+     * of the chosen access path and the cost of every alternative.
+     */
+    public String explain(final ListingQuery query)
+    {
+        return plan(query).explain();
     }
 
     /**
@@ -192,21 +2537,33 @@ public class Agency
     public HashMap<String, Property> getPropertiesWithBedrooms(final int minBedrooms, final int maxBedrooms)
     {
         HashMap<String, Property> propertiesWithBedrooms;
-        Set<String> propertyIds;
-        int numOfBedrooms;
+        long                      startNanos;
 
+        startNanos             = startCall();
         propertiesWithBedrooms = new HashMap<>();
-        propertyIds            = Properties.keySet();
 
-        for(String propertyId : propertyIds)
+        // evaluated over the packed bedroom column, see PropertyColumns and RangeFilterKernel
+        for(Property property : columns.select(columns.bedroomMask(minBedrooms, maxBedrooms)))
+        {
+            propertiesWithBedrooms.put(property.getPropertyId(), property);
+        }
+
+        if(coldTier != null)
         {
-            numOfBedrooms = Properties.get(propertyId).getNumberOfBedrooms();
-            if(numOfBedrooms >= minBedrooms && numOfBedrooms <= maxBedrooms)
+            ArrayList<Property> cold;
+            cold = new ArrayList<>();
+
+            addCold(cold, property -> property.getNumberOfBedrooms() >= minBedrooms &&
+                    property.getNumberOfBedrooms() <= maxBedrooms);
+
+            for(Property property : cold)
             {
-                propertiesWithBedrooms.put(propertyId, Properties.get(propertyId));
+                propertiesWithBedrooms.put(property.getPropertyId(), property);
             }
         }
 
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_WITH_BEDROOMS, startNanos, null, minBedrooms, maxBedrooms);
+
         if(propertiesWithBedrooms.size() == 0)
         {
             return null;
@@ -221,19 +2578,48 @@ public class Agency
      * (case-insensitive), with certain format.
      */
     public ArrayList<String> getPropertiesOfType(final String propertyType)
+    {
+        ArrayList<String> propertiesOfType;
+        long              startNanos;
+
+        startNanos       = startCall();
+        propertiesOfType = getPropertiesOfType(propertyType, QueryContext.create());
+
+        endCall(WorkloadRecorder.Call.GET_PROPERTIES_OF_TYPE, startNanos, propertyType);
+        return propertiesOfType;
+    }
+
+    /**
+     * @param propertyType The property type to be matched.
+     * @param context The cancellation token and deadline of the scan.
+     * @return The lines of getPropertiesOfType.
+     * @throws java.util.concurrent.CancellationException If the scan is cancelled or runs past its deadline.
+     */
+    public ArrayList<String> getPropertiesOfType(final String propertyType, final QueryContext context)
+    {
+        return linesOfType(listings(), propertyType, context);
+    }
+
+    /**
+     * @param listings The listings to be scanned.
+     * @param propertyType The property type to be matched.
+     * @param context The cancellation token and deadline of the scan.
+     * @return The lines of getPropertiesOfType.
+     */
+    static ArrayList<String> linesOfType(final Iterable<Property> listings, final String propertyType,
+                                         final QueryContext context)
     {
         int i;
         ArrayList<String> propertiesOfType;
-        Set<String> propertyIds;
         String printLine;
         String printLine1;
 
         i = 1;
         propertiesOfType = new ArrayList<>();
-        propertyIds      = Properties.keySet();
 
-        for(String propertyId : propertyIds)
+        for(Property property : listings)
         {
+            String   propertyId;
             String   unitNumber;
             int      streetNumber;
             String   streetName;
@@ -243,18 +2629,21 @@ public class Agency
             int      numOfBedrooms;
             double   propertyPriceInUsd;
 
-            unitNumber         = Properties.get(propertyId).getAddress().getFormattedUnitNumber();
-            streetNumber       = Properties.get(propertyId).getAddress().getStreetNumber();
-            streetName         = Properties.get(propertyId).getAddress().getFormattedStreetName();
-            postalCode         = Properties.get(propertyId).getAddress().getPostalCode().toUpperCase();
-            cityName           = Properties.get(propertyId).getAddress().getFormattedCityName();
-            theProperty        = Properties.get(propertyId);
+            context.tick();
+
+            propertyId         = property.getPropertyId();
+            unitNumber         = property.getAddress().getFormattedUnitNumber();
+            streetNumber       = property.getAddress().getStreetNumber();
+            streetName         = property.getAddress().getFormattedStreetName();
+            postalCode         = property.getAddress().getPostalCode().toUpperCase();
+            cityName           = property.getAddress().getFormattedCityName();
+            theProperty        = property;
             numOfBedrooms      = theProperty.getNumberOfBedrooms();
             propertyPriceInUsd = theProperty.getPriceUsd();
 
-            if(Properties.get(propertyId).getType() != null)
+            if(property.getType() != null)
             {
-                if(Properties.get(propertyId).getType().equalsIgnoreCase(propertyType))
+                if(property.getType().equalsIgnoreCase(propertyType))
                 {
                     if (numOfBedrooms == 1 && theProperty.hasSwimmingPool())
                     {
@@ -301,6 +2690,148 @@ public class Agency
         return propertiesOfType;
     }
 
+    /**
+     * This method starts recording the calls made to the agency, see WorkloadRecorder for the calls recorded.
+     * It replaces any recorder already started, which is not closed.
+     * @param recorder The recorder the calls are passed to, cannot be null.
+     */
+    public void startRecording(final WorkloadRecorder recorder)
+    {
+        if(recorder == null)
+        {
+            throw new NullPointerException("Invalid recorder: null");
+        }
+        this.recorder = recorder;
+    }
+
+    /**
+     * This method stops recording the calls made to the agency. Close the recorder to flush the trace.
+     */
+    public void stopRecording()
+    {
+        recorder = null;
+    }
+
+    /**
+     * @return The time the call starts, or NOT_RECORDED when no recorder is started, so a call that is not
+     * recorded does not read the clock.
+     */
+    private long startCall()
+    {
+        return recorder == null ? NOT_RECORDED : System.nanoTime();
+    }
+
+    /**
+     * This method passes a finished call to the recorder, if one was started before the call and is still.
+     * There is one overload for each number of numeric arguments, so a call that is not recorded builds no
+     * array of them.
+     * @param call The call.
+     * @param startNanos The time the call started, from startCall.
+     * @param subject The text, listing or query the call takes, or null.
+     */
+    private void endCall(final WorkloadRecorder.Call call, final long startNanos, final Object subject)
+    {
+        if(startNanos != NOT_RECORDED)
+        {
+            record(call, startNanos, subject, NO_NUMBERS);
+        }
+    }
+
+    private void endCall(final WorkloadRecorder.Call call, final long startNanos, final Object subject,
+                         final double a)
+    {
+        if(startNanos != NOT_RECORDED)
+        {
+            record(call, startNanos, subject, new double[]{a});
+        }
+    }
+
+    private void endCall(final WorkloadRecorder.Call call, final long startNanos, final Object subject,
+                         final double a, final double b)
+    {
+        if(startNanos != NOT_RECORDED)
+        {
+            record(call, startNanos, subject, new double[]{a, b});
+        }
+    }
+
+    private void endCall(final WorkloadRecorder.Call call, final long startNanos, final Object subject,
+                         final double a, final double b, final double c)
+    {
+        if(startNanos != NOT_RECORDED)
+        {
+            record(call, startNanos, subject, new double[]{a, b, c});
+        }
+    }
+
+    private void endCall(final WorkloadRecorder.Call call, final long startNanos, final Object subject,
+                         final double a, final double b, final double c, final double d)
+    {
+        if(startNanos != NOT_RECORDED)
+        {
+            record(call, startNanos, subject, new double[]{a, b, c, d});
+        }
+    }
+
+    /**
+     * This method passes a finished call to the recorder, if it is still started.
+     * @param numbers The numeric arguments of the call.
+     */
+    private void record(final WorkloadRecorder.Call call, final long startNanos, final Object subject,
+                        final double[] numbers)
+    {
+        WorkloadRecorder current;
+        current = recorder;
+
+        if(current != null)
+        {
+            current.record(call, startNanos, subject, numbers);
+        }
+    }
+
+    /**
+     * This method replaces the locks whose write side Property.setPriceUsd holds while it re-prices a listing
+     * of the agency, such as with the locks of a registry shard, so that re-pricing a listing held by the
+     * caller is serialized with the readers of the agency. Set them before the agency is shared.
+     * @param locks The locks to be held, cannot be null.
+     * @param lockOrder The place of the locks in the order locks are taken, from nextLockOrder; agencies
+     * sharing the locks share the order.
+     */
+    void setLocks(final ReentrantReadWriteLock locks, final long lockOrder)
+    {
+        if(locks == null)
+        {
+            throw new NullPointerException("Invalid locks: null");
+        }
+        this.locks     = locks;
+        this.lockOrder = lockOrder;
+    }
+
+    /**
+     * @return The locks whose write side Property.setPriceUsd holds while it re-prices a listing of the agency.
+     */
+    ReentrantReadWriteLock getLocks()
+    {
+        return locks;
+    }
+
+    /**
+     * @return The place of the agency's locks in the one order every thread takes them in, so that
+     * re-pricing listings held by several agencies at once cannot deadlock.
+     */
+    long getLockOrder()
+    {
+        return lockOrder;
+    }
+
+    /**
+     * @return A place in the order locks are taken, after every place handed out before.
+     */
+    static long nextLockOrder()
+    {
+        return LOCK_ORDERS.incrementAndGet();
+    }
+
     public String getName()
     {
         return name;
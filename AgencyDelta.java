@@ -0,0 +1,321 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class exports and applies binary deltas between states of an Agency, each named by the sequence
+ * number of the last change on the agency's change feed; it is not Agency.getVersion. A delta holds the
+ * net effect of the changes since a sequence number: the removed IDs, the added or replaced properties in full, and the latest price
+ * of the properties that were only re-priced. It ends with a CRC-32 of everything before it, so a replica
+ * refresh costs in proportion to the churn and a corrupt delta is rejected before anything is applied.
+ */
+public final class AgencyDelta
+{
+    private static final int  MAGIC = 0x4147444C;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int  BATCH_SIZE = 4096;
+    private static final int  CHECKSUM_BYTES = Integer.BYTES;
+
+    private AgencyDelta()
+    {
+    }
+
+    /**
+     * @param source The agency the delta is taken from; its change feed must be enabled.
+     * @param sinceSequence The sequence number the replica is at; 0 for a replica that saw no change at all.
+     * @return The delta bringing a replica at sinceSequence to the last sequence number of the source.
+     * @throws IllegalStateException If the change feed is not enabled or no longer holds the changes since
+     * the sequence number, in which case the replica must be re-copied in full.
+     */
+    public static byte[] export(final Agency source, final long sinceSequence)
+    {
+        ChangeFeed             feed;
+        long                   toSequence;
+        long                   next;
+        Map<String, NetChange> changes;
+        ByteArrayOutputStream  bytes;
+        DataOutputStream       out;
+        CRC32                  crc;
+
+        feed = source.getChangeFeed();
+
+        if(feed == null)
+        {
+            throw new IllegalStateException("Change feed not enabled: " + source.getName());
+        }
+
+        toSequence = feed.getLastSequence();
+        changes   = new LinkedHashMap<>();
+        next      = sinceSequence + 1;
+
+        while(next <= toSequence)
+        {
+            List<ChangeEvent> batch;
+            batch = feed.read(next, (int) Math.min(BATCH_SIZE, toSequence - next + 1));
+
+            for(ChangeEvent event : batch)
+            {
+                NetChange change;
+                change = changes.computeIfAbsent(event.getPropertyId(), id -> new NetChange());
+
+                switch(event.getType())
+                {
+                    case ADD:
+                        change.added = event.getProperty();
+                        change.price = event.getNewPriceUsd();
+                        change.removed = false;
+                        break;
+                    case REMOVE:
+                        change.added = null;
+                        change.removed = true;
+                        break;
+                    default:
+                        change.price = event.getNewPriceUsd();
+                        change.repriced = true;
+                        break;
+                }
+            }
+            next += batch.size();
+        }
+
+        bytes = new ByteArrayOutputStream();
+        out   = new DataOutputStream(bytes);
+
+        try
+        {
+            List<String>    removed;
+            List<NetChange> added;
+            List<String>    repriced;
+
+            removed  = new ArrayList<>();
+            added    = new ArrayList<>();
+            repriced = new ArrayList<>();
+
+            for(Map.Entry<String, NetChange> entry : changes.entrySet())
+            {
+                NetChange change;
+                change = entry.getValue();
+
+                if(change.added != null)
+                {
+                    added.add(change);
+                }
+                else if(change.removed)
+                {
+                    removed.add(entry.getKey());
+                }
+                else if(change.repriced)
+                {
+                    repriced.add(entry.getKey());
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(sinceSequence);
+            out.writeLong(toSequence);
+
+            out.writeInt(removed.size());
+            for(String propertyId : removed)
+            {
+                out.writeUTF(propertyId);
+            }
+
+            out.writeInt(added.size());
+            for(NetChange change : added)
+            {
+                writeProperty(out, change.added, change.price);
+            }
+
+            out.writeInt(repriced.size());
+            for(String propertyId : repriced)
+            {
+                out.writeUTF(propertyId);
+                out.writeDouble(changes.get(propertyId).price);
+            }
+
+            crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method verifies the delta and then applies it to the replica in place.
+     * @param delta The delta produced by export.
+     * @param replica The replica to be brought up to date.
+     * @param replicaSequence The sequence number the replica is at, which must be the one the delta was taken
+     * since.
+     * @return The sequence number the replica is at after the delta was applied.
+     * @throws IllegalArgumentException If the delta is corrupt or its checksum does not match.
+     * @throws IllegalStateException If the delta was taken since another sequence number than the replica's.
+     */
+    public static long apply(final byte[] delta, final Agency replica, final long replicaSequence)
+    {
+        DataInputStream     in;
+        CRC32               crc;
+        long                fromSequence;
+        long                toSequence;
+        List<String>        removed;
+        List<Property>      added;
+        Map<String, Double> repriced;
+
+        if(delta.length < CHECKSUM_BYTES)
+        {
+            throw new IllegalArgumentException("Invalid delta: too short");
+        }
+
+        crc = new CRC32();
+        crc.update(delta, 0, delta.length - CHECKSUM_BYTES);
+
+        if((int) crc.getValue() != ByteBuffer.wrap(delta, delta.length - CHECKSUM_BYTES, CHECKSUM_BYTES).getInt())
+        {
+            throw new IllegalArgumentException("Invalid delta: checksum mismatch");
+        }
+
+        in       = new DataInputStream(new ByteArrayInputStream(delta, 0, delta.length - CHECKSUM_BYTES));
+        removed  = new ArrayList<>();
+        added    = new ArrayList<>();
+        repriced = new LinkedHashMap<>();
+
+        // decode everything first, so a bad delta never leaves the replica half-updated
+        try
+        {
+            int count;
+
+            if(in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION)
+            {
+                throw new IllegalArgumentException("Invalid delta: unknown format");
+            }
+
+            fromSequence = in.readLong();
+            toSequence   = in.readLong();
+
+            if(fromSequence != replicaSequence)
+            {
+                throw new IllegalStateException("Delta is since sequence " + fromSequence +
+                        " but replica is at sequence " + replicaSequence);
+            }
+
+            count = in.readInt();
+            for(int i = 0; i < count; i++)
+            {
+                removed.add(in.readUTF());
+            }
+
+            count = in.readInt();
+            for(int i = 0; i < count; i++)
+            {
+                added.add(readProperty(in));
+            }
+
+            count = in.readInt();
+            for(int i = 0; i < count; i++)
+            {
+                repriced.put(in.readUTF(), in.readDouble());
+            }
+        }
+        catch(IOException e)
+        {
+            throw new IllegalArgumentException("Invalid delta: truncated", e);
+        }
+
+        for(String propertyId : removed)
+        {
+            replica.removeProperty(propertyId);
+        }
+
+        for(Property property : added)
+        {
+            replica.addProperty(property);
+        }
+
+        for(Map.Entry<String, Double> entry : repriced.entrySet())
+        {
+            replica.setPropertyPrice(entry.getKey(), entry.getValue());
+        }
+        return toSequence;
+    }
+
+    /**
+     * This method writes a property and its address, with the given price.
+     */
+    private static void writeProperty(final DataOutputStream out, final Property property, final double priceInUsd)
+            throws IOException
+    {
+        Address address;
+        address = property.getAddress();
+
+        out.writeUTF(property.getPropertyId());
+        out.writeDouble(priceInUsd);
+        out.writeByte(property.getNumberOfBedrooms());
+        out.writeBoolean(property.hasSwimmingPool());
+        out.writeUTF(property.getType());
+        out.writeBoolean(address.getUnitNumber() != null);
+
+        if(address.getUnitNumber() != null)
+        {
+            out.writeUTF(address.getUnitNumber());
+        }
+
+        out.writeInt(address.getStreetNumber());
+        out.writeUTF(address.getStreetName());
+        out.writeUTF(address.getPostalCode());
+        out.writeUTF(address.getCity());
+        out.writeDouble(address.getLatitude());
+        out.writeDouble(address.getLongitude());
+    }
+
+    /**
+     * @return A new property read back from the fields written by writeProperty.
+     */
+    private static Property readProperty(final DataInputStream in) throws IOException
+    {
+        String  propertyId;
+        double  priceInUsd;
+        int     numOfBedrooms;
+        boolean swimmingPool;
+        String  propertyType;
+        String  unitNumber;
+        Address address;
+
+        propertyId    = in.readUTF();
+        priceInUsd    = in.readDouble();
+        numOfBedrooms = in.readByte();
+        swimmingPool  = in.readBoolean();
+        propertyType  = in.readUTF();
+        unitNumber    = in.readBoolean() ? in.readUTF() : null;
+        address       = new Address(unitNumber, in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(),
+                in.readDouble(), in.readDouble());
+
+        return new Property(priceInUsd, address, numOfBedrooms, swimmingPool, propertyType, propertyId);
+    }
+
+    /**
+     * The net effect of the changes to one property ID within the delta.
+     */
+    private static final class NetChange
+    {
+        private Property added;
+        private boolean  removed;
+        private boolean  repriced;
+        private double   price;
+    }
+}
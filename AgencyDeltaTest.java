@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgencyDeltaTest
+{
+    private Agency source;
+    private Agency replica;
+
+    private Address a1 = new Address("1a", 777, "56th avenue", "v7n2m8", "surrey");
+    private Address a2 = new Address(null, 123, "main street", "v7r2g2", "west vancouver", 49.33, -123.16);
+
+    @BeforeEach
+    void setUp()
+    {
+        source  = new Agency("source");
+        replica = new Agency("replica");
+
+        source.enableChangeFeed(1024);
+        source.addProperty(new Property(499000, a1, 2, false, "residence", "p1"));
+        source.addProperty(new Property(5999999, a2, 5, true, "retail", "p2"));
+        source.addProperty(new Property(100000, a1, 1, false, "commercial", "p3"));
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        source  = null;
+        replica = null;
+    }
+
+    @Test
+    void applyFromEmpty()
+    {
+        long sequence = AgencyDelta.apply(AgencyDelta.export(source, 0), replica, 0);
+
+        assertEquals(3, sequence);
+        assertEquals(3, replica.getPropertyCount());
+        assertNotSame(source.getProperty("p2"), replica.getProperty("p2"));
+        assertEquals("retail", replica.getProperty("p2").getType());
+        assertEquals(49.33, replica.getProperty("p2").getAddress().getLatitude());
+        assertNull(replica.getProperty("p2").getAddress().getUnitNumber());
+        assertEquals("1a", replica.getProperty("p1").getAddress().getUnitNumber());
+        assertEquals(source.getTotalPropertyValues(), replica.getTotalPropertyValues());
+    }
+
+    @Test
+    void applyIncremental()
+    {
+        long sequence = AgencyDelta.apply(AgencyDelta.export(source, 0), replica, 0);
+
+        source.setPropertyPrice("p1", 450000);
+        source.removeProperty("p3");
+        source.addProperty(new Property(1, a1, 1, false, "residence", "p4"));
+        source.setPropertyPrice("p4", 2);
+        source.addProperty(new Property(3, a1, 1, false, "residence", "p5"));
+        source.removeProperty("p5");
+
+        byte[] delta = AgencyDelta.export(source, sequence);
+        sequence = AgencyDelta.apply(delta, replica, sequence);
+
+        assertEquals(9, sequence);
+        assertEquals(3, replica.getPropertyCount());
+        assertEquals(450000.0, replica.getProperty("p1").getPriceUsd());
+        assertNull(replica.getProperty("p3"));
+        assertEquals(2.0, replica.getProperty("p4").getPriceUsd());
+        assertNull(replica.getProperty("p5"));
+        assertEquals(source.getTotalPropertyValues(), replica.getTotalPropertyValues());
+
+        assertEquals(0, AgencyDelta.apply(AgencyDelta.export(source, sequence), replica, sequence) - sequence);
+    }
+
+    @Test
+    void getExpectedExceptions()
+    {
+        byte[] delta = AgencyDelta.export(source, 0);
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, ()->{
+            AgencyDelta.apply(delta, replica, 2);
+        });
+        assertTrue(ex.getMessage().equals("Delta is since sequence 0 but replica is at sequence 2"));
+
+        delta[20] ^= 1;
+        IllegalArgumentException ex2 = assertThrows(IllegalArgumentException.class, ()->{
+            AgencyDelta.apply(delta, replica, 0);
+        });
+        assertTrue(ex2.getMessage().equals("Invalid delta: checksum mismatch"));
+        assertEquals(0, replica.getPropertyCount());
+
+        IllegalStateException ex3 = assertThrows(IllegalStateException.class, ()->{
+            AgencyDelta.export(replica, 0);
+        });
+        assertTrue(ex3.getMessage().equals("Change feed not enabled: replica"));
+    }
+}
@@ -0,0 +1,533 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models an optional HTTP query endpoint over an Agency, on the JDK's built-in HTTP server.
+ * Each request runs on its own virtual thread where the JDK has them (Java 21 and later), otherwise on a
+ * cached thread pool. At most maxInFlight queries run at once; a request beyond that is answered at once
+ * with 503 and Retry-After, so a burst degrades into fast rejections instead of a growing queue.
+ * Responses are JSON streamed straight to the response body. The endpoints are:
+ * GET /properties/{id};
+ * GET /properties?minPrice=&amp;maxPrice=&amp;minBedrooms=&amp;maxBedrooms=&amp;type=&amp;street=&amp;pool=true,
+ * planned by the agency's query planner and, when it scans, streamed as the listings are visited;
+ * GET /aggregates?by=city,type plus the same filters, the price statistics of every group.
+ * The server only reads the agency, except that with tiered storage enabled a lookup by ID promotes the
+ * listing, so the server runs such lookups one at a time and the other queries around them. Changes made
+ * while it serves must be serialized with it by the caller.
+ */
+public class AgencyHttpServer implements AutoCloseable
+{
+    private final Agency          agency;
+    private final HttpServer     server;
+    private final ExecutorService executor;
+    private final Semaphore      admission;
+    private final boolean        virtualThreads;
+    private final AtomicLong     rejected;
+    private final ReadWriteLock  lock;
+
+    private static final int VALID_MIN_IN_FLIGHT = 1;
+    private static final int BACKLOG = 256;
+
+    /**
+     * Constructor, binds the server and starts serving.
+     * @param agency The agency to be queried, cannot be null.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param maxInFlight The maximum number of queries running at once, must be positive.
+     * @throws IOException If the address cannot be bound.
+     * @throws IllegalArgumentException If maxInFlight is not positive.
+     */
+    AgencyHttpServer(final Agency agency, final InetSocketAddress address, final int maxInFlight) throws IOException
+    {
+        ExecutorService virtual;
+
+        if(agency == null)
+        {
+            throw new NullPointerException("Invalid agency: null");
+        }
+
+        if(maxInFlight < VALID_MIN_IN_FLIGHT)
+        {
+            throw new IllegalArgumentException("Invalid max in flight: " + maxInFlight);
+        }
+
+        virtual = newVirtualThreadExecutor();
+
+        this.agency         = agency;
+        this.admission      = new Semaphore(maxInFlight);
+        this.virtualThreads = virtual != null;
+        this.executor       = virtual != null ? virtual : Executors.newCachedThreadPool();
+        this.rejected       = new AtomicLong();
+        this.lock           = new ReentrantReadWriteLock();
+        this.server         = HttpServer.create(address, BACKLOG);
+
+        server.createContext("/properties", this::handle);
+        server.createContext("/aggregates", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return True if requests run on virtual threads, otherwise false.
+     */
+    public boolean isVirtualThreaded()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * @return The number of requests rejected by admission control so far.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * This method stops the server, letting running requests finish for up to a second.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * This method admits the request, or rejects it if maxInFlight queries are already running.
+     */
+    private void handle(final HttpExchange exchange) throws IOException
+    {
+        if(!admission.tryAcquire())
+        {
+            rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Too many queries in flight");
+            return;
+        }
+
+        try
+        {
+            if(!"GET".equals(exchange.getRequestMethod()))
+            {
+                sendError(exchange, 405, "Invalid method: " + exchange.getRequestMethod());
+            }
+            else
+            {
+                route(exchange);
+            }
+        }
+        catch(IllegalArgumentException e)
+        {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch(IOException e)
+        {
+            // the client went away; nothing left to answer
+        }
+        catch(RuntimeException e)
+        {
+            sendError(exchange, 500, "Query failed");
+        }
+        finally
+        {
+            admission.release();
+            exchange.close();
+        }
+    }
+
+    private void route(final HttpExchange exchange) throws IOException
+    {
+        String              path;
+        Map<String, String> parameters;
+
+        path       = exchange.getRequestURI().getPath();
+        parameters = parse(exchange.getRequestURI().getRawQuery());
+
+        if(path.startsWith("/properties/") && path.length() > "/properties/".length())
+        {
+            Property property;
+            property = lookUp(path.substring("/properties/".length()));
+
+            if(property == null)
+            {
+                sendError(exchange, 404, "No property: " + path.substring("/properties/".length()));
+                return;
+            }
+
+            try(OutputStream body = begin(exchange, 200))
+            {
+                JsonStreamWriter json;
+                json = new JsonStreamWriter(body);
+
+                writeProperty(json, property);
+                json.flush();
+            }
+        }
+        else if(path.equals("/properties"))
+        {
+            writeProperties(exchange, toQuery(parameters));
+        }
+        else if(path.equals("/aggregates"))
+        {
+            GroupAggregation             aggregation;
+            Predicate<Property>          filter;
+            GroupAggregation.Dimension[] dimensions;
+
+            filter     = toFilter(toQuery(parameters));
+            dimensions = toDimensions(parameters);
+
+            lock.readLock().lock();
+            try
+            {
+                aggregation = agency.aggregate(filter, dimensions);
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+            writeAggregation(exchange, aggregation);
+        }
+        else
+        {
+            sendError(exchange, 404, "No endpoint: " + path);
+        }
+    }
+
+    /**
+     * This method writes the properties matching the query as they are found. A query the planner answers
+     * by a full scan, the broad one whose result may be most of the agency, is streamed from forEachProperty
+     * without collecting it; an index-driven query collects its few candidates first. The listings are read
+     * under the read lock, so a slow client holds off lookups that promote until its response is written,
+     * and a query that fails once the response has started leaves it truncated.
+     */
+    private void writeProperties(final HttpExchange exchange, final ListingQuery query) throws IOException
+    {
+        Predicate<Property> filter;
+        filter = toFilter(query);
+
+        lock.readLock().lock();
+        try(OutputStream body = begin(exchange, 200))
+        {
+            JsonStreamWriter json;
+            json = new JsonStreamWriter(body);
+
+            json.beginArray();
+            if(agency.plan(query).getAccess() == QueryPlan.Access.FULL_SCAN)
+            {
+                try
+                {
+                    agency.forEachProperty(property -> {
+                        if(filter.test(property))
+                        {
+                            try
+                            {
+                                writeProperty(json, property);
+                            }
+                            catch(IOException e)
+                            {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+                }
+                catch(UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+            }
+            else
+            {
+                ArrayList<Property> properties;
+                properties = agency.getProperties(query);
+
+                if(properties != null)
+                {
+                    for(Property property : properties)
+                    {
+                        writeProperty(json, property);
+                    }
+                }
+            }
+            json.endArray();
+            json.flush();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The property with the ID, looked up under the write lock while a lookup may promote it.
+     */
+    private Property lookUp(final String propertyId)
+    {
+        Lock held;
+        held = agency.getColdTier() != null ? lock.writeLock() : lock.readLock();
+
+        held.lock();
+        try
+        {
+            return agency.getProperty(propertyId);
+        }
+        finally
+        {
+            held.unlock();
+        }
+    }
+
+    private void writeAggregation(final HttpExchange exchange, final GroupAggregation aggregation) throws IOException
+    {
+        GroupAggregation.Dimension[] dimensions;
+        dimensions = aggregation.getDimensions();
+
+        try(OutputStream body = begin(exchange, 200))
+        {
+            JsonStreamWriter json;
+            json = new JsonStreamWriter(body);
+
+            json.beginArray();
+            for(Map.Entry<List<Object>, PriceStatistics> group : aggregation.getGroups().entrySet())
+            {
+                PriceStatistics statistics;
+                statistics = group.getValue();
+
+                json.beginObject().name("key").beginObject();
+                for(int i = 0; i < dimensions.length; i++)
+                {
+                    json.name(dimensions[i].name().toLowerCase()).value(String.valueOf(group.getKey().get(i)));
+                }
+                json.endObject();
+                json.name("count").value(statistics.getCount());
+                json.name("sum").value(statistics.getSum());
+                json.name("min").value(statistics.getMin());
+                json.name("max").value(statistics.getMax());
+                json.name("average").value(statistics.getAverage());
+                json.endObject();
+            }
+            json.endArray();
+            json.flush();
+        }
+    }
+
+    /**
+     * This method writes the property as a JSON object.
+     * @param json The writer.
+     * @param property The property to be written.
+     * @throws IOException If the stream fails.
+     */
+    static void writeProperty(final JsonStreamWriter json, final Property property) throws IOException
+    {
+        Address address;
+        address = property.getAddress();
+
+        json.beginObject();
+        json.name("id").value(property.getPropertyId());
+        json.name("price").value(property.getPriceUsd());
+        json.name("bedrooms").value(property.getNumberOfBedrooms());
+        json.name("pool").value(property.hasSwimmingPool());
+        json.name("type").value(property.getType());
+        json.name("address").beginObject();
+        json.name("unit").value(address.getUnitNumber());
+        json.name("streetNumber").value(address.getStreetNumber());
+        json.name("street").value(address.getStreetName());
+        json.name("postalCode").value(address.getPostalCode());
+        json.name("city").value(address.getCity());
+
+        if(address.hasCoordinates())
+        {
+            json.name("latitude").value(address.getLatitude());
+            json.name("longitude").value(address.getLongitude());
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    private static ListingQuery toQuery(final Map<String, String> parameters)
+    {
+        ListingQuery query;
+        query = new ListingQuery();
+
+        if(parameters.containsKey("minPrice") || parameters.containsKey("maxPrice"))
+        {
+            query.priceBetween(number(parameters, "minPrice", Double.NEGATIVE_INFINITY),
+                    number(parameters, "maxPrice", Double.POSITIVE_INFINITY));
+        }
+
+        if(parameters.containsKey("minBedrooms") || parameters.containsKey("maxBedrooms"))
+        {
+            query.bedroomsBetween((int) number(parameters, "minBedrooms", Integer.MIN_VALUE),
+                    (int) number(parameters, "maxBedrooms", Integer.MAX_VALUE));
+        }
+
+        if(parameters.containsKey("type"))
+        {
+            query.ofType(parameters.get("type"));
+        }
+
+        if(parameters.containsKey("street"))
+        {
+            query.onStreet(parameters.get("street"));
+        }
+
+        if(Boolean.parseBoolean(parameters.get("pool")))
+        {
+            query.withPool();
+        }
+        return query;
+    }
+
+    private static Predicate<Property> toFilter(final ListingQuery query)
+    {
+        Predicate<Property> filter;
+        filter = PropertyFilters.all();
+
+        for(Predicate<Property> criterion : query.residualFilters(null))
+        {
+            filter = filter.and(criterion);
+        }
+        return filter;
+    }
+
+    private static GroupAggregation.Dimension[] toDimensions(final Map<String, String> parameters)
+    {
+        String[]                     names;
+        GroupAggregation.Dimension[] dimensions;
+
+        if(!parameters.containsKey("by") || parameters.get("by").isEmpty())
+        {
+            return new GroupAggregation.Dimension[0];
+        }
+
+        names      = parameters.get("by").split(",");
+        dimensions = new GroupAggregation.Dimension[names.length];
+
+        for(int i = 0; i < names.length; i++)
+        {
+            try
+            {
+                dimensions[i] = GroupAggregation.Dimension.valueOf(names[i].trim().toUpperCase());
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Invalid dimension: " + names[i]);
+            }
+        }
+        return dimensions;
+    }
+
+    private static double number(final Map<String, String> parameters, final String name, final double absent)
+    {
+        if(!parameters.containsKey(name))
+        {
+            return absent;
+        }
+
+        try
+        {
+            return Double.parseDouble(parameters.get(name));
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid " + name + ": " + parameters.get(name));
+        }
+    }
+
+    private static Map<String, String> parse(final String rawQuery)
+    {
+        Map<String, String> parameters;
+        parameters = new HashMap<>();
+
+        if(rawQuery == null)
+        {
+            return parameters;
+        }
+
+        for(String pair : rawQuery.split("&"))
+        {
+            int equals;
+            equals = pair.indexOf('=');
+
+            if(equals > 0)
+            {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * This method sends the headers of a chunked JSON response and returns its body.
+     */
+    private static OutputStream begin(final HttpExchange exchange, final int status) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, 0);
+        return exchange.getResponseBody();
+    }
+
+    private static void sendError(final HttpExchange exchange, final int status, final String message)
+            throws IOException
+    {
+        if(exchange.getResponseCode() != -1)
+        {
+            // the response had already started; closing the exchange cuts it short
+            return;
+        }
+
+        try(OutputStream body = begin(exchange, status))
+        {
+            JsonStreamWriter json;
+            json = new JsonStreamWriter(body);
+
+            json.beginObject().name("error").value(message).endObject();
+            json.flush();
+        }
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively so the class also runs on
+     * JDKs without virtual threads, or null if there is none.
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgencyHttpServerTest
+{
+    private Agency agency;
+    private AgencyHttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        agency = new Agency("Http Ltd");
+
+        for(int i = 0; i < 200; i++)
+        {
+            Address address = new Address(null, 1 + i, i % 2 == 0 ? "elm street" : "main street", "v7r2g2",
+                    i % 4 < 2 ? "surrey" : "burnaby");
+
+            agency.addProperty(new Property(1000.0 * (i + 1), address, 1 + i % 5, i % 3 == 0,
+                    i % 3 == 0 ? "retail" : "residence", "p" + i));
+        }
+        server = new AgencyHttpServer(agency, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 8);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        server.close();
+        server = null;
+        agency = null;
+    }
+
+    private int status(final String path) throws IOException
+    {
+        return open(path).getResponseCode();
+    }
+
+    private String get(final String path) throws IOException
+    {
+        HttpURLConnection connection = open(path);
+
+        try(InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream()
+                : connection.getErrorStream())
+        {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private HttpURLConnection open(final String path) throws IOException
+    {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+    }
+
+    @Test
+    void getProperty() throws IOException
+    {
+        String body = get("/properties/p3");
+
+        assertTrue(body.startsWith("{\"id\":\"p3\",\"price\":4000,\"bedrooms\":4,\"pool\":true,\"type\":\"retail\""),
+                body);
+        assertEquals(404, status("/properties/nope"));
+        assertEquals(404, status("/nothing"));
+    }
+
+    @Test
+    void queries() throws IOException
+    {
+        String byPrice  = get("/properties?minPrice=1000&maxPrice=3000");
+        String combined = get("/properties?street=elm%20street&type=retail&maxBedrooms=2");
+
+        assertEquals(3, byPrice.split("\"id\"").length - 1);
+        assertEquals(14, combined.split("\"id\"").length - 1, combined);
+        assertEquals("[]", get("/properties?minPrice=1&maxPrice=2"));
+
+        // a broad query is planned as a full scan and streamed from forEachProperty
+        assertEquals(200, get("/properties").split("\"id\"").length - 1);
+        assertEquals(67, get("/properties?pool=true&minBedrooms=1").split("\"id\"").length - 1);
+        assertEquals(400, status("/properties?minPrice=cheap"));
+        assertTrue(get("/properties?minPrice=cheap").contains("Invalid minPrice: cheap"));
+    }
+
+    @Test
+    void aggregates() throws IOException
+    {
+        String byCity = get("/aggregates?by=city&pool=true");
+
+        assertEquals(2, byCity.split("\"key\"").length - 1, byCity);
+        assertTrue(byCity.contains("{\"key\":{\"city\":\"surrey\"},\"count\":33,"), byCity);
+        assertEquals(400, status("/aggregates?by=colour"));
+    }
+
+    @Test
+    void loadTest() throws InterruptedException
+    {
+        AtomicInteger ok       = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed   = new AtomicInteger();
+        List<Thread>  clients  = new ArrayList<>();
+
+        for(int c = 0; c < 32; c++)
+        {
+            Thread client = new Thread(() -> {
+                for(int i = 0; i < 25; i++)
+                {
+                    try
+                    {
+                        int status = status("/properties?minPrice=0&maxPrice=150000&type=residence");
+
+                        if(status == 200)
+                        {
+                            ok.incrementAndGet();
+                        }
+                        else if(status == 503)
+                        {
+                            rejected.incrementAndGet();
+                        }
+                        else
+                        {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    catch(IOException e)
+                    {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+
+        for(Thread client : clients)
+        {
+            client.join();
+        }
+
+        assertEquals(0, failed.get());
+        assertEquals(800, ok.get() + rejected.get());
+        assertTrue(ok.get() > 0);
+        assertEquals(rejected.get(), server.getRejectedCount());
+    }
+}
@@ -0,0 +1,657 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a registry that partitions listings into a fixed number of shards, each of them an
+ * Agency guarded by its own read-write lock. Queries are scattered to every shard in parallel and the
+ * partial results are gathered into one answer, so a slow or reloading shard only holds up its own listings.
+ * Each shard keeps a Bloom filter over its property IDs, added to on insert and rebuilt once removals have
+ * made it stale, so a lookup or removal of an ID a shard does not hold skips that shard, and its lock,
+ * entirely.
+ */
+public class AgencyRegistry
+{
+    private final Shard[]      shards;
+    private final Partitioning partitioning;
+    private final Executor     executor;
+
+    private static final int VALID_MIN_SHARD_COUNT = 1;
+    private static final Comparator<Property> BY_PRICE = Comparator.comparingDouble(Property::getPriceUsd);
+    private static final int    MIN_FILTER_SIZE = 1024;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * How the listings are assigned to shards.
+     */
+    public enum Partitioning
+    {
+        /** By hash of the property ID, which spreads listings evenly. */
+        PROPERTY_ID,
+        /** By hash of the lower-case city name, which keeps a city on one shard. */
+        CITY
+    }
+
+    /**
+     * Constructor, creates a registry whose queries run on the common fork-join pool.
+     * @param shardCount The number of shards, must be positive.
+     * @param partitioning How the listings are assigned to shards, cannot be null.
+     * @throws IllegalArgumentException If the shard count is not positive.
+     */
+    AgencyRegistry(final int shardCount, final Partitioning partitioning)
+    {
+        this(shardCount, partitioning, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor, valid all registry information before initialize the object.
+     * @param shardCount The number of shards, must be positive.
+     * @param partitioning How the listings are assigned to shards, cannot be null.
+     * @param executor The executor the per-shard queries run on, cannot be null.
+     * @throws IllegalArgumentException If the shard count is not positive.
+     */
+    AgencyRegistry(final int shardCount, final Partitioning partitioning, final Executor executor)
+    {
+        if(shardCount < VALID_MIN_SHARD_COUNT)
+        {
+            throw new IllegalArgumentException("Invalid shard count: " + shardCount);
+        }
+
+        if(partitioning == null)
+        {
+            throw new NullPointerException("Invalid partitioning: null");
+        }
+
+        if(executor == null)
+        {
+            throw new NullPointerException("Invalid executor: null");
+        }
+
+        this.shards       = new Shard[shardCount];
+        this.partitioning = partitioning;
+        this.executor     = executor;
+
+        for(int i = 0; i < shardCount; i++)
+        {
+            shards[i] = new Shard(new Agency("shard-" + i));
+        }
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public int getShardCount()
+    {
+        return shards.length;
+    }
+
+    /**
+     * @param property The property to be placed.
+     * @return The index of the shard the property belongs to.
+     */
+    public int shardOf(final Property property)
+    {
+        if(partitioning == Partitioning.CITY)
+        {
+            return Math.floorMod(property.getAddress().getCity().toLowerCase().hashCode(), shards.length);
+        }
+        return shardOf(property.getPropertyId());
+    }
+
+    /**
+     * @param propertyId The property ID to be placed.
+     * @return The index of the shard the ID belongs to when partitioning by property ID.
+     */
+    private int shardOf(final String propertyId)
+    {
+        return Math.floorMod(propertyId.hashCode(), shards.length);
+    }
+
+    /**
+     * This method adds the non-null property to its shard, under that shard's write lock only.
+     * When partitioning by city, a property that moved city is removed from its previous shard.
+     * @param property The property to be added.
+     */
+    public void addProperty(final Property property)
+    {
+        if(property == null)
+        {
+            return;
+        }
+
+        if(partitioning == Partitioning.CITY)
+        {
+            int target;
+            target = shardOf(property);
+
+            for(int i = 0; i < shards.length; i++)
+            {
+                if(i != target)
+                {
+                    shards[i].remove(property.getPropertyId());
+                }
+            }
+        }
+        shards[shardOf(property)].add(property);
+    }
+
+    /**
+     * This method removes the property whose ID matches the parameter from its shard.
+     * @param propertyId The property ID to be removed.
+     */
+    public void removeProperty(final String propertyId)
+    {
+        if(partitioning == Partitioning.PROPERTY_ID)
+        {
+            shards[shardOf(propertyId)].remove(propertyId);
+            return;
+        }
+
+        for(Shard shard : shards)
+        {
+            shard.remove(propertyId);
+        }
+    }
+
+    /**
+     * The listing returned is the one the shard holds; its setPriceUsd takes the shard's write lock, as
+     * setPropertyPrice does, so calling it from inside a query of the registry throws IllegalStateException.
+     * @param propertyId The property ID to be matched.
+     * @return The property whose ID matches the parameter, or null if there is no match.
+     */
+    public Property getProperty(final String propertyId)
+    {
+        if(partitioning == Partitioning.PROPERTY_ID)
+        {
+            return shards[shardOf(propertyId)].get(propertyId);
+        }
+
+        for(Shard shard : shards)
+        {
+            Property property;
+            property = shard.get(propertyId);
+
+            if(property != null)
+            {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method sets the price of the property whose ID matches the parameter, under its shard's write lock.
+     * @param propertyId The ID of the property to be re-priced.
+     * @param priceInUsd The new price, in USD, finite and not negative.
+     * @throws IllegalArgumentException If the price is not valid.
+     */
+    public void setPropertyPrice(final String propertyId, final double priceInUsd)
+    {
+        if(!Property.isValidPrice(priceInUsd))
+        {
+            throw new IllegalArgumentException("Invalid price: " + priceInUsd);
+        }
+
+        if(partitioning == Partitioning.PROPERTY_ID)
+        {
+            shards[shardOf(propertyId)].setPrice(propertyId, priceInUsd);
+            return;
+        }
+
+        for(Shard shard : shards)
+        {
+            shard.setPrice(propertyId, priceInUsd);
+        }
+    }
+
+    /**
+     * This method replaces the contents of one shard. The new shard is built without holding any lock and
+     * swapped in under the shard's write lock, so loading never blocks queries on the other shards.
+     * @param shardIndex The index of the shard to be loaded.
+     * @param properties The properties of the shard; each must belong to the shard.
+     * @throws IllegalArgumentException If a property belongs to another shard.
+     */
+    public void loadShard(final int shardIndex, final Collection<Property> properties)
+    {
+        Agency loaded;
+        loaded = new Agency("shard-" + shardIndex);
+
+        for(Property property : properties)
+        {
+            if(shardOf(property) != shardIndex)
+            {
+                throw new IllegalArgumentException("Invalid shard for property: " + property.getPropertyId());
+            }
+            loaded.addProperty(property);
+        }
+        shards[shardIndex].replace(loaded);
+    }
+
+    /**
+     * @return The number of lookups and removals of absent IDs the shards' Bloom filters answered without
+     * touching a shard.
+     */
+    public long getFilteredMissCount()
+    {
+        long misses;
+        misses = 0;
+
+        for(Shard shard : shards)
+        {
+            misses += shard.filteredMisses.get();
+        }
+        return misses;
+    }
+
+    /**
+     * @return The number of lookups and removals that passed a shard's Bloom filter but found nothing.
+     */
+    public long getFalsePositiveCount()
+    {
+        long falsePositives;
+        falsePositives = 0;
+
+        for(Shard shard : shards)
+        {
+            falsePositives += shard.falsePositives.get();
+        }
+        return falsePositives;
+    }
+
+    /**
+     * @return The observed false positive rate of the shards' Bloom filters: the share of probes for absent
+     * IDs that passed the filter, or 0 if there were none.
+     */
+    public double getFalsePositiveRate()
+    {
+        long falsePositives;
+        long absent;
+
+        falsePositives = getFalsePositiveCount();
+        absent         = falsePositives + getFilteredMissCount();
+
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * @param shardIndex The index of the shard.
+     * @return The false positive rate expected of the shard's Bloom filter from the IDs it holds.
+     */
+    public double getExpectedFalsePositiveRate(final int shardIndex)
+    {
+        return shards[shardIndex].ids.getExpectedFalsePositiveRate();
+    }
+
+    /**
+     * @return The number of properties across all shards.
+     */
+    public int getPropertyCount()
+    {
+        int count;
+        count = 0;
+
+        for(Integer shardCount : scatter(Agency::getPropertyCount))
+        {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The total amount in USD of all properties across all shards.
+     */
+    public double getTotalPropertyValues()
+    {
+        return getPriceStatistics(PropertyFilters.all()).getSum();
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return The price statistics of the matching properties of every shard, merged.
+     */
+    public PriceStatistics getPriceStatistics(final Predicate<Property> filter)
+    {
+        PriceStatistics statistics;
+        statistics = new PriceStatistics();
+
+        for(PriceStatistics shardStatistics : scatter(agency -> agency.getPriceStatistics(filter)))
+        {
+            statistics.merge(shardStatistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * @param q The quantile, from 0 to 1, such as 0.5 for the median.
+     * @param filter The filter the properties must pass.
+     * @return The price at the quantile of the matching properties of every shard, within 1% of the true
+     * price, or NaN if there are none. Each shard returns a sketch; only the sketches are merged.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double getPriceQuantile(final double q, final Predicate<Property> filter)
+    {
+        QuantileSketch sketch;
+        sketch = new QuantileSketch();
+
+        for(QuantileSketch shardSketch : scatter(agency -> agency.getPriceSketch(filter)))
+        {
+            sketch.merge(shardSketch);
+        }
+        return sketch.quantile(q);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return An ArrayList of the matching properties of every shard, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Predicate<Property> filter)
+    {
+        ArrayList<Property> propertiesMatching;
+        propertiesMatching = new ArrayList<>();
+
+        for(ArrayList<Property> shardMatches : scatter(agency -> agency.getPropertiesMatching(filter)))
+        {
+            if(shardMatches != null)
+            {
+                propertiesMatching.addAll(shardMatches);
+            }
+        }
+
+        if(propertiesMatching.size() == 0)
+        {
+            return null;
+        }
+        return propertiesMatching;
+    }
+
+    /**
+     * @param minUsd The minimum price of the property, in USD.
+     * @param maxUsd The maximum price of the property, in USD.
+     * @return An ArrayList of the properties of every shard whose price falls in the range, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesBetween(final double minUsd, final double maxUsd)
+    {
+        return getPropertiesMatching(PropertyFilters.priceBetween(minUsd, maxUsd));
+    }
+
+    /**
+     * Each shard keeps only its own k most expensive matches, so the gather step merges at most
+     * k properties per shard.
+     * @param k The number of properties to return.
+     * @param filter The filter the properties must pass.
+     * @return An ArrayList of up to k matching properties, most expensive first.
+     */
+    public ArrayList<Property> getMostExpensive(final int k, final Predicate<Property> filter)
+    {
+        PriorityQueue<Property> top;
+        ArrayList<Property>     mostExpensive;
+
+        if(k <= 0)
+        {
+            return new ArrayList<>();
+        }
+
+        top = new PriorityQueue<>(BY_PRICE);
+
+        for(List<Property> shardTop : scatter(agency -> topOf(agency, k, filter)))
+        {
+            for(Property property : shardTop)
+            {
+                offer(top, property, k);
+            }
+        }
+
+        mostExpensive = new ArrayList<>(top);
+        mostExpensive.sort(BY_PRICE.reversed());
+        return mostExpensive;
+    }
+
+    /**
+     * @return The k most expensive properties of one shard that pass the filter, in no particular order.
+     */
+    private static List<Property> topOf(final Agency agency, final int k, final Predicate<Property> filter)
+    {
+        PriorityQueue<Property> top;
+        top = new PriorityQueue<>(BY_PRICE);
+
+        // the listings stream through the heap, so only k of them are held however many match
+        agency.forEachProperty(property -> {
+            if(filter.test(property))
+            {
+                offer(top, property, k);
+            }
+        });
+        return new ArrayList<>(top);
+    }
+
+    /**
+     * This method keeps the k most expensive properties in a min-heap on price.
+     */
+    private static void offer(final PriorityQueue<Property> top, final Property property, final int k)
+    {
+        if(top.size() < k)
+        {
+            top.add(property);
+        }
+        else if(property.getPriceUsd() > top.peek().getPriceUsd())
+        {
+            top.poll();
+            top.add(property);
+        }
+    }
+
+    /**
+     * This method runs the query on every shard in parallel, each under its shard's read lock.
+     * @param query The per-shard query.
+     * @param <T> The type of the per-shard result.
+     * @return The per-shard results, in shard order.
+     */
+    private <T> List<T> scatter(final Function<Agency, T> query)
+    {
+        List<CompletableFuture<T>> futures;
+        List<T>                    results;
+
+        futures = new ArrayList<>(shards.length);
+        results = new ArrayList<>(shards.length);
+
+        for(Shard shard : shards)
+        {
+            futures.add(CompletableFuture.supplyAsync(() -> shard.read(query), executor));
+        }
+
+        for(CompletableFuture<T> future : futures)
+        {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * One shard: an Agency, the lock guarding it and the Bloom filter over its IDs.
+     */
+    private static final class Shard
+    {
+        private final ReentrantReadWriteLock lock;
+        private final long           lockOrder;
+        private final AtomicLong     filteredMisses;
+        private final AtomicLong     falsePositives;
+        private Agency               agency;
+        private volatile BloomFilter ids;
+        private int                  removedSinceBuild;
+
+        private Shard(final Agency agency)
+        {
+            this.lock           = new ReentrantReadWriteLock();
+            this.lockOrder      = Agency.nextLockOrder();
+            this.filteredMisses = new AtomicLong();
+            this.falsePositives = new AtomicLong();
+            this.agency         = agency;
+            this.ids            = filterOf(agency);
+
+            agency.setLocks(lock, lockOrder);
+        }
+
+        /**
+         * @return The property with the ID, or null; an ID the filter rejects is answered without the lock.
+         */
+        private Property get(final String propertyId)
+        {
+            Property property;
+
+            if(!ids.mightContain(propertyId))
+            {
+                filteredMisses.incrementAndGet();
+                return null;
+            }
+
+            property = read(agency -> agency.getProperty(propertyId));
+
+            if(property == null)
+            {
+                falsePositives.incrementAndGet();
+            }
+            return property;
+        }
+
+        /**
+         * This method adds the property, adding its ID to the filter first so no lookup can miss it.
+         */
+        private void add(final Property property)
+        {
+            write(agency -> {
+                ids.add(property.getPropertyId());
+                agency.addProperty(property);
+
+                if(ids.getInsertionCount() > ids.getExpectedInsertions())
+                {
+                    rebuildFilter();
+                }
+            });
+        }
+
+        /**
+         * This method removes the property with the ID, skipping the shard if the filter rejects the ID.
+         * The filter is rebuilt once the removals since it was built reach half the listings.
+         */
+        private void remove(final String propertyId)
+        {
+            if(!ids.mightContain(propertyId))
+            {
+                filteredMisses.incrementAndGet();
+                return;
+            }
+
+            write(agency -> {
+                int count;
+                count = agency.getPropertyCount();
+
+                agency.removeProperty(propertyId);
+
+                if(agency.getPropertyCount() == count)
+                {
+                    falsePositives.incrementAndGet();
+                }
+                else if(++removedSinceBuild > Math.max(MIN_FILTER_SIZE, agency.getPropertyCount()) / 2)
+                {
+                    rebuildFilter();
+                }
+            });
+        }
+
+        /**
+         * This method re-prices the property with the ID, skipping the shard if the filter rejects the ID.
+         * The agency takes the shard's write lock itself, so it is not held here: re-pricing a listing takes
+         * the locks of every agency holding it, in their lock order.
+         */
+        private void setPrice(final String propertyId, final double priceInUsd)
+        {
+            Agency current;
+
+            if(!ids.mightContain(propertyId))
+            {
+                filteredMisses.incrementAndGet();
+                return;
+            }
+            current = read(agency -> agency);
+            current.setPropertyPrice(propertyId, priceInUsd);
+        }
+
+        /**
+         * This method rebuilds the filter from the listings; the caller holds the write lock.
+         */
+        private void rebuildFilter()
+        {
+            ids               = filterOf(agency);
+            removedSinceBuild = 0;
+        }
+
+        /**
+         * @return A filter over the IDs of the agency, sized for twice as many.
+         */
+        private static BloomFilter filterOf(final Agency agency)
+        {
+            BloomFilter filter;
+            filter = new BloomFilter(Math.max(MIN_FILTER_SIZE, agency.getPropertyCount() * 2), FALSE_POSITIVE_RATE);
+
+            agency.forEachProperty(property -> filter.add(property.getPropertyId()));
+            return filter;
+        }
+
+        private <T> T read(final Function<Agency, T> query)
+        {
+            lock.readLock().lock();
+            try
+            {
+                return query.apply(agency);
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void write(final Consumer<Agency> update)
+        {
+            lock.writeLock().lock();
+            try
+            {
+                update.accept(agency);
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void replace(final Agency loaded)
+        {
+            BloomFilter filter;
+            filter = filterOf(loaded);
+
+            loaded.setLocks(lock, lockOrder);
+            lock.writeLock().lock();
+            try
+            {
+                agency            = loaded;
+                ids               = filter;
+                removedSinceBuild = 0;
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
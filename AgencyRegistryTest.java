@@ -0,0 +1,277 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgencyRegistryTest
+{
+    private AgencyRegistry byId;
+    private AgencyRegistry byCity;
+    private List<Property> properties;
+
+    @BeforeEach
+    void setUp()
+    {
+        byId       = new AgencyRegistry(4, AgencyRegistry.Partitioning.PROPERTY_ID);
+        byCity     = new AgencyRegistry(3, AgencyRegistry.Partitioning.CITY);
+        properties = new ArrayList<>();
+
+        String[] cities = {"surrey", "vancouver", "burnaby", "richmond"};
+
+        for(int i = 1; i <= 40; i++)
+        {
+            Address address = new Address(null, i, "main street", "v7r2g2", cities[i % cities.length]);
+            properties.add(new Property(i * 1000.0, address, 1 + i % 5, i % 2 == 0, "residence", "p" + i));
+        }
+
+        for(Property property : properties)
+        {
+            byId.addProperty(property);
+            byCity.addProperty(property);
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        byId       = null;
+        byCity     = null;
+        properties = null;
+    }
+
+    @Test
+    void getExpectedExceptions()
+    {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            new AgencyRegistry(0, AgencyRegistry.Partitioning.CITY);
+        });
+        assertTrue(ex.getMessage().equals("Invalid shard count: 0"));
+
+        NullPointerException ex2 = assertThrows(NullPointerException.class, ()->{
+            new AgencyRegistry(2, null);
+        });
+        assertTrue(ex2.getMessage().equals("Invalid partitioning: null"));
+    }
+
+    @Test
+    void addGetRemoveProperty()
+    {
+        for(AgencyRegistry registry : new AgencyRegistry[]{byId, byCity})
+        {
+            assertEquals(40, registry.getPropertyCount());
+            assertSame(properties.get(6), registry.getProperty("p7"));
+
+            registry.removeProperty("p7");
+
+            assertNull(registry.getProperty("p7"));
+            assertEquals(39, registry.getPropertyCount());
+            assertNull(registry.getProperty("nope"));
+        }
+    }
+
+    @Test
+    void addPropertyMovedCity()
+    {
+        Address moved = new Address(null, 1, "main street", "v7r2g2", "kelowna");
+        Property replacement = new Property(5.0, moved, 1, false, "residence", "p1");
+
+        byCity.addProperty(replacement);
+
+        assertEquals(40, byCity.getPropertyCount());
+        assertSame(replacement, byCity.getProperty("p1"));
+    }
+
+    @Test
+    void aggregates()
+    {
+        double total = 1000.0 * 40 * 41 / 2;
+
+        assertEquals(total, byId.getTotalPropertyValues());
+        assertEquals(total, byCity.getTotalPropertyValues());
+
+        PriceStatistics withPools = byId.getPriceStatistics(PropertyFilters.withPool());
+
+        assertEquals(20, withPools.getCount());
+        assertEquals(2000.0, withPools.getMin());
+        assertEquals(40000.0, withPools.getMax());
+        assertEquals(21000.0, withPools.getAverage());
+    }
+
+    @Test
+    void getPropertiesBetween()
+    {
+        assertEquals(11, byCity.getPropertiesBetween(10000, 20000).size());
+        assertNull(byId.getPropertiesBetween(-2, -1));
+    }
+
+    @Test
+    void getMostExpensive()
+    {
+        ArrayList<Property> top = byId.getMostExpensive(3, PropertyFilters.all());
+
+        assertEquals(3, top.size());
+        assertEquals("p40", top.get(0).getPropertyId());
+        assertEquals("p39", top.get(1).getPropertyId());
+        assertEquals("p38", top.get(2).getPropertyId());
+
+        ArrayList<Property> topWithPool = byCity.getMostExpensive(2, PropertyFilters.withPool());
+
+        assertEquals("p40", topWithPool.get(0).getPropertyId());
+        assertEquals("p38", topWithPool.get(1).getPropertyId());
+
+        assertEquals(40, byId.getMostExpensive(100, PropertyFilters.all()).size());
+        assertEquals(0, byId.getMostExpensive(0, PropertyFilters.all()).size());
+    }
+
+    @Test
+    void loadShard()
+    {
+        List<Property> shardZero = new ArrayList<>();
+
+        for(Property property : properties)
+        {
+            if(byId.shardOf(property) == 0)
+            {
+                shardZero.add(property);
+            }
+        }
+
+        byId.loadShard(0, shardZero.subList(0, 1));
+
+        assertEquals(40 - shardZero.size() + 1, byId.getPropertyCount());
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            byId.loadShard(1, shardZero);
+        });
+        assertTrue(ex.getMessage().startsWith("Invalid shard for property: "));
+    }
+
+    @Test
+    void getPriceQuantile()
+    {
+        assertEquals(20000, byId.getPriceQuantile(0.5, PropertyFilters.all()), 200);
+        assertEquals(20000, byCity.getPriceQuantile(0.5, PropertyFilters.all()), 200);
+        assertEquals(40000, byCity.getPriceQuantile(1, PropertyFilters.all()), 400);
+        assertEquals(1000, byCity.getPriceQuantile(0, PropertyFilters.inCity("vancouver")), 10);
+        assertTrue(Double.isNaN(byId.getPriceQuantile(0.5, PropertyFilters.withPool().and(p -> false))));
+    }
+
+    @Test
+    void bloomFilteredMisses()
+    {
+        long filtered = byCity.getFilteredMissCount();
+        long falsePositives = byCity.getFalsePositiveCount();
+
+        for(int i = 0; i < 1000; i++)
+        {
+            assertNull(byCity.getProperty("q" + i));
+            byId.removeProperty("q" + i);
+        }
+
+        assertEquals(3000, byCity.getFilteredMissCount() - filtered + byCity.getFalsePositiveCount() - falsePositives);
+        assertEquals(1000, byId.getFilteredMissCount() + byId.getFalsePositiveCount());
+        assertTrue(byCity.getFalsePositiveRate() < 0.05);
+        assertTrue(byId.getExpectedFalsePositiveRate(0) < 0.01);
+        assertSame(properties.get(0), byCity.getProperty("p1"));
+        assertEquals(40, byId.getPropertyCount());
+    }
+
+    @Test
+    void bloomFilterRebuild()
+    {
+        AgencyRegistry registry = new AgencyRegistry(1, AgencyRegistry.Partitioning.PROPERTY_ID);
+
+        for(int i = 0; i < 3000; i++)
+        {
+            registry.addProperty(new Property(1000, properties.get(0).getAddress(), 1, false, "retail", "r" + i));
+        }
+
+        for(int i = 0; i < 3000; i++)
+        {
+            registry.removeProperty("r" + i);
+            assertNull(registry.getProperty("r" + i));
+        }
+
+        assertEquals(0, registry.getPropertyCount());
+        assertTrue(registry.getExpectedFalsePositiveRate(0) < 0.001);
+
+        registry.addProperty(new Property(1000, properties.get(0).getAddress(), 1, false, "retail", "r1"));
+        assertNotNull(registry.getProperty("r1"));
+    }
+
+    @Test
+    void setPropertyPrice()
+    {
+        for(AgencyRegistry registry : new AgencyRegistry[]{byId, byCity})
+        {
+            registry.setPropertyPrice("p7", 123.0);
+            registry.setPropertyPrice("nope", 1.0);
+
+            assertEquals(123.0, registry.getProperty("p7").getPriceUsd());
+            assertEquals(1, registry.getPropertiesBetween(123, 123).size());
+            assertThrows(IllegalArgumentException.class, () -> registry.setPropertyPrice("p7", Double.NaN));
+        }
+    }
+
+    @Test
+    void setPriceUsdWaitsForReaders() throws InterruptedException
+    {
+        AgencyRegistry registry = new AgencyRegistry(1, AgencyRegistry.Partitioning.PROPERTY_ID);
+        CountDownLatch reading  = new CountDownLatch(1);
+        CountDownLatch release  = new CountDownLatch(1);
+        Property       held     = properties.get(0);
+
+        registry.addProperty(held);
+
+        Thread reader = new Thread(() -> registry.getPropertiesMatching(property -> {
+            reading.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }));
+        Thread writer = new Thread(() -> registry.getProperty(held.getPropertyId()).setPriceUsd(5.0));
+
+        reader.start();
+        reading.await();
+        writer.start();
+        writer.join(100);
+
+        assertTrue(writer.isAlive());
+        assertEquals(1000.0, held.getPriceUsd());
+
+        release.countDown();
+        reader.join();
+        writer.join();
+
+        assertEquals(5.0, held.getPriceUsd());
+        assertEquals(1, registry.getPropertiesBetween(5, 5).size());
+    }
+
+    @Test
+    void setPriceUsdInsideQueryThrows()
+    {
+        CompletionException thrown;
+
+        // the filter holds the shard's read lock, which cannot be upgraded to re-price the listing
+        thrown = assertThrows(CompletionException.class, () -> byId.getPropertiesMatching(property -> {
+            property.setPriceUsd(1.0);
+            return true;
+        }));
+
+        assertTrue(thrown.getCause() instanceof IllegalStateException);
+        assertNull(byId.getPropertiesBetween(1, 1));
+    }
+}
@@ -0,0 +1,595 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a point-in-time view of an Agency. Taking one pins a version number, and if no other
+ * snapshot is open and no history is retained, copies the listings a batch at a time, letting the writer in
+ * between batches; its queries read the frozen copies of
+ * the properties as they were at that version, without blocking the writer, so a report made of several
+ * queries is consistent. Every query of Agency is answered here by a pass over the frozen copies, since the
+ * indexes of the agency follow its current version only; prices in other currencies are converted at the
+ * FX rates of the agency when the snapshot was taken. Duplicate detection, aliases, expiry times and query
+ * plans describe the agency as it is now and are not offered. The properties it returns are frozen copies
+ * and must not be re-priced. Close the snapshot when done so that the versions it pins can be freed.
+ */
+public class AgencySnapshot implements AutoCloseable
+{
+    private final String       name;
+    private final VersionStore store;
+    private final long         version;
+    private final FxRateTable  rates;
+    private volatile boolean   closed;
+
+    /**
+     * Constructor, wraps a version already pinned in the store.
+     * @param name The name of the agency.
+     * @param store The version store of the agency.
+     * @param version The pinned version.
+     * @param rates The FX rates of the agency when the version was pinned.
+     */
+    AgencySnapshot(final String name, final VersionStore store, final long version, final FxRateTable rates)
+    {
+        this.name    = name;
+        this.store   = store;
+        this.version = version;
+        this.rates   = rates;
+    }
+
+    /**
+     * @return The version of the agency this snapshot sees.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return The property as it was at the snapshot, or null if there was no match.
+     * @throws IllegalStateException If the snapshot is closed.
+     */
+    public Property getProperty(final String propertyId)
+    {
+        checkOpen();
+        return store.get(propertyId, version);
+    }
+
+    /**
+     * This method performs the action on every property as it was at the snapshot.
+     * @param action The action to be performed.
+     * @throws IllegalStateException If the snapshot is closed.
+     */
+    public void forEachProperty(final Consumer<Property> action)
+    {
+        checkOpen();
+        store.forEach(version, action);
+    }
+
+    /**
+     * @return The number of properties at the snapshot.
+     */
+    public int getPropertyCount()
+    {
+        int[] count;
+        count = new int[1];
+
+        forEachProperty(property -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return An ArrayList of the properties at the snapshot that pass the filter, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Predicate<Property> filter)
+    {
+        return getPropertiesMatching(filter, QueryContext.create());
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @param context The cancellation token and deadline of the scan.
+     * @return An ArrayList of the properties at the snapshot that pass the filter, or null if there are none.
+     * @throws java.util.concurrent.CancellationException If the scan is cancelled or runs past its deadline.
+     */
+    public ArrayList<Property> getPropertiesMatching(final Predicate<Property> filter, final QueryContext context)
+    {
+        return Agency.matching(listings(), filter, context);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return The price statistics of the properties at the snapshot that pass the filter.
+     */
+    public PriceStatistics getPriceStatistics(final Predicate<Property> filter)
+    {
+        return Agency.statisticsOf(listings(), filter);
+    }
+
+    /**
+     * @return The total amount in USD of all properties at the snapshot.
+     */
+    public double getTotalPropertyValues()
+    {
+        return getPriceStatistics(PropertyFilters.all()).getSum();
+    }
+
+    /**
+     * @param currency The currency of the total, a code of the FX rates of the snapshot.
+     * @return The total amount of all properties at the snapshot in the currency.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double getTotalPropertyValues(final String currency)
+    {
+        return rates.convert(getTotalPropertyValues(), currency);
+    }
+
+    /**
+     * @param q The quantile, from 0 to 1, such as 0.5 for the median.
+     * @param filter The filter the properties must pass.
+     * @return The price at the quantile of the matching properties at the snapshot, within 1% of the true
+     * price, or NaN if there are none.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double getPriceQuantile(final double q, final Predicate<Property> filter)
+    {
+        return getPriceSketch(filter).quantile(q);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return A quantile sketch of the prices of the matching properties at the snapshot.
+     */
+    public QuantileSketch getPriceSketch(final Predicate<Property> filter)
+    {
+        return Agency.sketchOf(listings(), filter);
+    }
+
+    /**
+     * @return A quantile sketch of every price at the snapshot.
+     */
+    public QuantileSketch getPriceSketch()
+    {
+        return getPriceSketch(PropertyFilters.all());
+    }
+
+    /**
+     * @param propertyType The property type, case-insensitive.
+     * @return A quantile sketch of the prices of that type at the snapshot, empty if there are none.
+     */
+    public QuantileSketch getPriceSketchOfType(final String propertyType)
+    {
+        return getPriceSketch(PropertyFilters.ofType(propertyType));
+    }
+
+    /**
+     * @param city The city, case-insensitive.
+     * @return A quantile sketch of the prices in that city at the snapshot, empty if there are none.
+     */
+    public QuantileSketch getPriceSketchIn(final String city)
+    {
+        return getPriceSketch(PropertyFilters.inCity(city));
+    }
+
+    /**
+     * @param property The property to be valued, which need not belong to the agency, cannot be null.
+     * @param k The number of comparables to return.
+     * @return An ArrayList of up to k other properties at the snapshot most similar to the property, most
+     * similar first, see ComparablesIndex.
+     */
+    public ArrayList<Property> findComparables(final Property property, final int k)
+    {
+        ArrayList<Property> nearest;
+
+        if(property == null)
+        {
+            throw new NullPointerException("Invalid property: null");
+        }
+
+        nearest = new ArrayList<>();
+
+        forEachProperty(candidate -> {
+            if(Agency.comparableTo(property).test(candidate))
+            {
+                nearest.add(candidate);
+            }
+        });
+        Agency.keepNearest(nearest, property, k);
+        return nearest;
+    }
+
+    /**
+     * @param sinceEpochMillis The start of the period, in epoch milliseconds.
+     * @param k The number of properties to return.
+     * @return An ArrayList of up to k properties at the snapshot whose price fell during the period, largest
+     * drop in USD first.
+     */
+    public ArrayList<Property> getLargestPriceDrops(final long sinceEpochMillis, final int k)
+    {
+        return Agency.largestDrops(listings(), sinceEpochMillis, k);
+    }
+
+    /**
+     * @param fraction The minimum reduction, as a fraction of the price at the start, such as 0.1 for 10%.
+     * @param sinceEpochMillis The start of the period, in epoch milliseconds.
+     * @return An ArrayList of the properties at the snapshot whose price was reduced by at least the fraction
+     * during the period, or null if there are none.
+     * @throws IllegalArgumentException If the fraction is not between 0 exclusive and 1 inclusive.
+     */
+    public ArrayList<Property> getPropertiesReducedBy(final double fraction, final long sinceEpochMillis)
+    {
+        return getPropertiesMatching(Agency.reducedBy(fraction, sinceEpochMillis));
+    }
+
+    /**
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group of the properties at the snapshot.
+     */
+    public GroupAggregation aggregate(final GroupAggregation.Dimension... dimensions)
+    {
+        return aggregate(PropertyFilters.all(), dimensions);
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group of the matching properties at the snapshot.
+     */
+    public GroupAggregation aggregate(final Predicate<Property> filter, final GroupAggregation.Dimension... dimensions)
+    {
+        return Agency.aggregateOf(listings(), filter, dimensions);
+    }
+
+    /**
+     * This method collects the properties at the snapshot, aggregates one slice of them per worker of the
+     * common fork/join pool and merges the partial aggregations.
+     * @param parallelism The number of slices, must be positive.
+     * @param dimensions The dimensions to group by.
+     * @return The price statistics of every group, equal to aggregate.
+     * @throws IllegalArgumentException If the parallelism is not positive.
+     */
+    public GroupAggregation aggregateParallel(final int parallelism, final GroupAggregation.Dimension... dimensions)
+    {
+        List<CompletableFuture<GroupAggregation>> partials;
+        List<Property>                            properties;
+        GroupAggregation                          aggregation;
+        int                                       sliceSize;
+
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+
+        properties  = new ArrayList<>();
+        aggregation = new GroupAggregation(dimensions);
+        partials    = new ArrayList<>();
+
+        forEachProperty(properties::add);
+        sliceSize = Math.max(1, (properties.size() + parallelism - 1) / parallelism);
+
+        for(int start = 0; start < properties.size(); start += sliceSize)
+        {
+            List<Property> slice;
+            slice = properties.subList(start, Math.min(properties.size(), start + sliceSize));
+
+            partials.add(CompletableFuture.supplyAsync(
+                    () -> Agency.aggregateOf(slice, PropertyFilters.all(), dimensions)));
+        }
+
+        for(CompletableFuture<GroupAggregation> partial : partials)
+        {
+            aggregation.merge(partial.join());
+        }
+        return aggregation;
+    }
+
+    /**
+     * @return An ArrayList of the properties at the snapshot with the swimming pool, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesWithPools()
+    {
+        return getPropertiesMatching(PropertyFilters.withPool());
+    }
+
+    /**
+     * @param minUsd The minimum price of the property, in USD.
+     * @param maxUsd The maximum price of the property, in USD.
+     * @return An array of the properties at the snapshot whose price falls in the range, or null if there are none.
+     */
+    public Property[] getPropertiesBetween(final double minUsd, final double maxUsd)
+    {
+        return toArray(getPropertiesMatching(PropertyFilters.priceBetween(minUsd, maxUsd)));
+    }
+
+    /**
+     * @param min The minimum price of the property, in the currency.
+     * @param max The maximum price of the property, in the currency.
+     * @param currency The currency of the range, a code of the FX rates of the snapshot.
+     * @return An array of the properties at the snapshot whose price in the currency falls in the range,
+     * or null if there are none.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public Property[] getPropertiesBetween(final double min, final double max, final String currency)
+    {
+        double rate;
+        rate = rates.getRate(currency);
+
+        return toArray(getPropertiesMatching(property -> property.getPriceUsd() * rate >= min &&
+                property.getPriceUsd() * rate <= max));
+    }
+
+    /**
+     * @param k The number of properties to return.
+     * @param currency The currency the properties are ranked in, a code of the FX rates of the snapshot.
+     * @return An ArrayList of up to k properties at the snapshot with the highest prices in the currency,
+     * most expensive first.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public ArrayList<Property> getMostExpensive(final int k, final String currency)
+    {
+        rates.getRate(currency);
+        return Agency.mostExpensive(listings(), k);
+    }
+
+    /**
+     * @return The FX rates of the agency when the snapshot was taken.
+     */
+    public FxRateTable getFxRates()
+    {
+        return rates;
+    }
+
+    /**
+     * @param streetName The street name to be matched.
+     * @return An ArrayList of the addresses at the snapshot on the street, or null if there are none.
+     */
+    public ArrayList<Address> getPropertiesOn(final String streetName)
+    {
+        return Agency.addressesOn(listings(), streetName);
+    }
+
+    /**
+     * This method ranks the streets as Agency.searchPropertiesOn does, over a trigram index built for the call.
+     * @param streetQuery The street name to be matched, possibly misspelled or abbreviated.
+     * @param maxResults The maximum number of addresses to return.
+     * @return An ArrayList of the addresses at the snapshot on the streets most similar to the query, best match
+     * first, or null if there are none.
+     */
+    public ArrayList<Address> searchPropertiesOn(final String streetQuery, final int maxResults)
+    {
+        return search(true, streetQuery, maxResults);
+    }
+
+    /**
+     * This method ranks the cities as Agency.searchPropertiesIn does, over a trigram index built for the call.
+     * @param cityQuery The city name to be matched, possibly misspelled.
+     * @param maxResults The maximum number of addresses to return.
+     * @return An ArrayList of the addresses at the snapshot in the cities most similar to the query, best match
+     * first, or null if there are none.
+     */
+    public ArrayList<Address> searchPropertiesIn(final String cityQuery, final int maxResults)
+    {
+        return search(false, cityQuery, maxResults);
+    }
+
+    /**
+     * @param minLatitude The southern edge of the box, in degrees.
+     * @param minLongitude The western edge of the box, in degrees.
+     * @param maxLatitude The northern edge of the box, in degrees.
+     * @param maxLongitude The eastern edge of the box, in degrees.
+     * @return An ArrayList of the properties at the snapshot with coordinates inside the box, or null if there
+     * are none.
+     */
+    public ArrayList<Property> getPropertiesWithin(final double minLatitude, final double minLongitude,
+                                                   final double maxLatitude, final double maxLongitude)
+    {
+        return getPropertiesWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, PropertyFilters.all());
+    }
+
+    /**
+     * @param minLatitude The southern edge of the box, in degrees.
+     * @param minLongitude The western edge of the box, in degrees.
+     * @param maxLatitude The northern edge of the box, in degrees.
+     * @param maxLongitude The eastern edge of the box, in degrees.
+     * @param filter The filter the properties must also pass.
+     * @return An ArrayList of the properties at the snapshot with coordinates inside the box that pass the
+     * filter, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesWithin(final double minLatitude, final double minLongitude,
+                                                   final double maxLatitude, final double maxLongitude,
+                                                   final Predicate<Property> filter)
+    {
+        return getPropertiesMatching(Agency.within(minLatitude, minLongitude, maxLatitude, maxLongitude, filter));
+    }
+
+    /**
+     * @param latitude The latitude of the centre, in degrees.
+     * @param longitude The longitude of the centre, in degrees.
+     * @param radiusKm The radius around the centre, in kilometres.
+     * @return An ArrayList of the properties at the snapshot with coordinates within the radius, or null if
+     * there are none.
+     */
+    public ArrayList<Property> getPropertiesNear(final double latitude, final double longitude, final double radiusKm)
+    {
+        return getPropertiesNear(latitude, longitude, radiusKm, PropertyFilters.all());
+    }
+
+    /**
+     * @param latitude The latitude of the centre, in degrees.
+     * @param longitude The longitude of the centre, in degrees.
+     * @param radiusKm The radius around the centre, in kilometres.
+     * @param filter The filter the properties must also pass.
+     * @return An ArrayList of the properties at the snapshot with coordinates within the radius that pass the
+     * filter, or null if there are none.
+     */
+    public ArrayList<Property> getPropertiesNear(final double latitude, final double longitude, final double radiusKm,
+                                                 final Predicate<Property> filter)
+    {
+        return getPropertiesMatching(Agency.near(latitude, longitude, radiusKm, filter));
+    }
+
+    /**
+     * @param query The composite query to be matched, cannot be null.
+     * @return An ArrayList of the properties at the snapshot matching every criterion of the query, or null if
+     * there are none.
+     */
+    public ArrayList<Property> getProperties(final ListingQuery query)
+    {
+        return getProperties(query, QueryContext.create());
+    }
+
+    /**
+     * @param query The composite query to be matched, cannot be null.
+     * @param context The cancellation token and deadline of the scan.
+     * @return An ArrayList of the properties at the snapshot matching every criterion of the query, or null if
+     * there are none.
+     * @throws java.util.concurrent.CancellationException If the scan is cancelled or runs past its deadline.
+     */
+    public ArrayList<Property> getProperties(final ListingQuery query, final QueryContext context)
+    {
+        List<Predicate<Property>> criteria;
+
+        if(query == null)
+        {
+            throw new NullPointerException("Invalid query: null");
+        }
+
+        criteria = query.residualFilters(null);
+
+        return getPropertiesMatching(property -> {
+            for(Predicate<Property> criterion : criteria)
+            {
+                if(!criterion.test(property))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }, context);
+    }
+
+    /**
+     * @param minBedrooms The minimum number of bedrooms in the range.
+     * @param maxBedrooms The maximum number of bedrooms in the range.
+     * @return A HashMap of the properties at the snapshot (key is property id, value is the Property) whose
+     * number of bedrooms falls in the range, or null if there are none.
+     */
+    public HashMap<String, Property> getPropertiesWithBedrooms(final int minBedrooms, final int maxBedrooms)
+    {
+        HashMap<String, Property> propertiesWithBedrooms;
+        propertiesWithBedrooms = new HashMap<>();
+
+        forEachProperty(property -> {
+            if(property.getNumberOfBedrooms() >= minBedrooms && property.getNumberOfBedrooms() <= maxBedrooms)
+            {
+                propertiesWithBedrooms.put(property.getPropertyId(), property);
+            }
+        });
+
+        if(propertiesWithBedrooms.size() == 0)
+        {
+            return null;
+        }
+        return propertiesWithBedrooms;
+    }
+
+    /**
+     * @param propertyType The property type to be matched.
+     * @return The lines of Agency.getPropertiesOfType, over the properties at the snapshot.
+     */
+    public ArrayList<String> getPropertiesOfType(final String propertyType)
+    {
+        return getPropertiesOfType(propertyType, QueryContext.create());
+    }
+
+    /**
+     * @param propertyType The property type to be matched.
+     * @param context The cancellation token and deadline of the scan.
+     * @return The lines of Agency.getPropertiesOfType, over the properties at the snapshot.
+     * @throws java.util.concurrent.CancellationException If the scan is cancelled or runs past its deadline.
+     */
+    public ArrayList<String> getPropertiesOfType(final String propertyType, final QueryContext context)
+    {
+        return Agency.linesOfType(listings(), propertyType, context);
+    }
+
+    /**
+     * This method builds a separate Agency holding copies of the properties at the snapshot, with their price
+     * histories, for a caller that needs the indexes of a live agency. It costs one pass over the snapshot.
+     * @return A new agency equal to this agency at the snapshot.
+     */
+    public Agency toAgency()
+    {
+        Agency agency;
+        agency = new Agency(name);
+
+        forEachProperty(property -> agency.addProperty(property.copy()));
+        return agency;
+    }
+
+    /**
+     * This method releases the pinned version. Calling it again has no effect.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if(!closed)
+        {
+            closed = true;
+            store.release(version);
+        }
+    }
+
+    /**
+     * @return The properties at the snapshot, each pass checking the snapshot is open.
+     */
+    private Iterable<Property> listings()
+    {
+        return () -> {
+            checkOpen();
+            return store.iterator(version);
+        };
+    }
+
+    /**
+     * @return The addresses of Agency.search, over a trigram index of the streets or cities at the snapshot.
+     */
+    private ArrayList<Address> search(final boolean streets, final String query, final int maxResults)
+    {
+        TrigramIndex          index;
+        Map<String, Property> properties;
+
+        index      = new TrigramIndex();
+        properties = new HashMap<>();
+
+        forEachProperty(property -> {
+            index.add(streets ? property.getAddress().getStreetName() : property.getAddress().getCity(),
+                    property.getPropertyId());
+            properties.put(property.getPropertyId(), property);
+        });
+        return Agency.search(index, properties::get, query, maxResults);
+    }
+
+    /**
+     * @return The properties as an array, or null if there are none.
+     */
+    private static Property[] toArray(final List<Property> properties)
+    {
+        return properties == null ? null : properties.toArray(new Property[0]);
+    }
+
+    private void checkOpen()
+    {
+        if(closed)
+        {
+            throw new IllegalStateException("Snapshot closed: " + version);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgencySnapshotTest
+{
+    private Agency agency;
+
+    @BeforeEach
+    void setUp()
+    {
+        agency = new Agency("Snapshot Ltd");
+
+        for(int i = 0; i < 100; i++)
+        {
+            Address address = new Address(null, 1 + i, "main street", "v7r2g2", "surrey");
+
+            agency.addProperty(new Property(1000.0 * (i + 1), address, 1 + i % 5, i % 2 == 0,
+                    i % 3 == 0 ? "retail" : "residence", "p" + i));
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        agency = null;
+    }
+
+    @Test
+    void consistentReport()
+    {
+        try(AgencySnapshot snapshot = agency.snapshot())
+        {
+            double total = snapshot.getTotalPropertyValues();
+
+            agency.setPropertyPrice("p0", 1000000);
+            agency.removeProperty("p1");
+            agency.addProperty(new Property(1, new Address(null, 1, "elm street", "90210", "la"), 1, false,
+                    "retail", "new"));
+
+            assertEquals(100, snapshot.getPropertyCount());
+            assertEquals(total, snapshot.getTotalPropertyValues());
+            assertEquals(1000, snapshot.getProperty("p0").getPriceUsd());
+            assertNotNull(snapshot.getProperty("p1"));
+            assertNull(snapshot.getProperty("new"));
+            assertEquals(34, snapshot.getPropertiesMatching(PropertyFilters.ofType("retail")).size());
+
+            Agency copy = snapshot.toAgency();
+
+            assertEquals(100, copy.getPropertyCount());
+            assertEquals(total, copy.getTotalPropertyValues());
+            assertEquals(34, copy.getPropertiesOfType("retail").size() - 1);
+        }
+
+        assertEquals(100, agency.getPropertyCount());
+        assertEquals(1000000, agency.getProperty("p0").getPriceUsd());
+    }
+
+    @Test
+    void closedSnapshot()
+    {
+        AgencySnapshot snapshot = agency.snapshot();
+
+        assertEquals(agency.getVersion(), snapshot.getVersion());
+        snapshot.close();
+        snapshot.close();
+        assertThrows(IllegalStateException.class, () -> snapshot.getProperty("p0"));
+    }
+
+    @Test
+    void asOf()
+    {
+        long before = System.currentTimeMillis();
+
+        agency.retainHistory(60000);
+        assertThrows(IllegalArgumentException.class, () -> agency.retainHistory(-1));
+
+        try(AgencySnapshot snapshot = agency.snapshotAsOf(before))
+        {
+            agency.setPropertyPrice("p5", 1);
+            assertEquals(6000, snapshot.getProperty("p5").getPriceUsd());
+        }
+        assertThrows(IllegalStateException.class, () -> agency.snapshotAsOf(before - 120000));
+    }
+
+    @Test
+    void readersDoNotBlockWriter() throws InterruptedException
+    {
+        AtomicBoolean consistent = new AtomicBoolean(true);
+        AtomicBoolean done       = new AtomicBoolean(false);
+        Thread        reader;
+
+        reader = new Thread(() -> {
+            while(!done.get())
+            {
+                try(AgencySnapshot snapshot = agency.snapshot())
+                {
+                    // the writer moves 1 USD between two properties per version pair; totals at even versions match
+                    if(snapshot.getVersion() % 2 == 0 && snapshot.getTotalPropertyValues() != 5050000)
+                    {
+                        consistent.set(false);
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for(int i = 0; i < 20000; i++)
+        {
+            Property from = agency.getProperty("p" + (i % 100));
+            Property to   = agency.getProperty("p" + ((i + 1) % 100));
+
+            agency.setPropertyPrice(from.getPropertyId(), from.getPriceUsd() - 1);
+            agency.setPropertyPrice(to.getPropertyId(), to.getPriceUsd() + 1);
+        }
+        done.set(true);
+        reader.join();
+
+        assertTrue(consistent.get());
+        assertEquals(5050000, agency.getTotalPropertyValues());
+    }
+
+    @Test
+    void queriesSeePinnedVersion()
+    {
+        try(AgencySnapshot snapshot = agency.snapshot())
+        {
+            agency.setPropertyPrice("p99", 1);
+            agency.removeProperty("p98");
+
+            ArrayList<Property> top = snapshot.getMostExpensive(2, "USD");
+
+            assertEquals("p99", top.get(0).getPropertyId());
+            assertEquals("p98", top.get(1).getPropertyId());
+            assertThrows(IllegalArgumentException.class, () -> snapshot.getMostExpensive(2, "XXX"));
+            assertEquals(11, snapshot.getPropertiesBetween(90000, 100000).length);
+            assertNull(snapshot.getPropertiesBetween(1, 2));
+            assertEquals(20, snapshot.getPropertiesWithBedrooms(1, 1).size());
+            assertEquals(50, snapshot.getPropertiesWithPools().size());
+            assertEquals(100, snapshot.getPropertiesOn("main street").size());
+            assertEquals(3, snapshot.searchPropertiesOn("main stret", 3).size());
+            assertEquals(3, snapshot.findComparables(snapshot.getProperty("p50"), 3).size());
+            assertEquals(50500, snapshot.getPriceQuantile(0.5, PropertyFilters.all()), 50500 * 0.02);
+            assertEquals(2, snapshot.aggregate(GroupAggregation.Dimension.TYPE).size());
+            assertEquals(snapshot.aggregate(GroupAggregation.Dimension.TYPE).get("retail").getSum(),
+                    snapshot.aggregateParallel(4, GroupAggregation.Dimension.TYPE).get("retail").getSum());
+            assertEquals(2, snapshot.getProperties(new ListingQuery().priceBetween(97000, 100000)
+                    .ofType("residence")).size());
+            assertEquals(34, snapshot.getPropertiesOfType("retail").size() - 1);
+            assertThrows(NullPointerException.class, () -> snapshot.getProperties(null));
+        }
+    }
+
+    @Test
+    void toAgencyKeepsPriceHistory()
+    {
+        agency.setPropertyPrice("p0", 2000);
+
+        try(AgencySnapshot snapshot = agency.snapshot())
+        {
+            agency.setPropertyPrice("p0", 3000);
+
+            Property copy = snapshot.toAgency().getProperty("p0");
+
+            assertEquals(2000, copy.getPriceUsd());
+            assertEquals(2, copy.getPriceHistory().size());
+            assertEquals(3, agency.getProperty("p0").getPriceHistory().size());
+        }
+    }
+
+    @Test
+    void snapshotOfColdTier() throws Exception
+    {
+        Path directory = Files.createTempDirectory("snapshot");
+
+        agency.enableTieredStorage(directory, 10, 2);
+        agency.demoteColdListings();
+
+        try(AgencySnapshot snapshot = agency.snapshot())
+        {
+            agency.setPropertyPrice("p0", 1);
+            agency.removeProperty("p1");
+            agency.disableTieredStorage();
+
+            assertEquals(100, snapshot.getPropertyCount());
+            assertEquals(5050000, snapshot.getTotalPropertyValues());
+            assertEquals(1000, snapshot.getProperty("p0").getPriceUsd());
+            assertEquals(2000, snapshot.getProperty("p1").getPriceUsd());
+        }
+        assertEquals(99, agency.getPropertyCount());
+    }
+}
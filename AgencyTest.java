@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -115,12 +117,129 @@ class AgencyTest
 
     }
 
+    @Test
+    void setPropertyPrice()
+    {
+        agency.setPropertyPrice("abc123", 450000.00);
+        agency.setPropertyPrice("nope", 1.00);
+
+        assertEquals(450000.00, p1.getPriceUsd());
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            agency.setPropertyPrice("abc123", -1);
+        });
+        assertTrue(ex.getMessage().equals("Invalid price: -1.0"));
+    }
+
+    @Test
+    void setPriceUsdOnHeldProperty()
+    {
+        ChangeFeed feed = agency.enableChangeFeed(16);
+
+        p5.setPriceUsd(2000000.00);
+
+        assertEquals(6, agency.getPropertiesBetween(700001, 2500000).length);
+        assertEquals(ChangeEvent.Type.PRICE_CHANGE, feed.read(1, 10).get(0).getType());
+
+        agency.removeProperty("9999");
+        p5.setPriceUsd(1.00);
+
+        assertEquals(1, feed.getLastSequence() - 1);
+    }
+
+    @Test
+    void invalidPriceLeavesIndexesUnchanged()
+    {
+        long version = agency.getVersion();
+
+        assertThrows(IllegalArgumentException.class, () -> p1.setPriceUsd(-5));
+        assertThrows(IllegalArgumentException.class, () -> p1.setPriceUsd(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> agency.setPropertyPrice("abc123", Double.NaN));
+
+        assertEquals(499000.00, p1.getPriceUsd());
+        assertEquals(version, agency.getVersion());
+        assertEquals(12, agency.getPriceSketch().getCount());
+        assertEquals(1, agency.getPropertiesBetween(499000, 499000).length);
+
+        agency.removeProperty("abc123");
+        assertNull(agency.getProperty("abc123"));
+    }
+
+    @Test
+    void changeFeed()
+    {
+        assertNull(agency.getChangeFeed());
+
+        ChangeFeed feed = agency.enableChangeFeed(16);
+        assertSame(feed, agency.enableChangeFeed(1024));
+
+        agency.setPropertyPrice("abc123", 450000.00);
+        agency.removeProperty("xyz789");
+        agency.removeProperty("nope");
+        agency.addProperty(new Property(1.00, a1, 1, false, "residence", "777def"));
+
+        List<ChangeEvent> events = feed.read(1, 100);
+
+        assertEquals(4, events.size());
+        assertEquals(ChangeEvent.Type.PRICE_CHANGE, events.get(0).getType());
+        assertEquals(499000.00, events.get(0).getOldPriceUsd());
+        assertEquals(ChangeEvent.Type.REMOVE, events.get(1).getType());
+        assertSame(p2, events.get(1).getProperty());
+        assertEquals(ChangeEvent.Type.REMOVE, events.get(2).getType());
+        assertSame(p3, events.get(2).getProperty());
+        assertEquals(ChangeEvent.Type.ADD, events.get(3).getType());
+        assertEquals(4, feed.getLastSequence());
+    }
+
     @Test
     void getTotalPropertyValues()
     {
         assertEquals(40079098, agency.getTotalPropertyValues());
     }
 
+    @Test
+    void getPropertyCount()
+    {
+        assertEquals(12, agency.getPropertyCount());
+
+        agency.removeProperty("abc123");
+        assertEquals(11, agency.getPropertyCount());
+    }
+
+    @Test
+    void forEachProperty()
+    {
+        ArrayList<Property> visited = new ArrayList<>();
+
+        agency.forEachProperty(visited::add);
+
+        assertEquals(12, visited.size());
+        assertTrue(visited.contains(p1) && visited.contains(p12));
+    }
+
+    @Test
+    void getPropertiesMatching()
+    {
+        ArrayList<Property> matches = agency.getPropertiesMatching(
+                PropertyFilters.ofType("retail").and(PropertyFilters.withPool()));
+
+        assertEquals(1, matches.size());
+        assertSame(p10, matches.get(0));
+        assertNull(agency.getPropertiesMatching(PropertyFilters.bedroomsBetween(7, 9)));
+    }
+
+    @Test
+    void getPriceStatistics()
+    {
+        PriceStatistics statistics = agency.getPriceStatistics(PropertyFilters.ofType("commercial"));
+
+        assertEquals(3, statistics.getCount());
+        assertEquals(4939999.0, statistics.getSum());
+        assertEquals(99999.0, statistics.getMin());
+        assertEquals(4000000.0, statistics.getMax());
+        assertEquals(40079098.0, agency.getPriceStatistics(PropertyFilters.all()).getSum());
+    }
+
     @Test
     void getPropertiesWithPools()
     {
@@ -217,6 +336,61 @@ class AgencyTest
 
 
 
+    @Test
+    void searchPropertiesOn()
+    {
+        ArrayList<Address> misspelled = agency.searchPropertiesOn("mapel st", 10);
+
+        assertSame(a4, misspelled.get(0));
+        assertFalse(misspelled.contains(a3));
+
+        ArrayList<Address> abbreviated = agency.searchPropertiesOn("56 ave", 10);
+
+        assertSame(a1, abbreviated.get(0));
+
+        assertEquals(2, agency.searchPropertiesOn("elm street", 2).size());
+        assertNull(agency.searchPropertiesOn("zzz", 10));
+
+        agency.removeProperty("876tru");
+        assertFalse(agency.searchPropertiesOn("mapel st", 10).contains(a4));
+    }
+
+    @Test
+    void searchPropertiesIn()
+    {
+        ArrayList<Address> misspelled = agency.searchPropertiesIn("los angelos", 10);
+
+        assertEquals(3, misspelled.size());
+        assertTrue(misspelled.contains(a3) && misspelled.contains(a8) && misspelled.contains(a12));
+
+        agency.addProperty(new Property(1.00, a1, 1, false, "residence", "777def"));
+        assertEquals(2, agency.searchPropertiesIn("los angelos", 10).size());
+    }
+
+    @Test
+    void getPropertiesWithinNear()
+    {
+        Address located1 = new Address(null, 1, "robson street", "v6b1a1", "vancouver", 49.2827, -123.1207);
+        Property pl1 = new Property(500000, located1, 2, false, "residence", "geo1");
+        Address located2 = new Address(null, 2, "granville street", "v6b1a2", "vancouver", 49.2790, -123.1340);
+        Property pl2 = new Property(900000, located2, 3, true, "residence", "geo2");
+
+        assertNull(agency.getPropertiesNear(49.2827, -123.1207, 2.0));
+
+        agency.addProperty(pl1);
+        agency.addProperty(pl2);
+
+        assertEquals(2, agency.getPropertiesNear(49.2827, -123.1207, 2.0).size());
+        assertEquals(2, agency.getPropertiesWithin(49.27, -123.14, 49.29, -123.11).size());
+        assertSame(pl2, agency.getPropertiesNear(49.2827, -123.1207, 2.0,
+                PropertyFilters.withPool().and(PropertyFilters.bedroomsBetween(3, 3))).get(0));
+        assertNull(agency.getPropertiesWithin(49.27, -123.14, 49.29, -123.11,
+                PropertyFilters.priceBetween(0, 100)));
+
+        agency.removeProperty("geo1");
+        assertEquals(1, agency.getPropertiesNear(49.2827, -123.1207, 2.0).size());
+    }
+
     @Test
     void getPropertiesWithBedrooms()
     {
@@ -316,4 +490,425 @@ class AgencyTest
         assertTrue(s5found && s6found);
 
     }
+
+    @Test
+    void getPropertiesByQuery()
+    {
+        ArrayList<Property> elmUnderTwoMillion = agency.getProperties(
+                new ListingQuery().priceBetween(0, 2000000).onStreet("Elm Street"));
+
+        assertEquals(1, elmUnderTwoMillion.size());
+        assertSame(p12, elmUnderTwoMillion.get(0));
+
+        assertEquals(12, agency.getProperties(new ListingQuery()).size());
+        assertEquals(3, agency.getProperties(new ListingQuery().ofType("commercial").bedroomsBetween(1, 4)).size());
+        assertNull(agency.getProperties(new ListingQuery().onStreet("elm street").withPool().ofType("retail")));
+
+        agency.setPropertyPrice("9000a", 3000000);
+        assertNull(agency.getProperties(new ListingQuery().priceBetween(0, 2000000).onStreet("elm street")));
+    }
+
+    @Test
+    void explainQuery()
+    {
+        assertEquals(QueryPlan.Access.STREET_INDEX,
+                agency.plan(new ListingQuery().priceBetween(0, 900000).onStreet("elm street")).getAccess());
+        assertEquals(QueryPlan.Access.FULL_SCAN, agency.plan(new ListingQuery().bedroomsBetween(1, 20)).getAccess());
+        assertTrue(agency.explain(new ListingQuery().onStreet("elm street").withPool())
+                .startsWith("STREET_INDEX rows=3"));
+        assertThrows(NullPointerException.class, () -> agency.plan(null));
+    }
+
+    @Test
+    void aggregate()
+    {
+        GroupAggregation byCity = agency.aggregate(GroupAggregation.Dimension.CITY);
+        GroupAggregation byTypeAndPool = agency.aggregate(property -> property.getPriceUsd() > 1000000,
+                GroupAggregation.Dimension.TYPE, GroupAggregation.Dimension.POOL);
+
+        assertEquals(3, byCity.get(a3.getCity()).getCount());
+        assertEquals(2500000 + 7100000 + 1600000, byCity.get(a3.getCity()).getSum());
+        assertEquals(3, byTypeAndPool.get("residence", true).getCount());
+        assertEquals(4000000, byTypeAndPool.get("commercial", true).getMax());
+        assertNull(byTypeAndPool.get("retail", false));
+    }
+
+    @Test
+    void aggregateParallel()
+    {
+        GroupAggregation serial = agency.aggregate(GroupAggregation.Dimension.STREET,
+                GroupAggregation.Dimension.BEDROOMS);
+
+        for(int parallelism = 1; parallelism <= 16; parallelism *= 2)
+        {
+            GroupAggregation parallel = agency.aggregateParallel(parallelism, GroupAggregation.Dimension.STREET,
+                    GroupAggregation.Dimension.BEDROOMS);
+
+            assertEquals(serial.size(), parallel.size());
+            for(List<Object> key : serial.getGroups().keySet())
+            {
+                assertEquals(serial.getGroups().get(key).getCount(), parallel.getGroups().get(key).getCount());
+                assertEquals(serial.getGroups().get(key).getSum(), parallel.getGroups().get(key).getSum());
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> agency.aggregateParallel(0));
+    }
+
+    @Test
+    void getPriceQuantile()
+    {
+        assertEquals(2500000, agency.getPriceQuantile(0.5, PropertyFilters.inCity(a3.getCity())), 25000);
+        assertEquals(15000000, agency.getPriceQuantile(1, PropertyFilters.all()), 150000);
+        assertTrue(Double.isNaN(agency.getPriceQuantile(0.5, property -> false)));
+        assertTrue(Double.isNaN(agency.getPriceQuantile(0.5, PropertyFilters.ofType(null))));
+
+        // the filters the agency keeps sketches for are answered from them
+        assertEquals(agency.getPriceSketchOfType("RETAIL").quantile(0.5),
+                agency.getPriceQuantile(0.5, PropertyFilters.ofType("retail")));
+        assertEquals(agency.getPriceSketchIn(a3.getCity()).getCount(),
+                agency.getPriceSketch(PropertyFilters.inCity(a3.getCity())).getCount());
+        assertEquals(agency.getPriceSketch().quantile(0.9), agency.getPriceQuantile(0.9, PropertyFilters.all()));
+
+        assertEquals(7100000, agency.getPriceSketchIn(a3.getCity()).quantile(1), 71000);
+        agency.setPropertyPrice("mmm33", 100000);
+        agency.removeProperty("777def");
+        assertEquals(1600000, agency.getPriceSketchIn(a3.getCity()).quantile(1), 16000);
+        assertEquals(2, agency.getPriceSketchIn(a3.getCity().toUpperCase()).getCount());
+        assertEquals(2, agency.getPriceSketchOfType("RETAIL").getCount());
+        assertEquals(0, agency.getPriceSketchOfType("nothing").getCount());
+        assertEquals(11, agency.getPriceSketch().getCount());
+    }
+
+    @Test
+    void priceDrops()
+    {
+        long since = System.currentTimeMillis() - 1000;
+
+        p2.setPriceUsd(5000000);
+        p8.setPriceUsd(7000000);
+        p12.setPriceUsd(1400000);
+        p6.setPriceUsd(800000);
+
+        ArrayList<Property> drops = agency.getLargestPriceDrops(since, 2);
+
+        assertEquals(2, drops.size());
+        assertSame(p2, drops.get(0));
+        assertSame(p12, drops.get(1));
+        assertEquals(3, agency.getLargestPriceDrops(since, 10).size());
+        assertEquals(0, agency.getLargestPriceDrops(since, 0).size());
+
+        ArrayList<Property> reduced = agency.getPropertiesReducedBy(0.1, since);
+
+        assertEquals(2, reduced.size());
+        assertTrue(reduced.contains(p2) && reduced.contains(p12));
+        assertNull(agency.getPropertiesReducedBy(0.5, since));
+        assertThrows(IllegalArgumentException.class, () -> agency.getPropertiesReducedBy(0, since));
+    }
+
+    @Test
+    void findComparables()
+    {
+        ArrayList<Property> comparables = agency.findComparables(p3, 3);
+
+        assertEquals(3, comparables.size());
+        assertFalse(comparables.contains(p3));
+        assertSame(p2, comparables.get(0));
+
+        agency.setPropertyPrice("xyz789", 90000000);
+        assertNotSame(p2, agency.findComparables(p3, 1).get(0));
+
+        agency.removeProperty("mmm33");
+        assertEquals(10, agency.findComparables(p3, 20).size());
+        assertThrows(NullPointerException.class, () -> agency.findComparables(null, 1));
+    }
+
+    @Test
+    void expireListings()
+    {
+        long now = System.currentTimeMillis();
+
+        agency.enableChangeFeed(16);
+        agency.addProperty(new Property(100000, a1, 1, false, "retail", "exp1"), now + 60_000);
+        agency.addProperty(new Property(200000, a2, 1, false, "retail", "exp2"), now + 3_600_000);
+        agency.addProperty(p1, now + 60_000);
+        agency.addProperty(p1);
+
+        assertEquals(0, agency.expireListings(now + 59_000));
+        assertEquals(1, agency.expireListings(now + 61_000));
+        assertNull(agency.getProperty("exp1"));
+        assertNotNull(agency.getProperty("abc123"));
+        assertEquals(3, agency.getPriceSketchOfType("retail").getCount());
+
+        agency.removeProperty("exp2");
+        assertEquals(-1, agency.getExpiry("exp2"));
+        assertEquals(0, agency.expireListings(now + 7_200_000));
+        assertEquals(12, agency.getPropertyCount());
+    }
+
+    @Test
+    void expireMergedListing()
+    {
+        long now = System.currentTimeMillis();
+        Address copy = new Address("44", 1111, "maple street", "v8y3r5", "vancouver");
+
+        agency.setDuplicatePolicy(Agency.DuplicatePolicy.MERGE);
+        agency.addProperty(new Property(950000.00, copy, 1, false, "retail", "feed2"), now + 60_000);
+
+        assertEquals(-1, agency.getExpiry("feed2"));
+        assertEquals(-1, agency.getExpiry("876tru"));
+        assertEquals(0, agency.expireListings(now + 61_000));
+
+        // the wheel has advanced past now + 61s, so the merges below expire later than that
+        agency.removeProperty("876tru");
+        agency.addProperty(new Property(950000.00, copy, 1, false, "retail", "876tru"), now + 200_000);
+        agency.addProperty(new Property(950000.00, copy, 1, false, "retail", "feed3"), now + 100_000);
+
+        assertTrue(agency.getExpiry("876tru") >= now + 200_000);
+        assertEquals(0, agency.expireListings(now + 101_000));
+
+        agency.addProperty(new Property(950000.00, copy, 1, false, "retail", "feed4"), now + 300_000);
+
+        assertTrue(agency.getExpiry("876tru") >= now + 300_000);
+        assertEquals(0, agency.expireListings(now + 201_000));
+        assertEquals(1, agency.expireListings(now + 301_000));
+        assertNull(agency.getProperty("876tru"));
+    }
+
+    @Test
+    void flagDuplicates()
+    {
+        Address copy = new Address("#44", 1111, "Maple St.", "V8Y3R5", "Vancouver");
+
+        assertNull(agency.getDuplicateGroups());
+        assertEquals(Agency.DuplicatePolicy.FLAG, agency.getDuplicatePolicy());
+
+        agency.addProperty(new Property(990000.00, copy, 1, false, "retail", "feed2"));
+
+        assertEquals(13, agency.getPropertyCount());
+        assertSame(p4, agency.getDuplicates("feed2").get(0));
+        assertEquals(1, agency.getDuplicateGroups().size());
+        assertSame(p4, agency.getDuplicateGroups().get(0).get(0));
+        assertNull(agency.getDuplicates("abc123"));
+        assertNull(agency.getDuplicates("none"));
+
+        assertEquals(1, agency.dedupe());
+        assertNull(agency.getProperty("feed2"));
+        assertEquals("876tru", agency.getCanonicalId("feed2"));
+        assertEquals("abc123", agency.getCanonicalId("abc123"));
+        assertNull(agency.getDuplicateGroups());
+        assertEquals(0, agency.dedupe());
+    }
+
+    @Test
+    void mergeDuplicates()
+    {
+        Address copy = new Address("44", 1111, "maple street", "v8y3r5", "vancouver");
+
+        agency.setDuplicatePolicy(Agency.DuplicatePolicy.MERGE);
+        agency.addProperty(new Property(950000.00, copy, 1, false, "retail", "feed2"));
+
+        assertEquals(12, agency.getPropertyCount());
+        assertNull(agency.getProperty("feed2"));
+        assertEquals("876tru", agency.getCanonicalId("feed2"));
+        assertEquals(950000.00, p4.getPriceUsd());
+        assertEquals(1, agency.getPropertiesBetween(900000, 960000).length);
+
+        agency.addProperty(new Property(500000.00, a1, 2, false, "residence", "abc123"));
+        assertEquals(500000.00, agency.getProperty("abc123").getPriceUsd());
+        assertThrows(NullPointerException.class, () -> agency.setDuplicatePolicy(null));
+    }
+
+    @Test
+    void tieredStorage() throws java.io.IOException
+    {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("tiers");
+
+        agency.enableTieredStorage(directory, 4, 2);
+
+        assertEquals(4, agency.getHotPropertyCount());
+        assertEquals(8, agency.getColdPropertyCount());
+        assertEquals(12, agency.getPropertyCount());
+        assertEquals(8, agency.getDemotionCount());
+
+        // every query answers over both tiers
+        assertEquals(5, agency.getPropertiesWithPools().size());
+        assertEquals(6, agency.getPropertiesBetween(700000, 2500000).length);
+        assertEquals(3, agency.getPropertiesOn("elm street").size());
+        assertEquals(12, agency.getPropertiesWithBedrooms(1, 20).size());
+        assertEquals(3, agency.getProperties(new ListingQuery().onStreet("elm street")).size());
+        assertEquals(3, agency.aggregate(GroupAggregation.Dimension.TYPE).size());
+        assertEquals(12, agency.aggregateParallel(3).get().getCount());
+        assertEquals(12, agency.getPriceSketch().getCount());
+        assertEquals(3, agency.getPropertiesOfType("retail").size());
+        assertEquals(11, agency.findComparables(p1, 20).size());
+        assertEquals(40079098.0, agency.getTotalPropertyValues());
+        agency.setFxRates(new FxRateTable(Map.of("CAD", 1.25)));
+        assertEquals(6, agency.getPropertiesBetween(875000, 3125000, "CAD").length);
+        assertEquals(40079098.0 * 1.25, agency.getTotalPropertyValues("CAD"), 1e-3);
+        assertEquals(List.of("78444a", "mmm33", "xyz789"),
+                agency.getMostExpensive(3, "CAD").stream().map(Property::getPropertyId).toList());
+
+        // a lookup promotes the listing, which can then be changed in place
+        String coldId = agency.getColdTier().iterator().next().getPropertyId();
+        Property cold = agency.getProperty(coldId);
+        assertEquals(1, agency.getPromotionCount());
+        assertEquals(7, agency.getColdPropertyCount());
+        agency.setPropertyPrice(coldId, 1700000);
+        assertSame(cold, agency.getProperty(coldId));
+        assertEquals(1700000, agency.getProperty(coldId).getPriceUsd());
+        assertEquals(1, agency.getPromotionCount());
+
+        agency.removeProperty("mmm33");
+        assertNull(agency.getProperty("mmm33"));
+        assertEquals(11, agency.getPropertyCount());
+        assertNull(agency.getDuplicates("abc123"));
+
+        agency.disableTieredStorage();
+        assertEquals(0, agency.getColdPropertyCount());
+        assertEquals(11, agency.getHotPropertyCount());
+        assertEquals(3, agency.aggregate(GroupAggregation.Dimension.TYPE).size());
+        java.nio.file.Files.delete(directory);
+    }
+
+    @Test
+    void memoryBudget()
+    {
+        Property near1 = new Property(600000.00, new Address(null, 1, "oak street", "v7r2g2", "surrey",
+                49.10, -122.80), 3, false, "residence", "n1");
+        Property near2 = new Property(650000.00, new Address(null, 2, "oak street", "v7r2g2", "surrey",
+                49.11, -122.81), 3, false, "residence", "n2");
+        agency.addProperty(near1);
+        agency.addProperty(near2);
+
+        ArrayList<Property> comparables = agency.findComparables(p1, 5);
+        long total = agency.getMemoryFootprint().getTotalBytes();
+
+        assertTrue(agency.getMemoryFootprint().getBytes(MemoryFootprint.Component.SPATIAL_INDEX) > 0);
+        assertThrows(IllegalArgumentException.class, () -> agency.setMemoryBudget(0));
+
+        // without a cold tier the budget can only drop the optional indexes, so it is not met
+        agency.setMemoryBudget(1);
+        assertEquals(1, agency.getMemoryBudget());
+        assertFalse(agency.enforceMemoryBudget());
+        assertTrue(agency.getMemoryFootprint().getTotalBytes() < total);
+        assertEquals(0, agency.getMemoryFootprint().getBytes(MemoryFootprint.Component.SPATIAL_INDEX));
+        assertEquals(0, agency.getMemoryFootprint().getBytes(MemoryFootprint.Component.COMPARABLES_INDEX));
+
+        // the queries fall back to scans with the same results
+        assertEquals(comparables, agency.findComparables(p1, 5));
+        assertEquals(2, agency.getPropertiesNear(49.10, -122.80, 5).size());
+        assertEquals(2, agency.getPropertiesWithin(49, -123, 50, -122).size());
+        assertEquals(2, agency.getPriceSketchOfType("Retail").getCount());
+        assertEquals(3, agency.getPriceSketchIn("los angeles").getCount());
+
+        agency.addProperty(new Property(700000.00, new Address(null, 3, "oak street", "v7r2g2", "surrey",
+                49.12, -122.82), 3, false, "residence", "n3"));
+        agency.clearMemoryBudget();
+        assertEquals(0, agency.getMemoryBudget());
+        assertTrue(agency.enforceMemoryBudget());
+        assertEquals(3, agency.getPropertiesNear(49.10, -122.80, 5).size());
+        assertEquals(4, agency.getPriceSketchIn("surrey").getCount());
+        assertEquals(comparables.size(), agency.findComparables(p1, 5).size());
+        assertTrue(agency.getMemoryFootprint().getBytes(MemoryFootprint.Component.COMPARABLES_INDEX) > 0);
+    }
+
+    @Test
+    void memoryBudgetSpillsToColdTier() throws java.io.IOException
+    {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("budget");
+        MemoryFootprint footprint;
+
+        agency.enableTieredStorage(directory, 100, 2);
+        assertEquals(0, agency.getColdPropertyCount());
+
+        footprint = agency.getMemoryFootprint();
+        // dropping every optional index is not enough, so listings are demoted
+        agency.setMemoryBudget(footprint.getTotalBytes() - footprint.getBytes(MemoryFootprint.Component.SPATIAL_INDEX)
+                - footprint.getBytes(MemoryFootprint.Component.COMPARABLES_INDEX)
+                - footprint.getBytes(MemoryFootprint.Component.SKETCHES));
+
+        assertTrue(agency.getColdPropertyCount() > 0);
+        assertTrue(agency.getMemoryFootprint().getTotalBytes() <= agency.getMemoryBudget());
+        assertEquals(12, agency.getPropertyCount());
+        assertEquals(5, agency.getPropertiesWithPools().size());
+
+        agency.disableTieredStorage();
+        java.nio.file.Files.delete(directory);
+    }
+
+    @Test
+    void currencies()
+    {
+        assertEquals(List.of("USD"), List.copyOf(agency.getFxRates().getCurrencies()));
+        assertThrows(IllegalArgumentException.class, () -> agency.getPropertiesBetween(0, 1, "CAD"));
+
+        agency.setFxRates(new FxRateTable(Map.of("CAD", 1.25)));
+
+        assertEquals(6, agency.getPropertiesBetween(875000, 3125000, "cad").length);
+        assertArrayEquals(agency.getPropertiesBetween(700000, 2500000),
+                agency.getPropertiesBetween(875000, 3125000, "CAD"));
+        assertNull(agency.getPropertiesBetween(0, 100000, "CAD"));
+        assertEquals(40079098.0 * 1.25, agency.getTotalPropertyValues("CAD"), 1e-3);
+        assertEquals(40079098.0, agency.getTotalPropertyValues("USD"), 1e-3);
+        assertEquals(List.of(p7, p8), agency.getMostExpensive(2, "CAD"));
+        assertTrue(agency.getMostExpensive(0, "CAD").isEmpty());
+
+        // the converted prices follow price changes, and new rates are applied in one batch
+        agency.setPropertyPrice("9999", 20000000);
+        assertEquals(List.of(p5, p7), agency.getMostExpensive(2, "CAD"));
+        agency.setFxRates(new FxRateTable(Map.of("CAD", 2.0)));
+        assertEquals(1, agency.getPropertiesBetween(40000000, 40000000, "CAD").length);
+        assertEquals(12, agency.getPropertiesBetween(0, Double.MAX_VALUE, "CAD").length);
+
+        assertThrows(IllegalArgumentException.class, () -> agency.getTotalPropertyValues("EUR"));
+        assertThrows(IllegalArgumentException.class, () -> agency.getMostExpensive(1, "EUR"));
+        assertThrows(NullPointerException.class, () -> agency.setFxRates(null));
+    }
+
+    @Test
+    void repriceSharedListingConcurrently() throws InterruptedException
+    {
+        Agency   other = new Agency("Other Ltd");
+        Thread[] threads;
+
+        // the other agency holds p1 too, and merges duplicates of it, re-pricing it from addProperty
+        other.setDuplicatePolicy(Agency.DuplicatePolicy.MERGE);
+        other.addProperty(p1);
+
+        threads = new Thread[]{
+                new Thread(() -> {
+                    for(int i = 1; i <= 2000; i++)
+                    {
+                        agency.setPropertyPrice("abc123", i);
+                    }
+                }),
+                new Thread(() -> {
+                    for(int i = 1; i <= 2000; i++)
+                    {
+                        other.setPropertyPrice("abc123", i);
+                    }
+                }),
+                new Thread(() -> {
+                    for(int i = 1; i <= 2000; i++)
+                    {
+                        other.addProperty(new Property(i, a1, 2, false, "residence", "d" + i));
+                    }
+                })
+        };
+
+        for(Thread thread : threads)
+        {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        for(Thread thread : threads)
+        {
+            thread.join(30_000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals("abc123", other.getCanonicalId("d7"));
+        assertEquals(1, agency.getPropertiesBetween(p1.getPriceUsd(), p1.getPriceUsd()).length);
+        assertEquals(1, other.getPropertiesBetween(p1.getPriceUsd(), p1.getPriceUsd()).length);
+    }
 }
\ No newline at end of file
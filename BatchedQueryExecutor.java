@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a query executor that shares one scan of an Agency between many queries.
+ * Queries submitted within a short window (or until the batch is full) are collected by a dispatcher
+ * thread, which then passes over the listings once, tests every property against every query's filter
+ * and routes each match to that query's result sink. Memory traffic therefore grows with the number of
+ * scans, not the number of queries. The agency must not be changed while a batch is running; callers that
+ * mutate it concurrently must serialize those changes with the executor's scans themselves. With tiered
+ * storage enabled Agency.getProperty is such a change, since it promotes listings; a scan itself only reads.
+ */
+public class BatchedQueryExecutor implements AutoCloseable
+{
+    private final Agency                   agency;
+    private final int                      maxBatchSize;
+    private final long                     windowNanos;
+    private final BlockingQueue<Query<?>>  pending;
+    private final Thread                   dispatcher;
+    private volatile boolean               closed;
+    private volatile long                  scans;
+
+    private static final int VALID_MIN_BATCH_SIZE = 1;
+
+    /**
+     * Constructor, valid all executor information and start the dispatcher thread.
+     * @param agency The agency to be queried, cannot be null.
+     * @param maxBatchSize The maximum number of queries answered by one scan, must be positive.
+     * @param windowMillis How long the dispatcher waits for more queries after the first one, not negative.
+     * @throws IllegalArgumentException If the batch size or window is out of range.
+     */
+    BatchedQueryExecutor(final Agency agency, final int maxBatchSize, final long windowMillis)
+    {
+        if(agency == null)
+        {
+            throw new NullPointerException("Invalid agency: null");
+        }
+
+        if(maxBatchSize < VALID_MIN_BATCH_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+        }
+
+        if(windowMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid window: " + windowMillis);
+        }
+
+        this.agency       = agency;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos  = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.pending      = new LinkedBlockingQueue<>();
+        this.dispatcher   = new Thread(this::dispatch, "batched-query-" + agency.getName());
+
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return A future completed with an ArrayList of the matching properties, or null if there are none,
+     * like Agency.getPropertiesMatching.
+     */
+    public CompletableFuture<ArrayList<Property>> submit(final Predicate<Property> filter)
+    {
+        ArrayList<Property> matches;
+        matches = new ArrayList<>();
+
+        return enqueue(new Query<>(filter, matches::add, () -> matches.isEmpty() ? null : matches));
+    }
+
+    /**
+     * @param filter The filter the properties must pass.
+     * @return A future completed with the price statistics of the matching properties.
+     */
+    public CompletableFuture<PriceStatistics> submitStatistics(final Predicate<Property> filter)
+    {
+        PriceStatistics statistics;
+        statistics = new PriceStatistics();
+
+        return enqueue(new Query<>(filter, property -> statistics.add(property.getPriceUsd()), () -> statistics));
+    }
+
+    /**
+     * @return The number of scans run so far.
+     */
+    public long getScanCount()
+    {
+        return scans;
+    }
+
+    /**
+     * This method stops the dispatcher. Queries not yet scanned complete with a CancellationException.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        dispatcher.interrupt();
+
+        try
+        {
+            dispatcher.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        cancelPending();
+    }
+
+    /**
+     * This method queues a query, or cancels it if the executor is closed.
+     */
+    private <T> CompletableFuture<T> enqueue(final Query<T> query)
+    {
+        if(query.filter == null)
+        {
+            throw new NullPointerException("Invalid filter: null");
+        }
+
+        pending.add(query);
+
+        if(closed)
+        {
+            cancelPending();
+        }
+        return query.future;
+    }
+
+    /**
+     * This method is the dispatcher loop: wait for a query, gather a batch, scan once.
+     */
+    private void dispatch()
+    {
+        List<Query<?>> batch;
+        batch = new ArrayList<>(maxBatchSize);
+
+        while(!closed)
+        {
+            try
+            {
+                long deadline;
+
+                batch.add(pending.take());
+                deadline = System.nanoTime() + windowNanos;
+
+                while(batch.size() < maxBatchSize)
+                {
+                    Query<?> next;
+                    next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                    if(next == null)
+                    {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }
+            catch(InterruptedException e)
+            {
+                // closing: the gathered batch is cancelled below with the rest
+                for(Query<?> query : batch)
+                {
+                    query.future.completeExceptionally(new CancellationException("Executor closed"));
+                }
+                return;
+            }
+
+            scan(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * This method answers every query of the batch with one pass over the listings. If the pass itself
+     * fails, every query of the batch fails with the cause and the dispatcher goes on to the next batch.
+     */
+    private void scan(final List<Query<?>> batch)
+    {
+        Query<?>[] queries;
+        queries = batch.toArray(new Query<?>[0]);
+
+        try
+        {
+            agency.forEachProperty(property -> {
+                for(Query<?> query : queries)
+                {
+                    query.offer(property);
+                }
+            });
+        }
+        catch(Throwable e)
+        {
+            for(Query<?> query : queries)
+            {
+                query.future.completeExceptionally(e);
+            }
+            return;
+        }
+        scans++;
+
+        for(Query<?> query : queries)
+        {
+            query.complete();
+        }
+    }
+
+    /**
+     * This method cancels every query still waiting.
+     */
+    private void cancelPending()
+    {
+        Query<?> query;
+
+        while((query = pending.poll()) != null)
+        {
+            query.future.completeExceptionally(new CancellationException("Executor closed"));
+        }
+    }
+
+    /**
+     * One submitted query: its filter, its result sink and the future of its result.
+     */
+    private static final class Query<T>
+    {
+        private final Predicate<Property>  filter;
+        private final Consumer<Property>   sink;
+        private final Supplier<T>          result;
+        private final CompletableFuture<T> future;
+        private Throwable                  failure;
+
+        private Query(final Predicate<Property> filter, final Consumer<Property> sink, final Supplier<T> result)
+        {
+            this.filter = filter;
+            this.sink   = sink;
+            this.result = result;
+            this.future = new CompletableFuture<>();
+        }
+
+        /**
+         * This method routes the property to the sink if it matches; a failing filter only fails its own query.
+         */
+        private void offer(final Property property)
+        {
+            if(failure != null)
+            {
+                return;
+            }
+
+            try
+            {
+                if(filter.test(property))
+                {
+                    sink.accept(property);
+                }
+            }
+            catch(RuntimeException e)
+            {
+                failure = e;
+            }
+        }
+
+        private void complete()
+        {
+            if(failure != null)
+            {
+                future.completeExceptionally(failure);
+            }
+            else
+            {
+                future.complete(result.get());
+            }
+        }
+    }
+}
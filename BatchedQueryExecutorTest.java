@@ -0,0 +1,133 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchedQueryExecutorTest
+{
+    private Agency agency;
+    private BatchedQueryExecutor executor;
+
+    @BeforeEach
+    void setUp()
+    {
+        agency = new Agency("BCIT Ltd");
+
+        for(int i = 1; i <= 100; i++)
+        {
+            Address address = new Address(null, i, "main street", "v7r2g2", i % 2 == 0 ? "surrey" : "burnaby");
+            agency.addProperty(new Property(i * 1000.0, address, 1 + i % 5, i % 3 == 0, "residence", "p" + i));
+        }
+
+        executor = new BatchedQueryExecutor(agency, 64, 50);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        executor.close();
+        executor = null;
+        agency   = null;
+    }
+
+    @Test
+    void getExpectedExceptions()
+    {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            new BatchedQueryExecutor(agency, 0, 10);
+        });
+        assertTrue(ex.getMessage().equals("Invalid batch size: 0"));
+
+        ex = assertThrows(IllegalArgumentException.class, ()->{
+            new BatchedQueryExecutor(agency, 1, -1);
+        });
+        assertTrue(ex.getMessage().equals("Invalid window: -1"));
+    }
+
+    @Test
+    void sharedScan() throws InterruptedException
+    {
+        List<CompletableFuture<ArrayList<Property>>> futures = new ArrayList<>();
+        CountDownLatch                               started = new CountDownLatch(1);
+        CountDownLatch                               release = new CountDownLatch(1);
+
+        // the first scan is held until every other query is queued, so they all share the second
+        CompletableFuture<ArrayList<Property>> gate = executor.submit(property -> {
+            started.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        });
+        started.await();
+
+        for(int i = 0; i < 20; i++)
+        {
+            futures.add(executor.submit(PropertyFilters.priceBetween(i * 1000.0, i * 1000.0 + 9000.0)));
+        }
+        CompletableFuture<PriceStatistics> statistics = executor.submitStatistics(PropertyFilters.inCity("surrey"));
+        CompletableFuture<ArrayList<Property>> none = executor.submit(PropertyFilters.priceBetween(-2, -1));
+
+        release.countDown();
+        assertNull(gate.join());
+
+        for(int i = 0; i < 20; i++)
+        {
+            int expected = i == 0 ? 9 : 10;
+            assertEquals(expected, futures.get(i).join().size());
+        }
+        assertEquals(50, statistics.join().getCount());
+        assertNull(none.join());
+
+        assertEquals(2, executor.getScanCount());
+    }
+
+    @Test
+    void failingFilter()
+    {
+        CompletableFuture<ArrayList<Property>> failing = executor.submit(property -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<ArrayList<Property>> healthy = executor.submit(PropertyFilters.withPool());
+
+        CompletionException ex = assertThrows(CompletionException.class, failing::join);
+        assertTrue(ex.getCause() instanceof IllegalStateException);
+        assertEquals(33, healthy.join().size());
+    }
+
+    @Test
+    void failingScan()
+    {
+        CompletableFuture<ArrayList<Property>> failing = executor.submit(property -> {
+            throw new Error("boom");
+        });
+
+        CompletionException ex = assertThrows(CompletionException.class, failing::join);
+        assertEquals("boom", ex.getCause().getMessage());
+        assertEquals(33, executor.submit(PropertyFilters.withPool()).join().size());
+    }
+
+    @Test
+    void close()
+    {
+        executor.close();
+
+        CompletableFuture<ArrayList<Property>> late = executor.submit(PropertyFilters.all());
+
+        assertThrows(CancellationException.class, late::join);
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a Bloom filter over property IDs, which answers most lookups of absent IDs without
+ * touching the store behind it. An ID is hashed from its packed form (see PropertyIdMap.pack), or from its
+ * characters if it does not pack, into one 64-bit value whose two halves generate the bit positions by double
+ * hashing. The filter is sized for the expected number of IDs and the target false positive rate, and can
+ * only grow: removed IDs stay set until the owner rebuilds it. The bits are set atomically, so one thread
+ * may add while others query.
+ */
+public class BloomFilter
+{
+    private final AtomicLongArray bits;
+    private final long            bitCount;
+    private final int             hashCount;
+    private final int             expectedInsertions;
+    private final AtomicInteger   insertions;
+
+    private static final long MIN_BITS = 64;
+    private static final long MAX_BITS = 1L << 36;
+
+    /**
+     * Constructor, sizes an empty filter.
+     * @param expectedInsertions The number of IDs the filter is sized for, must be positive.
+     * @param falsePositiveRate The target false positive rate at that size, between 0 and 1 exclusive.
+     * @throws IllegalArgumentException If a parameter is out of range.
+     */
+    BloomFilter(final int expectedInsertions, final double falsePositiveRate)
+    {
+        double optimalBits;
+
+        if(expectedInsertions < 1)
+        {
+            throw new IllegalArgumentException("Invalid expected insertions: " + expectedInsertions);
+        }
+
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+        {
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        }
+
+        optimalBits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+
+        this.bitCount           = Math.min(MAX_BITS, Math.max(MIN_BITS, (long) Math.ceil(optimalBits / 64) * 64));
+        this.hashCount          = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        this.bits               = new AtomicLongArray((int) (bitCount / 64));
+        this.expectedInsertions = expectedInsertions;
+        this.insertions         = new AtomicInteger();
+    }
+
+    /**
+     * This method adds the ID to the filter.
+     * @param propertyId The ID to be added.
+     */
+    public void add(final String propertyId)
+    {
+        long hash;
+        long h1;
+        long h2;
+
+        hash = hash(propertyId);
+        h1   = hash & 0xFFFFFFFFL;
+        h2   = hash >>> 32;
+
+        for(int i = 0; i < hashCount; i++)
+        {
+            long bit;
+            int  word;
+            long mask;
+
+            bit  = Math.floorMod(h1 + i * h2, bitCount);
+            word = (int) (bit >>> 6);
+            mask = 1L << bit;
+
+            while(true)
+            {
+                long current;
+                current = bits.get(word);
+
+                if((current & mask) != 0 || bits.compareAndSet(word, current, current | mask))
+                {
+                    break;
+                }
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * @param propertyId The ID to be tested.
+     * @return False if the ID was certainly never added; true if it may have been.
+     */
+    public boolean mightContain(final String propertyId)
+    {
+        long hash;
+        long h1;
+        long h2;
+
+        if(propertyId == null)
+        {
+            return false;
+        }
+
+        hash = hash(propertyId);
+        h1   = hash & 0xFFFFFFFFL;
+        h2   = hash >>> 32;
+
+        for(int i = 0; i < hashCount; i++)
+        {
+            long bit;
+            bit = Math.floorMod(h1 + i * h2, bitCount);
+
+            if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of IDs added, counting an ID added twice twice.
+     */
+    public int getInsertionCount()
+    {
+        return insertions.get();
+    }
+
+    /**
+     * @return The number of IDs the filter was sized for.
+     */
+    public int getExpectedInsertions()
+    {
+        return expectedInsertions;
+    }
+
+    /**
+     * @return The number of bits of the filter.
+     */
+    public long getBitCount()
+    {
+        return bitCount;
+    }
+
+    /**
+     * @return The number of bit positions tested per ID.
+     */
+    public int getHashCount()
+    {
+        return hashCount;
+    }
+
+    /**
+     * @return The false positive rate expected from the IDs added so far, (1 - e^(-kn/m))^k.
+     */
+    public double getExpectedFalsePositiveRate()
+    {
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions.get() / bitCount), hashCount);
+    }
+
+    /**
+     * @return The estimated bytes of the filter and its bits, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // two references, the bit count and two ints; the bits and the insertions are objects of their own
+        return MemoryFootprint.object(2 * MemoryFootprint.REFERENCE + Long.BYTES + 2 * Integer.BYTES) +
+                MemoryFootprint.object(MemoryFootprint.REFERENCE) + MemoryFootprint.array(bits.length(), Long.BYTES) +
+                MemoryFootprint.object(Integer.BYTES);
+    }
+
+    /**
+     * @return A well-mixed 64-bit hash of the ID, from its packed form where it packs.
+     */
+    private static long hash(final String propertyId)
+    {
+        long key;
+        key = PropertyIdMap.pack(propertyId);
+
+        if(key == 0)
+        {
+            key = propertyId.hashCode() * 0x9E3779B97F4A7C15L + propertyId.length();
+        }
+
+        // the finalizer of MurmurHash3, which spreads every input bit over the whole value
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
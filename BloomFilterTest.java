@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest
+{
+    private BloomFilter filter;
+
+    @BeforeEach
+    void setUp()
+    {
+        filter = new BloomFilter(10_000, 0.01);
+
+        for(int i = 0; i < 10_000; i++)
+        {
+            filter.add("a" + i);
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        filter = null;
+    }
+
+    @Test
+    void noFalseNegatives()
+    {
+        for(int i = 0; i < 10_000; i++)
+        {
+            assertTrue(filter.mightContain("a" + i));
+        }
+        assertFalse(filter.mightContain(null));
+        assertEquals(10_000, filter.getInsertionCount());
+    }
+
+    @Test
+    void falsePositiveRate()
+    {
+        int falsePositives = 0;
+
+        for(int i = 0; i < 100_000; i++)
+        {
+            if(filter.mightContain("b" + i))
+            {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.003);
+        assertEquals(7, filter.getHashCount());
+        assertEquals(0, filter.getBitCount() % 64);
+    }
+
+    @Test
+    void unpackedIds()
+    {
+        BloomFilter small = new BloomFilter(1, 0.5);
+
+        small.add("\u4e00\u4e8c");
+        assertTrue(small.mightContain("\u4e00\u4e8c"));
+        assertEquals(64, small.getBitCount());
+        assertEquals(1, small.getExpectedInsertions());
+    }
+
+    @Test
+    void getExpectedExceptions()
+    {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertEquals("Invalid expected insertions: 0", ex.getMessage());
+
+        ex = assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 1.0));
+        assertEquals("Invalid false positive rate: 1.0", ex.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, Double.NaN));
+    }
+}
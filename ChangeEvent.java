@@ -0,0 +1,101 @@
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models one change made to an Agency: a property added, removed, or re-priced.
+ * Events are immutable and numbered by a sequence that increases by one per change.
+ */
+public final class ChangeEvent
+{
+    private final long     sequence;
+    private final long     timestampMillis;
+    private final Type     type;
+    private final Property property;
+    private final double   oldPriceUsd;
+    private final double   newPriceUsd;
+
+    /**
+     * The kind of change.
+     */
+    public enum Type
+    {
+        ADD,
+        REMOVE,
+        PRICE_CHANGE
+    }
+
+    /**
+     * Constructor, creates an event.
+     * @param sequence The sequence number of the event.
+     * @param timestampMillis The wall-clock time of the change, in milliseconds since the epoch.
+     * @param type The kind of change.
+     * @param property The property added, removed or re-priced.
+     * @param oldPriceUsd The price before the change, in USD, or NaN for an add.
+     * @param newPriceUsd The price after the change, in USD, or NaN for a remove.
+     */
+    ChangeEvent(final long sequence, final long timestampMillis, final Type type, final Property property,
+                final double oldPriceUsd, final double newPriceUsd)
+    {
+        this.sequence        = sequence;
+        this.timestampMillis = timestampMillis;
+        this.type            = type;
+        this.property        = property;
+        this.oldPriceUsd     = oldPriceUsd;
+        this.newPriceUsd     = newPriceUsd;
+    }
+
+    /**
+     * @return The sequence number of the event.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * @return The wall-clock time of the change, in milliseconds since the epoch.
+     */
+    public long getTimestampMillis()
+    {
+        return timestampMillis;
+    }
+
+    /**
+     * @return The kind of change.
+     */
+    public Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return The property added, removed or re-priced.
+     */
+    public Property getProperty()
+    {
+        return property;
+    }
+
+    /**
+     * @return The ID of the property added, removed or re-priced.
+     */
+    public String getPropertyId()
+    {
+        return property.getPropertyId();
+    }
+
+    /**
+     * @return The price before the change in USD, or NaN for an add.
+     */
+    public double getOldPriceUsd()
+    {
+        return oldPriceUsd;
+    }
+
+    /**
+     * @return The price after the change in USD, or NaN for a remove.
+     */
+    public double getNewPriceUsd()
+    {
+        return newPriceUsd;
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models an ordered feed of the changes made to an Agency, kept in a fixed-size ring buffer.
+ * The single mutating thread publishes without locks or waiting: when a subscriber lags by more than the
+ * capacity, the oldest events are overwritten and that subscriber is told to resynchronize.
+ * Any number of subscriber threads read concurrently, each resuming from its own sequence number.
+ */
+public class ChangeFeed
+{
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int                               mask;
+    private final AtomicLong                        lastSequence;
+
+    private static final int VALID_MIN_CAPACITY = 2;
+    private static final int VALID_MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Constructor, valid the capacity before initialize the object.
+     * @param capacity The number of events retained, must be a power of two.
+     * @throws IllegalArgumentException If the capacity is not a power of two in range.
+     */
+    ChangeFeed(final int capacity)
+    {
+        if(capacity < VALID_MIN_CAPACITY || capacity > VALID_MAX_CAPACITY || Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        ring         = new AtomicReferenceArray<>(capacity);
+        mask         = capacity - 1;
+        lastSequence = new AtomicLong(0);
+    }
+
+    /**
+     * This method appends an event. It must only be called from the single mutating thread.
+     * @param type The kind of change.
+     * @param property The property added, removed or re-priced.
+     * @param oldPriceUsd The price before the change, in USD, or NaN for an add.
+     * @param newPriceUsd The price after the change, in USD, or NaN for a remove.
+     * @return The sequence number of the event.
+     */
+    long publish(final ChangeEvent.Type type, final Property property,
+                 final double oldPriceUsd, final double newPriceUsd)
+    {
+        long sequence;
+        sequence = lastSequence.get() + 1;
+
+        ring.lazySet((int) (sequence & mask),
+                new ChangeEvent(sequence, System.currentTimeMillis(), type, property, oldPriceUsd, newPriceUsd));
+        // readers never look past lastSequence, so the slot is visible before the event is announced
+        lastSequence.lazySet(sequence);
+        return sequence;
+    }
+
+    /**
+     * @return The sequence number of the newest event, or 0 if nothing has been published.
+     */
+    public long getLastSequence()
+    {
+        return lastSequence.get();
+    }
+
+    /**
+     * @return The sequence number of the oldest event still retained, or 1 if nothing was overwritten yet.
+     */
+    public long getOldestSequence()
+    {
+        return Math.max(1, lastSequence.get() - mask);
+    }
+
+    /**
+     * @return The number of events retained.
+     */
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * @param fromSequence The sequence number of the first event wanted; 1 reads from the beginning.
+     * @param maxEvents The maximum number of events to return.
+     * @return A List of the consecutive events from the sequence number on, oldest first, which is empty
+     * if the subscriber is up to date.
+     * @throws IllegalStateException If events from the sequence number on were already overwritten,
+     * in which case the subscriber must resynchronize from a full snapshot.
+     */
+    public List<ChangeEvent> read(final long fromSequence, final int maxEvents)
+    {
+        List<ChangeEvent> events;
+        long              last;
+        long              from;
+
+        last   = lastSequence.get();
+        from   = Math.max(1, fromSequence);
+        events = new ArrayList<>((int) Math.max(0, Math.min(maxEvents, last - from + 1)));
+
+        for(long sequence = from; sequence <= last && events.size() < maxEvents; sequence++)
+        {
+            ChangeEvent event;
+            event = ring.get((int) (sequence & mask));
+
+            if(event == null || event.getSequence() != sequence)
+            {
+                throw new IllegalStateException("Sequence overwritten: " + sequence);
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * @param held The test of whether a listing is held elsewhere, such as by the agency, so it is not counted.
+     * @return The estimated bytes of the ring, the retained events and the listings only they still
+     * reference, see MemoryFootprint.
+     */
+    long estimateBytes(final Predicate<Property> held)
+    {
+        long          bytes;
+        Set<Property> counted;
+
+        // three references; the ring is an object holding its array, and the sequence an object holding a long
+        bytes   = MemoryFootprint.object(3 * MemoryFootprint.REFERENCE) +
+                MemoryFootprint.object(MemoryFootprint.REFERENCE) +
+                MemoryFootprint.array(ring.length(), MemoryFootprint.REFERENCE) +
+                MemoryFootprint.object(Long.BYTES);
+        counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for(int i = 0; i < ring.length(); i++)
+        {
+            ChangeEvent event;
+            event = ring.get(i);
+
+            if(event != null)
+            {
+                // the sequence, time, two references and the old and new prices
+                bytes += MemoryFootprint.object(2 * Long.BYTES + 2 * MemoryFootprint.REFERENCE + 2 * Double.BYTES);
+
+                if(!held.test(event.getProperty()) && counted.add(event.getProperty()))
+                {
+                    bytes += MemoryFootprint.listing(event.getProperty());
+                }
+            }
+        }
+        return bytes;
+    }
+}
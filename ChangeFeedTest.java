@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest
+{
+    private ChangeFeed feed;
+    private Property property;
+
+    @BeforeEach
+    void setUp()
+    {
+        feed     = new ChangeFeed(8);
+        property = new Property(499000, new Address("1a", 777, "56th avenue", "v7n2m8", "surrey"),
+                2, true, "residence", "11111");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        feed     = null;
+        property = null;
+    }
+
+    @Test
+    void getExpectedExceptionsCapacity()
+    {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, ()->{
+            feed = new ChangeFeed(6);
+        });
+        assertTrue(ex.getMessage().equals("Invalid capacity: 6"));
+    }
+
+    @Test
+    void publishRead()
+    {
+        assertEquals(0, feed.getLastSequence());
+        assertEquals(0, feed.read(1, 100).size());
+
+        assertEquals(1, feed.publish(ChangeEvent.Type.ADD, property, Double.NaN, 499000));
+        assertEquals(2, feed.publish(ChangeEvent.Type.PRICE_CHANGE, property, 499000, 450000));
+        assertEquals(3, feed.publish(ChangeEvent.Type.REMOVE, property, 450000, Double.NaN));
+
+        List<ChangeEvent> events = feed.read(1, 100);
+
+        assertEquals(3, events.size());
+        assertEquals(ChangeEvent.Type.ADD, events.get(0).getType());
+        assertEquals(ChangeEvent.Type.PRICE_CHANGE, events.get(1).getType());
+        assertEquals(450000.0, events.get(1).getNewPriceUsd());
+        assertEquals(499000.0, events.get(1).getOldPriceUsd());
+        assertEquals("11111", events.get(2).getPropertyId());
+        assertEquals(3, events.get(2).getSequence());
+    }
+
+    @Test
+    void readBatches()
+    {
+        for(int i = 0; i < 5; i++)
+        {
+            feed.publish(ChangeEvent.Type.ADD, property, Double.NaN, i);
+        }
+
+        List<ChangeEvent> first = feed.read(1, 2);
+        List<ChangeEvent> second = feed.read(first.get(first.size() - 1).getSequence() + 1, 10);
+
+        assertEquals(2, first.size());
+        assertEquals(3, second.size());
+        assertEquals(3, second.get(0).getSequence());
+        assertEquals(0, feed.read(6, 10).size());
+    }
+
+    @Test
+    void readOverwritten()
+    {
+        for(int i = 0; i < 10; i++)
+        {
+            feed.publish(ChangeEvent.Type.ADD, property, Double.NaN, i);
+        }
+
+        assertEquals(3, feed.getOldestSequence());
+        assertEquals(8, feed.read(3, 100).size());
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, ()->{
+            feed.read(2, 100);
+        });
+        assertTrue(ex.getMessage().equals("Sequence overwritten: 2"));
+    }
+
+    @Test
+    void concurrentReader() throws InterruptedException
+    {
+        ChangeFeed large = new ChangeFeed(1 << 16);
+        long[] seen = new long[1];
+
+        Thread reader = new Thread(()->{
+            long next = 1;
+            while(next <= 50000)
+            {
+                for(ChangeEvent event : large.read(next, 1000))
+                {
+                    assertEquals(next, event.getSequence());
+                    next++;
+                }
+            }
+            seen[0] = next - 1;
+        });
+        reader.start();
+
+        for(int i = 0; i < 50000; i++)
+        {
+            large.publish(ChangeEvent.Type.ADD, property, Double.NaN, i);
+        }
+        reader.join();
+
+        assertEquals(50000, seen[0]);
+    }
+}
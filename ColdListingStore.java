@@ -0,0 +1,445 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the cold tier of an Agency: listings demoted from the heap, kept in on-disk segments
+ * under one directory. Each demotion writes one new PropertySegment; a lookup asks the segments newest first,
+ * and each ID is held by at most one segment. Once there are more than MAX_SEGMENTS segments, or the deleted
+ * listings outnumber the live ones, every segment is merged into one, dropping the deleted listings.
+ * Every listing read from the tier is a new copy, so changing it does not change the stored listing.
+ * Each segment has its own Bloom filter, so an ID held by no segment is usually rejected without any I/O.
+ * Lookups and scans may run on several threads at once, but adding, removing and compacting must be
+ * serialized with them by the caller. While segments are retained, the segments compacted away or closed
+ * are kept open until the last release.
+ */
+public class ColdListingStore implements Iterable<Property>, AutoCloseable
+{
+    private final Path                  directory;
+    private final int                   pageCacheCapacity;
+    private final List<PropertySegment> segments;
+    private final List<PropertySegment> retired;
+    private int                         nextSegment;
+    private int                         compactions;
+    private int                         retains;
+
+    private static final int MAX_SEGMENTS = 8;
+
+    /**
+     * Constructor, creates an empty tier.
+     * @param directory The directory the segment files are written to, cannot be null.
+     * @param pageCacheCapacity The maximum number of pages each segment caches, must be positive.
+     * @throws IllegalArgumentException If the page cache capacity is not positive.
+     */
+    ColdListingStore(final Path directory, final int pageCacheCapacity)
+    {
+        if(directory == null)
+        {
+            throw new NullPointerException("Invalid directory: null");
+        }
+
+        if(pageCacheCapacity < 1)
+        {
+            throw new IllegalArgumentException("Invalid page cache capacity: " + pageCacheCapacity);
+        }
+
+        this.directory         = directory;
+        this.pageCacheCapacity = pageCacheCapacity;
+        this.segments          = new ArrayList<>();
+        this.retired           = new ArrayList<>();
+    }
+
+    /**
+     * This method writes the listings to a new segment, compacting the tier if it has too many segments.
+     * The listings must not be held by the tier already.
+     * @param properties The listings to be demoted.
+     * @throws UncheckedIOException If the segment cannot be written.
+     */
+    public void demote(final Collection<Property> properties)
+    {
+        if(properties.isEmpty())
+        {
+            return;
+        }
+
+        segments.add(writeSegment(properties));
+
+        if(segments.size() > MAX_SEGMENTS)
+        {
+            compact();
+        }
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return A new copy of the listing with the ID, or null if the tier does not hold it.
+     * @throws UncheckedIOException If a segment cannot be read.
+     */
+    public Property get(final String propertyId)
+    {
+        for(int i = segments.size() - 1; i >= 0; i--)
+        {
+            Property property;
+            property = segments.get(i).get(propertyId);
+
+            if(property != null)
+            {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method removes the listing with the ID from the tier.
+     * @param propertyId The ID of the listing to be removed.
+     * @return A copy of the removed listing, or null if the tier did not hold it.
+     * @throws UncheckedIOException If a segment cannot be read.
+     */
+    public Property remove(final String propertyId)
+    {
+        for(int i = segments.size() - 1; i >= 0; i--)
+        {
+            PropertySegment segment;
+            Property        property;
+
+            segment  = segments.get(i);
+            property = segment.get(propertyId);
+
+            if(property != null)
+            {
+                segment.delete(propertyId);
+
+                if(segment.getDeletedCount() > segment.size())
+                {
+                    compact();
+                }
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method merges every segment into one, dropping the deleted listings.
+     * @throws UncheckedIOException If the merged segment cannot be written.
+     */
+    public void compact()
+    {
+        List<Property>        live;
+        List<PropertySegment> merged;
+
+        live = new ArrayList<>();
+
+        for(Property property : this)
+        {
+            live.add(property);
+        }
+
+        merged = new ArrayList<>(segments);
+        segments.clear();
+
+        if(!live.isEmpty())
+        {
+            segments.add(writeSegment(live));
+        }
+        compactions++;
+
+        for(PropertySegment segment : merged)
+        {
+            retire(segment);
+        }
+    }
+
+    /**
+     * @return The number of listings held.
+     */
+    public int size()
+    {
+        int size;
+        size = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return The estimated heap bytes of the segments, without their cached pages, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        // four references and three ints
+        bytes = MemoryFootprint.object(4 * MemoryFootprint.REFERENCE + 3 * Integer.BYTES) +
+                MemoryFootprint.arrayList(segments.size());
+
+        for(PropertySegment segment : segments)
+        {
+            bytes += segment.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The estimated bytes of the pages cached by the segments, see MemoryFootprint.
+     */
+    long estimatePageCacheBytes()
+    {
+        long bytes;
+        bytes = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            bytes += segment.estimatePageCacheBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * This method drops the pages cached by every segment, such as to free heap for an agency over its
+     * memory budget.
+     */
+    public void clearPageCaches()
+    {
+        for(PropertySegment segment : segments)
+        {
+            segment.clearPageCache();
+        }
+    }
+
+    /**
+     * @return An unmodifiable view of the segments, oldest first.
+     */
+    public List<PropertySegment> getSegments()
+    {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return The number of compactions so far.
+     */
+    public int getCompactionCount()
+    {
+        return compactions;
+    }
+
+    /**
+     * @return The number of page reads served by the page caches of the current segments.
+     */
+    public long getPageHitCount()
+    {
+        long hits;
+        hits = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            hits += segment.getPageHitCount();
+        }
+        return hits;
+    }
+
+    /**
+     * @return The number of page reads of the current segments that went to disk.
+     */
+    public long getPageMissCount()
+    {
+        long misses;
+        misses = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            misses += segment.getPageMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * @return The number of segment lookups the Bloom filters of the current segments answered without I/O.
+     */
+    public long getFilteredMissCount()
+    {
+        long misses;
+        misses = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            misses += segment.getFilteredMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * @return The number of segment lookups of the current segments that passed the Bloom filter and missed.
+     */
+    public long getFalsePositiveCount()
+    {
+        long falsePositives;
+        falsePositives = 0;
+
+        for(PropertySegment segment : segments)
+        {
+            falsePositives += segment.getFalsePositiveCount();
+        }
+        return falsePositives;
+    }
+
+    /**
+     * @return The observed false positive rate of the current segments' Bloom filters: the share of lookups of
+     * absent IDs that passed the filter, or 0 if there were none.
+     */
+    public double getFalsePositiveRate()
+    {
+        long falsePositives;
+        long absent;
+
+        falsePositives = getFalsePositiveCount();
+        absent         = falsePositives + getFilteredMissCount();
+
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * @return An iterator streaming copies of every listing held, segment by segment.
+     */
+    @Override
+    public Iterator<Property> iterator()
+    {
+        return iterator(new ArrayList<>(segments));
+    }
+
+    /**
+     * This method keeps the current segments open until release, even if they are compacted away or the tier
+     * is closed meanwhile, so that the listings held now can be read a batch at a time while the tier changes
+     * in between. A listing removed or moved meanwhile is still returned; the caller must tell those apart.
+     * Like removing, it must be serialized with the other calls by the caller.
+     * @return An iterator streaming copies of every listing held now, which can be read until release.
+     */
+    Iterator<Property> retain()
+    {
+        retains++;
+        return iterator(new ArrayList<>(segments));
+    }
+
+    /**
+     * This method ends one retain, closing the segments compacted away or closed since the first retain once
+     * none is left.
+     */
+    void release()
+    {
+        if(--retains == 0)
+        {
+            for(PropertySegment segment : retired)
+            {
+                close(segment);
+            }
+            retired.clear();
+        }
+    }
+
+    /**
+     * @return An iterator over the listings of the segments, segment by segment.
+     */
+    private static Iterator<Property> iterator(final List<PropertySegment> snapshot)
+    {
+        return new Iterator<Property>()
+        {
+            private int                segment;
+            private Iterator<Property> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while(!current.hasNext() && segment < snapshot.size())
+                {
+                    current = snapshot.get(segment++).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Property next()
+            {
+                if(!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * This method closes and deletes every segment.
+     */
+    @Override
+    public void close()
+    {
+        for(PropertySegment segment : segments)
+        {
+            retire(segment);
+        }
+        segments.clear();
+    }
+
+    private PropertySegment writeSegment(final Collection<Property> properties)
+    {
+        try
+        {
+            Path path;
+
+            Files.createDirectories(directory);
+
+            do
+            {
+                path = directory.resolve("segment-" + nextSegment++ + ".dat");
+            }
+            while(Files.exists(path));
+
+            return PropertySegment.write(path, properties, pageCacheCapacity);
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * This method closes a segment no longer held, or keeps it open until release while segments are retained.
+     */
+    private void retire(final PropertySegment segment)
+    {
+        if(retains > 0)
+        {
+            retired.add(segment);
+        }
+        else
+        {
+            close(segment);
+        }
+    }
+
+    private static void close(final PropertySegment segment)
+    {
+        try
+        {
+            segment.close();
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColdListingStoreTest
+{
+    private Path             directory;
+    private ColdListingStore store;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("cold");
+        store     = new ColdListingStore(directory, 8);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException
+    {
+        store.close();
+        Files.deleteIfExists(directory);
+        store = null;
+    }
+
+    private static List<Property> batch(final int from, final int to)
+    {
+        List<Property> properties;
+        properties = new ArrayList<>();
+
+        for(int i = from; i < to; i++)
+        {
+            properties.add(new Property(1000 * i, new Address(null, i, "elm street", "90210", "los angeles"),
+                    2, false, "residence", "c" + i));
+        }
+        return properties;
+    }
+
+    @Test
+    void demoteGetRemove()
+    {
+        store.demote(batch(0, 100));
+        store.demote(batch(100, 150));
+        store.demote(List.of());
+
+        assertEquals(150, store.size());
+        assertEquals(2, store.getSegments().size());
+        assertEquals(120000, store.get("c120").getPriceUsd());
+        assertEquals(5000, store.get("c5").getPriceUsd());
+        assertNull(store.get("c150"));
+
+        assertEquals(120000, store.remove("c120").getPriceUsd());
+        assertNull(store.remove("c120"));
+        assertNull(store.get("c120"));
+        assertEquals(149, store.size());
+    }
+
+    @Test
+    void compaction()
+    {
+        Set<String> ids = new HashSet<>();
+
+        for(int i = 0; i < 9; i++)
+        {
+            store.demote(batch(i * 10, i * 10 + 10));
+        }
+        assertEquals(1, store.getCompactionCount());
+        assertEquals(1, store.getSegments().size());
+        assertEquals(90, store.size());
+
+        for(int i = 0; i < 46; i++)
+        {
+            store.remove("c" + i);
+        }
+        assertEquals(2, store.getCompactionCount());
+        assertEquals(0, store.getSegments().get(0).getDeletedCount());
+
+        for(Property property : store)
+        {
+            ids.add(property.getPropertyId());
+        }
+        assertEquals(44, ids.size());
+        assertTrue(ids.contains("c89"));
+        assertFalse(ids.contains("c0"));
+    }
+
+    @Test
+    void closeDeletesSegments() throws IOException
+    {
+        store.demote(batch(0, 10));
+        store.close();
+
+        try(var files = Files.list(directory))
+        {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0, store.size());
+        assertThrows(IllegalArgumentException.class, () -> new ColdListingStore(directory, 0));
+        assertThrows(NullPointerException.class, () -> new ColdListingStore(null, 1));
+    }
+
+    @Test
+    void retainedSegmentsOutliveCompaction()
+    {
+        Iterator<Property> retained;
+        int                count;
+
+        store.demote(batch(0, 100));
+        store.demote(batch(100, 150));
+
+        retained = store.retain();
+        store.compact();
+        store.remove("c7");
+        count = 0;
+
+        while(retained.hasNext())
+        {
+            retained.next();
+            count++;
+        }
+        store.release();
+
+        assertEquals(150, count);
+        assertEquals(149, store.size());
+        assertEquals(1, store.getSegments().size());
+    }
+}
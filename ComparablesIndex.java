@@ -0,0 +1,365 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a k-nearest-neighbour index for finding comparable listings. Each property becomes a
+ * point whose axes are normalized so that one unit is roughly one step of dissimilarity: a doubling in price,
+ * two bedrooms, a different type, no pool against a pool, or 10 km of distance. Locations are points on the
+ * sphere, so distances hold across the antimeridian; a property without coordinates is set far from every
+ * property with them and is compared on the other features only. The points live in a KD-tree: inserts
+ * descend to a leaf, removals leave a tombstone, and the tree is rebuilt balanced once the tombstones or the
+ * inserts since the last build outnumber the live points, which keeps queries logarithmic on average.
+ */
+public class ComparablesIndex
+{
+    private final Map<Property, Node> nodes;
+    private Node                      root;
+    private int                       live;
+    private int                       dead;
+    private int                       insertedSinceBuild;
+
+    private static final int    DIMENSIONS = 10;
+    private static final double BEDROOMS_PER_UNIT = 2.0;
+    private static final double POOL_WEIGHT = 1.0;
+    private static final double TYPE_WEIGHT = Math.sqrt(0.5);
+    private static final double KM_PER_UNIT = 10.0;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double NO_COORDINATES = 1000.0;
+    private static final String[] TYPES = {"residence", "commercial", "retail"};
+    private static final int    MIN_REBUILD_SIZE = 64;
+
+    /**
+     * Constructor, creates an empty index.
+     */
+    ComparablesIndex()
+    {
+        nodes = new IdentityHashMap<>();
+    }
+
+    /**
+     * This method inserts the property at its current features.
+     * @param property The property to be added.
+     */
+    public void add(final Property property)
+    {
+        Node node;
+        node = new Node(property, features(property));
+
+        nodes.put(property, node);
+        live++;
+        insertedSinceBuild++;
+
+        if(root == null)
+        {
+            root = node;
+        }
+        else
+        {
+            Node parent;
+            parent = root;
+
+            while(true)
+            {
+                if(node.point[parent.axis] < parent.point[parent.axis])
+                {
+                    if(parent.left == null)
+                    {
+                        parent.left = node;
+                        break;
+                    }
+                    parent = parent.left;
+                }
+                else
+                {
+                    if(parent.right == null)
+                    {
+                        parent.right = node;
+                        break;
+                    }
+                    parent = parent.right;
+                }
+            }
+            node.axis = (parent.axis + 1) % DIMENSIONS;
+        }
+        rebuildIfUnbalanced();
+    }
+
+    /**
+     * This method removes the property, leaving a tombstone until the next rebuild.
+     * @param property The property to be removed.
+     */
+    public void remove(final Property property)
+    {
+        Node node;
+        node = nodes.remove(property);
+
+        if(node != null)
+        {
+            node.dead = true;
+            live--;
+            dead++;
+            rebuildIfUnbalanced();
+        }
+    }
+
+    /**
+     * This method moves the property to its new price.
+     * @param property The re-priced property.
+     */
+    public void priceChanged(final Property property)
+    {
+        if(nodes.containsKey(property))
+        {
+            remove(property);
+            add(property);
+        }
+    }
+
+    /**
+     * @return The number of properties indexed.
+     */
+    public int size()
+    {
+        return live;
+    }
+
+    /**
+     * @return The estimated bytes of the tree, counting the tombstones left until the next rebuild,
+     * without the listings, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // two references and three counts; each node has four references, the axis and the tombstone flag,
+        // and its feature point
+        return MemoryFootprint.object(2 * MemoryFootprint.REFERENCE + 3 * Integer.BYTES) +
+                MemoryFootprint.identityHashMap(nodes.size()) +
+                (long) (live + dead) * (MemoryFootprint.object(4 * MemoryFootprint.REFERENCE + Integer.BYTES + 1) +
+                        MemoryFootprint.array(DIMENSIONS, Double.BYTES));
+    }
+
+    /**
+     * @param property The property to find comparables for; it need not be indexed.
+     * @param k The number of comparables to return.
+     * @return An ArrayList of up to k indexed properties other than the property, most similar first.
+     */
+    public ArrayList<Property> nearest(final Property property, final int k)
+    {
+        PriorityQueue<Candidate> best;
+        ArrayList<Property>      nearest;
+
+        nearest = new ArrayList<>();
+
+        if(k <= 0)
+        {
+            return nearest;
+        }
+
+        best = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.distance).reversed());
+        search(root, features(property), property, k, best);
+
+        while(!best.isEmpty())
+        {
+            nearest.add(best.poll().property);
+        }
+
+        Collections.reverse(nearest);
+        return nearest;
+    }
+
+    /**
+     * @param a The first property.
+     * @param b The second property.
+     * @return The dissimilarity of the properties, the Euclidean distance of their feature points.
+     */
+    public static double distance(final Property a, final Property b)
+    {
+        return Math.sqrt(squaredDistance(features(a), features(b)));
+    }
+
+    /**
+     * @param property The property.
+     * @return The normalized feature point of the property.
+     */
+    static double[] features(final Property property)
+    {
+        double[] point;
+        Address  address;
+
+        point   = new double[DIMENSIONS];
+        address = property.getAddress();
+
+        point[0] = Math.log(Math.max(property.getPriceUsd(), 1)) / Math.log(2);
+        point[1] = property.getNumberOfBedrooms() / BEDROOMS_PER_UNIT;
+
+        for(int i = 0; i < TYPES.length; i++)
+        {
+            point[2 + i] = TYPES[i].equalsIgnoreCase(property.getType()) ? TYPE_WEIGHT : 0;
+        }
+
+        point[5] = property.hasSwimmingPool() ? POOL_WEIGHT : 0;
+
+        if(address.hasCoordinates())
+        {
+            double latitude;
+            double longitude;
+            double scale;
+
+            latitude  = Math.toRadians(address.getLatitude());
+            longitude = Math.toRadians(address.getLongitude());
+            scale     = EARTH_RADIUS_KM / KM_PER_UNIT;
+
+            point[6] = scale * Math.cos(latitude) * Math.cos(longitude);
+            point[7] = scale * Math.cos(latitude) * Math.sin(longitude);
+            point[8] = scale * Math.sin(latitude);
+        }
+        else
+        {
+            point[9] = NO_COORDINATES;
+        }
+        return point;
+    }
+
+    private void search(final Node node, final double[] target, final Property exclude, final int k,
+                        final PriorityQueue<Candidate> best)
+    {
+        double difference;
+        Node   near;
+        Node   far;
+
+        if(node == null)
+        {
+            return;
+        }
+
+        if(!node.dead && node.property != exclude)
+        {
+            double distance;
+            distance = squaredDistance(node.point, target);
+
+            if(best.size() < k)
+            {
+                best.add(new Candidate(node.property, distance));
+            }
+            else if(distance < best.peek().distance)
+            {
+                best.poll();
+                best.add(new Candidate(node.property, distance));
+            }
+        }
+
+        difference = target[node.axis] - node.point[node.axis];
+        near       = difference < 0 ? node.left : node.right;
+        far        = difference < 0 ? node.right : node.left;
+
+        search(near, target, exclude, k, best);
+
+        // the far side can only hold a closer point if the splitting plane is closer than the kth best
+        if(best.size() < k || difference * difference < best.peek().distance)
+        {
+            search(far, target, exclude, k, best);
+        }
+    }
+
+    private void rebuildIfUnbalanced()
+    {
+        Node[] liveNodes;
+        int    count;
+
+        if(live + dead < MIN_REBUILD_SIZE || (dead <= live && insertedSinceBuild <= live))
+        {
+            return;
+        }
+
+        liveNodes = new Node[live];
+        count     = 0;
+
+        for(Node node : nodes.values())
+        {
+            node.left  = null;
+            node.right = null;
+            liveNodes[count++] = node;
+        }
+
+        root               = build(liveNodes, 0, count, 0);
+        dead               = 0;
+        insertedSinceBuild = 0;
+    }
+
+    /**
+     * @return The root of a balanced subtree of nodes[from, to), split on the median of the axis.
+     */
+    private static Node build(final Node[] nodes, final int from, final int to, final int axis)
+    {
+        int  middle;
+        Node median;
+
+        if(from >= to)
+        {
+            return null;
+        }
+
+        Arrays.sort(nodes, from, to, Comparator.comparingDouble((Node n) -> n.point[axis]));
+        // keys equal to the median may fall on either side; the search visits both sides of a tie
+        middle = (from + to) >>> 1;
+        median       = nodes[middle];
+        median.axis  = axis;
+        median.left  = build(nodes, from, middle, (axis + 1) % DIMENSIONS);
+        median.right = build(nodes, middle + 1, to, (axis + 1) % DIMENSIONS);
+        return median;
+    }
+
+    private static double squaredDistance(final double[] a, final double[] b)
+    {
+        double sum;
+        sum = 0;
+
+        for(int i = 0; i < DIMENSIONS; i++)
+        {
+            double difference;
+            difference = a[i] - b[i];
+            sum       += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * One point of the tree.
+     */
+    private static final class Node
+    {
+        private final Property property;
+        private final double[] point;
+        private Node           left;
+        private Node           right;
+        private int            axis;
+        private boolean        dead;
+
+        private Node(final Property property, final double[] point)
+        {
+            this.property = property;
+            this.point    = point;
+        }
+    }
+
+    /**
+     * A property found by a search and its squared distance.
+     */
+    private static final class Candidate
+    {
+        private final Property property;
+        private final double   distance;
+
+        private Candidate(final Property property, final double distance)
+        {
+            this.property = property;
+            this.distance = distance;
+        }
+    }
+}
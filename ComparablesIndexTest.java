@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComparablesIndexTest
+{
+    private static final String[] TYPES = {"residence", "commercial", "retail"};
+
+    private ComparablesIndex index;
+    private List<Property> properties;
+    private Random random;
+
+    @BeforeEach
+    void setUp()
+    {
+        index      = new ComparablesIndex();
+        properties = new ArrayList<>();
+        random     = new Random(7);
+
+        for(int i = 0; i < 2000; i++)
+        {
+            properties.add(randomProperty("p" + i));
+            index.add(properties.get(i));
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        index      = null;
+        properties = null;
+    }
+
+    private Property randomProperty(final String id)
+    {
+        Address address;
+
+        if(random.nextInt(10) == 0)
+        {
+            address = new Address(null, 1, "main street", "v7r2g2", "surrey");
+        }
+        else
+        {
+            address = new Address(null, 1, "main street", "v7r2g2", "surrey", 49 + random.nextDouble(),
+                    -123.5 + random.nextDouble());
+        }
+        return new Property(Math.exp(11 + random.nextGaussian()), address, 1 + random.nextInt(8),
+                random.nextBoolean(), TYPES[random.nextInt(3)], id);
+    }
+
+    private List<Property> bruteForce(final Property target, final int k)
+    {
+        List<Property> others = new ArrayList<>(properties);
+
+        others.remove(target);
+        others.sort(Comparator.comparingDouble(p -> ComparablesIndex.distance(target, p)));
+        return others.subList(0, Math.min(k, others.size()));
+    }
+
+    private void assertMatchesBruteForce()
+    {
+        for(int i = 0; i < 50; i++)
+        {
+            Property       target   = properties.get(random.nextInt(properties.size()));
+            List<Property> expected = bruteForce(target, 10);
+            List<Property> actual   = index.nearest(target, 10);
+
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0; j < expected.size(); j++)
+            {
+                assertEquals(ComparablesIndex.distance(target, expected.get(j)),
+                        ComparablesIndex.distance(target, actual.get(j)), 1e-9);
+            }
+            assertFalse(actual.contains(target));
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce()
+    {
+        assertEquals(2000, index.size());
+        assertMatchesBruteForce();
+    }
+
+    @Test
+    void incrementalUpdates()
+    {
+        for(int i = 0; i < 1500; i++)
+        {
+            Property removed = properties.remove(random.nextInt(properties.size()));
+            Property added   = randomProperty("n" + i);
+
+            index.remove(removed);
+            index.add(added);
+            properties.add(added);
+
+            Property repriced = properties.get(random.nextInt(properties.size()));
+
+            repriced.setPriceUsd(repriced.getPriceUsd() * 1.5);
+            index.priceChanged(repriced);
+        }
+
+        assertEquals(2000, index.size());
+        assertMatchesBruteForce();
+    }
+
+    @Test
+    void similarity()
+    {
+        Address  here     = new Address(null, 1, "elm street", "v7r2g2", "surrey", 49.1, -122.8);
+        Address  far      = new Address(null, 1, "elm street", "v7r2g2", "toronto", 43.7, -79.4);
+        Property target   = new Property(500000, here, 3, false, "residence", "t");
+        Property twin     = new Property(510000, here, 3, false, "residence", "twin");
+        Property distant  = new Property(500000, far, 3, false, "residence", "far");
+        Property retail   = new Property(500000, here, 3, false, "retail", "shop");
+
+        assertTrue(ComparablesIndex.distance(target, twin) < ComparablesIndex.distance(target, retail));
+        assertTrue(ComparablesIndex.distance(target, retail) < ComparablesIndex.distance(target, distant));
+        assertEquals(0, index.nearest(target, 0).size());
+        assertEquals(0, new ComparablesIndex().nearest(target, 5).size());
+    }
+}
@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a hierarchical timing wheel of listing expiries. Time advances in ticks; each of the six
+ * levels has 64 slots, level n slot s holding the timers due in the s-th block of 64^n ticks, so scheduling,
+ * cancelling and firing a timer cost O(1), and a timer is moved down a level at most five times before it
+ * fires. Slots are doubly linked lists, so a timer is cancelled in place when its listing is removed or
+ * replaced. Advancing skips over empty stretches of the wheel instead of visiting every tick.
+ */
+public class ExpiryWheel
+{
+    private final long         tickMillis;
+    private final Timer[][]    slots;
+    private final int[]        levelCounts;
+    private final Map<String, Timer> timers;
+    private long               currentTick;
+
+    private static final int BITS_PER_LEVEL = 6;
+    private static final int SLOTS = 1 << BITS_PER_LEVEL;
+    private static final int LEVELS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * Constructor, creates an empty wheel.
+     * @param tickMillis The resolution of the wheel, in milliseconds, must be positive.
+     * @param nowMillis The current time, in epoch milliseconds.
+     * @throws IllegalArgumentException If the tick is not positive.
+     */
+    ExpiryWheel(final long tickMillis, final long nowMillis)
+    {
+        if(tickMillis <= 0)
+        {
+            throw new IllegalArgumentException("Invalid tick: " + tickMillis);
+        }
+
+        this.tickMillis  = tickMillis;
+        this.slots       = new Timer[LEVELS][SLOTS];
+        this.levelCounts = new int[LEVELS + 1];
+        this.timers      = new HashMap<>();
+        this.currentTick = Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    /**
+     * This method schedules the expiry of the listing, replacing any expiry it had.
+     * @param propertyId The ID of the listing.
+     * @param expiresAtMillis The time the listing expires, in epoch milliseconds.
+     */
+    public void schedule(final String propertyId, final long expiresAtMillis)
+    {
+        Timer timer;
+
+        cancel(propertyId);
+
+        // a listing expires on the first tick at or after its expiry time
+        timer = new Timer(propertyId, Math.floorDiv(expiresAtMillis + tickMillis - 1, tickMillis));
+        timers.put(propertyId, timer);
+        place(timer);
+    }
+
+    /**
+     * This method cancels the expiry of the listing, if it has one.
+     * @param propertyId The ID of the listing.
+     */
+    public void cancel(final String propertyId)
+    {
+        Timer timer;
+        timer = timers.remove(propertyId);
+
+        if(timer != null)
+        {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * @param propertyId The ID of the listing.
+     * @return The expiry time of the listing, rounded up to a tick, or -1 if it has none.
+     */
+    public long getExpiry(final String propertyId)
+    {
+        Timer timer;
+        timer = timers.get(propertyId);
+
+        return timer == null ? -1 : timer.expiryTick * tickMillis;
+    }
+
+    /**
+     * @return The number of scheduled expiries.
+     */
+    public int size()
+    {
+        return timers.size();
+    }
+
+    /**
+     * This method advances the wheel to the time and collects every listing that expired on the way.
+     * @param nowMillis The current time, in epoch milliseconds; an earlier time than the last is ignored.
+     * @return The IDs of the expired listings, whose expiries are removed from the wheel.
+     */
+    public List<String> advance(final long nowMillis)
+    {
+        List<String> expired;
+        long         targetTick;
+
+        expired    = new ArrayList<>();
+        targetTick = Math.floorDiv(nowMillis, tickMillis);
+
+        drainDue(expired);
+
+        while(currentTick < targetTick)
+        {
+            int lowest;
+            lowest = lowestOccupiedLevel();
+
+            if(lowest == LEVELS)
+            {
+                currentTick = targetTick;
+                break;
+            }
+
+            // nothing fires before the next tick at which the lowest occupied level cascades
+            if(lowest > 0)
+            {
+                long boundary;
+                boundary    = ((currentTick >>> (BITS_PER_LEVEL * lowest)) + 1) << (BITS_PER_LEVEL * lowest);
+                currentTick = Math.min(targetTick, boundary - 1);
+
+                if(currentTick == targetTick)
+                {
+                    break;
+                }
+            }
+
+            currentTick++;
+            cascade();
+            fire(slotHead(0, (int) (currentTick & SLOT_MASK)), expired);
+            drainDue(expired);
+        }
+        return expired;
+    }
+
+    /**
+     * This method moves the timers of every higher level whose block starts at the current tick down
+     * to the levels below.
+     */
+    private void cascade()
+    {
+        int level;
+        level = 1;
+
+        while(level < LEVELS && (currentTick & ((1L << (BITS_PER_LEVEL * level)) - 1)) == 0)
+        {
+            level++;
+        }
+
+        for(int l = level - 1; l >= 1; l--)
+        {
+            int   slot;
+            Timer timer;
+
+            slot  = (int) ((currentTick >>> (BITS_PER_LEVEL * l)) & SLOT_MASK);
+            timer = slots[l][slot];
+
+            slots[l][slot] = null;
+
+            while(timer != null)
+            {
+                Timer next;
+                next = timer.next;
+
+                levelCounts[l]--;
+                timer.prev = null;
+                timer.next = null;
+                place(timer);
+                timer = next;
+            }
+        }
+    }
+
+    private void fire(final Timer head, final List<String> expired)
+    {
+        Timer timer;
+        timer = head;
+
+        while(timer != null)
+        {
+            Timer next;
+            next = timer.next;
+
+            unlink(timer);
+            timers.remove(timer.propertyId);
+            expired.add(timer.propertyId);
+            timer = next;
+        }
+    }
+
+    /**
+     * This method fires the timers that were already due when they were placed.
+     */
+    private void drainDue(final List<String> expired)
+    {
+        fire(slots[0][dueSlot()], expired);
+    }
+
+    /**
+     * This method files the timer under the level and slot of its expiry tick, relative to the current tick.
+     * A timer already due goes to the due list, kept in the level 0 slot of the current tick.
+     */
+    private void place(final Timer timer)
+    {
+        long difference;
+        int  level;
+        int  slot;
+
+        if(timer.expiryTick <= currentTick)
+        {
+            level = 0;
+            slot  = dueSlot();
+        }
+        else
+        {
+            difference = timer.expiryTick ^ currentTick;
+            level      = Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(difference)) / BITS_PER_LEVEL);
+            slot       = (int) ((timer.expiryTick >>> (BITS_PER_LEVEL * level)) & SLOT_MASK);
+        }
+
+        timer.level = level;
+        timer.slot  = slot;
+        timer.next  = slots[level][slot];
+
+        if(timer.next != null)
+        {
+            timer.next.prev = timer;
+        }
+        slots[level][slot] = timer;
+        levelCounts[level]++;
+    }
+
+    private void unlink(final Timer timer)
+    {
+        if(timer.prev != null)
+        {
+            timer.prev.next = timer.next;
+        }
+        else
+        {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+
+        if(timer.next != null)
+        {
+            timer.next.prev = timer.prev;
+        }
+
+        timer.prev = null;
+        timer.next = null;
+        levelCounts[timer.level]--;
+    }
+
+    private Timer slotHead(final int level, final int slot)
+    {
+        return slots[level][slot];
+    }
+
+    private int dueSlot()
+    {
+        return (int) (currentTick & SLOT_MASK);
+    }
+
+    private int lowestOccupiedLevel()
+    {
+        int level;
+        level = 0;
+
+        while(level < LEVELS && levelCounts[level] == 0)
+        {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @return The estimated bytes of the wheel and its timers, without the property IDs, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // the tick, three references and the current tick; each timer has a reference, its expiry tick,
+        // the level and slot, and the two links
+        return MemoryFootprint.object(Long.BYTES + 3 * MemoryFootprint.REFERENCE + Long.BYTES) +
+                MemoryFootprint.array(LEVELS, MemoryFootprint.REFERENCE) +
+                LEVELS * MemoryFootprint.array(SLOTS, MemoryFootprint.REFERENCE) +
+                MemoryFootprint.array(LEVELS + 1, Integer.BYTES) +
+                MemoryFootprint.hashMap(timers.size()) +
+                timers.size() * MemoryFootprint.object(3 * MemoryFootprint.REFERENCE + Long.BYTES + 2 * Integer.BYTES);
+    }
+
+    /**
+     * One scheduled expiry.
+     */
+    private static final class Timer
+    {
+        private final String propertyId;
+        private final long   expiryTick;
+        private int          level;
+        private int          slot;
+        private Timer        prev;
+        private Timer        next;
+
+        private Timer(final String propertyId, final long expiryTick)
+        {
+            this.propertyId = propertyId;
+            this.expiryTick = expiryTick;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest
+{
+    private static final long START = 1_700_000_000_000L;
+
+    private ExpiryWheel wheel;
+
+    @BeforeEach
+    void setUp()
+    {
+        wheel = new ExpiryWheel(1000, START);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        wheel = null;
+    }
+
+    @Test
+    void firesOnTime()
+    {
+        wheel.schedule("a", START + 1500);
+        wheel.schedule("b", START + 90_000);
+        wheel.schedule("c", START + 30L * 86_400_000L);
+        wheel.schedule("late", START - 5000);
+
+        assertEquals(List.of("late"), wheel.advance(START));
+        assertEquals(List.of(), wheel.advance(START + 1999));
+        assertEquals(List.of("a"), wheel.advance(START + 2000));
+        assertEquals(List.of(), wheel.advance(START + 89_999));
+        assertEquals(List.of("b"), wheel.advance(START + 90_000));
+        assertEquals(START + 30L * 86_400_000L, wheel.getExpiry("c"));
+        assertEquals(List.of(), wheel.advance(START + 30L * 86_400_000L - 1));
+        assertEquals(List.of("c"), wheel.advance(START + 31L * 86_400_000L));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelAndReschedule()
+    {
+        wheel.schedule("a", START + 5000);
+        wheel.schedule("b", START + 5000);
+        wheel.cancel("a");
+        wheel.schedule("b", START + 10000);
+
+        assertEquals(List.of(), wheel.advance(START + 9000));
+        assertEquals(List.of("b"), wheel.advance(START + 10000));
+        assertEquals(-1, wheel.getExpiry("a"));
+        assertThrows(IllegalArgumentException.class, () -> new ExpiryWheel(0, START));
+    }
+
+    @Test
+    void randomAgainstReference()
+    {
+        Random            random    = new Random(3);
+        Map<String, Long> reference = new HashMap<>();
+        long              now       = START;
+
+        for(int i = 0; i < 20000; i++)
+        {
+            long expiry = now + (long) Math.pow(10, 1 + random.nextDouble() * 9);
+
+            wheel.schedule("p" + i, expiry);
+            reference.put("p" + i, (expiry + 999) / 1000 * 1000);
+        }
+
+        while(!reference.isEmpty())
+        {
+            List<String> expected = new ArrayList<>();
+
+            now += (long) Math.pow(10, random.nextDouble() * 9);
+            for(Map.Entry<String, Long> entry : reference.entrySet())
+            {
+                if(entry.getValue() <= now)
+                {
+                    expected.add(entry.getKey());
+                }
+            }
+
+            List<String> fired = wheel.advance(now);
+
+            assertEquals(expected.size(), fired.size());
+            assertTrue(fired.containsAll(expected));
+            expected.forEach(reference::remove);
+        }
+        assertEquals(0, wheel.size());
+    }
+}
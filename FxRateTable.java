@@ -0,0 +1,215 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a table of foreign exchange rates, each the units of a currency one USD buys, such as
+ * 1.37 for CAD. Currencies are three-letter ISO 4217 codes, matched case-insensitively; USD is always
+ * supported at a rate of 1. A table is immutable: new rates are loaded into a new table and passed to
+ * Agency.setFxRates, which converts every price column to them in one batch.
+ */
+public class FxRateTable
+{
+    private final Map<String, Double> rates;
+
+    /** The currency prices are stored in. */
+    public static final String USD = "USD";
+
+    private static final int    CURRENCY_LENGTH = 3;
+    private static final char   COMMENT = '#';
+    private static final String SEPARATOR = ",";
+
+    /**
+     * Constructor, creates a table of the rates.
+     * @param unitsPerUsd The units of each currency one USD buys, by currency code; USD may be omitted.
+     * @throws IllegalArgumentException If a code is not three letters, a rate is not positive and finite,
+     * or USD is given a rate other than 1.
+     */
+    public FxRateTable(final Map<String, Double> unitsPerUsd)
+    {
+        rates = new TreeMap<>();
+        rates.put(USD, 1.0);
+
+        for(Map.Entry<String, Double> rate : unitsPerUsd.entrySet())
+        {
+            String currency;
+            currency = normalize(rate.getKey());
+
+            if(rate.getValue() == null || !(rate.getValue() > 0) || Double.isInfinite(rate.getValue()) ||
+                    (currency.equals(USD) && rate.getValue() != 1.0))
+            {
+                throw new IllegalArgumentException("Invalid rate: " + rate.getKey() + " " + rate.getValue());
+            }
+            rates.put(currency, rate.getValue());
+        }
+    }
+
+    /**
+     * @return A table supporting USD alone.
+     */
+    public static FxRateTable usdOnly()
+    {
+        return new FxRateTable(Map.of());
+    }
+
+    /**
+     * This method reads a table from a text file with one "currency,unitsPerUsd" line per currency, such
+     * as "CAD,1.37". Blank lines and lines starting with '#' are skipped.
+     * @param file The file to be read, in UTF-8.
+     * @return The table of the rates in the file.
+     * @throws IOException If the file cannot be read or a line is not a valid rate.
+     */
+    public static FxRateTable load(final Path file) throws IOException
+    {
+        Map<String, Double> unitsPerUsd;
+        String              line;
+        int                 lineNumber;
+
+        unitsPerUsd = new TreeMap<>();
+        lineNumber  = 0;
+
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            while((line = reader.readLine()) != null)
+            {
+                String[] fields;
+
+                lineNumber++;
+                line = line.trim();
+
+                if(line.isEmpty() || line.charAt(0) == COMMENT)
+                {
+                    continue;
+                }
+
+                fields = line.split(SEPARATOR, -1);
+
+                try
+                {
+                    if(fields.length != 2)
+                    {
+                        throw new IllegalArgumentException("Invalid rate: " + line);
+                    }
+                    unitsPerUsd.put(normalize(fields[0].trim()), Double.parseDouble(fields[1].trim()));
+                }
+                catch(IllegalArgumentException e)
+                {
+                    throw new IOException("Invalid rate on line " + lineNumber + ": " + line, e);
+                }
+            }
+        }
+
+        try
+        {
+            return new FxRateTable(unitsPerUsd);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param currency The currency code, case-insensitive.
+     * @return True if the table has a rate for the currency, otherwise false.
+     */
+    public boolean isSupported(final String currency)
+    {
+        return currency != null && rates.containsKey(currency.toUpperCase());
+    }
+
+    /**
+     * @return The supported currency codes, in alphabetical order.
+     */
+    public Set<String> getCurrencies()
+    {
+        return Collections.unmodifiableSet(rates.keySet());
+    }
+
+    /**
+     * @param currency The currency code, case-insensitive.
+     * @return The units of the currency one USD buys.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double getRate(final String currency)
+    {
+        Double rate;
+        rate = currency == null ? null : rates.get(currency.toUpperCase());
+
+        if(rate == null)
+        {
+            throw new IllegalArgumentException("Invalid currency: " + currency);
+        }
+        return rate;
+    }
+
+    /**
+     * @param priceInUsd The price, in USD.
+     * @param currency The currency code, case-insensitive.
+     * @return The price in the currency.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double convert(final double priceInUsd, final String currency)
+    {
+        return priceInUsd * getRate(currency);
+    }
+
+    /**
+     * @param price The price, in the currency.
+     * @param currency The currency code, case-insensitive.
+     * @return The price in USD.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double toUsd(final double price, final String currency)
+    {
+        return price / getRate(currency);
+    }
+
+    /**
+     * @return The rates, one "currency,unitsPerUsd" line each, in the format load reads.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text;
+        text = new StringBuilder();
+
+        for(Map.Entry<String, Double> rate : rates.entrySet())
+        {
+            text.append(rate.getKey()).append(SEPARATOR).append(rate.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The currency code in upper case.
+     * @throws IllegalArgumentException If the code is not three letters.
+     */
+    private static String normalize(final String currency)
+    {
+        if(currency == null || currency.length() != CURRENCY_LENGTH)
+        {
+            throw new IllegalArgumentException("Invalid currency: " + currency);
+        }
+
+        for(int i = 0; i < CURRENCY_LENGTH; i++)
+        {
+            char letter;
+            letter = currency.charAt(i);
+
+            if(!(letter >= 'a' && letter <= 'z') && !(letter >= 'A' && letter <= 'Z'))
+            {
+                throw new IllegalArgumentException("Invalid currency: " + currency);
+            }
+        }
+        return currency.toUpperCase();
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FxRateTableTest
+{
+    @Test
+    void convert()
+    {
+        FxRateTable rates = new FxRateTable(Map.of("cad", 1.25, "EUR", 0.8));
+
+        assertEquals(Set.of("CAD", "EUR", "USD"), rates.getCurrencies());
+        assertTrue(rates.isSupported("Cad"));
+        assertFalse(rates.isSupported("GBP"));
+        assertFalse(rates.isSupported(null));
+        assertEquals(1.0, rates.getRate("usd"));
+        assertEquals(125000.0, rates.convert(100000, "CAD"));
+        assertEquals(100000.0, rates.toUsd(80000, "eur"));
+        assertThrows(IllegalArgumentException.class, () -> rates.getRate("GBP"));
+        assertThrows(IllegalArgumentException.class, () -> rates.convert(1, null));
+        assertEquals(Set.of("USD"), FxRateTable.usdOnly().getCurrencies());
+    }
+
+    @Test
+    void invalidRates()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("CA", 1.3)));
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("C4D", 1.3)));
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("CAD", 0.0)));
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("CAD", Double.NaN)));
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("CAD", Double.POSITIVE_INFINITY)));
+        assertThrows(IllegalArgumentException.class, () -> new FxRateTable(Map.of("USD", 1.1)));
+    }
+
+    @Test
+    void load() throws IOException
+    {
+        Path file = Files.createTempFile("rates", ".csv");
+
+        try
+        {
+            Files.write(file, "# rates of 2026-10-19\n\nCAD, 1.3712\neur,0.92\nUSD,1\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            FxRateTable rates = FxRateTable.load(file);
+
+            assertEquals(1.3712, rates.getRate("CAD"));
+            assertEquals(0.92, rates.getRate("EUR"));
+            assertEquals(rates.getCurrencies(), FxRateTable.load(writeBack(file, rates)).getCurrencies());
+
+            Files.write(file, "CAD,1.37\nEUR\n".getBytes(StandardCharsets.UTF_8));
+            IOException e = assertThrows(IOException.class, () -> FxRateTable.load(file));
+            assertTrue(e.getMessage().contains("line 2"));
+
+            Files.write(file, "CAD,-1.37\n".getBytes(StandardCharsets.UTF_8));
+            assertThrows(IOException.class, () -> FxRateTable.load(file));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static Path writeBack(final Path file, final FxRateTable rates) throws IOException
+    {
+        Files.write(file, rates.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
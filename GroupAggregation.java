@@ -0,0 +1,159 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a hash aggregation of property prices grouped by any combination of dimensions,
+ * for example the count and average price by city, or the total value by type and number of bedrooms.
+ * Each group is a key of one value per dimension, in dimension order, mapped to primitive PriceStatistics.
+ * Partial aggregations computed separately (per thread) are combined with merge.
+ */
+public class GroupAggregation
+{
+    private final Dimension[]                          dimensions;
+    private final Map<List<Object>, PriceStatistics>   groups;
+
+    /**
+     * The property attributes a group can be keyed by.
+     */
+    public enum Dimension
+    {
+        CITY,
+        STREET,
+        TYPE,
+        BEDROOMS,
+        POOL;
+
+        /**
+         * @param property The property to be grouped.
+         * @return The value of this dimension for the property; the city, street and type in lower case, so
+         * they group case-insensitively as the indexes match them.
+         */
+        public Object of(final Property property)
+        {
+            switch(this)
+            {
+                case CITY:
+                    return property.getAddress().getCity().toLowerCase();
+                case STREET:
+                    return property.getAddress().getStreetName().toLowerCase();
+                case TYPE:
+                    return property.getType().toLowerCase();
+                case BEDROOMS:
+                    return property.getNumberOfBedrooms();
+                default:
+                    return property.hasSwimmingPool();
+            }
+        }
+    }
+
+    /**
+     * Constructor, creates an empty aggregation.
+     * @param dimensions The dimensions to group by, in key order; none puts every property in one group.
+     * @throws NullPointerException If a dimension is null.
+     */
+    GroupAggregation(final Dimension... dimensions)
+    {
+        for(Dimension dimension : dimensions)
+        {
+            if(dimension == null)
+            {
+                throw new NullPointerException("Invalid dimension: null");
+            }
+        }
+
+        this.dimensions = dimensions.clone();
+        this.groups     = new HashMap<>();
+    }
+
+    /**
+     * This method adds the price of the property to its group.
+     * @param property The property to be aggregated.
+     */
+    public void add(final Property property)
+    {
+        Object[] key;
+        key = new Object[dimensions.length];
+
+        for(int i = 0; i < dimensions.length; i++)
+        {
+            key[i] = dimensions[i].of(property);
+        }
+
+        groups.computeIfAbsent(Arrays.asList(key), k -> new PriceStatistics()).add(property.getPriceUsd());
+    }
+
+    /**
+     * This method combines another aggregation over the same dimensions into this aggregation.
+     * @param other The aggregation to be merged in.
+     * @throws IllegalArgumentException If the other aggregation groups by different dimensions.
+     */
+    public void merge(final GroupAggregation other)
+    {
+        if(!Arrays.equals(dimensions, other.dimensions))
+        {
+            throw new IllegalArgumentException("Invalid dimensions: " + Arrays.toString(other.dimensions));
+        }
+
+        for(Map.Entry<List<Object>, PriceStatistics> entry : other.groups.entrySet())
+        {
+            PriceStatistics statistics;
+            statistics = groups.get(entry.getKey());
+
+            if(statistics == null)
+            {
+                statistics = new PriceStatistics();
+                groups.put(entry.getKey(), statistics);
+            }
+            statistics.merge(entry.getValue());
+        }
+    }
+
+    /**
+     * @param values One value per dimension, in dimension order, such as ("residence", 3); text is matched
+     * case-insensitively.
+     * @return The statistics of the group, or null if no property falls in it.
+     */
+    public PriceStatistics get(final Object... values)
+    {
+        Object[] key;
+        key = values.clone();
+
+        for(int i = 0; i < key.length; i++)
+        {
+            if(key[i] instanceof String)
+            {
+                key[i] = ((String) key[i]).toLowerCase();
+            }
+        }
+        return groups.get(Arrays.asList(key));
+    }
+
+    /**
+     * @return Every group key mapped to its statistics; the map cannot be modified.
+     */
+    public Map<List<Object>, PriceStatistics> getGroups()
+    {
+        return Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * @return The dimensions grouped by, in key order.
+     */
+    public Dimension[] getDimensions()
+    {
+        return dimensions.clone();
+    }
+
+    /**
+     * @return The number of groups.
+     */
+    public int size()
+    {
+        return groups.size();
+    }
+}
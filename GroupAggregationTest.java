@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupAggregationTest
+{
+    private GroupAggregation aggregation;
+
+    private Address a1 = new Address(null, 1, "elm street", "90210", "los angeles");
+    private Address a2 = new Address(null, 2, "main street", "v7r2g2", "west vancouver");
+
+    @BeforeEach
+    void setUp()
+    {
+        aggregation = new GroupAggregation(GroupAggregation.Dimension.TYPE, GroupAggregation.Dimension.BEDROOMS);
+
+        aggregation.add(new Property(100000, a1, 2, false, "residence", "p1"));
+        aggregation.add(new Property(300000, a2, 2, true, "residence", "p2"));
+        aggregation.add(new Property(500000, a1, 3, false, "retail", "p3"));
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        aggregation = null;
+    }
+
+    @Test
+    void groups()
+    {
+        PriceStatistics residences = aggregation.get("residence", 2);
+
+        assertEquals(2, aggregation.size());
+        assertEquals(2, residences.getCount());
+        assertEquals(200000, residences.getAverage());
+        assertEquals(100000, residences.getMin());
+        assertEquals(300000, residences.getMax());
+        assertEquals(500000, aggregation.get("retail", 3).getSum());
+        assertNull(aggregation.get("retail", 2));
+        assertThrows(UnsupportedOperationException.class, () -> aggregation.getGroups().clear());
+    }
+
+    @Test
+    void groupsTextCaseInsensitively()
+    {
+        aggregation.add(new Property(200000, a2, 2, false, "Residence", "p4"));
+
+        assertEquals(2, aggregation.size());
+        assertEquals(3, aggregation.get("residence", 2).getCount());
+        assertEquals(3, aggregation.get("RESIDENCE", 2).getCount());
+        assertEquals(Arrays.asList("residence", 2), aggregation.getGroups().keySet().stream()
+                .filter(key -> key.get(1).equals(2)).findFirst().orElse(null));
+    }
+
+    @Test
+    void merge()
+    {
+        GroupAggregation other = new GroupAggregation(GroupAggregation.Dimension.TYPE,
+                GroupAggregation.Dimension.BEDROOMS);
+
+        other.add(new Property(700000, a2, 2, true, "residence", "p4"));
+        other.add(new Property(50000, a2, 9, true, "commercial", "p5"));
+        aggregation.merge(other);
+
+        assertEquals(3, aggregation.size());
+        assertEquals(3, aggregation.get("residence", 2).getCount());
+        assertEquals(700000, aggregation.get("residence", 2).getMax());
+        assertThrows(IllegalArgumentException.class,
+                () -> aggregation.merge(new GroupAggregation(GroupAggregation.Dimension.CITY)));
+    }
+
+    @Test
+    void noDimensions()
+    {
+        GroupAggregation total = new GroupAggregation();
+
+        total.add(new Property(1, a1, 1, false, "retail", "p6"));
+        total.add(new Property(2, a2, 1, false, "retail", "p7"));
+
+        assertEquals(1, total.size());
+        assertEquals(3, total.get().getSum());
+        assertEquals(List.of(), total.getGroups().keySet().iterator().next());
+        assertThrows(NullPointerException.class, () -> new GroupAggregation(GroupAggregation.Dimension.CITY, null));
+        assertEquals(Arrays.asList(GroupAggregation.Dimension.CITY),
+                Arrays.asList(new GroupAggregation(GroupAggregation.Dimension.CITY).getDimensions()));
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a minimal streaming JSON writer. Tokens are encoded straight into a byte buffer that
+ * is flushed to the output stream whenever it fills, so a response of any size is written without building
+ * it as a String first. Text is escaped to ASCII. Objects and arrays nest up to 64 levels. A number is
+ * written as the digits of a scaled long, as ListingExporter writes prices and coordinates: to seven
+ * decimals, without trailing zeros, and without Double.toString.
+ */
+public class JsonStreamWriter
+{
+    private final OutputStream out;
+    private final byte[]       buffer;
+    private int                position;
+    private long               needsComma;
+    private int                depth;
+    private boolean            afterName;
+
+    private static final int    BUFFER_SIZE = 8192;
+    private static final int    MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final int    DECIMAL_DIGITS = 7;
+    private static final long   DECIMAL_SCALE = 10_000_000L;
+    private static final double MAX_SCALED = 0x1p53;
+
+    /**
+     * Constructor, creates a writer over the stream.
+     * @param out The stream the JSON is written to.
+     */
+    public JsonStreamWriter(final OutputStream out)
+    {
+        this.out    = out;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * @return This writer, after the start of an object.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter beginObject() throws IOException
+    {
+        return open('{');
+    }
+
+    /**
+     * @return This writer, after the end of the current object.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter endObject() throws IOException
+    {
+        return close('}');
+    }
+
+    /**
+     * @return This writer, after the start of an array.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter beginArray() throws IOException
+    {
+        return open('[');
+    }
+
+    /**
+     * @return This writer, after the end of the current array.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter endArray() throws IOException
+    {
+        return close(']');
+    }
+
+    /**
+     * @param name The name of the next member of the current object.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter name(final String name) throws IOException
+    {
+        separate();
+        text(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * @param value A string, or null.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter value(final String value) throws IOException
+    {
+        separate();
+
+        if(value == null)
+        {
+            ascii("null");
+        }
+        else
+        {
+            text(value);
+        }
+        return this;
+    }
+
+    /**
+     * @param value A whole number.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter value(final long value) throws IOException
+    {
+        separate();
+
+        if(value == Long.MIN_VALUE)
+        {
+            ascii(Long.toString(value));
+            return this;
+        }
+
+        if(value < 0)
+        {
+            put('-');
+        }
+        digits(Math.abs(value));
+        return this;
+    }
+
+    /**
+     * @param value A number, written to seven decimals without trailing zeros; a larger number, whose double
+     * holds fewer decimals anyway, keeps only the decimals that scale it below 2^53, and one too large for any is
+     * written by Double.toString. NaN and the infinities, which JSON cannot hold, are written as null.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter value(final double value) throws IOException
+    {
+        long scale;
+        int  places;
+        long scaled;
+        long fraction;
+
+        if(Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return value((String) null);
+        }
+
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return value((long) value);
+        }
+
+        places = DECIMAL_DIGITS;
+        scale  = DECIMAL_SCALE;
+
+        while(places > 0 && Math.abs(value) * scale >= MAX_SCALED)
+        {
+            places--;
+            scale /= 10;
+        }
+
+        if(Math.abs(value) * scale >= MAX_SCALED)
+        {
+            separate();
+            ascii(Double.toString(value));
+            return this;
+        }
+
+        scaled = Math.round(Math.abs(value) * scale);
+        separate();
+
+        if(value < 0 && scaled != 0)
+        {
+            put('-');
+        }
+
+        digits(scaled / scale);
+        fraction = scaled % scale;
+
+        if(fraction != 0)
+        {
+            while(fraction % 10 == 0)
+            {
+                fraction /= 10;
+                places--;
+            }
+
+            put('.');
+
+            // the leading zeros the fraction's own digits do not show
+            for(long rest = fraction / 10; rest > 0; rest /= 10)
+            {
+                places--;
+            }
+
+            for(int i = 1; i < places; i++)
+            {
+                put('0');
+            }
+            digits(fraction);
+        }
+        return this;
+    }
+
+    /**
+     * @param value A boolean.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter value(final boolean value) throws IOException
+    {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * This method writes a line break, between the records of newline-delimited JSON.
+     * @return This writer.
+     * @throws IOException If the stream fails.
+     */
+    public JsonStreamWriter newLine() throws IOException
+    {
+        put('\n');
+        needsComma &= ~1L;
+        return this;
+    }
+
+    /**
+     * This method writes the buffered bytes to the stream and flushes it.
+     * @throws IOException If the stream fails.
+     */
+    public void flush() throws IOException
+    {
+        drain();
+        out.flush();
+    }
+
+    private JsonStreamWriter open(final char bracket) throws IOException
+    {
+        if(depth == MAX_DEPTH - 1)
+        {
+            throw new IllegalStateException("Invalid depth: " + MAX_DEPTH);
+        }
+
+        separate();
+        put(bracket);
+        depth++;
+        needsComma &= ~(1L << depth);
+        return this;
+    }
+
+    private JsonStreamWriter close(final char bracket) throws IOException
+    {
+        if(depth == 0)
+        {
+            throw new IllegalStateException("Invalid close: " + bracket);
+        }
+
+        put(bracket);
+        depth--;
+        return this;
+    }
+
+    /**
+     * This method writes the comma before every value but the first at its level, unless it follows a name.
+     */
+    private void separate() throws IOException
+    {
+        if(afterName)
+        {
+            afterName = false;
+            return;
+        }
+
+        if((needsComma & (1L << depth)) != 0)
+        {
+            put(',');
+        }
+        needsComma |= 1L << depth;
+    }
+
+    private void text(final String value) throws IOException
+    {
+        put('"');
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c;
+            c = value.charAt(i);
+
+            if(c == '"' || c == '\\')
+            {
+                put('\\');
+                put(c);
+            }
+            else if(c < 0x20 || c > 0x7E)
+            {
+                put('\\');
+                put('u');
+                put((char) HEX[(c >> 12) & 0xF]);
+                put((char) HEX[(c >> 8) & 0xF]);
+                put((char) HEX[(c >> 4) & 0xF]);
+                put((char) HEX[c & 0xF]);
+            }
+            else
+            {
+                put(c);
+            }
+        }
+        put('"');
+    }
+
+    private void digits(final long value) throws IOException
+    {
+        if(value >= 10)
+        {
+            digits(value / 10);
+        }
+        put((char) ('0' + value % 10));
+    }
+
+    private void ascii(final String value) throws IOException
+    {
+        for(int i = 0; i < value.length(); i++)
+        {
+            put(value.charAt(i));
+        }
+    }
+
+    private void put(final char c) throws IOException
+    {
+        if(position == buffer.length)
+        {
+            drain();
+        }
+        buffer[position++] = (byte) c;
+    }
+
+    private void drain() throws IOException
+    {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonStreamWriterTest
+{
+    private ByteArrayOutputStream bytes;
+    private JsonStreamWriter json;
+
+    @BeforeEach
+    void setUp()
+    {
+        bytes = new ByteArrayOutputStream();
+        json  = new JsonStreamWriter(bytes);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        bytes = null;
+        json  = null;
+    }
+
+    private String written() throws IOException
+    {
+        json.flush();
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void nesting() throws IOException
+    {
+        json.beginObject().name("a").value(1).name("b").beginArray().value(true).value((String) null)
+                .beginObject().endObject().endArray().name("c").value(-2.5).endObject();
+
+        assertEquals("{\"a\":1,\"b\":[true,null,{}],\"c\":-2.5}", written());
+    }
+
+    @Test
+    void escaping() throws IOException
+    {
+        json.value("say \"hi\"\\\n\u00e9");
+
+        assertEquals("\"say \\\"hi\\\"\\\\\\u000a\\u00e9\"", written());
+    }
+
+    @Test
+    void numbers() throws IOException
+    {
+        json.beginArray().value(0).value(Long.MIN_VALUE).value(499000.0).value(Double.NaN).value(0.1).endArray();
+
+        assertEquals("[0,-9223372036854775808,499000,null,0.1]", written());
+    }
+
+    @Test
+    void decimals() throws IOException
+    {
+        json.beginArray().value(-2.05).value(49.2827291).value(0.000001).value(-0.00000001).value(1234567.891)
+                .value(123456789012.5).value(1e15 + 0.5).value(1e20).endArray();
+
+        assertEquals("[-2.05,49.2827291,0.000001,0,1234567.891,123456789012.5,1000000000000001,1.0E20]", written());
+    }
+
+    @Test
+    void largeAndDelimited() throws IOException
+    {
+        for(int i = 0; i < 3000; i++)
+        {
+            json.beginObject().name("i").value(i).endObject().newLine();
+        }
+
+        String text = written();
+
+        assertEquals(3000, text.split("\n").length);
+        assertEquals("{\"i\":2999}", text.split("\n")[2999]);
+        assertThrows(IllegalStateException.class, () -> json.endArray());
+    }
+}
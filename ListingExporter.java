@@ -0,0 +1,806 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a streaming exporter of listings to CSV, newline-delimited JSON or the binary listing
+ * format. Each record is encoded with plain array stores into a reusable staging array, then copied in one bulk
+ * put into a reusable direct ByteBuffer, which is written to the channel whenever it fills: text is encoded
+ * character by character, prices and coordinates are written as the digits of scaled longs, and no String is
+ * built per field or per record. Exporting an agency walks it with forEachProperty, so a full-inventory dump
+ * never materializes a result list either. The NDJSON fields match those of AgencyHttpServer, and text in it
+ * is escaped to ASCII as JsonStreamWriter does.
+ * The binary format starts with the magic bytes "PLS1"; each record is the byte length of its body
+ * followed by the body: ID, price in cents as a long, bedrooms as a byte, a flags byte (pool, unit,
+ * coordinates), type, unit if any, street number as an int, street, postal code, city, and latitude and
+ * longitude as doubles if any. Text is UTF-8 after an unsigned short byte length, and numbers are big-endian.
+ */
+public class ListingExporter implements AutoCloseable
+{
+    private final WritableByteChannel channel;
+    private final Format              format;
+    private final ByteBuffer          buffer;
+    private byte[]                    record;
+    private int                       length;
+    private long                      records;
+    private long                      bytesWritten;
+    private boolean                   started;
+
+    /**
+     * The output formats.
+     */
+    public enum Format
+    {
+        /** Comma-separated values with a header line, quoted as RFC 4180 requires, in UTF-8. */
+        CSV,
+        /** One JSON object per line, in the fields of AgencyHttpServer. */
+        NDJSON,
+        /** The binary listing format, which read decodes. */
+        BINARY
+    }
+
+    private static final int    BUFFER_SIZE = 256 * 1024;
+    private static final int    RECORD_SIZE = 1024;
+    private static final byte[] MAGIC = {'P', 'L', 'S', '1'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CSV_HEADER = ("id,price,bedrooms,pool,type,unit,street_number,street,postal_code," +
+            "city,latitude,longitude\n").getBytes(StandardCharsets.US_ASCII);
+    private static final String[] TYPES = {"residence", "commercial", "retail"};
+    private static final int    FLAG_POOL = 1;
+    private static final int    FLAG_UNIT = 2;
+    private static final int    FLAG_COORDINATES = 4;
+    private static final long   COORDINATE_SCALE = 10_000_000L;
+    private static final int    COORDINATE_DIGITS = 7;
+
+    /**
+     * Constructor, creates an exporter writing to the channel.
+     * @param channel The channel the listings are written to, cannot be null; the exporter does not close it.
+     * @param format The output format, cannot be null.
+     */
+    public ListingExporter(final WritableByteChannel channel, final Format format)
+    {
+        if(channel == null)
+        {
+            throw new NullPointerException("Invalid channel: null");
+        }
+
+        if(format == null)
+        {
+            throw new NullPointerException("Invalid format: null");
+        }
+
+        this.channel = channel;
+        this.format  = format;
+        this.buffer  = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.record  = new byte[RECORD_SIZE];
+    }
+
+    /**
+     * Constructor, creates an exporter writing to the stream.
+     * @param out The stream the listings are written to, cannot be null; the exporter does not close it.
+     * @param format The output format, cannot be null.
+     */
+    public ListingExporter(final OutputStream out, final Format format)
+    {
+        this(Channels.newChannel(out), format);
+    }
+
+    /**
+     * This method writes every listing of the agency, as it walks them.
+     * @param agency The agency to be exported.
+     * @return The number of listings written.
+     * @throws IOException If the channel fails.
+     */
+    public long export(final Agency agency) throws IOException
+    {
+        return export(agency, PropertyFilters.all());
+    }
+
+    /**
+     * This method writes the listings of the agency that pass the filter, as it walks them.
+     * @param agency The agency to be exported.
+     * @param filter The filter the listings must pass.
+     * @return The number of listings written.
+     * @throws IOException If the channel fails.
+     */
+    public long export(final Agency agency, final Predicate<Property> filter) throws IOException
+    {
+        long before;
+        before = records;
+
+        try
+        {
+            agency.forEachProperty(property -> {
+                if(filter.test(property))
+                {
+                    try
+                    {
+                        write(property);
+                    }
+                    catch(IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        return records - before;
+    }
+
+    /**
+     * This method writes the listings, such as the result of a query.
+     * @param properties The listings to be written; null is taken as no listings.
+     * @return The number of listings written.
+     * @throws IOException If the channel fails.
+     */
+    public long writeAll(final Iterable<Property> properties) throws IOException
+    {
+        long before;
+        before = records;
+
+        if(properties != null)
+        {
+            for(Property property : properties)
+            {
+                write(property);
+            }
+        }
+        return records - before;
+    }
+
+    /**
+     * This method writes one listing.
+     * @param property The listing to be written.
+     * @throws IOException If the channel fails.
+     */
+    public void write(final Property property) throws IOException
+    {
+        start();
+        length = 0;
+
+        switch(format)
+        {
+            case CSV:
+                writeCsv(property);
+                break;
+            case NDJSON:
+                writeJson(property);
+                break;
+            default:
+                writeBinary(property);
+                break;
+        }
+
+        emit(record, length);
+        records++;
+    }
+
+    /**
+     * This method writes the buffered bytes to the channel. The CSV header and the binary magic are written
+     * even if there were no listings.
+     * @throws IOException If the channel fails.
+     */
+    public void flush() throws IOException
+    {
+        start();
+        drain();
+    }
+
+    /**
+     * This method flushes the exporter; the channel is left open.
+     * @throws IOException If the channel fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * @return The number of listings written.
+     */
+    public long getRecordCount()
+    {
+        return records;
+    }
+
+    /**
+     * @return The number of bytes written to the channel so far, not counting those still buffered.
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    /**
+     * This method decodes listings written in the binary format.
+     * @param in The channel to be read to its end.
+     * @param action The action performed for every listing, in the order they were written.
+     * @return The number of listings read.
+     * @throws IOException If the channel fails or does not hold the binary format.
+     */
+    public static long read(final ReadableByteChannel in, final Consumer<Property> action) throws IOException
+    {
+        ByteBuffer input;
+        long       count;
+
+        input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        input.flip();
+        count = 0;
+
+        fill(in, input, MAGIC.length, true);
+
+        for(byte magic : MAGIC)
+        {
+            if(input.get() != magic)
+            {
+                throw new IOException("Invalid listing format");
+            }
+        }
+
+        while(fill(in, input, Integer.BYTES, false))
+        {
+            int length;
+            length = input.getInt();
+
+            fill(in, input, length, true);
+            action.accept(decode(input));
+            count++;
+        }
+        return count;
+    }
+
+    private void start() throws IOException
+    {
+        if(!started)
+        {
+            started = true;
+
+            if(format == Format.CSV)
+            {
+                emit(CSV_HEADER, CSV_HEADER.length);
+            }
+            else if(format == Format.BINARY)
+            {
+                emit(MAGIC, MAGIC.length);
+            }
+        }
+    }
+
+    private void writeCsv(final Property property)
+    {
+        Address address;
+        address = property.getAddress();
+
+        csv(property.getPropertyId());
+        put(',');
+        cents(Math.round(property.getPriceUsd() * 100));
+        put(',');
+        digits(property.getNumberOfBedrooms(), 1);
+        put(',');
+        ascii(property.hasSwimmingPool() ? "true" : "false");
+        put(',');
+        csv(property.getType());
+        put(',');
+
+        if(address.getUnitNumber() != null)
+        {
+            csv(address.getUnitNumber());
+        }
+
+        put(',');
+        digits(address.getStreetNumber(), 1);
+        put(',');
+        csv(address.getStreetName());
+        put(',');
+        csv(address.getPostalCode());
+        put(',');
+        csv(address.getCity());
+        put(',');
+
+        if(address.hasCoordinates())
+        {
+            coordinate(address.getLatitude());
+            put(',');
+            coordinate(address.getLongitude());
+        }
+        else
+        {
+            put(',');
+        }
+        put('\n');
+    }
+
+    private void writeJson(final Property property)
+    {
+        Address address;
+        address = property.getAddress();
+
+        ascii("{\"id\":");
+        json(property.getPropertyId());
+        ascii(",\"price\":");
+        cents(Math.round(property.getPriceUsd() * 100));
+        ascii(",\"bedrooms\":");
+        digits(property.getNumberOfBedrooms(), 1);
+        ascii(",\"pool\":");
+        ascii(property.hasSwimmingPool() ? "true" : "false");
+        ascii(",\"type\":");
+        json(property.getType());
+        ascii(",\"address\":{\"unit\":");
+        json(address.getUnitNumber());
+        ascii(",\"streetNumber\":");
+        digits(address.getStreetNumber(), 1);
+        ascii(",\"street\":");
+        json(address.getStreetName());
+        ascii(",\"postalCode\":");
+        json(address.getPostalCode());
+        ascii(",\"city\":");
+        json(address.getCity());
+
+        if(address.hasCoordinates())
+        {
+            ascii(",\"latitude\":");
+            coordinate(address.getLatitude());
+            ascii(",\"longitude\":");
+            coordinate(address.getLongitude());
+        }
+        ascii("}}\n");
+    }
+
+    private void writeBinary(final Property property)
+    {
+        Address address;
+        int     flags;
+
+        address = property.getAddress();
+        flags   = (property.hasSwimmingPool() ? FLAG_POOL : 0) |
+                (address.getUnitNumber() != null ? FLAG_UNIT : 0) |
+                (address.hasCoordinates() ? FLAG_COORDINATES : 0);
+
+        // the body length is filled in once the body is encoded
+        reserve(Integer.BYTES + Long.BYTES + 3);
+        length += Integer.BYTES;
+        binary(property.getPropertyId());
+        reserve(Long.BYTES + 3);
+        bigEndian(Math.round(property.getPriceUsd() * 100), Long.BYTES);
+        record[length++] = (byte) property.getNumberOfBedrooms();
+        record[length++] = (byte) flags;
+        record[length++] = (byte) typeIndex(property.getType());
+
+        if(address.getUnitNumber() != null)
+        {
+            binary(address.getUnitNumber());
+        }
+
+        reserve(Integer.BYTES);
+        bigEndian(address.getStreetNumber(), Integer.BYTES);
+        binary(address.getStreetName());
+        binary(address.getPostalCode());
+        binary(address.getCity());
+
+        if(address.hasCoordinates())
+        {
+            reserve(2 * Double.BYTES);
+            bigEndian(Double.doubleToLongBits(address.getLatitude()), Double.BYTES);
+            bigEndian(Double.doubleToLongBits(address.getLongitude()), Double.BYTES);
+        }
+        patch(0, length - Integer.BYTES, Integer.BYTES);
+    }
+
+    private static Property decode(final ByteBuffer input)
+    {
+        String  propertyId;
+        double  priceInUsd;
+        int     bedrooms;
+        int     flags;
+        String  type;
+        String  unit;
+        int     streetNumber;
+        String  streetName;
+        String  postalCode;
+        String  city;
+        Address address;
+
+        propertyId   = utf8(input);
+        priceInUsd   = input.getLong() / 100.0;
+        bedrooms     = input.get();
+        flags        = input.get();
+        type         = TYPES[input.get()];
+        unit         = (flags & FLAG_UNIT) != 0 ? utf8(input) : null;
+        streetNumber = input.getInt();
+        streetName   = utf8(input);
+        postalCode   = utf8(input);
+        city         = utf8(input);
+
+        if((flags & FLAG_COORDINATES) != 0)
+        {
+            address = new Address(unit, streetNumber, streetName, postalCode, city, input.getDouble(),
+                    input.getDouble());
+        }
+        else
+        {
+            address = new Address(unit, streetNumber, streetName, postalCode, city);
+        }
+        return new Property(priceInUsd, address, bedrooms, (flags & FLAG_POOL) != 0, type, propertyId);
+    }
+
+    /**
+     * This method makes the next count bytes of the channel readable in the buffer.
+     * @return False if the channel ended before any of them, when that is allowed.
+     */
+    private static boolean fill(final ReadableByteChannel in, final ByteBuffer input, final int count,
+                                final boolean required) throws IOException
+    {
+        if(count > input.capacity())
+        {
+            throw new IOException("Invalid record length: " + count);
+        }
+
+        if(input.remaining() >= count)
+        {
+            return true;
+        }
+
+        input.compact();
+
+        while(input.position() < count)
+        {
+            if(in.read(input) < 0)
+            {
+                input.flip();
+
+                if(input.hasRemaining() || required)
+                {
+                    throw new EOFException("Truncated listing");
+                }
+                return false;
+            }
+        }
+        input.flip();
+        return true;
+    }
+
+    private static String utf8(final ByteBuffer input)
+    {
+        byte[] bytes;
+
+        bytes = new byte[input.getShort() & 0xFFFF];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int typeIndex(final String type)
+    {
+        for(int i = 0; i < TYPES.length; i++)
+        {
+            if(TYPES[i].equalsIgnoreCase(type))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid property type: " + type);
+    }
+
+    /**
+     * This method writes the text as a CSV field, quoted if it holds a comma, quote or line break.
+     */
+    private void csv(final String value)
+    {
+        boolean quoted;
+        quoted = false;
+
+        for(int i = 0; i < value.length() && !quoted; i++)
+        {
+            char c;
+            c      = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if(quoted)
+        {
+            put('"');
+            utf8(value, true);
+            put('"');
+        }
+        else
+        {
+            utf8(value, false);
+        }
+    }
+
+    /**
+     * This method writes the text as a JSON string escaped to ASCII, or null.
+     */
+    private void json(final String value)
+    {
+        if(value == null)
+        {
+            ascii("null");
+            return;
+        }
+
+        reserve(6 * value.length() + 2);
+        record[length++] = '"';
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c;
+            c = value.charAt(i);
+
+            if(c == '"' || c == '\\')
+            {
+                record[length++] = '\\';
+                record[length++] = (byte) c;
+            }
+            else if(c < 0x20 || c > 0x7E)
+            {
+                record[length++] = '\\';
+                record[length++] = 'u';
+                record[length++] = HEX[(c >> 12) & 0xF];
+                record[length++] = HEX[(c >> 8) & 0xF];
+                record[length++] = HEX[(c >> 4) & 0xF];
+                record[length++] = HEX[c & 0xF];
+            }
+            else
+            {
+                record[length++] = (byte) c;
+            }
+        }
+        record[length++] = '"';
+    }
+
+    /**
+     * This method writes the text as UTF-8 after its byte length.
+     */
+    private void binary(final String value)
+    {
+        int start;
+        int bytes;
+
+        reserve(Short.BYTES);
+        length += Short.BYTES;
+        start   = length;
+
+        utf8(value, false);
+        bytes = length - start;
+
+        if(bytes > 0xFFFF)
+        {
+            throw new IllegalArgumentException("Invalid text length: " + bytes);
+        }
+        patch(start - Short.BYTES, bytes, Short.BYTES);
+    }
+
+    /**
+     * This method writes the text as UTF-8, a high surrogate followed by a low one as one code point.
+     * @param doubleQuotes True if each quote is to be written twice, as in a quoted CSV field.
+     */
+    private void utf8(final String value, final boolean doubleQuotes)
+    {
+        // no character takes more than three bytes, counting a doubled quote and half a surrogate pair
+        reserve(3 * value.length());
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c;
+            c = value.charAt(i);
+
+            if(c < 0x80)
+            {
+                if(c == '"' && doubleQuotes)
+                {
+                    record[length++] = '"';
+                }
+                record[length++] = (byte) c;
+            }
+            else if(c < 0x800)
+            {
+                record[length++] = (byte) (0xC0 | c >> 6);
+                record[length++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint;
+                codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                record[length++] = (byte) (0xF0 | codePoint >> 18);
+                record[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                record[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                record[length++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+            else
+            {
+                record[length++] = (byte) (0xE0 | c >> 12);
+                record[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                record[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * This method writes an amount in cents as dollars, with the cents only if there are any.
+     */
+    private void cents(final long cents)
+    {
+        long magnitude;
+
+        if(cents < 0)
+        {
+            put('-');
+        }
+
+        magnitude = Math.abs(cents);
+        digits(magnitude / 100, 1);
+
+        if(magnitude % 100 != 0)
+        {
+            put('.');
+            put((char) ('0' + magnitude % 100 / 10));
+
+            if(magnitude % 10 != 0)
+            {
+                put((char) ('0' + magnitude % 10));
+            }
+        }
+    }
+
+    /**
+     * This method writes a coordinate to seven decimals, about a centimetre, without trailing zeros.
+     */
+    private void coordinate(final double degrees)
+    {
+        long scaled;
+        long fraction;
+        int  places;
+
+        scaled = Math.round(degrees * COORDINATE_SCALE);
+
+        if(scaled < 0)
+        {
+            put('-');
+            scaled = -scaled;
+        }
+
+        digits(scaled / COORDINATE_SCALE, 1);
+        fraction = scaled % COORDINATE_SCALE;
+
+        if(fraction != 0)
+        {
+            places = COORDINATE_DIGITS;
+
+            while(fraction % 10 == 0)
+            {
+                fraction /= 10;
+                places--;
+            }
+
+            put('.');
+            digits(fraction, places);
+        }
+    }
+
+    /**
+     * This method writes the non-negative value in decimal, padded with leading zeros to the width.
+     */
+    private void digits(final long value, final int width)
+    {
+        int  count;
+        long remaining;
+
+        count = 1;
+
+        for(long rest = value / 10; rest > 0; rest /= 10)
+        {
+            count++;
+        }
+
+        count     = Math.max(count, width);
+        remaining = value;
+
+        reserve(count);
+
+        for(int i = length + count - 1; i >= length; i--)
+        {
+            record[i]  = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        length += count;
+    }
+
+    /**
+     * This method writes the lowest bytes of the value, most significant first.
+     */
+    private void bigEndian(final long value, final int bytes)
+    {
+        patch(length, value, bytes);
+        length += bytes;
+    }
+
+    private void patch(final int offset, final long value, final int bytes)
+    {
+        for(int i = 0; i < bytes; i++)
+        {
+            record[offset + i] = (byte) (value >>> (8 * (bytes - 1 - i)));
+        }
+    }
+
+    private void ascii(final String value)
+    {
+        reserve(value.length());
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            record[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(final char c)
+    {
+        reserve(1);
+        record[length++] = (byte) c;
+    }
+
+    /**
+     * This method makes room for the bytes in the staging array, which is kept at its largest size.
+     */
+    private void reserve(final int bytes)
+    {
+        if(length + bytes > record.length)
+        {
+            record = Arrays.copyOf(record, Math.max(2 * record.length, length + bytes));
+        }
+    }
+
+    /**
+     * This method copies the bytes to the direct buffer, writing the buffer to the channel first if they do
+     * not fit, so a record is only split across writes if it is larger than the buffer.
+     */
+    private void emit(final byte[] bytes, final int count) throws IOException
+    {
+        int offset;
+        offset = 0;
+
+        if(count > buffer.remaining())
+        {
+            drain();
+        }
+
+        while(count - offset > buffer.remaining())
+        {
+            int chunk;
+            chunk = buffer.remaining();
+
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            drain();
+        }
+        buffer.put(bytes, offset, count - offset);
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+
+        while(buffer.hasRemaining())
+        {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
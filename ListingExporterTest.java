@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingExporterTest
+{
+    private Property p1;
+    private Property p2;
+    private ByteArrayOutputStream bytes;
+
+    @BeforeEach
+    void setUp()
+    {
+        p1    = new Property(499000.5, new Address("#1a", 777, "56th, avenue", "v7n2m8", "surrey",
+                49.1044, -122.80123), 3, true, "residence", "a1b2c3");
+        p2    = new Property(1250000, new Address(null, 123, "main \"street\"", "v7r2g2", "caf\u00e9 town"),
+                1, false, "retail", "x9");
+        bytes = new ByteArrayOutputStream();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        p1    = null;
+        p2    = null;
+        bytes = null;
+    }
+
+    private String export(final ListingExporter.Format format) throws IOException
+    {
+        try(ListingExporter exporter = new ListingExporter(bytes, format))
+        {
+            assertEquals(2, exporter.writeAll(List.of(p1, p2)));
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void csv() throws IOException
+    {
+        assertEquals("id,price,bedrooms,pool,type,unit,street_number,street,postal_code,city,latitude,longitude\n" +
+                "a1b2c3,499000.5,3,true,residence,#1a,777,\"56th, avenue\",v7n2m8,surrey,49.1044,-122.80123\n" +
+                "x9,1250000,1,false,retail,,123,\"main \"\"street\"\"\",v7r2g2,caf\u00e9 town,,\n",
+                export(ListingExporter.Format.CSV));
+    }
+
+    @Test
+    void ndjson() throws IOException
+    {
+        assertEquals("{\"id\":\"a1b2c3\",\"price\":499000.5,\"bedrooms\":3,\"pool\":true,\"type\":\"residence\"," +
+                "\"address\":{\"unit\":\"#1a\",\"streetNumber\":777,\"street\":\"56th, avenue\"," +
+                "\"postalCode\":\"v7n2m8\",\"city\":\"surrey\",\"latitude\":49.1044,\"longitude\":-122.80123}}\n" +
+                "{\"id\":\"x9\",\"price\":1250000,\"bedrooms\":1,\"pool\":false,\"type\":\"retail\"," +
+                "\"address\":{\"unit\":null,\"streetNumber\":123,\"street\":\"main \\\"street\\\"\"," +
+                "\"postalCode\":\"v7r2g2\",\"city\":\"caf\\u00e9 town\"}}\n",
+                export(ListingExporter.Format.NDJSON));
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException
+    {
+        List<Property> read = new ArrayList<>();
+
+        export(ListingExporter.Format.BINARY);
+
+        assertEquals(2, ListingExporter.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+                read::add));
+        assertEquals(p1.getPropertyId(), read.get(0).getPropertyId());
+        assertEquals(499000.5, read.get(0).getPriceUsd());
+        assertEquals(p1.getAddress(), read.get(0).getAddress());
+        assertEquals(-122.80123, read.get(0).getAddress().getLongitude());
+        assertTrue(read.get(0).hasSwimmingPool());
+        assertEquals("caf\u00e9 town", read.get(1).getAddress().getCity());
+        assertNull(read.get(1).getAddress().getUnitNumber());
+        assertFalse(read.get(1).getAddress().hasCoordinates());
+        assertEquals("retail", read.get(1).getType());
+    }
+
+    @Test
+    void binaryRejectsOtherInput()
+    {
+        assertThrows(IOException.class, () -> ListingExporter.read(Channels.newChannel(
+                new ByteArrayInputStream("id,price\n".getBytes(StandardCharsets.US_ASCII))), property -> { }));
+    }
+
+    @Test
+    void exportAgencySpansBuffers() throws IOException
+    {
+        Agency agency = new Agency("Exports");
+        List<Property> read = new ArrayList<>();
+
+        for(int i = 0; i < 10000; i++)
+        {
+            agency.addProperty(new Property(100000 + i, new Address(null, i + 1, "main street", "v7r2g2",
+                    "west vancouver"), i % 10 + 1, i % 2 == 0, "commercial", "e" + i));
+        }
+
+        try(ListingExporter exporter = new ListingExporter(bytes, ListingExporter.Format.BINARY))
+        {
+            assertEquals(5000, exporter.export(agency, property -> property.hasSwimmingPool()));
+            assertEquals(5000, exporter.getRecordCount());
+        }
+
+        assertTrue(bytes.size() > 256 * 1024);
+        assertEquals(5000, ListingExporter.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+                read::add));
+        assertTrue(read.stream().allMatch(Property::hasSwimmingPool));
+    }
+
+    @Test
+    void emptyExportWritesHeader() throws IOException
+    {
+        ListingExporter exporter = new ListingExporter(bytes, ListingExporter.Format.CSV);
+
+        assertEquals(0, exporter.writeAll(null));
+        exporter.close();
+
+        assertTrue(bytes.toString(StandardCharsets.US_ASCII).startsWith("id,price,"));
+        assertEquals(bytes.size(), exporter.getBytesWritten());
+    }
+
+    @Test
+    void nullArguments()
+    {
+        assertThrows(NullPointerException.class, () -> new ListingExporter(bytes, null));
+        assertThrows(NullPointerException.class,
+                () -> new ListingExporter((java.nio.channels.WritableByteChannel) null, ListingExporter.Format.CSV));
+    }
+}
@@ -0,0 +1,620 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a reusable parser of listing rows in the CSV format ListingExporter writes, from a
+ * CharSequence or from a slice of UTF-8 bytes. A row is split in place into reusable field views, numbers are
+ * parsed from the characters, and the fields are checked with Address.validate and Property.validate before
+ * anything is built: a rejected row throws nothing and allocates nothing, and only records the reason. An
+ * accepted row allocates the final String of each text field and no intermediate substring; the property type
+ * is shared with the valid type it matches.
+ */
+public class ListingParser
+{
+    private final Field[] fields;
+    private final long[]  rejections;
+    private CharSequence  chars;
+    private byte[]        bytes;
+    private byte[]        input;
+    private long          accepted;
+    private ValidationError lastError;
+
+    private static final int FIELD_COUNT = 12;
+    private static final int ID = 0;
+    private static final int PRICE = 1;
+    private static final int BEDROOMS = 2;
+    private static final int POOL = 3;
+    private static final int TYPE = 4;
+    private static final int UNIT = 5;
+    private static final int STREET_NUMBER = 6;
+    private static final int STREET = 7;
+    private static final int POSTAL_CODE = 8;
+    private static final int CITY = 9;
+    private static final int LATITUDE = 10;
+    private static final int LONGITUDE = 11;
+    private static final int MAX_INT_DIGITS = 9;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int INPUT_SIZE = 64 * 1024;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Constructor, creates a parser with no rows parsed.
+     */
+    public ListingParser()
+    {
+        this.fields     = new Field[FIELD_COUNT];
+        this.rejections = new long[ValidationError.values().length];
+
+        for(int i = 0; i < FIELD_COUNT; i++)
+        {
+            fields[i] = new Field();
+        }
+    }
+
+    /**
+     * This method parses one row; a line break at its end is ignored.
+     * @param line The row to be parsed, cannot be null.
+     * @return The listing of the row, or null if it is rejected; getLastError tells why.
+     */
+    public Property parse(final CharSequence line)
+    {
+        chars = line;
+        bytes = null;
+        return parse(0, line.length());
+    }
+
+    /**
+     * This method parses one row of UTF-8 bytes; a line break at its end is ignored.
+     * @param line The bytes holding the row, cannot be null.
+     * @param offset The index of the first byte of the row.
+     * @param length The number of bytes of the row.
+     * @return The listing of the row, or null if it is rejected; getLastError tells why.
+     * @throws IndexOutOfBoundsException If the slice is not within the bytes.
+     */
+    public Property parse(final byte[] line, final int offset, final int length)
+    {
+        Objects.checkFromIndexSize(offset, length, line.length);
+
+        chars = null;
+        bytes = line;
+        return parse(offset, offset + length);
+    }
+
+    /**
+     * This method parses every row of the stream, skipping a header line and blank lines. A line break inside
+     * a quoted field does not end the row.
+     * @param in The stream to be read to its end.
+     * @param action The action performed for every accepted listing, in the order of the rows.
+     * @return The number of listings accepted.
+     * @throws IOException If the stream fails.
+     */
+    public long parseAll(final InputStream in, final Consumer<Property> action) throws IOException
+    {
+        long    before;
+        int     filled;
+        int     read;
+        boolean first;
+
+        if(input == null)
+        {
+            input = new byte[INPUT_SIZE];
+        }
+
+        before = accepted;
+        filled = 0;
+        first  = true;
+
+        do
+        {
+            boolean quoted;
+            int     lineStart;
+
+            if(filled == input.length)
+            {
+                input = Arrays.copyOf(input, 2 * input.length);
+            }
+
+            read      = in.read(input, filled, input.length - filled);
+            filled   += Math.max(0, read);
+            quoted    = false;
+            lineStart = 0;
+
+            for(int i = 0; i < filled; i++)
+            {
+                if(input[i] == '"')
+                {
+                    quoted = !quoted;
+                }
+                else if(input[i] == '\n' && !quoted)
+                {
+                    first     = row(lineStart, i, first, action);
+                    lineStart = i + 1;
+                }
+            }
+
+            if(read < 0 && lineStart < filled)
+            {
+                row(lineStart, filled, first, action);
+                lineStart = filled;
+            }
+
+            System.arraycopy(input, lineStart, input, 0, filled - lineStart);
+            filled -= lineStart;
+        }
+        while(read >= 0);
+
+        return accepted - before;
+    }
+
+    /**
+     * @return The reason the last row was rejected, or null if it was accepted or there was none.
+     */
+    public ValidationError getLastError()
+    {
+        return lastError;
+    }
+
+    /**
+     * @return The number of rows accepted.
+     */
+    public long getAcceptedCount()
+    {
+        return accepted;
+    }
+
+    /**
+     * @return The number of rows rejected.
+     */
+    public long getRejectedCount()
+    {
+        long rejected;
+        rejected = 0;
+
+        for(long count : rejections)
+        {
+            rejected += count;
+        }
+        return rejected;
+    }
+
+    /**
+     * @param error The reason to be counted.
+     * @return The number of rows rejected for the reason.
+     */
+    public long getRejectedCount(final ValidationError error)
+    {
+        return rejections[error.ordinal()];
+    }
+
+    /**
+     * This method parses the row of the input between the indexes, unless it is the header or blank.
+     * @return True if the next row may still be the header, that is if this row is blank and the first.
+     */
+    private boolean row(final int start, final int end, final boolean first, final Consumer<Property> action)
+    {
+        Property property;
+
+        if(end - start <= 1 && (end == start || input[start] == '\r'))
+        {
+            return first;
+        }
+
+        if(first && end - start >= 3 && input[start] == 'i' && input[start + 1] == 'd' && input[start + 2] == ',')
+        {
+            return false;
+        }
+
+        property = parse(input, start, end - start);
+
+        if(property != null)
+        {
+            action.accept(property);
+        }
+        return false;
+    }
+
+    private Property parse(final int start, final int end)
+    {
+        int             last;
+        Field           unit;
+        int             streetNumber;
+        double          latitude;
+        double          longitude;
+        double          price;
+        int             bedrooms;
+        boolean         pool;
+        ValidationError error;
+        Address         address;
+        Property        property;
+
+        last = end;
+
+        while(last > start && (at(last - 1) == '\n' || at(last - 1) == '\r'))
+        {
+            last--;
+        }
+
+        if(!split(start, last))
+        {
+            return reject(ValidationError.MALFORMED_ROW);
+        }
+
+        latitude  = decimal(fields[LATITUDE]);
+        longitude = decimal(fields[LONGITUDE]);
+
+        if(Double.isNaN(latitude) && fields[LATITUDE].length > 0)
+        {
+            return reject(ValidationError.INVALID_LATITUDE);
+        }
+
+        if(Double.isNaN(longitude) && fields[LONGITUDE].length > 0)
+        {
+            return reject(ValidationError.INVALID_LONGITUDE);
+        }
+
+        unit         = fields[UNIT].length == 0 ? null : fields[UNIT];
+        streetNumber = integer(fields[STREET_NUMBER]);
+        error        = Address.validate(unit, streetNumber, fields[STREET], fields[POSTAL_CODE], fields[CITY],
+                latitude, longitude);
+
+        if(error != null)
+        {
+            return reject(error);
+        }
+
+        price = decimal(fields[PRICE]);
+
+        if(Double.isNaN(price))
+        {
+            return reject(ValidationError.INVALID_PRICE);
+        }
+
+        bedrooms = integer(fields[BEDROOMS]);
+        error    = Property.validate(price, bedrooms, fields[TYPE], fields[ID]);
+
+        if(error != null)
+        {
+            return reject(error);
+        }
+
+        if(matches(fields[POOL], "true"))
+        {
+            pool = true;
+        }
+        else if(matches(fields[POOL], "false"))
+        {
+            pool = false;
+        }
+        else
+        {
+            return reject(ValidationError.INVALID_POOL);
+        }
+
+        address  = new Address(unit == null ? null : unit.toString(), streetNumber, fields[STREET].toString(),
+                fields[POSTAL_CODE].toString(), fields[CITY].toString(), latitude, longitude);
+        property = new Property(price, address, bedrooms, pool, Property.typeOf(fields[TYPE]), fields[ID].toString());
+
+        accepted++;
+        lastError = null;
+        return property;
+    }
+
+    private Property reject(final ValidationError error)
+    {
+        rejections[error.ordinal()]++;
+        lastError = error;
+        return null;
+    }
+
+    /**
+     * This method points the field views at the fields of the row, unquoting none of them yet.
+     * @return False if the row does not have exactly the expected fields, or a quote is not closed.
+     */
+    private boolean split(final int start, final int end)
+    {
+        int count;
+        int i;
+
+        count = 0;
+        i     = start;
+
+        while(true)
+        {
+            Field field;
+
+            if(count == FIELD_COUNT)
+            {
+                return false;
+            }
+
+            field         = fields[count++];
+            field.length  = 0;
+            field.escaped = false;
+            field.ascii   = true;
+
+            if(i < end && at(i) == '"')
+            {
+                field.start = ++i;
+
+                while(true)
+                {
+                    if(i >= end)
+                    {
+                        return false;
+                    }
+
+                    if(at(i) == '"')
+                    {
+                        if(i + 1 >= end || at(i + 1) != '"')
+                        {
+                            break;
+                        }
+                        field.escaped = true;
+                        field.length++;
+                        i += 2;
+                    }
+                    else
+                    {
+                        field.count(i++);
+                    }
+                }
+                field.end = i++;
+
+                if(i < end && at(i) != ',')
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                field.start = i;
+
+                while(i < end && at(i) != ',')
+                {
+                    field.count(i++);
+                }
+                field.end = i;
+            }
+
+            if(i >= end)
+            {
+                return count == FIELD_COUNT;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return The non-negative integer the field holds, or -1 if it holds none or one too large.
+     */
+    private int integer(final Field field)
+    {
+        int value;
+
+        if(field.length == 0 || field.end - field.start > MAX_INT_DIGITS)
+        {
+            return -1;
+        }
+
+        value = 0;
+
+        for(int i = field.start; i < field.end; i++)
+        {
+            char c;
+            c = at(i);
+
+            if(c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The decimal number the field holds, such as "-122.5", or NaN if it holds none. A number of up to
+     * fifteen significant digits is computed from its digits exactly; a longer one falls back to the library.
+     */
+    private double decimal(final Field field)
+    {
+        int     i;
+        boolean negative;
+        long    mantissa;
+        int     scale;
+        boolean point;
+        boolean digits;
+
+        i        = field.start;
+        negative = i < field.end && at(i) == '-';
+        mantissa = 0;
+        scale    = 0;
+        point    = false;
+        digits   = false;
+
+        if(negative)
+        {
+            i++;
+        }
+
+        for(; i < field.end; i++)
+        {
+            char c;
+            c = at(i);
+
+            if(c == '.' && !point)
+            {
+                point = true;
+            }
+            else if(c >= '0' && c <= '9')
+            {
+                if(mantissa >= MAX_EXACT_MANTISSA / 10)
+                {
+                    return slowDecimal(field);
+                }
+
+                mantissa = mantissa * 10 + (c - '0');
+                digits   = true;
+
+                if(point)
+                {
+                    scale++;
+                }
+            }
+            else
+            {
+                return Double.NaN;
+            }
+        }
+
+        if(!digits || scale >= POWERS_OF_TEN.length)
+        {
+            return digits ? slowDecimal(field) : Double.NaN;
+        }
+
+        // both operands are exact, so the quotient is correctly rounded
+        return (negative ? -mantissa : mantissa) / POWERS_OF_TEN[scale];
+    }
+
+    private double slowDecimal(final Field field)
+    {
+        try
+        {
+            return Double.parseDouble(field.toString());
+        }
+        catch(NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return True if the field holds the word, ignoring case.
+     */
+    private boolean matches(final Field field, final String word)
+    {
+        if(field.length != word.length() || field.escaped)
+        {
+            return false;
+        }
+
+        for(int i = 0; i < word.length(); i++)
+        {
+            if((at(field.start + i) | 0x20) != word.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The character, or the byte as a character, at the index of the row.
+     */
+    private char at(final int index)
+    {
+        return bytes != null ? (char) (bytes[index] & 0xFF) : chars.charAt(index);
+    }
+
+    /**
+     * A view of one field of the row being parsed, between its quotes if it is quoted.
+     */
+    private final class Field implements CharSequence
+    {
+        private int     start;
+        private int     end;
+        private int     length;
+        private boolean escaped;
+        private boolean ascii;
+
+        /**
+         * This method counts the character, or the UTF-8 byte, at the index into the length of the field.
+         */
+        private void count(final int index)
+        {
+            int b;
+
+            if(bytes == null)
+            {
+                length++;
+                return;
+            }
+
+            b = bytes[index] & 0xFF;
+
+            if(b >= 0x80)
+            {
+                ascii = false;
+            }
+
+            if((b & 0xC0) != 0x80)
+            {
+                // a four-byte sequence is a surrogate pair
+                length += b >= 0xF0 ? 2 : 1;
+            }
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(final int index)
+        {
+            if(escaped || !ascii)
+            {
+                return toString().charAt(index);
+            }
+
+            Objects.checkIndex(index, length);
+            return at(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to)
+        {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder unquoted;
+
+            if(bytes != null)
+            {
+                String text;
+                text = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+
+                return escaped ? text.replace("\"\"", "\"") : text;
+            }
+
+            if(!escaped)
+            {
+                return chars.subSequence(start, end).toString();
+            }
+
+            unquoted = new StringBuilder(length);
+
+            for(int i = start; i < end; i++)
+            {
+                unquoted.append(chars.charAt(i));
+
+                if(chars.charAt(i) == '"')
+                {
+                    i++;
+                }
+            }
+            return unquoted.toString();
+        }
+    }
+}
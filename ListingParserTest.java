@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingParserTest
+{
+    private ListingParser parser;
+
+    @BeforeEach
+    void setUp()
+    {
+        parser = new ListingParser();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        parser = null;
+    }
+
+    @Test
+    void parse()
+    {
+        Property property = parser.parse("a1b2c3,499000.5,3,TRUE,Residence,#1a,777,\"56th, avenue\",v7n2m8,surrey," +
+                "49.1044,-122.80123\r\n");
+
+        assertNotNull(property);
+        assertEquals("a1b2c3", property.getPropertyId());
+        assertEquals(499000.5, property.getPriceUsd());
+        assertEquals(3, property.getNumberOfBedrooms());
+        assertTrue(property.hasSwimmingPool());
+        assertEquals("residence", property.getType());
+        assertEquals("#1a", property.getAddress().getUnitNumber());
+        assertEquals(777, property.getAddress().getStreetNumber());
+        assertEquals("56th, avenue", property.getAddress().getStreetName());
+        assertEquals(49.1044, property.getAddress().getLatitude());
+        assertEquals(-122.80123, property.getAddress().getLongitude());
+        assertNull(parser.getLastError());
+        assertEquals(1, parser.getAcceptedCount());
+    }
+
+    @Test
+    void parseBytes()
+    {
+        byte[] line = "xx9,1250000,1,false,retail,,123,\"main \"\"st\"\"\",v7r2g2,caf\u00e9 town,,yy"
+                .getBytes(StandardCharsets.UTF_8);
+        Property property = parser.parse(line, 2, line.length - 4);
+
+        assertNotNull(property);
+        assertEquals("9", property.getPropertyId());
+        assertNull(property.getAddress().getUnitNumber());
+        assertEquals("main \"st\"", property.getAddress().getStreetName());
+        assertEquals("caf\u00e9 town", property.getAddress().getCity());
+        assertFalse(property.getAddress().hasCoordinates());
+        assertThrows(IndexOutOfBoundsException.class, () -> parser.parse(line, 4, line.length));
+    }
+
+    @Test
+    void rejectWithoutThrowing()
+    {
+        String valid = "a1,100000,2,true,retail,,12,main street,v7r2g2,surrey,,";
+
+        assertNotNull(parser.parse(valid));
+        assertNull(parser.parse("a1,100000,2,true,retail,,12,main street,v7r2g2,surrey"));
+        assertEquals(ValidationError.MALFORMED_ROW, parser.getLastError());
+        assertNull(parser.parse("a1,100000,2,true,retail,,12,\"main street,v7r2g2,surrey,,"));
+        assertEquals(ValidationError.MALFORMED_ROW, parser.getLastError());
+        assertNull(parser.parse(valid.replace("100000", "1e5")));
+        assertEquals(ValidationError.INVALID_PRICE, parser.getLastError());
+        assertNull(parser.parse(valid.replace("100000", "-1")));
+        assertEquals(ValidationError.INVALID_PRICE, parser.getLastError());
+        assertNull(parser.parse(valid.replace(",2,", ",21,")));
+        assertEquals(ValidationError.INVALID_BEDROOMS, parser.getLastError());
+        assertNull(parser.parse(valid.replace("true", "yes")));
+        assertEquals(ValidationError.INVALID_POOL, parser.getLastError());
+        assertNull(parser.parse(valid.replace("retail", "farm")));
+        assertEquals(ValidationError.INVALID_TYPE, parser.getLastError());
+        assertNull(parser.parse(valid.replace("a1,", "a1234567,")));
+        assertEquals(ValidationError.INVALID_ID, parser.getLastError());
+        assertNull(parser.parse(valid.replace(",12,", ",x12,")));
+        assertEquals(ValidationError.INVALID_STREET_NUMBER, parser.getLastError());
+        assertNull(parser.parse(valid.replace("v7r2g2", "v7r")));
+        assertEquals(ValidationError.INVALID_POSTAL_CODE, parser.getLastError());
+        assertNull(parser.parse(valid.replace(",,", ",north,")));
+        assertEquals(ValidationError.INVALID_LATITUDE, parser.getLastError());
+        assertNull(parser.parse(valid.replace(",,", ",49.1,")));
+        assertEquals(ValidationError.INVALID_COORDINATES, parser.getLastError());
+
+        assertEquals(1, parser.getAcceptedCount());
+        assertEquals(12, parser.getRejectedCount());
+        assertEquals(2, parser.getRejectedCount(ValidationError.MALFORMED_ROW));
+        assertEquals(2, parser.getRejectedCount(ValidationError.INVALID_PRICE));
+    }
+
+    @Test
+    void parseAllExported() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<Property> listings = new ArrayList<>();
+        List<Property> parsed = new ArrayList<>();
+
+        for(int i = 0; i < 3000; i++)
+        {
+            listings.add(new Property(100000 + i * 0.25, new Address(i % 2 == 0 ? "#" + i % 100 : null, i + 1,
+                    i % 3 == 0 ? "main\nstreet" : "elm street", "v7r2g2", "surrey", (490000 + i) / 10000.0, -123),
+                    i % 20 + 1, i % 2 == 0, "commercial", Integer.toString(i)));
+        }
+
+        try(ListingExporter exporter = new ListingExporter(bytes, ListingExporter.Format.CSV))
+        {
+            exporter.writeAll(listings);
+        }
+        bytes.write("\nbad row\n\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(3000, parser.parseAll(new ByteArrayInputStream(bytes.toByteArray()), parsed::add));
+        assertEquals(1, parser.getRejectedCount());
+
+        for(int i = 0; i < listings.size(); i++)
+        {
+            assertEquals(listings.get(i).getPropertyId(), parsed.get(i).getPropertyId());
+            assertEquals(listings.get(i).getPriceUsd(), parsed.get(i).getPriceUsd());
+            assertEquals(listings.get(i).getAddress(), parsed.get(i).getAddress());
+            assertEquals(listings.get(i).getAddress().getLatitude(), parsed.get(i).getAddress().getLatitude());
+        }
+    }
+}
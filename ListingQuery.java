@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a composite listing query: any combination of a price range, a bedroom range,
+ * a property type, a street name and a swimming pool requirement. Unset criteria match everything.
+ * The Agency's query planner picks the access path for it, for example
+ * new ListingQuery().priceBetween(0, 900000).onStreet("elm street").
+ */
+public class ListingQuery
+{
+    private double  minUsd;
+    private double  maxUsd;
+    private int     minBedrooms;
+    private int     maxBedrooms;
+    private String  propertyType;
+    private String  streetName;
+    private boolean poolRequired;
+    private boolean priceSet;
+    private boolean bedroomsSet;
+
+    /**
+     * Constructor, creates a query matching every property.
+     */
+    public ListingQuery()
+    {
+        minUsd      = Double.NEGATIVE_INFINITY;
+        maxUsd      = Double.POSITIVE_INFINITY;
+        minBedrooms = Integer.MIN_VALUE;
+        maxBedrooms = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param minUsd The minimum price of the property, in USD.
+     * @param maxUsd The maximum price of the property, in USD.
+     * @return This query, restricted to the price range.
+     */
+    public ListingQuery priceBetween(final double minUsd, final double maxUsd)
+    {
+        this.minUsd   = minUsd;
+        this.maxUsd   = maxUsd;
+        this.priceSet = true;
+        return this;
+    }
+
+    /**
+     * @param minBedrooms The minimum number of bedrooms in the range.
+     * @param maxBedrooms The maximum number of bedrooms in the range.
+     * @return This query, restricted to the bedroom range.
+     */
+    public ListingQuery bedroomsBetween(final int minBedrooms, final int maxBedrooms)
+    {
+        this.minBedrooms = minBedrooms;
+        this.maxBedrooms = maxBedrooms;
+        this.bedroomsSet = true;
+        return this;
+    }
+
+    /**
+     * @param propertyType The property type to be matched, case-insensitive.
+     * @return This query, restricted to the type.
+     */
+    public ListingQuery ofType(final String propertyType)
+    {
+        this.propertyType = propertyType;
+        return this;
+    }
+
+    /**
+     * @param streetName The street name to be matched, case-insensitive.
+     * @return This query, restricted to the street.
+     */
+    public ListingQuery onStreet(final String streetName)
+    {
+        this.streetName = streetName;
+        return this;
+    }
+
+    /**
+     * @return This query, restricted to the properties with a swimming pool.
+     */
+    public ListingQuery withPool()
+    {
+        this.poolRequired = true;
+        return this;
+    }
+
+    /**
+     * @return True if the query has a price range, otherwise false.
+     */
+    public boolean hasPriceRange()
+    {
+        return priceSet;
+    }
+
+    /**
+     * @return True if the query has a bedroom range, otherwise false.
+     */
+    public boolean hasBedroomRange()
+    {
+        return bedroomsSet;
+    }
+
+    /**
+     * @return The minimum price in USD, or negative infinity if unset.
+     */
+    public double getMinUsd()
+    {
+        return minUsd;
+    }
+
+    /**
+     * @return The maximum price in USD, or positive infinity if unset.
+     */
+    public double getMaxUsd()
+    {
+        return maxUsd;
+    }
+
+    /**
+     * @return The minimum number of bedrooms, or Integer.MIN_VALUE if unset.
+     */
+    public int getMinBedrooms()
+    {
+        return minBedrooms;
+    }
+
+    /**
+     * @return The maximum number of bedrooms, or Integer.MAX_VALUE if unset.
+     */
+    public int getMaxBedrooms()
+    {
+        return maxBedrooms;
+    }
+
+    /**
+     * @return The property type, or null if unset.
+     */
+    public String getType()
+    {
+        return propertyType;
+    }
+
+    /**
+     * @return The street name, or null if unset.
+     */
+    public String getStreetName()
+    {
+        return streetName;
+    }
+
+    /**
+     * @return True if the query requires a swimming pool, otherwise false.
+     */
+    public boolean isPoolRequired()
+    {
+        return poolRequired;
+    }
+
+    /**
+     * @param skipped The criterion answered by the access path, which need not be tested again, or null.
+     * @return The filters of every other criterion that is set.
+     */
+    List<Predicate<Property>> residualFilters(final QueryPlan.Access skipped)
+    {
+        List<Predicate<Property>> filters;
+        filters = new ArrayList<>();
+
+        if(priceSet && skipped != QueryPlan.Access.PRICE_INDEX)
+        {
+            filters.add(PropertyFilters.priceBetween(minUsd, maxUsd));
+        }
+        if(bedroomsSet && skipped != QueryPlan.Access.BEDROOM_INDEX)
+        {
+            filters.add(PropertyFilters.bedroomsBetween(minBedrooms, maxBedrooms));
+        }
+        if(propertyType != null && skipped != QueryPlan.Access.TYPE_INDEX)
+        {
+            filters.add(PropertyFilters.ofType(propertyType));
+        }
+        if(streetName != null && skipped != QueryPlan.Access.STREET_INDEX)
+        {
+            filters.add(property -> property.getAddress().getStreetName().equalsIgnoreCase(streetName));
+        }
+        if(poolRequired)
+        {
+            filters.add(PropertyFilters.withPool());
+        }
+        return filters;
+    }
+
+    /**
+     * @param skipped The criterion answered by the access path, which is left out, or null.
+     * @return A readable description of every other criterion that is set, such as "price 0.0..900000.0, pool".
+     */
+    String describe(final QueryPlan.Access skipped)
+    {
+        List<String> criteria;
+        criteria = new ArrayList<>();
+
+        if(priceSet && skipped != QueryPlan.Access.PRICE_INDEX)
+        {
+            criteria.add("price " + minUsd + ".." + maxUsd);
+        }
+        if(bedroomsSet && skipped != QueryPlan.Access.BEDROOM_INDEX)
+        {
+            criteria.add("bedrooms " + minBedrooms + ".." + maxBedrooms);
+        }
+        if(propertyType != null && skipped != QueryPlan.Access.TYPE_INDEX)
+        {
+            criteria.add("type " + propertyType.toLowerCase());
+        }
+        if(streetName != null && skipped != QueryPlan.Access.STREET_INDEX)
+        {
+            criteria.add("street " + streetName.toLowerCase());
+        }
+        if(poolRequired)
+        {
+            criteria.add("pool");
+        }
+        return String.join(", ", criteria);
+    }
+
+    /**
+     * @return A readable description of the criteria that are set, or "all" if there are none.
+     */
+    @Override
+    public String toString()
+    {
+        String criteria;
+        criteria = describe(null);
+
+        if(criteria.isEmpty())
+        {
+            return "all";
+        }
+        return criteria;
+    }
+}
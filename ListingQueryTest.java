@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingQueryTest
+{
+    private ListingQuery query;
+
+    @BeforeEach
+    void setUp()
+    {
+        query = new ListingQuery().priceBetween(0, 900000).onStreet("Elm Street").withPool();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        query = null;
+    }
+
+    @Test
+    void criteria()
+    {
+        assertTrue(query.hasPriceRange());
+        assertFalse(query.hasBedroomRange());
+        assertEquals(900000, query.getMaxUsd());
+        assertEquals(Integer.MAX_VALUE, query.getMaxBedrooms());
+        assertNull(query.getType());
+        assertTrue(query.isPoolRequired());
+    }
+
+    @Test
+    void residualFilters()
+    {
+        assertEquals(3, query.residualFilters(null).size());
+        assertEquals(2, query.residualFilters(QueryPlan.Access.STREET_INDEX).size());
+        assertEquals(0, new ListingQuery().residualFilters(QueryPlan.Access.FULL_SCAN).size());
+    }
+
+    @Test
+    void describe()
+    {
+        assertEquals("price 0.0..900000.0, street elm street, pool", query.toString());
+        assertEquals("price 0.0..900000.0, pool", query.describe(QueryPlan.Access.STREET_INDEX));
+        assertEquals("all", new ListingQuery().toString());
+    }
+}
@@ -0,0 +1,354 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models an estimate of the heap an Agency retains, broken down by component. The estimates are
+ * computed from the sizes of the structures and the object layout of the running 64-bit HotSpot JVM, read
+ * once from its diagnostic options: 4-byte references with compressed oops and 8-byte ones without,
+ * 12-byte object headers with compressed class pointers (16 without, 8 with compact headers), and sizes
+ * rounded up to the object alignment. Where the options cannot be read, oops are taken to be compressed
+ * below a 32 GB heap as HotSpot does by default. Strings are taken to be compact. The static methods give
+ * the retained size of the JDK
+ * collections as they grow under their default load factors, and are shared by the estimates of every
+ * structure. Strings are counted once per listing that holds them; the property type is taken to be a
+ * shared constant, as it is for parsed listings.
+ */
+public class MemoryFootprint
+{
+    private final Map<Component, Long> bytes;
+
+    /**
+     * The parts of an agency that are estimated.
+     */
+    public enum Component
+    {
+        /** The Property and Address objects of the heap listings. */
+        LISTINGS,
+        /** The IDs, street names, postal codes, cities and unit numbers of the heap listings. */
+        STRINGS,
+        /** The encoded price histories of the heap listings. */
+        PRICE_HISTORIES,
+        /** The open-addressing table from ID to listing. */
+        ID_MAP,
+        /** The price and bedroom columns, with a converted price column per supported currency. */
+        COLUMNS,
+        /** The bedroom, type, street and price indexes of the query planner. */
+        PLANNER_INDEXES,
+        /** The trigram indexes over street names and cities. */
+        TRIGRAM_INDEXES,
+        /** The grid of listings by coordinates, an optional index. */
+        SPATIAL_INDEX,
+        /** The k-d tree of comparable listings, an optional index. */
+        COMPARABLES_INDEX,
+        /** The address fingerprints and the aliases of merged duplicates. */
+        DUPLICATE_INDEX,
+        /** The price sketches; those by type and by city are optional. */
+        SKETCHES,
+        /** The version chains behind open snapshots and retained history; empty while there are neither. */
+        VERSIONS,
+        /** The timing wheel of listing expiries. */
+        EXPIRIES,
+        /** The ring of change events, and the listings they still reference. */
+        CHANGE_FEED,
+        /** The look-up order of the heap listings and the in-memory parts of the cold segments. */
+        TIERING,
+        /** The pages cached from the cold segments, a cache. */
+        PAGE_CACHE
+    }
+
+    private static final long COMPRESSED_OOPS_MAX_HEAP = 32L << 30;
+    private static final int  MARK_WORD = 8;
+    private static final int  ARRAY_BASE_ALIGNMENT = 8;
+
+    private static final boolean COMPRESSED_OOPS = Boolean.parseBoolean(vmOption("UseCompressedOops",
+            Boolean.toString(Runtime.getRuntime().maxMemory() < COMPRESSED_OOPS_MAX_HEAP)));
+    private static final boolean COMPRESSED_CLASS_POINTERS = Boolean.parseBoolean(vmOption(
+            "UseCompressedClassPointers", "true"));
+    private static final boolean COMPACT_HEADERS = Boolean.parseBoolean(vmOption("UseCompactObjectHeaders",
+            "false"));
+    private static final int     OBJECT_ALIGNMENT = Integer.parseInt(vmOption("ObjectAlignmentInBytes", "8"));
+
+    static final int REFERENCE = COMPRESSED_OOPS ? 4 : 8;
+    static final int OBJECT_HEADER = COMPACT_HEADERS ? MARK_WORD : MARK_WORD + (COMPRESSED_CLASS_POINTERS ? 4 : 8);
+    static final int ARRAY_HEADER = (OBJECT_HEADER + Integer.BYTES + ARRAY_BASE_ALIGNMENT - 1) &
+            -ARRAY_BASE_ALIGNMENT;
+
+    // the fields of each JDK class, including those it inherits
+    private static final int HASH_MAP = (int) object(4 * REFERENCE + 3 * Integer.BYTES + Float.BYTES);
+    private static final int HASH_MAP_NODE = (int) object(Integer.BYTES + 3 * REFERENCE);
+    private static final int HASH_SET = (int) object(REFERENCE);
+    private static final int LINKED_HASH_MAP = (int) object(6 * REFERENCE + 3 * Integer.BYTES + Float.BYTES + 1);
+    private static final int LINKED_HASH_MAP_ENTRY = (int) object(Integer.BYTES + 5 * REFERENCE);
+    private static final int CONCURRENT_HASH_MAP = (int) object(6 * REFERENCE + Long.BYTES + 3 * Integer.BYTES);
+    private static final int IDENTITY_HASH_MAP = (int) object(4 * REFERENCE + 2 * Integer.BYTES);
+    private static final int IDENTITY_HASH_MAP_MIN_TABLE = 64;
+    private static final int TREE_MAP = (int) object(7 * REFERENCE + 2 * Integer.BYTES);
+    private static final int TREE_MAP_ENTRY = (int) object(5 * REFERENCE + 1);
+    private static final int ARRAY_LIST = (int) object(REFERENCE + 2 * Integer.BYTES);
+    private static final int ARRAY_LIST_DEFAULT_CAPACITY = 10;
+    private static final int ARRAY_DEQUE = (int) object(REFERENCE + 2 * Integer.BYTES);
+    private static final int ARRAY_DEQUE_MIN_CAPACITY = 17;
+    private static final int STRING = (int) object(REFERENCE + Integer.BYTES + 2);
+    private static final int HASH_MAP_MIN_TABLE = 16;
+
+    /**
+     * Constructor, creates a footprint of the estimated bytes.
+     * @param bytes The estimated bytes of each component; a missing component counts as 0.
+     */
+    MemoryFootprint(final Map<Component, Long> bytes)
+    {
+        this.bytes = new EnumMap<>(Component.class);
+        this.bytes.putAll(bytes);
+    }
+
+    /**
+     * @param component The component to be measured.
+     * @return The estimated bytes the component retains.
+     */
+    public long getBytes(final Component component)
+    {
+        return bytes.getOrDefault(component, 0L);
+    }
+
+    /**
+     * @return The estimated bytes of every component together.
+     */
+    public long getTotalBytes()
+    {
+        long total;
+        total = 0;
+
+        for(long componentBytes : bytes.values())
+        {
+            total += componentBytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return The estimate, one "component: bytes" line per component and then the total.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text;
+        text = new StringBuilder();
+
+        for(Component component : Component.values())
+        {
+            text.append(component.name().toLowerCase()).append(": ").append(getBytes(component)).append('\n');
+        }
+        return text.append("total: ").append(getTotalBytes()).toString();
+    }
+
+    /**
+     * @param bytes The unaligned size.
+     * @return The size rounded up to the object alignment, 8 bytes by default.
+     */
+    static long align(final long bytes)
+    {
+        return (bytes + OBJECT_ALIGNMENT - 1) & -OBJECT_ALIGNMENT;
+    }
+
+    /**
+     * @param fieldBytes The bytes of the fields of the object.
+     * @return The size of an object with the fields.
+     */
+    static long object(final int fieldBytes)
+    {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * @param length The length of the array.
+     * @param elementBytes The bytes of each element, such as REFERENCE or Long.BYTES.
+     * @return The size of the array.
+     */
+    static long array(final long length, final int elementBytes)
+    {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * @param text The string, or null.
+     * @return The size of the string and its characters, 0 for null.
+     */
+    static long string(final String text)
+    {
+        boolean latin1;
+
+        if(text == null)
+        {
+            return 0;
+        }
+
+        latin1 = true;
+
+        for(int i = 0; i < text.length() && latin1; i++)
+        {
+            latin1 = text.charAt(i) <= 0xFF;
+        }
+        return STRING + array(text.length(), latin1 ? 1 : 2);
+    }
+
+    /**
+     * @param property The listing.
+     * @return The size of the listing with its address, price history and strings, other than the shared type.
+     */
+    static long listing(final Property property)
+    {
+        return property.estimateBytes() + property.getAddress().estimateBytes() +
+                property.getPriceHistory().estimateBytes() + string(property.getPropertyId()) +
+                property.getAddress().estimateStringBytes();
+    }
+
+    /**
+     * @param entries The number of entries.
+     * @return The size of a HashMap grown to the entries, without its keys and values.
+     */
+    static long hashMap(final long entries)
+    {
+        return HASH_MAP + (entries == 0 ? 0 : array(tableLength(entries), REFERENCE)) + entries * HASH_MAP_NODE;
+    }
+
+    /**
+     * @param entries The number of elements.
+     * @return The size of a HashSet grown to the elements, without the elements.
+     */
+    static long hashSet(final long entries)
+    {
+        return HASH_SET + hashMap(entries);
+    }
+
+    /**
+     * @param entries The number of entries.
+     * @return The size of a LinkedHashMap grown to the entries, without its keys and values.
+     */
+    static long linkedHashMap(final long entries)
+    {
+        return LINKED_HASH_MAP + (entries == 0 ? 0 : array(tableLength(entries), REFERENCE)) +
+                entries * LINKED_HASH_MAP_ENTRY;
+    }
+
+    /**
+     * @param entries The number of entries.
+     * @return The size of a ConcurrentHashMap grown to the entries, without its keys and values.
+     */
+    static long concurrentHashMap(final long entries)
+    {
+        return CONCURRENT_HASH_MAP + (entries == 0 ? 0 : array(tableLength(entries), REFERENCE)) +
+                entries * HASH_MAP_NODE;
+    }
+
+    /**
+     * @param entries The number of entries.
+     * @return The size of an IdentityHashMap grown to the entries, without its keys and values.
+     */
+    static long identityHashMap(final long entries)
+    {
+        long length;
+        length = IDENTITY_HASH_MAP_MIN_TABLE;
+
+        // the table holds keys and values side by side, and doubles once it is a third full
+        while(3 * entries > length)
+        {
+            length *= 2;
+        }
+        return IDENTITY_HASH_MAP + array(length, REFERENCE);
+    }
+
+    /**
+     * @param entries The number of entries.
+     * @return The size of a TreeMap with the entries, without its keys and values.
+     */
+    static long treeMap(final long entries)
+    {
+        return TREE_MAP + entries * TREE_MAP_ENTRY;
+    }
+
+    /**
+     * @param size The number of elements.
+     * @return The size of an ArrayList grown one element at a time to the size, without the elements.
+     */
+    static long arrayList(final long size)
+    {
+        long capacity;
+        capacity = size == 0 ? 0 : ARRAY_LIST_DEFAULT_CAPACITY;
+
+        while(capacity < size)
+        {
+            capacity += capacity >> 1;
+        }
+        return ARRAY_LIST + (capacity == 0 ? 0 : array(capacity, REFERENCE));
+    }
+
+    /**
+     * @param size The number of elements.
+     * @return The size of an ArrayDeque grown to the size, without the elements.
+     */
+    static long arrayDeque(final long size)
+    {
+        long capacity;
+        capacity = ARRAY_DEQUE_MIN_CAPACITY;
+
+        while(capacity <= size)
+        {
+            capacity += capacity < 64 ? capacity + 2 : capacity >> 1;
+        }
+        return ARRAY_DEQUE + array(capacity, REFERENCE);
+    }
+
+    /**
+     * @param value The boxed value.
+     * @return The size of the box of an Integer, 0 if it comes from the Integer cache.
+     */
+    static long boxedInteger(final int value)
+    {
+        return value >= -128 && value <= 127 ? 0 : object(Integer.BYTES);
+    }
+
+    /**
+     * @return The size of a boxed Long or Double.
+     */
+    static long boxedLong()
+    {
+        return object(Long.BYTES);
+    }
+
+    /**
+     * @param name The name of a HotSpot VM option, such as UseCompressedOops.
+     * @param fallback The value taken if the option is unknown or the JVM does not report it.
+     * @return The value of the option.
+     */
+    private static String vmOption(final String name, final String fallback)
+    {
+        try
+        {
+            return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue();
+        }
+        catch(RuntimeException | LinkageError e)
+        {
+            return fallback;
+        }
+    }
+
+    /**
+     * @return The table length of a hash table holding the entries at a load factor of 0.75.
+     */
+    private static long tableLength(final long entries)
+    {
+        long length;
+        length = HASH_MAP_MIN_TABLE;
+
+        while(entries > length * 3 / 4)
+        {
+            length *= 2;
+        }
+        return length;
+    }
+}
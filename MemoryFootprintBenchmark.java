@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a benchmark of MemoryFootprint: it compares the estimate of a populated agency with the
+ * heap the agency takes, measured between full collections. The measurement depends on the collector and
+ * the heap layout, so it is run by hand rather than with the tests, for example with
+ * java -XX:+UseG1GC MemoryFootprintBenchmark 20000. Every listing has strings of its own, as listings
+ * read from a file do.
+ */
+public class MemoryFootprintBenchmark
+{
+    private static final int DEFAULT_LISTINGS = 20000;
+    private static final int GC_ROUNDS = 4;
+
+    /**
+     * This method builds the agency and prints the estimated and measured bytes.
+     * @param args The number of listings, 20000 if omitted.
+     */
+    public static void main(final String[] args)
+    {
+        List<Property> listings;
+        Agency         agency;
+        int            count;
+        long           before;
+        long           measured;
+        long           estimated;
+
+        count    = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LISTINGS;
+        before   = usedHeap();
+        listings = new ArrayList<>();
+
+        for(int i = 0; i < count; i++)
+        {
+            listings.add(new Property(100000 + i % 5000 * 17.5, new Address(i % 3 == 0 ? "#" + i % 100 : null,
+                    i + 1, "street " + i % 400, "v7r" + (100 + i % 900), "city " + i % 50,
+                    49 + i % 1000 / 1000.0, -123 + i % 777 / 1000.0), i % 20 + 1, i % 2 == 0, "residence",
+                    Integer.toString(i, 36)));
+        }
+
+        agency = new Agency("heap");
+
+        for(Property listing : listings)
+        {
+            agency.addProperty(listing);
+        }
+
+        measured  = usedHeap() - before;
+        estimated = agency.getMemoryFootprint().getTotalBytes();
+
+        System.out.println(agency.getMemoryFootprint());
+        System.out.printf("listings: %d, estimated: %d bytes, measured: %d bytes, error: %.1f%%%n",
+                agency.getPropertyCount(), estimated, measured, 100.0 * (estimated - measured) / measured);
+    }
+
+    /**
+     * @return The bytes in use after a few full collections.
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime;
+        runtime = Runtime.getRuntime();
+
+        for(int i = 0; i < GC_ROUNDS; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryFootprintTest
+{
+    @Test
+    void layout()
+    {
+        // 12-byte headers with compressed class pointers, 4-byte references only with compressed oops
+        boolean compressed = MemoryFootprint.REFERENCE == 4;
+
+        assertEquals(12, MemoryFootprint.OBJECT_HEADER);
+        assertEquals(16, MemoryFootprint.ARRAY_HEADER);
+        assertEquals(16, MemoryFootprint.object(Integer.BYTES));
+        assertEquals(24, MemoryFootprint.object(Long.BYTES + Integer.BYTES));
+        assertEquals(16, MemoryFootprint.array(0, Long.BYTES));
+        assertEquals(24, MemoryFootprint.array(3, Byte.BYTES));
+        assertEquals(0, MemoryFootprint.string(null));
+        assertEquals(compressed ? 48 : 56, MemoryFootprint.string("surrey"));
+        assertEquals(compressed ? 56 : 64, MemoryFootprint.string("\u4e0a\u6d77\u5e02\u4e2d\u5fc3"));
+        assertEquals(0, MemoryFootprint.boxedInteger(127));
+        assertEquals(16, MemoryFootprint.boxedInteger(128));
+    }
+
+    @Test
+    void collections()
+    {
+        boolean compressed = MemoryFootprint.REFERENCE == 4;
+        int     map        = compressed ? 48 : 64;
+        int     node       = compressed ? 32 : 40;
+
+        // an empty HashMap has no table yet; 13 entries double it from 16 to 32 slots
+        assertEquals(map, MemoryFootprint.hashMap(0));
+        assertEquals(map + (compressed ? 80 : 144) + node, MemoryFootprint.hashMap(1));
+        assertEquals(map + (compressed ? 144 : 272) + 13 * node, MemoryFootprint.hashMap(13));
+        assertEquals((compressed ? 16 : 24) + MemoryFootprint.hashMap(5), MemoryFootprint.hashSet(5));
+        assertEquals(compressed ? 24 : 32, MemoryFootprint.arrayList(0));
+        assertEquals(compressed ? 24 + 56 : 32 + 96, MemoryFootprint.arrayList(10));
+        assertEquals(compressed ? 24 + 80 : 32 + 136, MemoryFootprint.arrayList(11));
+        assertEquals(compressed ? 40 + 272 : 56 + 528, MemoryFootprint.identityHashMap(21));
+        assertEquals(compressed ? 40 + 528 : 56 + 1040, MemoryFootprint.identityHashMap(22));
+    }
+
+    @Test
+    void totals()
+    {
+        Map<MemoryFootprint.Component, Long> bytes = new EnumMap<>(MemoryFootprint.Component.class);
+        bytes.put(MemoryFootprint.Component.LISTINGS, 100L);
+        bytes.put(MemoryFootprint.Component.PAGE_CACHE, 23L);
+        MemoryFootprint footprint = new MemoryFootprint(bytes);
+
+        assertEquals(100, footprint.getBytes(MemoryFootprint.Component.LISTINGS));
+        assertEquals(0, footprint.getBytes(MemoryFootprint.Component.VERSIONS));
+        assertEquals(123, footprint.getTotalBytes());
+        assertTrue(footprint.toString().startsWith("listings: 100\n"));
+        assertTrue(footprint.toString().endsWith("page_cache: 23\ntotal: 123"));
+    }
+}
@@ -0,0 +1,323 @@
+import java.util.Arrays;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the price history of one property as a compact time series. Each change is appended to
+ * a byte block as two variable-length integers: the milliseconds since the previous change and the change
+ * in price in cents, both zig-zag encoded, so a typical change costs four to six bytes. Prices are kept to
+ * the cent. The series is read by decoding it from the start, which is cheap for the handful of changes a
+ * listing sees.
+ */
+public class PriceHistory
+{
+    private byte[] block;
+    private int    length;
+    private int    size;
+    private long   lastMillis;
+    private long   lastCents;
+
+    // an entry is at most two 10-byte varints, and the first block holds one without growing
+    private static final int MAX_ENTRY_BYTES = 2 * 10;
+    private static final int INITIAL_CAPACITY = MAX_ENTRY_BYTES;
+
+    /**
+     * A time and price pair of the series.
+     */
+    @FunctionalInterface
+    public interface Visitor
+    {
+        /**
+         * @param epochMillis The time of the change, in epoch milliseconds.
+         * @param priceInUsd The price from that time on, in USD.
+         */
+        void visit(long epochMillis, double priceInUsd);
+    }
+
+    /**
+     * Constructor, creates a series holding the first price.
+     * @param epochMillis The time of the first price, in epoch milliseconds.
+     * @param priceInUsd The first price, in USD.
+     */
+    PriceHistory(final long epochMillis, final double priceInUsd)
+    {
+        block = new byte[INITIAL_CAPACITY];
+        append(epochMillis, priceInUsd);
+    }
+
+    /**
+     * Constructor, decodes a series encoded by toBytes.
+     * @param encoded The encoded series, holding at least the first price.
+     */
+    PriceHistory(final byte[] encoded)
+    {
+        block  = Arrays.copyOf(encoded, encoded.length * 2 + INITIAL_CAPACITY);
+        length = encoded.length;
+
+        forEach((epochMillis, priceInUsd) -> {
+            size++;
+            lastMillis = epochMillis;
+            lastCents  = Math.round(priceInUsd * 100);
+        });
+    }
+
+    /**
+     * Constructor, copies a series by sharing its block.
+     * @param source The series to be copied.
+     */
+    private PriceHistory(final PriceHistory source)
+    {
+        block      = source.block;
+        length     = source.length;
+        size       = source.size;
+        lastMillis = source.lastMillis;
+        lastCents  = source.lastCents;
+    }
+
+    /**
+     * @return A copy of the series as it is now, sharing the encoded block rather than copying it.
+     */
+    PriceHistory copy()
+    {
+        return new SharedCopy(this);
+    }
+
+    /**
+     * @return The encoded series, which the PriceHistory(byte[]) constructor decodes.
+     */
+    byte[] toBytes()
+    {
+        return Arrays.copyOf(block, length);
+    }
+
+    /**
+     * This method appends a price change.
+     * @param epochMillis The time of the change, not before the last change.
+     * @param priceInUsd The new price, in USD.
+     * @throws IllegalArgumentException If the time is before the last change.
+     */
+    void record(final long epochMillis, final double priceInUsd)
+    {
+        if(epochMillis < lastMillis)
+        {
+            throw new IllegalArgumentException("Invalid time: " + epochMillis);
+        }
+        append(epochMillis, priceInUsd);
+    }
+
+    /**
+     * @return The time of the last change, in epoch milliseconds.
+     */
+    public long getLastTime()
+    {
+        return lastMillis;
+    }
+
+    /**
+     * @return The number of prices in the series, including the first.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return The number of bytes the encoded series takes.
+     */
+    public int getEncodedBytes()
+    {
+        return length;
+    }
+
+    /**
+     * This method visits every price of the series, oldest first.
+     * @param visitor The visitor.
+     */
+    public void forEach(final Visitor visitor)
+    {
+        long[] cursor;
+        long   millis;
+        long   cents;
+
+        cursor = new long[1];
+        millis = 0;
+        cents  = 0;
+
+        while(cursor[0] < length)
+        {
+            millis += readZigZag(cursor);
+            cents  += readZigZag(cursor);
+            visitor.visit(millis, cents / 100.0);
+        }
+    }
+
+    /**
+     * @param epochMillis The time, in epoch milliseconds.
+     * @return The price in effect at that time, in USD, or NaN if the series starts later.
+     */
+    public double priceAt(final long epochMillis)
+    {
+        double[] price;
+        price = new double[]{Double.NaN};
+
+        forEach((millis, priceInUsd) -> {
+            if(millis <= epochMillis)
+            {
+                price[0] = priceInUsd;
+            }
+        });
+        return price[0];
+    }
+
+    /**
+     * @return The first price of the series, in USD.
+     */
+    public double getFirstPrice()
+    {
+        long[] cursor;
+        cursor = new long[1];
+
+        readZigZag(cursor);
+        return readZigZag(cursor) / 100.0;
+    }
+
+    /**
+     * @return The last price of the series, in USD.
+     */
+    public double getLastPrice()
+    {
+        return lastCents / 100.0;
+    }
+
+    /**
+     * @param epochMillis The start of the period, in epoch milliseconds.
+     * @return The price in effect at the start of the period, or the first price if the series starts later.
+     */
+    public double priceSince(final long epochMillis)
+    {
+        double price;
+        price = priceAt(epochMillis);
+
+        if(Double.isNaN(price))
+        {
+            return getFirstPrice();
+        }
+        return price;
+    }
+
+    /**
+     * @param epochMillis The start of the period, in epoch milliseconds.
+     * @return How much the price fell since the start of the period, in USD; negative if it rose.
+     */
+    public double dropSince(final long epochMillis)
+    {
+        return priceSince(epochMillis) - getLastPrice();
+    }
+
+    private void append(final long epochMillis, final double priceInUsd)
+    {
+        long cents;
+        cents = Math.round(priceInUsd * 100);
+
+        if(length + MAX_ENTRY_BYTES > block.length)
+        {
+            block = Arrays.copyOf(block, Math.max(block.length * 2, length + MAX_ENTRY_BYTES));
+        }
+
+        writeZigZag(epochMillis - lastMillis);
+        writeZigZag(cents - lastCents);
+        lastMillis = epochMillis;
+        lastCents  = cents;
+        size++;
+    }
+
+    /**
+     * This method writes the value as a zig-zag varint: small magnitudes of either sign take few bytes.
+     */
+    private void writeZigZag(final long value)
+    {
+        long encoded;
+        encoded = (value << 1) ^ (value >> 63);
+
+        while((encoded & ~0x7FL) != 0)
+        {
+            block[length++] = (byte) ((encoded & 0x7F) | 0x80);
+            encoded >>>= 7;
+        }
+        block[length++] = (byte) encoded;
+    }
+
+    private long readZigZag(final long[] cursor)
+    {
+        long encoded;
+        int  shift;
+        byte next;
+
+        encoded = 0;
+        shift   = 0;
+
+        do
+        {
+            next     = block[(int) cursor[0]++];
+            encoded |= (long) (next & 0x7F) << shift;
+            shift   += 7;
+        }
+        while(next < 0);
+
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /**
+     * @return The estimated bytes of the series and its block, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // a reference, the length and size, and the last time and price
+        return MemoryFootprint.object(MemoryFootprint.REFERENCE + 2 * Integer.BYTES + 2 * Long.BYTES) +
+                MemoryFootprint.array(block.length, Byte.BYTES);
+    }
+
+    /**
+     * A copy of a series that shares the block of the series it was copied from. The bytes below its length
+     * never change: the source only appends past them, and the copy takes a block of its own before it
+     * appends, so neither sees the other's changes.
+     */
+    private static final class SharedCopy extends PriceHistory
+    {
+        private boolean shared;
+
+        private SharedCopy(final PriceHistory source)
+        {
+            super(source);
+            this.shared = true;
+        }
+
+        @Override
+        void record(final long epochMillis, final double priceInUsd)
+        {
+            PriceHistory series;
+            series = this;
+
+            if(shared && epochMillis >= series.lastMillis)
+            {
+                series.block = Arrays.copyOf(series.block, series.length + MAX_ENTRY_BYTES);
+                shared       = false;
+            }
+            super.record(epochMillis, priceInUsd);
+        }
+
+        /**
+         * @return The estimated bytes of the copy, and of its block once it no longer shares it.
+         */
+        @Override
+        long estimateBytes()
+        {
+            PriceHistory series;
+            series = this;
+
+            // a reference, the length and size, the last time and price, and the shared flag
+            return MemoryFootprint.object(MemoryFootprint.REFERENCE + 2 * Integer.BYTES + 2 * Long.BYTES + 1) +
+                    (shared ? 0 : MemoryFootprint.array(series.block.length, Byte.BYTES));
+        }
+    }
+}
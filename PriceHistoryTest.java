@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceHistoryTest
+{
+    private PriceHistory history;
+
+    @BeforeEach
+    void setUp()
+    {
+        history = new PriceHistory(1_700_000_000_000L, 500000);
+        history.record(1_700_000_100_000L, 480000);
+        history.record(1_700_086_400_000L, 455000.55);
+        history.record(1_700_086_400_000L, 470000);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        history = null;
+    }
+
+    @Test
+    void priceAt()
+    {
+        assertTrue(Double.isNaN(history.priceAt(1_699_999_999_999L)));
+        assertEquals(500000, history.priceAt(1_700_000_000_000L));
+        assertEquals(480000, history.priceAt(1_700_000_100_001L));
+        assertEquals(470000, history.priceAt(Long.MAX_VALUE));
+        assertEquals(500000, history.getFirstPrice());
+        assertEquals(470000, history.getLastPrice());
+        assertEquals(4, history.size());
+    }
+
+    @Test
+    void drops()
+    {
+        assertEquals(30000, history.dropSince(0));
+        assertEquals(10000, history.dropSince(1_700_000_200_000L));
+        assertEquals(0, history.dropSince(Long.MAX_VALUE));
+        assertEquals(480000, history.priceSince(1_700_000_200_000L));
+    }
+
+    @Test
+    void compact()
+    {
+        List<Double> prices = new ArrayList<>();
+        PriceHistory longHistory = new PriceHistory(1_700_000_000_000L, 1000000);
+
+        for(int i = 1; i <= 1000; i++)
+        {
+            longHistory.record(1_700_000_000_000L + i * 86_400_000L, 1000000 - i * 250);
+        }
+        longHistory.forEach((millis, price) -> prices.add(price));
+
+        assertEquals(1001, prices.size());
+        assertEquals(750000, (double) prices.get(1000));
+        assertTrue(longHistory.getEncodedBytes() < 1001 * 8, "bytes " + longHistory.getEncodedBytes());
+
+        prices.clear();
+        history.forEach((millis, price) -> prices.add(price));
+        assertEquals(List.of(500000.0, 480000.0, 455000.55, 470000.0), prices);
+        assertThrows(IllegalArgumentException.class, () -> history.record(0, 1));
+    }
+
+    @Test
+    void firstEntryFitsInitialBlock()
+    {
+        PriceHistory single = new PriceHistory(1_700_000_000_000L, 25_000_000);
+
+        // the largest first entry still fits the initial block, which is sized for one whole entry
+        assertEquals(MemoryFootprint.array(20, Byte.BYTES) + MemoryFootprint.object(MemoryFootprint.REFERENCE +
+                2 * Integer.BYTES + 2 * Long.BYTES), single.estimateBytes());
+        assertEquals(single.estimateBytes(), new PriceHistory(Long.MAX_VALUE, 90_000_000_000_000.0).estimateBytes());
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the count, sum, minimum, maximum and average of a set of prices, in USD.
+ * Partial statistics computed separately (per shard, per thread) are combined with merge.
+ */
+public class PriceStatistics
+{
+    private long   count;
+    private double sum;
+    private double min;
+    private double max;
+
+    /**
+     * Constructor, creates empty statistics.
+     */
+    public PriceStatistics()
+    {
+        count = 0;
+        sum   = 0;
+        min   = Double.POSITIVE_INFINITY;
+        max   = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * This method adds one price to the statistics.
+     * @param priceInUsd The price to be added, in USD.
+     */
+    public void add(final double priceInUsd)
+    {
+        count++;
+        sum += priceInUsd;
+
+        if(priceInUsd < min)
+        {
+            min = priceInUsd;
+        }
+        if(priceInUsd > max)
+        {
+            max = priceInUsd;
+        }
+    }
+
+    /**
+     * This method combines other statistics into these statistics.
+     * @param other The statistics to be merged in.
+     */
+    public void merge(final PriceStatistics other)
+    {
+        count += other.count;
+        sum   += other.sum;
+        min    = Math.min(min, other.min);
+        max    = Math.max(max, other.max);
+    }
+
+    /**
+     * @return The number of prices.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The total of the prices, in USD.
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * @return The lowest price in USD, or NaN if there are no prices.
+     */
+    public double getMin()
+    {
+        if(count == 0)
+        {
+            return Double.NaN;
+        }
+        return min;
+    }
+
+    /**
+     * @return The highest price in USD, or NaN if there are no prices.
+     */
+    public double getMax()
+    {
+        if(count == 0)
+        {
+            return Double.NaN;
+        }
+        return max;
+    }
+
+    /**
+     * @return The average price in USD, or NaN if there are no prices.
+     */
+    public double getAverage()
+    {
+        if(count == 0)
+        {
+            return Double.NaN;
+        }
+        return sum / count;
+    }
+}
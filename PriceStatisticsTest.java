@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceStatisticsTest
+{
+    private PriceStatistics statistics;
+
+    @BeforeEach
+    void setUp()
+    {
+        statistics = new PriceStatistics();
+        statistics.add(100);
+        statistics.add(300);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        statistics = null;
+    }
+
+    @Test
+    void add()
+    {
+        assertEquals(2, statistics.getCount());
+        assertEquals(400.0, statistics.getSum());
+        assertEquals(100.0, statistics.getMin());
+        assertEquals(300.0, statistics.getMax());
+        assertEquals(200.0, statistics.getAverage());
+    }
+
+    @Test
+    void merge()
+    {
+        PriceStatistics other = new PriceStatistics();
+        other.add(50);
+
+        statistics.merge(other);
+        statistics.merge(new PriceStatistics());
+
+        assertEquals(3, statistics.getCount());
+        assertEquals(450.0, statistics.getSum());
+        assertEquals(50.0, statistics.getMin());
+        assertEquals(300.0, statistics.getMax());
+    }
+
+    @Test
+    void empty()
+    {
+        PriceStatistics empty = new PriceStatistics();
+
+        assertEquals(0, empty.getCount());
+        assertTrue(Double.isNaN(empty.getMin()));
+        assertTrue(Double.isNaN(empty.getMax()));
+        assertTrue(Double.isNaN(empty.getAverage()));
+    }
+}
@@ -1,3 +1,7 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * @author Tian Lan
  * @version 1.0
@@ -11,12 +15,17 @@ public class Property
     private final boolean swimmingPool;
     private final String  propertyType;
     private final String  propertyId;
+    private volatile Agency[] owners;
+    private final PriceHistory priceHistory;
     private static final int VALID_MIN_PRICE_USD = 0;
     private static final int VALID_MIN_NUM_OF_BEDROOMS = 1;
     private static final int VALID_MAX_NUM_OF_BEDROOMS = 20;
     private static final int VALID_MIN_PROPERTY_ID_LENGTH = 1;
     private static final int VALID_MAX_PROPERTY_ID_LENGTH = 6;
     private static final String[] VALID_PROPERTY_TYPES = {"residence", "commercial", "retail"};
+    private static final Agency[] NO_OWNERS = new Agency[0];
+    private static final long CURRENT_TIME = Long.MIN_VALUE;
+    private static final Comparator<Agency> BY_LOCK_ORDER = Comparator.comparingLong(Agency::getLockOrder);
 
     /**
      * Constructor, valid all property information before initialize the object.
@@ -31,7 +40,43 @@ public class Property
     Property(final double priceInUsd, final Address address, final int numOfBedrooms, final boolean swimmingPool,
              final String propertyType, final String propertyId)
     {
-        if(priceInUsd < VALID_MIN_PRICE_USD)
+        this(priceInUsd, address, numOfBedrooms, swimmingPool, propertyType, propertyId, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructor, valid all property information, for a listing first listed at the given time, so that its
+     * past price changes can be loaded through setPriceUsd(double, long).
+     * @param priceInUsd The price of the property when it was listed, in USD, must be positive.
+     * @param address The address of the property, cannot be null.
+     * @param numOfBedrooms The number of bedrooms of the property, has value limit.
+     * @param swimmingPool True if the property has a swimming pool, otherwise false.
+     * @param propertyType The property type of the property, must be one of the valid types.
+     * @param propertyId The ID of the property, has length limit.
+     * @param listedAtMillis The time the property was listed, in epoch milliseconds.
+     * @throws IllegalArgumentException If the parameter values not valid.
+     */
+    Property(final double priceInUsd, final Address address, final int numOfBedrooms, final boolean swimmingPool,
+             final String propertyType, final String propertyId, final long listedAtMillis)
+    {
+        this(priceInUsd, address, numOfBedrooms, swimmingPool, propertyType, propertyId,
+                new PriceHistory(listedAtMillis, priceInUsd));
+    }
+
+    /**
+     * Constructor, valid all property information, restoring the price history of a stored property.
+     * @param priceInUsd The price of the property, in USD, must be positive.
+     * @param address The address of the property, cannot be null.
+     * @param numOfBedrooms The number of bedrooms of the property, has value limit.
+     * @param swimmingPool True if the property has a swimming pool, otherwise false.
+     * @param propertyType The property type of the property, must be one of the valid types.
+     * @param propertyId The ID of the property, has length limit.
+     * @param priceHistory The price history of the property, ending at the price.
+     * @throws IllegalArgumentException If the parameter values not valid.
+     */
+    Property(final double priceInUsd, final Address address, final int numOfBedrooms, final boolean swimmingPool,
+             final String propertyType, final String propertyId, final PriceHistory priceHistory)
+    {
+        if(!isValidPrice(priceInUsd))
         {
             throw new IllegalArgumentException("Invalid price: " + priceInUsd);
         }
@@ -48,18 +93,7 @@ public class Property
 
         if(propertyType != null)
         {
-            boolean validPropertyType;
-            validPropertyType = false;
-
-            for(String type : VALID_PROPERTY_TYPES)
-            {
-                if(type.equalsIgnoreCase(propertyType))
-                {
-                    validPropertyType = true;
-                }
-            }
-
-            if(!validPropertyType)
+            if(typeOf(propertyType) == null)
             {
                 throw new IllegalArgumentException("Invalid property type: " + propertyType);
             }
@@ -90,6 +124,114 @@ public class Property
         this.numOfBedrooms = numOfBedrooms;
         this.swimmingPool  = swimmingPool;
         this.propertyId    = propertyId;
+        this.owners        = NO_OWNERS;
+        this.priceHistory  = priceHistory;
+    }
+
+    /**
+     * Constructor, copies a property without checking it again. The copy shares the immutable address and
+     * the encoded price history, and is held by no agency.
+     * @param source The property to be copied.
+     */
+    private Property(final Property source)
+    {
+        this.priceInUsd    = source.priceInUsd;
+        this.address       = source.address;
+        this.numOfBedrooms = source.numOfBedrooms;
+        this.swimmingPool  = source.swimmingPool;
+        this.propertyType  = source.propertyType;
+        this.propertyId    = source.propertyId;
+        this.owners        = NO_OWNERS;
+        this.priceHistory  = source.priceHistory.copy();
+    }
+
+    /**
+     * @return A copy of the property as it is now, with the same address and price history, held by no agency.
+     */
+    Property copy()
+    {
+        return new Property(this);
+    }
+
+    /**
+     * This method checks the property information as the constructor does, without throwing or building any
+     * object, so rejecting a bad row costs only the checks. The address is checked by Address.validate.
+     * @param priceInUsd The price of the property, in USD.
+     * @param numOfBedrooms The number of bedrooms of the property.
+     * @param propertyType The property type of the property.
+     * @param propertyId The ID of the property; only its length is read.
+     * @return The first check the constructor would fail, or null if it would succeed.
+     */
+    public static ValidationError validate(final double priceInUsd, final int numOfBedrooms,
+                                           final CharSequence propertyType, final CharSequence propertyId)
+    {
+        if(!isValidPrice(priceInUsd))
+        {
+            return ValidationError.INVALID_PRICE;
+        }
+
+        if(numOfBedrooms < VALID_MIN_NUM_OF_BEDROOMS || numOfBedrooms > VALID_MAX_NUM_OF_BEDROOMS)
+        {
+            return ValidationError.INVALID_BEDROOMS;
+        }
+
+        if(propertyType == null)
+        {
+            return ValidationError.MISSING_TYPE;
+        }
+
+        if(typeOf(propertyType) == null)
+        {
+            return ValidationError.INVALID_TYPE;
+        }
+
+        if(propertyId == null)
+        {
+            return ValidationError.MISSING_ID;
+        }
+
+        if(propertyId.length() < VALID_MIN_PROPERTY_ID_LENGTH || propertyId.length() > VALID_MAX_PROPERTY_ID_LENGTH)
+        {
+            return ValidationError.INVALID_ID;
+        }
+        return null;
+    }
+
+    /**
+     * @param priceInUsd The price to be checked, in USD.
+     * @return True if the price is finite and not negative, otherwise false; NaN is not valid.
+     */
+    static boolean isValidPrice(final double priceInUsd)
+    {
+        return priceInUsd >= VALID_MIN_PRICE_USD && !Double.isInfinite(priceInUsd);
+    }
+
+    /**
+     * @param propertyType The property type to be matched, ignoring case.
+     * @return The valid type it matches, in lower case, or null if it matches none. Only the one valid type of
+     * the same length is compared.
+     */
+    static String typeOf(final CharSequence propertyType)
+    {
+        for(String type : VALID_PROPERTY_TYPES)
+        {
+            if(type.length() == propertyType.length())
+            {
+                for(int i = 0; i < type.length(); i++)
+                {
+                    char c;
+                    c = propertyType.charAt(i);
+
+                    // the same folding as String.equalsIgnoreCase
+                    if(type.charAt(i) != c && type.charAt(i) != Character.toLowerCase(Character.toUpperCase(c)))
+                    {
+                        return null;
+                    }
+                }
+                return type;
+            }
+        }
+        return null;
     }
 
     /**
@@ -141,11 +283,199 @@ public class Property
     }
 
     /**
-     * This method sets the price to the given parameter.
-     * @param priceInUsdToSet The given price to be set, in USD.
+     * @return The price history of the property, starting with the price it was created with.
+     */
+    public PriceHistory getPriceHistory()
+    {
+        return priceHistory;
+    }
+
+    /**
+     * This method sets the price to the given parameter, and tells every agency holding the property,
+     * so their price-derived data stays current. The change is recorded in the price history at the
+     * current time. It holds the write lock of every such agency while it does so, taking them in the order
+     * of Agency.getLockOrder so that re-pricing listings held by several agencies cannot deadlock.
+     * @param priceInUsdToSet The given price to be set, in USD, finite and not negative.
+     * @throws IllegalArgumentException If the price is not valid.
+     * @throws IllegalStateException If the caller holds a read lock of such an agency, as a query filter does,
+     * or the write lock of one while another it would wait for comes first in the order.
      */
     public void setPriceUsd(final double priceInUsdToSet)
     {
-        this.priceInUsd = priceInUsdToSet;
+        reprice(priceInUsdToSet, CURRENT_TIME);
+    }
+
+    /**
+     * This method sets the price as setPriceUsd does, recording the change at the given time,
+     * for example when loading past changes into a property created with the time it was listed.
+     * @param priceInUsdToSet The given price to be set, in USD, finite and not negative.
+     * @param epochMillis The time of the change, in epoch milliseconds, not before the last change.
+     * @throws IllegalArgumentException If the price is not valid or the time is before the last change;
+     * the property and its agencies are then left unchanged.
+     * @throws IllegalStateException If the caller holds a lock of such an agency, as setPriceUsd describes.
+     */
+    public void setPriceUsd(final double priceInUsdToSet, final long epochMillis)
+    {
+        if(epochMillis == CURRENT_TIME)
+        {
+            throw new IllegalArgumentException("Invalid time: " + epochMillis);
+        }
+        reprice(priceInUsdToSet, epochMillis);
+    }
+
+    /**
+     * This method is the body of setPriceUsd.
+     * @param priceInUsdToSet The given price to be set, in USD.
+     * @param epochMillis The time of the change, or CURRENT_TIME for the current time, read under the locks
+     * so that it is not before a change another thread recorded meanwhile.
+     */
+    private void reprice(final double priceInUsdToSet, final long epochMillis)
+    {
+        double   oldPriceInUsd;
+        Agency[] held;
+
+        if(!isValidPrice(priceInUsdToSet))
+        {
+            throw new IllegalArgumentException("Invalid price: " + priceInUsdToSet);
+        }
+
+        held = lockOwners();
+        try
+        {
+            oldPriceInUsd = this.priceInUsd;
+
+            for(Agency owner : held)
+            {
+                owner.priceChanging(this);
+            }
+
+            priceHistory.record(epochMillis == CURRENT_TIME ?
+                    Math.max(System.currentTimeMillis(), priceHistory.getLastTime()) : epochMillis, priceInUsdToSet);
+            this.priceInUsd = priceInUsdToSet;
+
+            for(Agency owner : held)
+            {
+                owner.priceChanged(this, oldPriceInUsd);
+            }
+        }
+        finally
+        {
+            unlock(held);
+        }
+    }
+
+    /**
+     * This method takes the write lock of every agency holding the property in the order of their lock order,
+     * retrying if the property was added to or removed from an agency while it waited.
+     * @return The agencies whose locks are held, in the order they were taken.
+     */
+    private Agency[] lockOwners()
+    {
+        while(true)
+        {
+            Agency[] current;
+            Agency[] held;
+            current = owners;
+            held    = current;
+
+            if(held.length > 1)
+            {
+                held = held.clone();
+                Arrays.sort(held, BY_LOCK_ORDER);
+            }
+            checkLockable(held);
+
+            for(Agency owner : held)
+            {
+                owner.getLocks().writeLock().lock();
+            }
+
+            if(current == owners)
+            {
+                return held;
+            }
+            unlock(held);
+        }
+    }
+
+    /**
+     * This method makes sure the caller can take the write locks of the agencies in order without
+     * deadlocking: a read lock cannot be upgraded, and a write lock held before one still to be taken
+     * inverts the order.
+     * @param ordered The agencies, in the order their locks are taken.
+     * @throws IllegalStateException If the caller holds such a lock.
+     */
+    private static void checkLockable(final Agency[] ordered)
+    {
+        boolean waits;
+        waits = false;
+
+        for(Agency owner : ordered)
+        {
+            ReentrantReadWriteLock locks;
+            boolean                writing;
+            locks   = owner.getLocks();
+            writing = locks.isWriteLockedByCurrentThread();
+
+            if((!writing && locks.getReadHoldCount() > 0) || (writing && waits))
+            {
+                throw new IllegalStateException("Invalid lock held: " + owner.getName());
+            }
+            waits = waits || !writing;
+        }
+    }
+
+    /**
+     * This method releases the write locks of the agencies, in reverse order.
+     */
+    private static void unlock(final Agency[] held)
+    {
+        for(int i = held.length - 1; i >= 0; i--)
+        {
+            held[i].getLocks().writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method registers an agency that holds the property.
+     * @param owner The agency the property was added to.
+     */
+    void attach(final Agency owner)
+    {
+        Agency[] attached;
+        attached = Arrays.copyOf(owners, owners.length + 1);
+        attached[owners.length] = owner;
+        owners = attached;
+    }
+
+    /**
+     * This method unregisters an agency that no longer holds the property.
+     * @param owner The agency the property was removed from.
+     */
+    void detach(final Agency owner)
+    {
+        for(int i = 0; i < owners.length; i++)
+        {
+            if(owners[i] == owner)
+            {
+                Agency[] detached;
+                detached = new Agency[owners.length - 1];
+                System.arraycopy(owners, 0, detached, 0, i);
+                System.arraycopy(owners, i + 1, detached, i, owners.length - i - 1);
+                owners = detached;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The estimated bytes of the property object and its array of owners, without the address,
+     * price history or strings, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // a price, five references, the bedrooms and the pool flag
+        return MemoryFootprint.object(Double.BYTES + 5 * MemoryFootprint.REFERENCE + Integer.BYTES + 1) +
+                (owners.length == 0 ? 0 : MemoryFootprint.array(owners.length, MemoryFootprint.REFERENCE));
     }
 }
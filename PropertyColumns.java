@@ -0,0 +1,474 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the columnar copy of the filterable fields of an Agency's properties: a packed price
+ * column, a packed bedroom column and the Property of each row. Rows are kept dense (a removed row is
+ * replaced by the last one), so range predicates run over contiguous primitive arrays. Besides the USD
+ * prices, a converted price column is kept for every currency of the FX rate table, so a filter, total
+ * or top-K in any supported currency runs over a packed column as one in USD does. The row of a property
+ * is found through an open-addressing table of row numbers, hashed by the identity of the row's property
+ * with linear probing, so the lookup needs no entry objects and no boxed ordinals.
+ */
+public class PropertyColumns
+{
+    private double[]   prices;
+    private byte[]     bedrooms;
+    private Property[] rows;
+    private int        size;
+    private int[]      slots;
+    private int        mask;
+    private final RangeFilterKernel      kernel;
+    private FxRateTable                  rates;
+    private Map<String, double[]>        converted;
+
+    private static final int  DEFAULT_CAPACITY = 16;
+    private static final int  EMPTY = 0;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Constructor, creates empty columns filtered by the best available kernel.
+     */
+    PropertyColumns()
+    {
+        this(RangeFilterKernel.create());
+    }
+
+    /**
+     * Constructor, creates empty columns filtered by the given kernel.
+     * @param kernel The range filter kernel.
+     */
+    PropertyColumns(final RangeFilterKernel kernel)
+    {
+        this.prices   = new double[DEFAULT_CAPACITY];
+        this.bedrooms = new byte[DEFAULT_CAPACITY];
+        this.rows     = new Property[DEFAULT_CAPACITY];
+        this.slots     = new int[2 * DEFAULT_CAPACITY];
+        this.mask      = 2 * DEFAULT_CAPACITY - 1;
+        this.kernel    = kernel;
+        this.rates     = FxRateTable.usdOnly();
+        this.converted = new HashMap<>();
+    }
+
+    /**
+     * This method appends a row for the property.
+     * @param property The property to be added.
+     */
+    public void add(final Property property)
+    {
+        if(size == rows.length)
+        {
+            prices   = Arrays.copyOf(prices, size * 2);
+            bedrooms = Arrays.copyOf(bedrooms, size * 2);
+            rows     = Arrays.copyOf(rows, size * 2);
+
+            for(Map.Entry<String, double[]> column : converted.entrySet())
+            {
+                column.setValue(Arrays.copyOf(column.getValue(), size * 2));
+            }
+        }
+
+        for(Map.Entry<String, double[]> column : converted.entrySet())
+        {
+            column.getValue()[size] = rates.convert(property.getPriceUsd(), column.getKey());
+        }
+
+        prices[size]   = property.getPriceUsd();
+        bedrooms[size] = (byte) property.getNumberOfBedrooms();
+        rows[size]     = property;
+        size++;
+        insertSlot(property, size - 1);
+
+        // keep the table at most half full so probe sequences stay short
+        if(size * 2 > slots.length)
+        {
+            resizeSlots(slots.length * 2);
+        }
+    }
+
+    /**
+     * This method removes the row of the property, moving the last row into its place.
+     * @param property The property to be removed.
+     */
+    public void remove(final Property property)
+    {
+        int slot;
+        int ordinal;
+        int last;
+
+        slot = findSlot(property);
+
+        if(slot < 0)
+        {
+            return;
+        }
+
+        ordinal = slots[slot] - 1;
+        last    = size - 1;
+        deleteSlot(slot);
+
+        if(ordinal != last)
+        {
+            slots[findSlot(rows[last])] = ordinal + 1;
+            prices[ordinal]   = prices[last];
+            bedrooms[ordinal] = bedrooms[last];
+            rows[ordinal]     = rows[last];
+
+            for(double[] column : converted.values())
+            {
+                column[ordinal] = column[last];
+            }
+        }
+
+        rows[last] = null;
+        size--;
+
+        // shrink the table of rows once an eighth full, as the planner's posting lists do
+        if(size * 8 < slots.length && slots.length > 2 * DEFAULT_CAPACITY)
+        {
+            resizeSlots(slots.length / 2);
+        }
+    }
+
+    /**
+     * This method copies the current price of the property into the price column.
+     * @param property The re-priced property.
+     */
+    public void updatePrice(final Property property)
+    {
+        int slot;
+        slot = findSlot(property);
+
+        if(slot >= 0)
+        {
+            int ordinal;
+            ordinal = slots[slot] - 1;
+
+            prices[ordinal] = property.getPriceUsd();
+
+            for(Map.Entry<String, double[]> column : converted.entrySet())
+            {
+                column.getValue()[ordinal] = rates.convert(property.getPriceUsd(), column.getKey());
+            }
+        }
+    }
+
+    /**
+     * This method replaces the FX rates and rebuilds every converted price column from the USD prices
+     * in one pass per currency.
+     * @param rates The new rate table.
+     */
+    public void setRates(final FxRateTable rates)
+    {
+        Map<String, double[]> columns;
+        columns = new HashMap<>();
+
+        for(String currency : rates.getCurrencies())
+        {
+            if(!currency.equals(FxRateTable.USD))
+            {
+                double[] column;
+                double   rate;
+
+                column = new double[prices.length];
+                rate   = rates.getRate(currency);
+
+                for(int i = 0; i < size; i++)
+                {
+                    column[i] = prices[i] * rate;
+                }
+                columns.put(currency, column);
+            }
+        }
+
+        this.rates     = rates;
+        this.converted = columns;
+    }
+
+    /**
+     * @return The FX rates the converted price columns hold.
+     */
+    public FxRateTable getRates()
+    {
+        return rates;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param ordinal The row ordinal.
+     * @return The property of the row.
+     */
+    public Property get(final int ordinal)
+    {
+        return rows[ordinal];
+    }
+
+    /**
+     * @return True if the filters run on the Vector API, otherwise false.
+     */
+    public boolean isVectorized()
+    {
+        return kernel.isVectorized();
+    }
+
+    /**
+     * @param minUsd The minimum price, inclusive.
+     * @param maxUsd The maximum price, inclusive.
+     * @return The bitmask of the rows whose price falls in the range.
+     */
+    public long[] priceMask(final double minUsd, final double maxUsd)
+    {
+        return kernel.priceMask(prices, size, minUsd, maxUsd);
+    }
+
+    /**
+     * @param currency The currency of the range, a code of the FX rate table.
+     * @param min The minimum price in the currency, inclusive.
+     * @param max The maximum price in the currency, inclusive.
+     * @return The bitmask of the rows whose price in the currency falls in the range.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public long[] priceMask(final String currency, final double min, final double max)
+    {
+        return kernel.priceMask(column(currency), size, min, max);
+    }
+
+    /**
+     * @param currency The currency of the total, a code of the FX rate table.
+     * @return The sum of the prices of every row in the currency.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double total(final String currency)
+    {
+        double[] column;
+        double   total;
+
+        column = column(currency);
+        total  = 0;
+
+        for(int i = 0; i < size; i++)
+        {
+            total += column[i];
+        }
+        return total;
+    }
+
+    /**
+     * @param k The number of rows to return.
+     * @param currency The currency the rows are ranked in, a code of the FX rate table.
+     * @return The ordinals of up to k rows with the highest prices in the currency, highest first.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public int[] top(final int k, final String currency)
+    {
+        double[]               column;
+        PriorityQueue<Integer> top;
+        int[]                  ordinals;
+
+        column = column(currency);
+
+        if(k <= 0)
+        {
+            return new int[0];
+        }
+
+        top = new PriorityQueue<>(Math.min(k, Math.max(1, size)), (a, b) -> Double.compare(column[a], column[b]));
+
+        for(int i = 0; i < size; i++)
+        {
+            if(top.size() < k)
+            {
+                top.add(i);
+            }
+            else if(column[i] > column[top.peek()])
+            {
+                top.poll();
+                top.add(i);
+            }
+        }
+
+        ordinals = new int[top.size()];
+
+        for(int i = ordinals.length - 1; i >= 0; i--)
+        {
+            ordinals[i] = top.poll();
+        }
+        return ordinals;
+    }
+
+    /**
+     * @param ordinal The row ordinal.
+     * @param currency The currency of the price, a code of the FX rate table.
+     * @return The price of the row in the currency.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    public double getPrice(final int ordinal, final String currency)
+    {
+        return column(currency)[ordinal];
+    }
+
+    /**
+     * @param minBedrooms The minimum number of bedrooms, inclusive.
+     * @param maxBedrooms The maximum number of bedrooms, inclusive.
+     * @return The bitmask of the rows whose number of bedrooms falls in the range.
+     */
+    public long[] bedroomMask(final int minBedrooms, final int maxBedrooms)
+    {
+        return kernel.bedroomMask(bedrooms, size, minBedrooms, maxBedrooms);
+    }
+
+    /**
+     * @param mask A bitmask over the rows.
+     * @return The properties of the set bits, in row order.
+     */
+    public Property[] select(final long[] mask)
+    {
+        int[]      selected;
+        Property[] properties;
+
+        selected   = RangeFilterKernel.compact(mask);
+        properties = new Property[selected.length];
+
+        for(int i = 0; i < selected.length; i++)
+        {
+            properties[i] = rows[selected[i]];
+        }
+        return properties;
+    }
+
+    /**
+     * @return The USD price column, or the converted column of the currency.
+     * @throws IllegalArgumentException If the currency is not supported.
+     */
+    private double[] column(final String currency)
+    {
+        double[] column;
+
+        if(FxRateTable.USD.equalsIgnoreCase(currency))
+        {
+            return prices;
+        }
+
+        column = currency == null ? null : converted.get(currency.toUpperCase());
+
+        if(column == null)
+        {
+            throw new IllegalArgumentException("Invalid currency: " + currency);
+        }
+        return column;
+    }
+
+    /**
+     * @return The slot holding the row of the property, or -1 if it has no row.
+     */
+    private int findSlot(final Property property)
+    {
+        for(int slot = slotOf(property); slots[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if(rows[slots[slot] - 1] == property)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method stores the row of the property in the first free slot of its probe run.
+     */
+    private void insertSlot(final Property property, final int ordinal)
+    {
+        int slot;
+        slot = slotOf(property);
+
+        while(slots[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = ordinal + 1;
+    }
+
+    /**
+     * @return The home slot of the property, by its identity.
+     */
+    private int slotOf(final Property property)
+    {
+        return (int) ((System.identityHashCode(property) * HASH_MULTIPLIER) >>> 32) & mask;
+    }
+
+    /**
+     * This method empties the slot and shifts later entries of the probe run back, so lookups never need
+     * tombstones, as PropertyIdMap does.
+     */
+    private void deleteSlot(final int slot)
+    {
+        int gap;
+        int next;
+
+        gap  = slot;
+        next = (slot + 1) & mask;
+
+        while(slots[next] != EMPTY)
+        {
+            int home;
+            home = slotOf(rows[slots[next] - 1]);
+
+            // move the entry into the gap unless its home lies cyclically in (gap, next]
+            if(((next - home) & mask) >= ((next - gap) & mask))
+            {
+                slots[gap] = slots[next];
+                gap        = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[gap] = EMPTY;
+    }
+
+    /**
+     * This method rehashes the row of every property into a table of the new capacity.
+     */
+    private void resizeSlots(final int capacity)
+    {
+        slots = new int[capacity];
+        mask  = capacity - 1;
+
+        for(int i = 0; i < size; i++)
+        {
+            insertSlot(rows[i], i);
+        }
+    }
+
+    /**
+     * @return The estimated bytes of the columns and the table of rows, without the listings,
+     * see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        // seven references, the size and the mask; the rate table is shared with the agency
+        bytes = MemoryFootprint.object(7 * MemoryFootprint.REFERENCE + 2 * Integer.BYTES) +
+                MemoryFootprint.array(prices.length, Double.BYTES) +
+                MemoryFootprint.array(bedrooms.length, Byte.BYTES) +
+                MemoryFootprint.array(rows.length, MemoryFootprint.REFERENCE) +
+                MemoryFootprint.array(slots.length, Integer.BYTES) +
+                MemoryFootprint.hashMap(converted.size());
+
+        for(double[] column : converted.values())
+        {
+            bytes += MemoryFootprint.array(column.length, Double.BYTES);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertyColumnsTest
+{
+    private PropertyColumns columns;
+    private Property[] properties;
+
+    @BeforeEach
+    void setUp()
+    {
+        Address address = new Address("1a", 777, "56th avenue", "v7n2m8", "surrey");
+
+        columns    = new PropertyColumns();
+        properties = new Property[40];
+
+        for(int i = 0; i < properties.length; i++)
+        {
+            properties[i] = new Property(i * 1000.0, address, 1 + i % 20, false, "residence", "p" + i);
+            columns.add(properties[i]);
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        columns    = null;
+        properties = null;
+    }
+
+    @Test
+    void select()
+    {
+        Property[] between = columns.select(columns.priceMask(5000, 7000));
+
+        assertEquals(3, between.length);
+        assertSame(properties[5], between[0]);
+        assertSame(properties[7], between[2]);
+
+        assertEquals(4, columns.select(columns.bedroomMask(3, 4)).length);
+        assertEquals(2, columns.select(RangeFilterKernel.and(columns.priceMask(0, 10000),
+                columns.bedroomMask(3, 4))).length);
+    }
+
+    @Test
+    void remove()
+    {
+        columns.remove(properties[5]);
+        columns.remove(properties[5]);
+
+        assertEquals(39, columns.size());
+        assertEquals(2, columns.select(columns.priceMask(5000, 7000)).length);
+        assertSame(properties[39], columns.get(5));
+        assertEquals(1, columns.select(columns.priceMask(39000, 39000)).length);
+    }
+
+    @Test
+    void removeAllAndReAdd()
+    {
+        // every removal moves the last row, so each row must still be found after the table shrinks
+        for(int i = 0; i < properties.length; i += 2)
+        {
+            columns.remove(properties[i]);
+        }
+
+        for(int i = 1; i < properties.length; i += 2)
+        {
+            properties[i].setPriceUsd(1);
+            columns.updatePrice(properties[i]);
+        }
+
+        assertEquals(20, columns.size());
+        assertEquals(20, columns.select(columns.priceMask(1, 1)).length);
+
+        for(int i = 1; i < properties.length; i += 2)
+        {
+            columns.remove(properties[i]);
+        }
+        columns.add(properties[0]);
+
+        assertEquals(1, columns.size());
+        assertSame(properties[0], columns.get(0));
+        assertEquals(1, columns.select(columns.priceMask(0, 0)).length);
+    }
+
+    @Test
+    void updatePrice()
+    {
+        properties[0].setPriceUsd(1000000);
+        columns.updatePrice(properties[0]);
+
+        assertSame(properties[0], columns.select(columns.priceMask(1000000, 1000000))[0]);
+    }
+
+    @Test
+    void convertedPrices()
+    {
+        columns.setRates(new FxRateTable(Map.of("CAD", 1.5)));
+
+        assertEquals(3, columns.select(columns.priceMask("cad", 7500, 10500)).length);
+        assertEquals(columns.total("USD") * 1.5, columns.total("CAD"), 1e-6);
+        assertArrayEquals(new int[] {39, 38, 37}, columns.top(3, "CAD"));
+        assertEquals(0, columns.top(0, "CAD").length);
+        assertEquals(40, columns.top(100, "USD").length);
+
+        // the converted column follows adds, removals and price changes
+        columns.remove(properties[5]);
+        properties[0].setPriceUsd(1000000);
+        columns.updatePrice(properties[0]);
+        columns.add(new Property(2000000, properties[1].getAddress(), 2, false, "residence", "p40"));
+
+        assertEquals(2, columns.select(columns.priceMask("CAD", 7500, 10500)).length);
+        assertEquals(1500000.0, columns.getPrice(columns.top(2, "CAD")[1], "CAD"));
+        assertEquals(3000000.0, columns.getPrice(columns.top(1, "CAD")[0], "CAD"));
+
+        // new rates rebuild the column
+        columns.setRates(new FxRateTable(Map.of("CAD", 2.0)));
+        assertEquals(2000000.0, columns.getPrice(0, "CAD"));
+        assertThrows(IllegalArgumentException.class, () -> columns.total("EUR"));
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class provides the property filters used by the Agency queries. Filters are combined with
+ * Predicate.and, for example PropertyFilters.priceBetween(0, 900000).and(PropertyFilters.withPool()).
+ * The agency recognizes all, ofType and inCity on their own, and answers a price sketch or quantile over
+ * them from the sketches it maintains instead of scanning.
+ */
+public final class PropertyFilters
+{
+    private static final Predicate<Property> ALL = property -> true;
+
+    private PropertyFilters()
+    {
+    }
+
+    /**
+     * @return A filter that accepts every property.
+     */
+    public static Predicate<Property> all()
+    {
+        return ALL;
+    }
+
+    /**
+     * @param filter The filter to be checked.
+     * @return True if the filter is the one returned by all.
+     */
+    static boolean isAll(final Predicate<Property> filter)
+    {
+        return filter == ALL;
+    }
+
+    /**
+     * @param minUsd The minimum price of the property, in USD.
+     * @param maxUsd The maximum price of the property, in USD.
+     * @return A filter that accepts the properties whose price falls in the range, inclusive.
+     */
+    public static Predicate<Property> priceBetween(final double minUsd, final double maxUsd)
+    {
+        return property -> property.getPriceUsd() >= minUsd && property.getPriceUsd() <= maxUsd;
+    }
+
+    /**
+     * @param minBedrooms The minimum number of bedrooms in the range.
+     * @param maxBedrooms The maximum number of bedrooms in the range.
+     * @return A filter that accepts the properties whose number of bedrooms falls in the range, inclusive.
+     */
+    public static Predicate<Property> bedroomsBetween(final int minBedrooms, final int maxBedrooms)
+    {
+        return property -> property.getNumberOfBedrooms() >= minBedrooms &&
+                property.getNumberOfBedrooms() <= maxBedrooms;
+    }
+
+    /**
+     * @return A filter that accepts the properties with a swimming pool.
+     */
+    public static Predicate<Property> withPool()
+    {
+        return Property::hasSwimmingPool;
+    }
+
+    /**
+     * @param propertyType The property type to be matched, case-insensitive.
+     * @return A filter that accepts the properties of the type.
+     */
+    public static Predicate<Property> ofType(final String propertyType)
+    {
+        return new TypeFilter(propertyType);
+    }
+
+    /**
+     * @param cityName The city name to be matched, case-insensitive.
+     * @return A filter that accepts the properties in the city.
+     */
+    public static Predicate<Property> inCity(final String cityName)
+    {
+        return new CityFilter(cityName);
+    }
+
+    /**
+     * The filter returned by ofType, which keeps the type it matches.
+     */
+    static final class TypeFilter implements Predicate<Property>
+    {
+        private final String propertyType;
+
+        private TypeFilter(final String propertyType)
+        {
+            this.propertyType = propertyType;
+        }
+
+        String getPropertyType()
+        {
+            return propertyType;
+        }
+
+        @Override
+        public boolean test(final Property property)
+        {
+            return property.getType().equalsIgnoreCase(propertyType);
+        }
+    }
+
+    /**
+     * The filter returned by inCity, which keeps the city it matches.
+     */
+    static final class CityFilter implements Predicate<Property>
+    {
+        private final String cityName;
+
+        private CityFilter(final String cityName)
+        {
+            this.cityName = cityName;
+        }
+
+        String getCityName()
+        {
+            return cityName;
+        }
+
+        @Override
+        public boolean test(final Property property)
+        {
+            return property.getAddress().getCity().equalsIgnoreCase(cityName);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertyFiltersTest
+{
+    private Property property;
+
+    @BeforeEach
+    void setUp()
+    {
+        property = new Property(499000, new Address("1a", 777, "56th avenue", "v7n2m8", "surrey"),
+                2, true, "residence", "11111");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        property = null;
+    }
+
+    @Test
+    void all()
+    {
+        assertTrue(PropertyFilters.all().test(property));
+    }
+
+    @Test
+    void priceBetween()
+    {
+        assertTrue(PropertyFilters.priceBetween(499000, 499000).test(property));
+        assertFalse(PropertyFilters.priceBetween(0, 498999).test(property));
+    }
+
+    @Test
+    void bedroomsBetween()
+    {
+        assertTrue(PropertyFilters.bedroomsBetween(1, 2).test(property));
+        assertFalse(PropertyFilters.bedroomsBetween(3, 20).test(property));
+    }
+
+    @Test
+    void withPool()
+    {
+        assertTrue(PropertyFilters.withPool().test(property));
+    }
+
+    @Test
+    void ofTypeInCity()
+    {
+        assertTrue(PropertyFilters.ofType("RESIDENCE").and(PropertyFilters.inCity("Surrey")).test(property));
+        assertFalse(PropertyFilters.ofType("retail").test(property));
+        assertFalse(PropertyFilters.inCity("burnaby").test(property));
+    }
+}
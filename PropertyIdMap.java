@@ -0,0 +1,415 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the map from property ID to Property used as the primary store of an Agency.
+ * A property ID has at most six characters, so an ID made of Latin-1 characters packs into a long.
+ * Those IDs live in an open-addressing table of parallel long and Property arrays with linear probing,
+ * which needs no entry objects and no String.hashCode per lookup. The rare ID with a character above
+ * U+00FF goes to a small HashMap instead. A frozen iterator shares the tables; the next change copies them
+ * first, so the iterator keeps seeing the map as it was.
+ */
+public class PropertyIdMap implements Iterable<Property>
+{
+    private long[]     keys;
+    private Property[] values;
+    private int        mask;
+    private int        packedSize;
+    private boolean    shared;
+    private Map<String, Property> unpacked;
+
+    private static final long EMPTY = 0L;
+    private static final int  DEFAULT_CAPACITY = 16;
+    private static final int  MAX_ID_LENGTH = 6;
+    private static final int  LENGTH_SHIFT = 48;
+    private static final int  MAX_PACKED_CHAR = 0xFF;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Constructor, creates an empty map.
+     */
+    PropertyIdMap()
+    {
+        keys     = new long[DEFAULT_CAPACITY];
+        values   = new Property[DEFAULT_CAPACITY];
+        mask     = DEFAULT_CAPACITY - 1;
+        unpacked = new HashMap<>();
+    }
+
+    /**
+     * @param propertyId The property ID to be packed.
+     * @return The ID packed into a long: one byte per character and the length above them,
+     * or 0 if the ID is null, too long, empty, or has a character above U+00FF.
+     */
+    public static long pack(final String propertyId)
+    {
+        long packed;
+        int  length;
+
+        if(propertyId == null)
+        {
+            return EMPTY;
+        }
+
+        length = propertyId.length();
+
+        if(length == 0 || length > MAX_ID_LENGTH)
+        {
+            return EMPTY;
+        }
+
+        packed = (long) length << LENGTH_SHIFT;
+
+        for(int i = 0; i < length; i++)
+        {
+            char c;
+            c = propertyId.charAt(i);
+
+            if(c > MAX_PACKED_CHAR)
+            {
+                return EMPTY;
+            }
+            packed |= (long) c << (8 * i);
+        }
+        return packed;
+    }
+
+    /**
+     * @param packed An ID packed by pack.
+     * @return The property ID the long was packed from.
+     */
+    public static String unpack(final long packed)
+    {
+        int    length;
+        char[] chars;
+
+        length = (int) (packed >>> LENGTH_SHIFT);
+        chars  = new char[length];
+
+        for(int i = 0; i < length; i++)
+        {
+            chars[i] = (char) ((packed >>> (8 * i)) & MAX_PACKED_CHAR);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return The property with the ID, or null if there is none.
+     */
+    public Property get(final String propertyId)
+    {
+        long key;
+        key = pack(propertyId);
+
+        if(key == EMPTY)
+        {
+            return propertyId == null ? null : unpacked.get(propertyId);
+        }
+
+        for(int slot = slotOf(key); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if(keys[slot] == key)
+            {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return True if a property has the ID, otherwise false.
+     */
+    public boolean containsKey(final String propertyId)
+    {
+        return get(propertyId) != null;
+    }
+
+    /**
+     * This method stores the property under its ID, replacing any property with the same ID.
+     * @param property The property to be stored.
+     * @return The property that was replaced, or null if there was none.
+     */
+    public Property put(final Property property)
+    {
+        long key;
+        int  slot;
+
+        unshare();
+        key = pack(property.getPropertyId());
+
+        if(key == EMPTY)
+        {
+            return unpacked.put(property.getPropertyId(), property);
+        }
+
+        for(slot = slotOf(key); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if(keys[slot] == key)
+            {
+                Property replaced;
+                replaced     = values[slot];
+                values[slot] = property;
+                return replaced;
+            }
+        }
+
+        keys[slot]   = key;
+        values[slot] = property;
+        packedSize++;
+
+        // keep the table at most half full so probe sequences stay short
+        if(packedSize * 2 > keys.length)
+        {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * This method removes the property with the ID.
+     * @param propertyId The property ID to be removed.
+     * @return The property that was removed, or null if there was none.
+     */
+    public Property remove(final String propertyId)
+    {
+        long key;
+
+        unshare();
+        key = pack(propertyId);
+
+        if(key == EMPTY)
+        {
+            return propertyId == null ? null : unpacked.remove(propertyId);
+        }
+
+        for(int slot = slotOf(key); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if(keys[slot] == key)
+            {
+                Property removed;
+                removed = values[slot];
+                deleteSlot(slot);
+                packedSize--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of properties in the map.
+     */
+    public int size()
+    {
+        return packedSize + unpacked.size();
+    }
+
+    /**
+     * @return An iterator over the properties, in no particular order. The map must not be changed
+     * while it is iterated.
+     */
+    @Override
+    public Iterator<Property> iterator()
+    {
+        return new Iterator<Property>()
+        {
+            private int slot = nextSlot(0);
+            private final Iterator<Property> rest = unpacked.values().iterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                return slot < keys.length || rest.hasNext();
+            }
+
+            @Override
+            public Property next()
+            {
+                Property property;
+
+                if(slot < keys.length)
+                {
+                    property = values[slot];
+                    slot     = nextSlot(slot + 1);
+                    return property;
+                }
+
+                if(!rest.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    /**
+     * This method freezes the map as it is now: the iterator can be read at any later time, from any thread
+     * that sees the map at the time of the call, and keeps returning the properties held now. The next put or
+     * remove copies the tables first.
+     * @return An iterator over the properties held now, in no particular order.
+     */
+    Iterator<Property> frozenIterator()
+    {
+        long[]             frozenKeys;
+        Property[]         frozenValues;
+        Iterator<Property> rest;
+
+        shared       = true;
+        frozenKeys   = keys;
+        frozenValues = values;
+        rest         = unpacked.values().iterator();
+
+        return new Iterator<Property>()
+        {
+            private int slot = nextSlot(frozenKeys, 0);
+
+            @Override
+            public boolean hasNext()
+            {
+                return slot < frozenKeys.length || rest.hasNext();
+            }
+
+            @Override
+            public Property next()
+            {
+                Property property;
+
+                if(slot < frozenKeys.length)
+                {
+                    property = frozenValues[slot];
+                    slot     = nextSlot(frozenKeys, slot + 1);
+                    return property;
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    /**
+     * This method copies the tables and the map of unpacked IDs before a change while a frozen iterator
+     * shares them.
+     */
+    private void unshare()
+    {
+        if(shared)
+        {
+            keys     = keys.clone();
+            values   = values.clone();
+            unpacked = new HashMap<>(unpacked);
+            shared   = false;
+        }
+    }
+
+    /**
+     * @return The first occupied slot at or after the given slot, or the table length if there is none.
+     */
+    private int nextSlot(final int from)
+    {
+        return nextSlot(keys, from);
+    }
+
+    /**
+     * @return The first occupied slot of the keys at or after the given slot, or their length if there is none.
+     */
+    private static int nextSlot(final long[] keys, final int from)
+    {
+        int slot;
+        slot = from;
+
+        while(slot < keys.length && keys[slot] == EMPTY)
+        {
+            slot++;
+        }
+        return slot;
+    }
+
+    /**
+     * @return The home slot of the packed key.
+     */
+    private int slotOf(final long key)
+    {
+        return (int) ((key * HASH_MULTIPLIER) >>> 32) & mask;
+    }
+
+    /**
+     * This method empties the slot and shifts later entries of the probe run back, so lookups never need
+     * tombstones.
+     */
+    private void deleteSlot(final int slot)
+    {
+        int gap;
+        int next;
+
+        gap  = slot;
+        next = (slot + 1) & mask;
+
+        while(keys[next] != EMPTY)
+        {
+            int home;
+            home = slotOf(keys[next]);
+
+            // move the entry into the gap unless its home lies cyclically in (gap, next]
+            if(((next - home) & mask) >= ((next - gap) & mask))
+            {
+                keys[gap]   = keys[next];
+                values[gap] = values[next];
+                gap         = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[gap]   = EMPTY;
+        values[gap] = null;
+    }
+
+    /**
+     * This method rehashes every packed entry into a table of the new capacity.
+     */
+    private void resize(final int capacity)
+    {
+        long[]     oldKeys;
+        Property[] oldValues;
+
+        oldKeys   = keys;
+        oldValues = values;
+        keys      = new long[capacity];
+        values    = new Property[capacity];
+        mask      = capacity - 1;
+
+        for(int i = 0; i < oldKeys.length; i++)
+        {
+            if(oldKeys[i] != EMPTY)
+            {
+                int slot;
+                slot = slotOf(oldKeys[i]);
+
+                while(keys[slot] != EMPTY)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot]   = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return The estimated bytes of the tables and the map of unpacked IDs, without the listings,
+     * see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // three references, two ints and the shared flag
+        return MemoryFootprint.object(3 * MemoryFootprint.REFERENCE + 2 * Integer.BYTES + 1) +
+                MemoryFootprint.array(keys.length, Long.BYTES) +
+                MemoryFootprint.array(values.length, MemoryFootprint.REFERENCE) +
+                MemoryFootprint.hashMap(unpacked.size());
+    }
+}
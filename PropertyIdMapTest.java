@@ -0,0 +1,158 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertyIdMapTest
+{
+    private PropertyIdMap map;
+    private Address address;
+
+    @BeforeEach
+    void setUp()
+    {
+        map     = new PropertyIdMap();
+        address = new Address("1a", 777, "56th avenue", "v7n2m8", "surrey");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        map     = null;
+        address = null;
+    }
+
+    private Property property(final String propertyId)
+    {
+        return new Property(1000, address, 1, false, "residence", propertyId);
+    }
+
+    @Test
+    void packUnpack()
+    {
+        assertEquals("abc123", PropertyIdMap.unpack(PropertyIdMap.pack("abc123")));
+        assertEquals("x", PropertyIdMap.unpack(PropertyIdMap.pack("x")));
+        assertEquals("\u00ff\u0000", PropertyIdMap.unpack(PropertyIdMap.pack("\u00ff\u0000")));
+        assertNotEquals(PropertyIdMap.pack("a"), PropertyIdMap.pack("a\u0000"));
+        assertEquals(0, PropertyIdMap.pack("\u0100"));
+        assertEquals(0, PropertyIdMap.pack(""));
+        assertEquals(0, PropertyIdMap.pack("1234567"));
+        assertEquals(0, PropertyIdMap.pack(null));
+    }
+
+    @Test
+    void putGetRemove()
+    {
+        Property p1 = property("abc123");
+        Property p2 = property("abc123");
+
+        assertNull(map.put(p1));
+        assertSame(p1, map.get("abc123"));
+        assertSame(p1, map.put(p2));
+        assertEquals(1, map.size());
+        assertNull(map.get("ABC123"));
+        assertNull(map.get(null));
+
+        assertSame(p2, map.remove("abc123"));
+        assertNull(map.remove("abc123"));
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey("abc123"));
+    }
+
+    @Test
+    void unpackedIds()
+    {
+        Property p1 = property("\u4e00\u4e8c");
+
+        map.put(p1);
+        map.put(property("plain"));
+
+        assertSame(p1, map.get("\u4e00\u4e8c"));
+        assertEquals(2, map.size());
+
+        int count = 0;
+        for(Property property : map)
+        {
+            count++;
+        }
+        assertEquals(2, count);
+
+        assertSame(p1, map.remove("\u4e00\u4e8c"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void matchesHashMap()
+    {
+        Map<String, Property> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for(int i = 0; i < 200000; i++)
+        {
+            String propertyId = Integer.toString(random.nextInt(30000), 36);
+
+            if(random.nextInt(3) == 0)
+            {
+                assertSame(expected.remove(propertyId), map.remove(propertyId));
+            }
+            else
+            {
+                Property property = property(propertyId);
+                assertSame(expected.put(propertyId, property), map.put(property));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+
+        for(Map.Entry<String, Property> entry : expected.entrySet())
+        {
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        Set<Property> iterated = new HashSet<>();
+        for(Property property : map)
+        {
+            iterated.add(property);
+        }
+        assertEquals(new HashSet<>(expected.values()), iterated);
+    }
+
+    @Test
+    void frozenIteratorIgnoresLaterWrites()
+    {
+        java.util.Iterator<Property> frozen;
+        Set<String>                  seen;
+
+        for(int i = 0; i < 20; i++)
+        {
+            map.put(property("p" + i));
+        }
+        map.put(property("\u4e00\u4e8c"));
+
+        frozen = map.frozenIterator();
+        seen   = new HashSet<>();
+
+        map.remove("p3");
+        map.remove("\u4e00\u4e8c");
+        map.put(property("new"));
+
+        while(frozen.hasNext())
+        {
+            seen.add(frozen.next().getPropertyId());
+        }
+
+        assertEquals(21, seen.size());
+        assertTrue(seen.contains("p3"));
+        assertTrue(seen.contains("\u4e00\u4e8c"));
+        assertFalse(seen.contains("new"));
+        assertEquals(20, map.size());
+        assertNull(map.get("p3"));
+    }
+}
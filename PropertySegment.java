@@ -0,0 +1,696 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models an immutable on-disk segment of cold listings. The listings are written once, sorted by
+ * property ID, as length-prefixed records; the ID of every INDEX_INTERVAL-th record and its file offset stay
+ * in memory as a sparse index, so a lookup reads at most INDEX_INTERVAL records. Lookups read through
+ * FileChannel positional reads into a bounded LRU cache of fixed-size pages, while full scans stream the
+ * file in large chunks past the cache so they do not evict the pages of hot lookups. Removing a listing
+ * only marks it deleted in memory; the file is rewritten when segments are compacted. A Bloom filter over
+ * the IDs, built with the file, answers most lookups of absent IDs without reading the file at all.
+ * Lookups and scans may run on several threads at once; the page cache is guarded by its own monitor.
+ * Deleting must be serialized with them by the caller.
+ */
+public class PropertySegment implements Iterable<Property>, AutoCloseable
+{
+    private final Path        path;
+    private final FileChannel channel;
+    private final String[]    indexIds;
+    private final long[]      indexOffsets;
+    private final long        dataLength;
+    private final int         recordCount;
+    private final Set<String> deleted;
+    private final Map<Long, byte[]> pages;
+    private final BloomFilter filter;
+    private final AtomicLong  pageHits;
+    private final AtomicLong  pageMisses;
+    private final AtomicLong  filteredMisses;
+    private final AtomicLong  falsePositives;
+
+    /**
+     * The size of a cached page, in bytes.
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    private static final int INDEX_INTERVAL = 16;
+    private static final int SCAN_CHUNK = 64 * 1024;
+    private static final int MAGIC = 0x50534731;
+    private static final int HEADER_BYTES = 4;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private PropertySegment(final Path path, final FileChannel channel, final String[] indexIds,
+                            final long[] indexOffsets, final int recordCount, final BloomFilter filter,
+                            final int pageCacheCapacity) throws IOException
+    {
+        this.path           = path;
+        this.channel        = channel;
+        this.indexIds       = indexIds;
+        this.indexOffsets   = indexOffsets;
+        this.dataLength     = channel.size();
+        this.recordCount    = recordCount;
+        this.deleted        = new HashSet<>();
+        this.filter         = filter;
+        this.pageHits       = new AtomicLong();
+        this.pageMisses     = new AtomicLong();
+        this.filteredMisses = new AtomicLong();
+        this.falsePositives = new AtomicLong();
+        this.pages          = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest)
+            {
+                return size() > pageCacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * This method writes the properties to a new segment file and opens it.
+     * @param path The file to be written, which must not exist.
+     * @param properties The properties to be written, with distinct IDs.
+     * @param pageCacheCapacity The maximum number of pages cached, must be positive.
+     * @return The open segment.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the page cache capacity is not positive.
+     */
+    static PropertySegment write(final Path path, final Collection<Property> properties, final int pageCacheCapacity)
+            throws IOException
+    {
+        List<Property> sorted;
+        BloomFilter    filter;
+        String[]       indexIds;
+        long[]         indexOffsets;
+        FileChannel    channel;
+        long           offset;
+
+        if(pageCacheCapacity < 1)
+        {
+            throw new IllegalArgumentException("Invalid page cache capacity: " + pageCacheCapacity);
+        }
+
+        sorted = new ArrayList<>(properties);
+        sorted.sort((a, b) -> a.getPropertyId().compareTo(b.getPropertyId()));
+
+        filter       = new BloomFilter(Math.max(1, sorted.size()), FALSE_POSITIVE_RATE);
+        indexIds     = new String[(sorted.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+        indexOffsets = new long[indexIds.length];
+        channel      = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try
+        {
+            ByteArrayOutputStream buffer;
+            DataOutputStream      out;
+
+            buffer = new ByteArrayOutputStream();
+            out    = new DataOutputStream(buffer);
+            offset = HEADER_BYTES;
+
+            out.writeInt(MAGIC);
+
+            for(int i = 0; i < sorted.size(); i++)
+            {
+                byte[] record;
+                record = encode(sorted.get(i));
+                filter.add(sorted.get(i).getPropertyId());
+
+                if(i % INDEX_INTERVAL == 0)
+                {
+                    indexIds[i / INDEX_INTERVAL]     = sorted.get(i).getPropertyId();
+                    indexOffsets[i / INDEX_INTERVAL] = offset;
+                }
+
+                out.writeInt(record.length);
+                out.write(record);
+                offset += Integer.BYTES + record.length;
+
+                if(buffer.size() >= SCAN_CHUNK)
+                {
+                    writeFully(channel, buffer.toByteArray());
+                    buffer.reset();
+                }
+            }
+            out.flush();
+            writeFully(channel, buffer.toByteArray());
+            channel.force(false);
+
+            return new PropertySegment(path, channel, indexIds, indexOffsets, sorted.size(), filter,
+                    pageCacheCapacity);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return A new copy of the listing with the ID, or null if the segment does not hold it or it was deleted.
+     * @throws UncheckedIOException If the file cannot be read.
+     */
+    public Property get(final String propertyId)
+    {
+        int  block;
+        long offset;
+        long end;
+
+        if(propertyId == null || deleted.contains(propertyId))
+        {
+            return null;
+        }
+
+        if(!filter.mightContain(propertyId))
+        {
+            filteredMisses.incrementAndGet();
+            return null;
+        }
+
+        block = floorBlock(propertyId);
+
+        if(block < 0)
+        {
+            falsePositives.incrementAndGet();
+            return null;
+        }
+
+        offset = indexOffsets[block];
+        end    = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataLength;
+
+        try
+        {
+            while(offset < end)
+            {
+                int    length;
+                byte[] record;
+                String id;
+                int    order;
+
+                length = ByteBuffer.wrap(readCached(offset, Integer.BYTES)).getInt();
+                record = readCached(offset + Integer.BYTES, length);
+                id     = new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+                order  = id.compareTo(propertyId);
+
+                if(order == 0)
+                {
+                    return decode(record);
+                }
+
+                if(order > 0)
+                {
+                    break;
+                }
+                offset += Integer.BYTES + length;
+            }
+            falsePositives.incrementAndGet();
+            return null;
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @return True if the segment holds a listing with the ID that was not deleted, otherwise false.
+     */
+    public boolean contains(final String propertyId)
+    {
+        return get(propertyId) != null;
+    }
+
+    /**
+     * This method marks the listing deleted; the file keeps it until the segment is compacted away.
+     * @param propertyId The ID of the listing to be deleted.
+     * @return True if the segment held the listing, otherwise false.
+     */
+    public boolean delete(final String propertyId)
+    {
+        return contains(propertyId) && deleted.add(propertyId);
+    }
+
+    /**
+     * @return The number of listings held and not deleted.
+     */
+    public int size()
+    {
+        return recordCount - deleted.size();
+    }
+
+    /**
+     * @return The number of deleted listings still in the file.
+     */
+    public int getDeletedCount()
+    {
+        return deleted.size();
+    }
+
+    /**
+     * @return The size of the file, in bytes.
+     */
+    public long getFileBytes()
+    {
+        return dataLength;
+    }
+
+    /**
+     * @return The estimated heap bytes of the sparse index, the deleted IDs, the Bloom filter and the
+     * page cache entries, without the cached pages, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        int  pageCount;
+
+        synchronized(pages)
+        {
+            pageCount = pages.size();
+        }
+
+        // eleven references, the data length and the record count, and the four counters
+        bytes = MemoryFootprint.object(11 * MemoryFootprint.REFERENCE + Long.BYTES + Integer.BYTES) +
+                4 * MemoryFootprint.object(Long.BYTES) +
+                MemoryFootprint.array(indexIds.length, MemoryFootprint.REFERENCE) +
+                MemoryFootprint.array(indexOffsets.length, Long.BYTES) +
+                MemoryFootprint.hashSet(deleted.size()) +
+                MemoryFootprint.linkedHashMap(pageCount) + pageCount * MemoryFootprint.boxedLong() +
+                filter.estimateBytes();
+
+        for(String indexId : indexIds)
+        {
+            bytes += MemoryFootprint.string(indexId);
+        }
+
+        for(String propertyId : deleted)
+        {
+            bytes += MemoryFootprint.string(propertyId);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The estimated bytes of the cached pages, see MemoryFootprint.
+     */
+    long estimatePageCacheBytes()
+    {
+        long bytes;
+        bytes = 0;
+
+        synchronized(pages)
+        {
+            for(byte[] page : pages.values())
+            {
+                bytes += MemoryFootprint.array(page.length, Byte.BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * This method drops every cached page; later reads fetch the pages from the file again.
+     */
+    public void clearPageCache()
+    {
+        synchronized(pages)
+        {
+            pages.clear();
+        }
+    }
+
+    /**
+     * @return The number of page reads served by the page cache.
+     */
+    public long getPageHitCount()
+    {
+        return pageHits.get();
+    }
+
+    /**
+     * @return The number of page reads that went to the file.
+     */
+    public long getPageMissCount()
+    {
+        return pageMisses.get();
+    }
+
+    /**
+     * @return The Bloom filter over the IDs of the segment.
+     */
+    public BloomFilter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * @return The number of lookups the Bloom filter answered without reading the file.
+     */
+    public long getFilteredMissCount()
+    {
+        return filteredMisses.get();
+    }
+
+    /**
+     * @return The number of lookups the Bloom filter let through for an ID the segment does not hold.
+     */
+    public long getFalsePositiveCount()
+    {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return An iterator streaming new copies of the listings not deleted, in ID order, past the page cache.
+     * A read failure is thrown from next as an UncheckedIOException.
+     */
+    @Override
+    public Iterator<Property> iterator()
+    {
+        return new Iterator<Property>()
+        {
+            private final ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK).flip();
+            private long             position = HEADER_BYTES;
+            private Property         next = advance();
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            @Override
+            public Property next()
+            {
+                Property current;
+
+                if(next == null)
+                {
+                    throw new NoSuchElementException();
+                }
+
+                current = next;
+                next    = advance();
+                return current;
+            }
+
+            private Property advance()
+            {
+                try
+                {
+                    while(position < dataLength)
+                    {
+                        int    length;
+                        byte[] record;
+                        String id;
+
+                        length = ByteBuffer.wrap(read(Integer.BYTES)).getInt();
+                        record = read(length);
+                        id     = new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+
+                        if(!deleted.contains(id))
+                        {
+                            return decode(record);
+                        }
+                    }
+                    return null;
+                }
+                catch(IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private byte[] read(final int length) throws IOException
+            {
+                byte[] bytes;
+                int    filled;
+
+                bytes  = new byte[length];
+                filled = 0;
+
+                while(filled < length)
+                {
+                    int count;
+
+                    if(!chunk.hasRemaining())
+                    {
+                        chunk.clear();
+                        channel.read(chunk, position);
+                        chunk.flip();
+
+                        if(!chunk.hasRemaining())
+                        {
+                            throw new EOFException("Truncated segment: " + path);
+                        }
+                    }
+
+                    count = Math.min(length - filled, chunk.remaining());
+                    chunk.get(bytes, filled, count);
+                    filled   += count;
+                    position += count;
+                }
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * This method closes the file and deletes it.
+     * @throws IOException If the file cannot be closed or deleted.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        clearPageCache();
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * @return The index of the last sparse index entry whose ID is not after the ID, or -1 if there is none.
+     */
+    private int floorBlock(final String propertyId)
+    {
+        int low;
+        int high;
+
+        low  = 0;
+        high = indexIds.length - 1;
+
+        while(low <= high)
+        {
+            int middle;
+            middle = (low + high) >>> 1;
+
+            if(indexIds[middle].compareTo(propertyId) <= 0)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * This method reads the bytes at the offset through the page cache.
+     */
+    private byte[] readCached(final long offset, final int length) throws IOException
+    {
+        byte[] bytes;
+        int    filled;
+
+        bytes  = new byte[length];
+        filled = 0;
+
+        while(filled < length)
+        {
+            long   pageNumber;
+            int    pageOffset;
+            byte[] page;
+            int    count;
+
+            pageNumber = (offset + filled) / PAGE_SIZE;
+            pageOffset = (int) ((offset + filled) % PAGE_SIZE);
+            page       = page(pageNumber);
+
+            if(pageOffset >= page.length)
+            {
+                throw new EOFException("Truncated segment: " + path);
+            }
+
+            count = Math.min(length - filled, page.length - pageOffset);
+            System.arraycopy(page, pageOffset, bytes, filled, count);
+            filled += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * This method returns the page from the cache, or reads it from the file and caches it. The file is read
+     * outside the monitor, so two threads missing the same page may both read it; the pages are equal.
+     */
+    private byte[] page(final long pageNumber) throws IOException
+    {
+        byte[] page;
+
+        synchronized(pages)
+        {
+            page = pages.get(pageNumber);
+        }
+
+        if(page != null)
+        {
+            pageHits.incrementAndGet();
+            return page;
+        }
+
+        ByteBuffer buffer;
+        long       start;
+
+        pageMisses.incrementAndGet();
+        start  = pageNumber * PAGE_SIZE;
+        buffer = ByteBuffer.allocate((int) Math.min(PAGE_SIZE, dataLength - start));
+
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, start + buffer.position()) < 0)
+            {
+                throw new EOFException("Truncated segment: " + path);
+            }
+        }
+
+        page = buffer.array();
+
+        synchronized(pages)
+        {
+            pages.put(pageNumber, page);
+        }
+        return page;
+    }
+
+    private static void writeFully(final FileChannel channel, final byte[] bytes) throws IOException
+    {
+        ByteBuffer buffer;
+        buffer = ByteBuffer.wrap(bytes);
+
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The record of the property: ID, price, bedrooms, pool, type, address, coordinates and history.
+     */
+    private static byte[] encode(final Property property) throws IOException
+    {
+        ByteArrayOutputStream bytes;
+        DataOutputStream      out;
+        Address               address;
+        byte[]                history;
+
+        bytes   = new ByteArrayOutputStream();
+        out     = new DataOutputStream(bytes);
+        address = property.getAddress();
+        history = property.getPriceHistory().toBytes();
+
+        out.writeUTF(property.getPropertyId());
+        out.writeDouble(property.getPriceUsd());
+        out.writeByte(property.getNumberOfBedrooms());
+        out.writeBoolean(property.hasSwimmingPool());
+        out.writeUTF(property.getType());
+        out.writeBoolean(address.getUnitNumber() != null);
+
+        if(address.getUnitNumber() != null)
+        {
+            out.writeUTF(address.getUnitNumber());
+        }
+
+        out.writeInt(address.getStreetNumber());
+        out.writeUTF(address.getStreetName());
+        out.writeUTF(address.getPostalCode());
+        out.writeUTF(address.getCity());
+        out.writeBoolean(address.hasCoordinates());
+
+        if(address.hasCoordinates())
+        {
+            out.writeDouble(address.getLatitude());
+            out.writeDouble(address.getLongitude());
+        }
+
+        out.writeInt(history.length);
+        out.write(history);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Property decode(final byte[] record) throws IOException
+    {
+        DataInputStream in;
+        String          propertyId;
+        double          priceInUsd;
+        int             bedrooms;
+        boolean         pool;
+        String          type;
+        String          unit;
+        int             streetNumber;
+        String          streetName;
+        String          postalCode;
+        String          city;
+        Address         address;
+        byte[]          history;
+
+        in           = new DataInputStream(new ByteArrayInputStream(record));
+        propertyId   = in.readUTF();
+        priceInUsd   = in.readDouble();
+        bedrooms     = in.readByte();
+        pool         = in.readBoolean();
+        type         = in.readUTF();
+        unit         = in.readBoolean() ? in.readUTF() : null;
+        streetNumber = in.readInt();
+        streetName   = in.readUTF();
+        postalCode   = in.readUTF();
+        city         = in.readUTF();
+
+        if(in.readBoolean())
+        {
+            address = new Address(unit, streetNumber, streetName, postalCode, city, in.readDouble(), in.readDouble());
+        }
+        else
+        {
+            address = new Address(unit, streetNumber, streetName, postalCode, city);
+        }
+
+        history = new byte[in.readInt()];
+        in.readFully(history);
+
+        return new Property(priceInUsd, address, bedrooms, pool, type, propertyId, new PriceHistory(history));
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertySegmentTest
+{
+    private Path            directory;
+    private List<Property>  properties;
+    private PropertySegment segment;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        directory  = Files.createTempDirectory("segment");
+        properties = new ArrayList<>();
+
+        for(int i = 0; i < 500; i++)
+        {
+            Address address;
+
+            if(i % 2 == 0)
+            {
+                address = new Address(i % 3 == 0 ? null : "u" + (i % 100), i, "street " + (i % 7), "v5k0a" + (i % 10),
+                        "vancouver", 49.0 + i / 1000.0, -123.0);
+            }
+            else
+            {
+                address = new Address(null, i, "main street", "90210", "los angeles");
+            }
+            properties.add(new Property(100000 + i * 1000, address, 1 + i % 20, i % 5 == 0,
+                    i % 3 == 0 ? "retail" : "residence", "p" + i));
+        }
+
+        properties.get(7).setPriceUsd(90000, System.currentTimeMillis() + 60_000);
+        segment = PropertySegment.write(directory.resolve("s.dat"), properties, 4);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException
+    {
+        segment.close();
+        Files.deleteIfExists(directory);
+        segment = null;
+    }
+
+    @Test
+    void getRoundTrips()
+    {
+        for(Property property : properties)
+        {
+            Property copy;
+            copy = segment.get(property.getPropertyId());
+
+            assertNotSame(property, copy);
+            assertEquals(property.getPriceUsd(), copy.getPriceUsd());
+            assertEquals(property.getNumberOfBedrooms(), copy.getNumberOfBedrooms());
+            assertEquals(property.hasSwimmingPool(), copy.hasSwimmingPool());
+            assertEquals(property.getType(), copy.getType());
+            assertEquals(property.getAddress(), copy.getAddress());
+            assertEquals(property.getAddress().hasCoordinates(), copy.getAddress().hasCoordinates());
+            assertEquals(property.getPriceHistory().size(), copy.getPriceHistory().size());
+        }
+
+        assertEquals(2, segment.get("p7").getPriceHistory().size());
+        assertEquals(100000 + 7 * 1000, segment.get("p7").getPriceHistory().getFirstPrice());
+        assertEquals(49.002, segment.get("p2").getAddress().getLatitude());
+        assertNull(segment.get("p1000"));
+        assertNull(segment.get("a"));
+        assertNull(segment.get("zz"));
+        assertNull(segment.get(null));
+    }
+
+    @Test
+    void pageCache()
+    {
+        segment.get("p10");
+        long misses = segment.getPageMissCount();
+
+        segment.get("p10");
+        assertEquals(misses, segment.getPageMissCount());
+        assertTrue(segment.getPageHitCount() > 0);
+
+        // four pages cached, so reading the whole file again misses
+        for(Property property : properties)
+        {
+            segment.get(property.getPropertyId());
+        }
+        assertTrue(segment.getFileBytes() > 4 * PropertySegment.PAGE_SIZE);
+        assertTrue(segment.getPageMissCount() > segment.getFileBytes() / PropertySegment.PAGE_SIZE);
+    }
+
+    @Test
+    void concurrentLookups() throws InterruptedException
+    {
+        Thread[]             readers  = new Thread[4];
+        List<AssertionError> failures = new CopyOnWriteArrayList<>();
+
+        for(int t = 0; t < readers.length; t++)
+        {
+            int offset = t;
+
+            readers[t] = new Thread(() -> {
+                for(int round = 0; round < 20; round++)
+                {
+                    for(int i = offset; i < properties.size(); i += readers.length)
+                    {
+                        Property copy = segment.get(properties.get(i).getPropertyId());
+
+                        if(copy == null || copy.getPriceUsd() != properties.get(i).getPriceUsd())
+                        {
+                            failures.add(new AssertionError("Wrong copy of " + properties.get(i).getPropertyId()));
+                        }
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        for(Thread reader : readers)
+        {
+            reader.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        assertTrue(segment.estimatePageCacheBytes() <= 4 * MemoryFootprint.array(PropertySegment.PAGE_SIZE, Byte.BYTES));
+    }
+
+    @Test
+    void deleteAndScan()
+    {
+        int    count;
+        String previous;
+
+        assertTrue(segment.delete("p3"));
+        assertFalse(segment.delete("p3"));
+        assertFalse(segment.delete("none"));
+        assertNull(segment.get("p3"));
+        assertEquals(499, segment.size());
+        assertEquals(1, segment.getDeletedCount());
+
+        count    = 0;
+        previous = "";
+
+        for(Property property : segment)
+        {
+            assertNotEquals("p3", property.getPropertyId());
+            assertTrue(property.getPropertyId().compareTo(previous) > 0);
+            previous = property.getPropertyId();
+            count++;
+        }
+        assertEquals(499, count);
+    }
+
+    @Test
+    void closeDeletesFile() throws IOException
+    {
+        Path path = directory.resolve("other.dat");
+        PropertySegment other = PropertySegment.write(path, List.of(), 1);
+
+        assertEquals(0, other.size());
+        assertNull(other.get("p1"));
+        assertFalse(other.iterator().hasNext());
+        assertThrows(IOException.class, () -> PropertySegment.write(path, properties, 1));
+
+        other.close();
+        assertFalse(Files.exists(path));
+        assertThrows(IllegalArgumentException.class, () -> PropertySegment.write(path, properties, 0));
+    }
+
+    @Test
+    void bloomFilter()
+    {
+        long misses = segment.getPageMissCount();
+
+        for(int i = 0; i < 1000; i++)
+        {
+            assertNull(segment.get("x" + i));
+        }
+
+        assertEquals(1000, segment.getFilteredMissCount() + segment.getFalsePositiveCount());
+        assertTrue(segment.getFalsePositiveCount() < 50);
+        assertTrue(segment.getPageMissCount() - misses <= segment.getFalsePositiveCount());
+        assertTrue(segment.getFilter().mightContain("p499"));
+    }
+}
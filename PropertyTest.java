@@ -92,6 +92,14 @@ class PropertyTest
             property1 = new Property(-0.01, address, 1, true, "residence", "11111");
         });
         assertTrue(ex.getMessage().equals("Invalid price: -0.01"));
+
+        assertThrows(IllegalArgumentException.class, () -> new Property(Double.NaN, address, 1, true, "residence", "1"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Property(Double.POSITIVE_INFINITY, address, 1, true, "residence", "1"));
+        assertEquals(ValidationError.INVALID_PRICE, Property.validate(Double.NaN, 1, "residence", "1"));
+
+        assertThrows(IllegalArgumentException.class, () -> property1.setPriceUsd(-5));
+        assertEquals(1, property1.getPriceHistory().size());
      }
 
     @Test
@@ -150,5 +158,51 @@ class PropertyTest
         });
         assertTrue(ex2.getMessage().equals("Invalid property id: 1234567"));
     }
+
+    @Test
+    void priceHistory()
+    {
+        Property property = new Property(100000, new Address(null, 1, "elm street", "90210", "la"), 2, false,
+                "residence", "ph1");
+        long     created  = property.getPriceHistory().getLastTime();
+
+        property.setPriceUsd(95000);
+        property.setPriceUsd(90000, created + 60000);
+
+        assertEquals(3, property.getPriceHistory().size());
+        assertEquals(95000, property.getPriceHistory().priceAt(created + 59999));
+        assertEquals(90000, property.getPriceHistory().priceAt(created + 60000));
+        assertEquals(90000, property.getPriceUsd());
+        assertThrows(IllegalArgumentException.class, () -> property.setPriceUsd(1, created));
+    }
+
+    @Test
+    void loadPastPriceChanges()
+    {
+        Property property = new Property(100000, new Address(null, 1, "elm street", "90210", "la"), 2, false,
+                "residence", "ph2", 1_600_000_000_000L);
+
+        property.setPriceUsd(95000, 1_610_000_000_000L);
+        property.setPriceUsd(99000, 1_620_000_000_000L);
+
+        assertEquals(3, property.getPriceHistory().size());
+        assertEquals(100000, property.getPriceHistory().getFirstPrice());
+        assertEquals(95000, property.getPriceHistory().priceAt(1_615_000_000_000L));
+        assertEquals(99000, property.getPriceUsd());
+    }
+
+    @Test
+    void validate()
+    {
+        assertNull(Property.validate(499000, 1, "ReSiDeNcE", "11111"));
+        assertNull(Property.validate(0, 20, new StringBuilder("retail"), new StringBuilder("x")));
+        assertEquals(ValidationError.INVALID_PRICE, Property.validate(-0.01, 1, "residence", "11111"));
+        assertEquals(ValidationError.INVALID_BEDROOMS, Property.validate(499000, 21, "residence", "11111"));
+        assertEquals(ValidationError.MISSING_TYPE, Property.validate(499000, 1, null, "11111"));
+        assertEquals(ValidationError.INVALID_TYPE, Property.validate(499000, 1, "residencee", "11111"));
+        assertEquals(ValidationError.INVALID_TYPE, Property.validate(499000, 1, "retaik", "11111"));
+        assertEquals(ValidationError.MISSING_ID, Property.validate(499000, 1, "retail", null));
+        assertEquals(ValidationError.INVALID_ID, Property.validate(499000, 1, "retail", "1234567"));
+    }
 }
 
@@ -0,0 +1,328 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a mergeable quantile sketch of prices with bounded relative error. Prices are counted
+ * in logarithmic buckets whose bounds grow by gamma = (1 + alpha) / (1 - alpha), so any quantile it returns
+ * is within alpha (1% by default) of the true price at that rank; prices below 1 USD are counted as 0.
+ * Because a bucket is only a counter, prices can be removed as well as added, and sketches with the same
+ * accuracy merge exactly by adding their counters. A sketch serializes to a few kilobytes at most.
+ */
+public class QuantileSketch
+{
+    private final double alpha;
+    private final double logGamma;
+    private long[]       counts;
+    private int          offset;
+    private long         zeroCount;
+    private long         count;
+
+    private static final double DEFAULT_ALPHA = 0.01;
+    private static final double MIN_INDEXABLE_USD = 1.0;
+    private static final int    MAGIC = 0x51534B54;
+    private static final byte   FORMAT_VERSION = 1;
+    private static final int    HEADER_BYTES = Integer.BYTES + 1 + Double.BYTES + Long.BYTES + 2 * Integer.BYTES;
+
+    /**
+     * Constructor, creates an empty sketch with a relative error of 1%.
+     */
+    public QuantileSketch()
+    {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * Constructor, creates an empty sketch.
+     * @param alpha The relative error of every quantile, between 0 and 1 exclusive.
+     * @throws IllegalArgumentException If alpha is out of range.
+     */
+    public QuantileSketch(final double alpha)
+    {
+        if(!(alpha > 0 && alpha < 1))
+        {
+            throw new IllegalArgumentException("Invalid alpha: " + alpha);
+        }
+
+        this.alpha    = alpha;
+        this.logGamma = Math.log((1 + alpha) / (1 - alpha));
+        this.counts   = new long[0];
+    }
+
+    /**
+     * This method counts one price.
+     * @param priceInUsd The price to be added, in USD, must not be negative.
+     * @throws IllegalArgumentException If the price is negative or not a number.
+     */
+    public void add(final double priceInUsd)
+    {
+        update(priceInUsd, 1);
+    }
+
+    /**
+     * This method uncounts one price that was added before.
+     * @param priceInUsd The price to be removed, in USD.
+     * @throws IllegalArgumentException If no price in its bucket was added.
+     */
+    public void remove(final double priceInUsd)
+    {
+        update(priceInUsd, -1);
+    }
+
+    /**
+     * This method adds the counts of another sketch with the same accuracy to this sketch.
+     * @param other The sketch to be merged in.
+     * @throws IllegalArgumentException If the other sketch has a different alpha.
+     */
+    public void merge(final QuantileSketch other)
+    {
+        if(other.alpha != alpha)
+        {
+            throw new IllegalArgumentException("Invalid alpha: " + other.alpha);
+        }
+
+        for(int i = 0; i < other.counts.length; i++)
+        {
+            if(other.counts[i] != 0)
+            {
+                int index;
+                index = other.offset + i;
+
+                ensureIndex(index);
+                counts[index - offset] += other.counts[i];
+            }
+        }
+
+        zeroCount += other.zeroCount;
+        count     += other.count;
+    }
+
+    /**
+     * @param q The quantile, from 0 (the lowest price) to 1 (the highest), such as 0.5 for the median.
+     * @return The price at the quantile, within alpha of the true price, or NaN if the sketch is empty.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double quantile(final double q)
+    {
+        long rank;
+        long seen;
+
+        if(!(q >= 0 && q <= 1))
+        {
+            throw new IllegalArgumentException("Invalid quantile: " + q);
+        }
+
+        if(count == 0)
+        {
+            return Double.NaN;
+        }
+
+        rank = (long) (q * (count - 1));
+        seen = zeroCount;
+
+        if(rank < seen)
+        {
+            return 0;
+        }
+
+        for(int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+
+            if(rank < seen)
+            {
+                return valueOf(offset + i);
+            }
+        }
+        return valueOf(offset + counts.length - 1);
+    }
+
+    /**
+     * @return The number of prices counted.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The relative error of every quantile.
+     */
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * @return An independent copy of this sketch.
+     */
+    public QuantileSketch copy()
+    {
+        QuantileSketch copy;
+        copy = new QuantileSketch(alpha);
+
+        copy.counts    = counts.clone();
+        copy.offset    = offset;
+        copy.zeroCount = zeroCount;
+        copy.count     = count;
+        return copy;
+    }
+
+    /**
+     * @return The sketch in binary form, for merging on another node.
+     */
+    public byte[] toBytes()
+    {
+        ByteBuffer buffer;
+        buffer = ByteBuffer.allocate(HEADER_BYTES + counts.length * Long.BYTES);
+
+        buffer.putInt(MAGIC);
+        buffer.put(FORMAT_VERSION);
+        buffer.putDouble(alpha);
+        buffer.putLong(zeroCount);
+        buffer.putInt(offset);
+        buffer.putInt(counts.length);
+
+        for(long bucketCount : counts)
+        {
+            buffer.putLong(bucketCount);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param bytes A sketch in the binary form of toBytes.
+     * @return The sketch.
+     * @throws IllegalArgumentException If the bytes are not a sketch.
+     */
+    public static QuantileSketch fromBytes(final byte[] bytes)
+    {
+        ByteBuffer     buffer;
+        QuantileSketch sketch;
+        int            length;
+
+        buffer = ByteBuffer.wrap(bytes);
+
+        try
+        {
+            if(buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION)
+            {
+                throw new IllegalArgumentException("Invalid sketch: bad header");
+            }
+
+            sketch           = new QuantileSketch(buffer.getDouble());
+            sketch.zeroCount = buffer.getLong();
+            sketch.offset    = buffer.getInt();
+            length           = buffer.getInt();
+
+            if(length < 0 || length != buffer.remaining() / Long.BYTES || buffer.remaining() % Long.BYTES != 0)
+            {
+                throw new IllegalArgumentException("Invalid sketch: length " + length);
+            }
+
+            sketch.counts = new long[length];
+            sketch.count  = sketch.zeroCount;
+
+            for(int i = 0; i < length; i++)
+            {
+                sketch.counts[i] = buffer.getLong();
+                sketch.count    += sketch.counts[i];
+            }
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Invalid sketch: truncated", e);
+        }
+        return sketch;
+    }
+
+    /**
+     * This method adds delta to the bucket of the price.
+     */
+    private void update(final double priceInUsd, final int delta)
+    {
+        if(!(priceInUsd >= 0))
+        {
+            throw new IllegalArgumentException("Invalid price: " + priceInUsd);
+        }
+
+        if(priceInUsd < MIN_INDEXABLE_USD)
+        {
+            if(zeroCount + delta < 0)
+            {
+                throw new IllegalArgumentException("Invalid price: " + priceInUsd + " was not added");
+            }
+            zeroCount += delta;
+        }
+        else
+        {
+            int index;
+            index = indexOf(priceInUsd);
+
+            if(delta < 0 && (index < offset || index >= offset + counts.length || counts[index - offset] == 0))
+            {
+                throw new IllegalArgumentException("Invalid price: " + priceInUsd + " was not added");
+            }
+
+            ensureIndex(index);
+            counts[index - offset] += delta;
+        }
+        count += delta;
+    }
+
+    /**
+     * This method grows the bucket array so that it covers the index.
+     */
+    private void ensureIndex(final int index)
+    {
+        if(counts.length == 0)
+        {
+            counts = new long[1];
+            offset = index;
+        }
+        else if(index < offset)
+        {
+            long[] grown;
+            grown = new long[counts.length + offset - index];
+
+            System.arraycopy(counts, 0, grown, offset - index, counts.length);
+            counts = grown;
+            offset = index;
+        }
+        else if(index >= offset + counts.length)
+        {
+            counts = Arrays.copyOf(counts, index - offset + 1);
+        }
+    }
+
+    /**
+     * @return The estimated bytes of the sketch and its counts, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        // the accuracy, its logarithm, a reference, the offset and two counts
+        return MemoryFootprint.object(2 * Double.BYTES + MemoryFootprint.REFERENCE + Integer.BYTES + 2 * Long.BYTES) +
+                MemoryFootprint.array(counts.length, Long.BYTES);
+    }
+
+    /**
+     * @return The bucket of the price: bucket i holds the prices in (gamma^(i-1), gamma^i].
+     */
+    private int indexOf(final double priceInUsd)
+    {
+        return (int) Math.ceil(Math.log(priceInUsd) / logGamma);
+    }
+
+    /**
+     * @return The price that represents the bucket, within alpha of every price in it.
+     */
+    private double valueOf(final int index)
+    {
+        double gamma;
+        gamma = Math.exp(logGamma);
+
+        return 2 * Math.exp(index * logGamma) / (gamma + 1);
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantileSketchTest
+{
+    private QuantileSketch sketch;
+    private double[] prices;
+
+    @BeforeEach
+    void setUp()
+    {
+        Random random = new Random(42);
+
+        sketch = new QuantileSketch();
+        prices = new double[10000];
+
+        for(int i = 0; i < prices.length; i++)
+        {
+            prices[i] = Math.exp(11 + random.nextGaussian() * 1.5);
+            sketch.add(prices[i]);
+        }
+        Arrays.sort(prices);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        sketch = null;
+        prices = null;
+    }
+
+    @Test
+    void boundedError()
+    {
+        for(double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1})
+        {
+            double exact = prices[(int) (q * (prices.length - 1))];
+
+            assertEquals(exact, sketch.quantile(q), exact * 0.01, "q=" + q);
+        }
+        assertEquals(10000, sketch.getCount());
+    }
+
+    @Test
+    void removeAndMerge()
+    {
+        QuantileSketch lower = new QuantileSketch();
+        QuantileSketch upper = new QuantileSketch();
+
+        for(int i = 0; i < prices.length; i++)
+        {
+            (i < prices.length / 2 ? lower : upper).add(prices[i]);
+        }
+        lower.merge(upper);
+        assertEquals(sketch.quantile(0.5), lower.quantile(0.5));
+
+        for(int i = prices.length / 2; i < prices.length; i++)
+        {
+            sketch.remove(prices[i]);
+        }
+        assertEquals(prices[prices.length / 2 - 1], sketch.quantile(1), prices[prices.length / 2 - 1] * 0.01);
+        assertThrows(IllegalArgumentException.class, () -> sketch.remove(prices[prices.length - 1] * 10));
+        assertThrows(IllegalArgumentException.class, () -> sketch.merge(new QuantileSketch(0.05)));
+    }
+
+    @Test
+    void serialize()
+    {
+        QuantileSketch copy = QuantileSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(sketch.getCount(), copy.getCount());
+        assertEquals(sketch.quantile(0.9), copy.quantile(0.9));
+        assertTrue(sketch.toBytes().length < 16 * 1024);
+        assertThrows(IllegalArgumentException.class,
+                () -> QuantileSketch.fromBytes(Arrays.copyOf(sketch.toBytes(), 30)));
+        assertThrows(IllegalArgumentException.class, () -> QuantileSketch.fromBytes(new byte[8]));
+    }
+
+    @Test
+    void edgeCases()
+    {
+        QuantileSketch empty = new QuantileSketch();
+
+        assertTrue(Double.isNaN(empty.quantile(0.5)));
+        assertThrows(IllegalArgumentException.class, () -> empty.quantile(1.5));
+        assertThrows(IllegalArgumentException.class, () -> empty.add(-1));
+        assertThrows(IllegalArgumentException.class, () -> new QuantileSketch(0));
+
+        empty.add(0);
+        empty.add(0.5);
+        assertEquals(0, empty.quantile(1));
+    }
+}
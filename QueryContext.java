@@ -0,0 +1,108 @@
+import java.util.concurrent.CancellationException;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the cancellation token and deadline of one query. A scan calls tick once per row;
+ * every CHECK_INTERVAL rows the token is checked, and a query that was cancelled or ran past its deadline
+ * aborts with a CancellationException, leaving the agency unchanged. A context belongs to one query:
+ * tick is called by the thread running it, while cancel may be called from any thread.
+ */
+public class QueryContext
+{
+    private final long       deadlineNanos;
+    private volatile boolean cancelled;
+    private int              rows;
+
+    /**
+     * The number of rows between two checks of the token.
+     */
+    public static final int CHECK_INTERVAL = 1024;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private QueryContext(final long deadlineNanos)
+    {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return A context without deadline, which only stops if cancelled.
+     */
+    public static QueryContext create()
+    {
+        return new QueryContext(NO_DEADLINE);
+    }
+
+    /**
+     * @param timeoutMillis How long the query may run, in milliseconds, not negative.
+     * @return A context whose deadline is that long from now.
+     * @throws IllegalArgumentException If the timeout is negative.
+     */
+    public static QueryContext withTimeout(final long timeoutMillis)
+    {
+        if(timeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid timeout: " + timeoutMillis);
+        }
+        return new QueryContext(System.nanoTime() + timeoutMillis * 1_000_000L);
+    }
+
+    /**
+     * This method asks the query to stop at its next check.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if the query was cancelled or is past its deadline, otherwise false.
+     */
+    public boolean isDone()
+    {
+        return cancelled || deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * @return The milliseconds left until the deadline, 0 if it has passed, or Long.MAX_VALUE if there is none.
+     */
+    public long getRemainingMillis()
+    {
+        if(deadlineNanos == NO_DEADLINE)
+        {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * This method counts one row, and checks the token every CHECK_INTERVAL rows.
+     * @throws CancellationException If the query was cancelled or is past its deadline.
+     */
+    public void tick()
+    {
+        if(++rows == CHECK_INTERVAL)
+        {
+            rows = 0;
+            check();
+        }
+    }
+
+    /**
+     * This method checks the token now.
+     * @throws CancellationException If the query was cancelled or is past its deadline.
+     */
+    public void check()
+    {
+        if(cancelled)
+        {
+            throw new CancellationException("Query cancelled");
+        }
+
+        if(deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos > 0)
+        {
+            throw new CancellationException("Query deadline exceeded");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryContextTest
+{
+    private Agency agency;
+
+    @BeforeEach
+    void setUp()
+    {
+        agency = new Agency("Context Ltd");
+
+        for(int i = 0; i < 5000; i++)
+        {
+            Address address = new Address(null, 1 + i, "main street", "v7r2g2", "surrey");
+
+            agency.addProperty(new Property(1000.0 * (i + 1), address, 1 + i % 5, false, "residence", "p" + i));
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        agency = null;
+    }
+
+    @Test
+    void cancelledScanAborts()
+    {
+        QueryContext context = QueryContext.create();
+        int[]        visited = new int[1];
+
+        CancellationException ex = assertThrows(CancellationException.class,
+                () -> agency.getPropertiesMatching(property -> {
+                    if(++visited[0] == 10)
+                    {
+                        context.cancel();
+                    }
+                    return true;
+                }, context));
+
+        assertEquals("Query cancelled", ex.getMessage());
+        assertEquals(QueryContext.CHECK_INTERVAL - 1, visited[0]);
+        assertTrue(context.isDone());
+    }
+
+    @Test
+    void deadline() throws InterruptedException
+    {
+        QueryContext expired = QueryContext.withTimeout(0);
+
+        Thread.sleep(2);
+        assertTrue(expired.isDone());
+        assertEquals(0, expired.getRemainingMillis());
+        assertThrows(CancellationException.class, () -> agency.getPropertiesOfType("residence", expired));
+        assertThrows(CancellationException.class,
+                () -> agency.getProperties(new ListingQuery().ofType("residence"), expired));
+        assertThrows(IllegalArgumentException.class, () -> QueryContext.withTimeout(-1));
+    }
+
+    @Test
+    void generousDeadline()
+    {
+        QueryContext context = QueryContext.withTimeout(60000);
+
+        assertEquals(5001, agency.getPropertiesOfType("RESIDENCE", context).size());
+        assertEquals(5000, agency.getProperties(new ListingQuery().bedroomsBetween(1, 5), context).size());
+        assertFalse(context.isDone());
+        assertEquals(Long.MAX_VALUE, QueryContext.create().getRemainingMillis());
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Map;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the plan the query planner chose for a ListingQuery: the access path that produces
+ * candidate properties, its estimated row count and cost, and the estimated cost of every alternative.
+ * The criteria not answered by the access path are applied as residual filters to each candidate.
+ */
+public class QueryPlan
+{
+    private final ListingQuery        query;
+    private final Access              access;
+    private final double              estimatedRows;
+    private final double              cost;
+    private final Map<Access, Double> alternatives;
+
+    /**
+     * The ways candidate properties can be produced.
+     */
+    public enum Access
+    {
+        FULL_SCAN,
+        PRICE_INDEX,
+        BEDROOM_INDEX,
+        TYPE_INDEX,
+        STREET_INDEX
+    }
+
+    /**
+     * Constructor, creates a plan.
+     * @param query The query the plan answers.
+     * @param access The chosen access path.
+     * @param estimatedRows The estimated number of candidates the access path produces.
+     * @param cost The estimated cost of the chosen access path.
+     * @param alternatives The estimated cost of every access path considered, including the chosen one.
+     */
+    QueryPlan(final ListingQuery query, final Access access, final double estimatedRows, final double cost,
+              final Map<Access, Double> alternatives)
+    {
+        this.query         = query;
+        this.access        = access;
+        this.estimatedRows = estimatedRows;
+        this.cost          = cost;
+        this.alternatives  = alternatives;
+    }
+
+    /**
+     * @return The query the plan answers.
+     */
+    public ListingQuery getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * @return The chosen access path.
+     */
+    public Access getAccess()
+    {
+        return access;
+    }
+
+    /**
+     * @return The estimated number of candidates the access path produces.
+     */
+    public double getEstimatedRows()
+    {
+        return estimatedRows;
+    }
+
+    /**
+     * @return The estimated cost of the chosen access path.
+     */
+    public double getCost()
+    {
+        return cost;
+    }
+
+    /**
+     * @return A readable description of the plan, such as
+     * "BEDROOM_INDEX rows=4 cost=8.0 residual=[price 0.0..900000.0] alternatives={FULL_SCAN=12.0, ...}".
+     */
+    public String explain()
+    {
+        return String.format("%s rows=%.0f cost=%.1f residual=[%s] alternatives=%s",
+                access, estimatedRows, cost, query.describe(access), alternatives);
+    }
+
+    @Override
+    public String toString()
+    {
+        return explain();
+    }
+}
@@ -0,0 +1,617 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the cost-based planner of an Agency. It maintains the secondary indexes a composite
+ * query can start from (price, bedroom buckets, type partitions, street buckets) together with their
+ * cardinality statistics: per-bedroom counts, a log-scale price histogram and the distinct street count.
+ * For a ListingQuery it estimates how many candidates each access path yields, picks the cheapest path
+ * (a full scan when the predicate is broad) and applies the other criteria as residual filters. Each
+ * posting list is an open-addressing set of the listings hashed by identity, a Property array with linear
+ * probing, so a listing costs a few references per index rather than a HashMap entry each. The price index
+ * still keeps one tree entry and boxed key per distinct price, as a sorted primitive array would make every
+ * re-price a linear shift.
+ */
+public class QueryPlanner
+{
+    private final Agency                           agency;
+    private final List<Postings>                   bedroomBuckets;
+    private final Map<String, Postings>            typePartitions;
+    private final Map<String, Postings>            streetBuckets;
+    private final NavigableMap<Double, Postings>   priceIndex;
+    private final long[]                           priceHistogram;
+    private int                                    count;
+
+    private static final int    MAX_BEDROOMS = 20;
+    private static final int    HISTOGRAM_BUCKETS_PER_DOUBLING = 4;
+    private static final int    HISTOGRAM_BUCKETS = 2 + 64 * HISTOGRAM_BUCKETS_PER_DOUBLING;
+    private static final double SCAN_ROW_COST = 1.0;
+    private static final double INDEX_ROW_COST = 2.0;
+    private static final double INDEX_LOOKUP_COST = 4.0;
+    private static final long   HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Constructor, creates an empty planner for the agency.
+     * @param agency The agency whose listings a full scan visits.
+     */
+    QueryPlanner(final Agency agency)
+    {
+        this.agency         = agency;
+        this.bedroomBuckets = new ArrayList<>(MAX_BEDROOMS + 1);
+        this.typePartitions = new HashMap<>();
+        this.streetBuckets  = new HashMap<>();
+        this.priceIndex     = new TreeMap<>();
+        this.priceHistogram = new long[HISTOGRAM_BUCKETS];
+
+        for(int i = 0; i <= MAX_BEDROOMS; i++)
+        {
+            bedroomBuckets.add(new Postings());
+        }
+    }
+
+    /**
+     * This method adds the property to every index and statistic.
+     * @param property The property to be added.
+     */
+    public void add(final Property property)
+    {
+        bedroomBuckets.get(property.getNumberOfBedrooms()).add(property);
+        typePartitions.computeIfAbsent(property.getType().toLowerCase(), k -> new Postings()).add(property);
+        streetBuckets.computeIfAbsent(property.getAddress().getStreetName().toLowerCase(),
+                k -> new Postings()).add(property);
+        addPrice(property, property.getPriceUsd());
+        count++;
+    }
+
+    /**
+     * This method removes the property from every index and statistic.
+     * @param property The property to be removed.
+     */
+    public void remove(final Property property)
+    {
+        bedroomBuckets.get(property.getNumberOfBedrooms()).remove(property);
+        removeFrom(typePartitions, property.getType().toLowerCase(), property);
+        removeFrom(streetBuckets, property.getAddress().getStreetName().toLowerCase(), property);
+        removePrice(property, property.getPriceUsd());
+        count--;
+    }
+
+    /**
+     * This method moves the property from its old price to its current price.
+     * @param property The re-priced property.
+     * @param oldPriceInUsd The price before the change, in USD.
+     */
+    public void priceChanged(final Property property, final double oldPriceInUsd)
+    {
+        removePrice(property, oldPriceInUsd);
+        addPrice(property, property.getPriceUsd());
+    }
+
+    /**
+     * @param numOfBedrooms The number of bedrooms.
+     * @return The number of properties with exactly that many bedrooms.
+     */
+    public int getBedroomCount(final int numOfBedrooms)
+    {
+        if(numOfBedrooms < 0 || numOfBedrooms > MAX_BEDROOMS)
+        {
+            return 0;
+        }
+        return bedroomBuckets.get(numOfBedrooms).size();
+    }
+
+    /**
+     * @return The number of distinct street names, ignoring case.
+     */
+    public int getDistinctStreetCount()
+    {
+        return streetBuckets.size();
+    }
+
+    /**
+     * @param minUsd The minimum price, inclusive.
+     * @param maxUsd The maximum price, inclusive.
+     * @return The estimated number of properties in the price range, from the price histogram.
+     */
+    public double estimatePriceRange(final double minUsd, final double maxUsd)
+    {
+        double estimate;
+        estimate = 0;
+
+        if(minUsd > maxUsd)
+        {
+            return 0;
+        }
+
+        for(int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++)
+        {
+            if(priceHistogram[bucket] != 0)
+            {
+                double low;
+                double high;
+                double overlap;
+
+                low     = bucketLow(bucket);
+                high    = bucketLow(bucket + 1);
+                overlap = Math.min(high, maxUsd) - Math.max(low, minUsd);
+
+                if(overlap >= 0)
+                {
+                    // assume prices are spread evenly inside a bucket; a point range still counts a share
+                    estimate += priceHistogram[bucket] * Math.max(overlap, Math.ulp(high)) / (high - low);
+                }
+            }
+        }
+        return Math.min(estimate, count);
+    }
+
+    /**
+     * @param query The query to be planned.
+     * @return The cheapest plan for the query among the access paths its criteria allow.
+     */
+    public QueryPlan plan(final ListingQuery query)
+    {
+        Map<QueryPlan.Access, Double> costs;
+        Map<QueryPlan.Access, Double> rows;
+        QueryPlan.Access              best;
+
+        costs = new EnumMap<>(QueryPlan.Access.class);
+        rows  = new EnumMap<>(QueryPlan.Access.class);
+
+        rows.put(QueryPlan.Access.FULL_SCAN, (double) count);
+        costs.put(QueryPlan.Access.FULL_SCAN, count * SCAN_ROW_COST);
+
+        if(query.hasPriceRange())
+        {
+            consider(costs, rows, QueryPlan.Access.PRICE_INDEX,
+                    estimatePriceRange(query.getMinUsd(), query.getMaxUsd()));
+        }
+
+        if(query.hasBedroomRange())
+        {
+            long bedroomRows;
+            bedroomRows = 0;
+
+            for(int i = Math.max(0, query.getMinBedrooms()); i <= Math.min(MAX_BEDROOMS, query.getMaxBedrooms()); i++)
+            {
+                bedroomRows += bedroomBuckets.get(i).size();
+            }
+            consider(costs, rows, QueryPlan.Access.BEDROOM_INDEX, bedroomRows);
+        }
+
+        if(query.getType() != null)
+        {
+            consider(costs, rows, QueryPlan.Access.TYPE_INDEX,
+                    sizeOf(typePartitions.get(query.getType().toLowerCase())));
+        }
+
+        if(query.getStreetName() != null)
+        {
+            consider(costs, rows, QueryPlan.Access.STREET_INDEX,
+                    sizeOf(streetBuckets.get(query.getStreetName().toLowerCase())));
+        }
+
+        best = QueryPlan.Access.FULL_SCAN;
+
+        for(Map.Entry<QueryPlan.Access, Double> entry : costs.entrySet())
+        {
+            if(entry.getValue() < costs.get(best))
+            {
+                best = entry.getKey();
+            }
+        }
+        return new QueryPlan(query, best, rows.get(best), costs.get(best), costs);
+    }
+
+    /**
+     * @param plan The plan to be run.
+     * @return An ArrayList of the properties matching the plan's query, or null if there are none.
+     */
+    public ArrayList<Property> execute(final QueryPlan plan)
+    {
+        return execute(plan, QueryContext.create());
+    }
+
+    /**
+     * @param plan The plan to be run.
+     * @param context The cancellation token and deadline of the query, ticked once per candidate.
+     * @return An ArrayList of the properties matching the plan's query, or null if there are none.
+     * @throws java.util.concurrent.CancellationException If the query is cancelled or runs past its deadline.
+     */
+    public ArrayList<Property> execute(final QueryPlan plan, final QueryContext context)
+    {
+        ListingQuery              query;
+        List<Predicate<Property>> residual;
+        ArrayList<Property>       matches;
+
+        query    = plan.getQuery();
+        residual = query.residualFilters(plan.getAccess());
+        matches  = new ArrayList<>();
+
+        switch(plan.getAccess())
+        {
+            case PRICE_INDEX:
+                if(query.getMinUsd() <= query.getMaxUsd())
+                {
+                    for(Postings bucket : priceIndex.subMap(query.getMinUsd(), true,
+                            query.getMaxUsd(), true).values())
+                    {
+                        collect(bucket, residual, matches, context);
+                    }
+                }
+                break;
+            case BEDROOM_INDEX:
+                for(int i = Math.max(0, query.getMinBedrooms());
+                    i <= Math.min(MAX_BEDROOMS, query.getMaxBedrooms()); i++)
+                {
+                    collect(bedroomBuckets.get(i), residual, matches, context);
+                }
+                break;
+            case TYPE_INDEX:
+                collect(typePartitions.get(query.getType().toLowerCase()), residual, matches, context);
+                break;
+            case STREET_INDEX:
+                collect(streetBuckets.get(query.getStreetName().toLowerCase()), residual, matches, context);
+                break;
+            default:
+                agency.forEachProperty(property -> {
+                    context.tick();
+
+                    if(passes(property, residual))
+                    {
+                        matches.add(property);
+                    }
+                });
+                break;
+        }
+
+        if(matches.size() == 0)
+        {
+            return null;
+        }
+        return matches;
+    }
+
+    /**
+     * This method records the cost of an index access path yielding the estimated rows.
+     */
+    private static void consider(final Map<QueryPlan.Access, Double> costs, final Map<QueryPlan.Access, Double> rows,
+                                 final QueryPlan.Access access, final double estimatedRows)
+    {
+        rows.put(access, estimatedRows);
+        costs.put(access, INDEX_LOOKUP_COST + estimatedRows * INDEX_ROW_COST);
+    }
+
+    /**
+     * This method adds the candidates that pass every residual filter to the matches.
+     */
+    private static void collect(final Postings candidates, final List<Predicate<Property>> residual,
+                                final ArrayList<Property> matches, final QueryContext context)
+    {
+        if(candidates == null)
+        {
+            return;
+        }
+
+        for(Property property : candidates)
+        {
+            context.tick();
+
+            if(passes(property, residual))
+            {
+                matches.add(property);
+            }
+        }
+    }
+
+    /**
+     * @return True if the property passes every filter, otherwise false.
+     */
+    private static boolean passes(final Property property, final List<Predicate<Property>> filters)
+    {
+        for(Predicate<Property> filter : filters)
+        {
+            if(!filter.test(property))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addPrice(final Property property, final double priceInUsd)
+    {
+        priceIndex.computeIfAbsent(priceInUsd, k -> new Postings()).add(property);
+        priceHistogram[bucketOf(priceInUsd)]++;
+    }
+
+    private void removePrice(final Property property, final double priceInUsd)
+    {
+        Postings bucket;
+        bucket = priceIndex.get(priceInUsd);
+
+        if(bucket != null && bucket.remove(property))
+        {
+            priceHistogram[bucketOf(priceInUsd)]--;
+
+            if(bucket.isEmpty())
+            {
+                priceIndex.remove(priceInUsd);
+            }
+        }
+    }
+
+    private static void removeFrom(final Map<String, Postings> buckets, final String key, final Property property)
+    {
+        Postings bucket;
+        bucket = buckets.get(key);
+
+        if(bucket != null)
+        {
+            bucket.remove(property);
+
+            if(bucket.isEmpty())
+            {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    private static int sizeOf(final Postings bucket)
+    {
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    /**
+     * @return The histogram bucket of the price: bucket 0 holds prices below 1, and each later bucket a
+     * quarter of a doubling.
+     */
+    private static int bucketOf(final double priceInUsd)
+    {
+        if(!(priceInUsd >= 1))
+        {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 2,
+                1 + (int) (Math.log(priceInUsd) / Math.log(2) * HISTOGRAM_BUCKETS_PER_DOUBLING));
+    }
+
+    /**
+     * @return The lowest price of the histogram bucket.
+     */
+    private static double bucketLow(final int bucket)
+    {
+        if(bucket == 0)
+        {
+            return 0;
+        }
+        return Math.pow(2, (double) (bucket - 1) / HISTOGRAM_BUCKETS_PER_DOUBLING);
+    }
+
+    /**
+     * @return The estimated bytes of the indexes and the histogram, without the listings, see MemoryFootprint.
+     * A bucket key is counted unless it is the street name of a listing in the bucket.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        // six references and the count
+        bytes = MemoryFootprint.object(6 * MemoryFootprint.REFERENCE + Integer.BYTES) +
+                MemoryFootprint.arrayList(bedroomBuckets.size()) +
+                MemoryFootprint.array(priceHistogram.length, Long.BYTES) +
+                MemoryFootprint.hashMap(typePartitions.size()) +
+                MemoryFootprint.hashMap(streetBuckets.size()) +
+                MemoryFootprint.treeMap(priceIndex.size());
+
+        for(Postings bucket : bedroomBuckets)
+        {
+            bytes += bucket.estimateBytes();
+        }
+
+        for(Postings partition : typePartitions.values())
+        {
+            bytes += partition.estimateBytes();
+        }
+
+        for(Map.Entry<String, Postings> bucket : streetBuckets.entrySet())
+        {
+            bytes += bucket.getValue().estimateBytes();
+
+            if(bucket.getValue().iterator().next().getAddress().getStreetName() != bucket.getKey())
+            {
+                bytes += MemoryFootprint.string(bucket.getKey());
+            }
+        }
+
+        for(Postings bucket : priceIndex.values())
+        {
+            bytes += MemoryFootprint.boxedLong() + bucket.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The listings of one index key: an open-addressing set of Property hashed by identity, kept at most
+     * half full, with linear probing and backward-shift deletion as in PropertyIdMap.
+     */
+    private static final class Postings implements Iterable<Property>
+    {
+        private Property[] slots;
+        private int        mask;
+        private int        size;
+
+        private static final int DEFAULT_CAPACITY = 2;
+
+        Postings()
+        {
+            slots = new Property[DEFAULT_CAPACITY];
+            mask  = DEFAULT_CAPACITY - 1;
+        }
+
+        void add(final Property property)
+        {
+            int slot;
+
+            for(slot = slotOf(property); slots[slot] != null; slot = (slot + 1) & mask)
+            {
+                if(slots[slot] == property)
+                {
+                    return;
+                }
+            }
+
+            slots[slot] = property;
+            size++;
+
+            if(size * 2 > slots.length)
+            {
+                resize(slots.length * 2);
+            }
+        }
+
+        boolean remove(final Property property)
+        {
+            for(int slot = slotOf(property); slots[slot] != null; slot = (slot + 1) & mask)
+            {
+                if(slots[slot] == property)
+                {
+                    deleteSlot(slot);
+                    size--;
+
+                    // shrink once an eighth full, so a bucket emptied by demotions gives its table back
+                    if(size * 8 < slots.length && slots.length > DEFAULT_CAPACITY)
+                    {
+                        resize(slots.length / 2);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        @Override
+        public Iterator<Property> iterator()
+        {
+            return new Iterator<Property>()
+            {
+                private int slot = nextSlot(0);
+
+                @Override
+                public boolean hasNext()
+                {
+                    return slot < slots.length;
+                }
+
+                @Override
+                public Property next()
+                {
+                    Property property;
+
+                    if(slot >= slots.length)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    property = slots[slot];
+                    slot     = nextSlot(slot + 1);
+                    return property;
+                }
+            };
+        }
+
+        /**
+         * @return The estimated bytes of the set, without the listings, see MemoryFootprint.
+         */
+        long estimateBytes()
+        {
+            // one reference and two ints
+            return MemoryFootprint.object(MemoryFootprint.REFERENCE + 2 * Integer.BYTES) +
+                    MemoryFootprint.array(slots.length, MemoryFootprint.REFERENCE);
+        }
+
+        private int nextSlot(final int from)
+        {
+            int slot;
+            slot = from;
+
+            while(slot < slots.length && slots[slot] == null)
+            {
+                slot++;
+            }
+            return slot;
+        }
+
+        private int slotOf(final Property property)
+        {
+            return (int) ((System.identityHashCode(property) * HASH_MULTIPLIER) >>> 32) & mask;
+        }
+
+        private void deleteSlot(final int slot)
+        {
+            int gap;
+            int next;
+
+            gap  = slot;
+            next = (slot + 1) & mask;
+
+            while(slots[next] != null)
+            {
+                int home;
+                home = slotOf(slots[next]);
+
+                // move the entry into the gap unless its home lies cyclically in (gap, next]
+                if(((next - home) & mask) >= ((next - gap) & mask))
+                {
+                    slots[gap] = slots[next];
+                    gap        = next;
+                }
+                next = (next + 1) & mask;
+            }
+            slots[gap] = null;
+        }
+
+        private void resize(final int capacity)
+        {
+            Property[] old;
+
+            old   = slots;
+            slots = new Property[capacity];
+            mask  = capacity - 1;
+
+            for(Property property : old)
+            {
+                if(property != null)
+                {
+                    int slot;
+                    slot = slotOf(property);
+
+                    while(slots[slot] != null)
+                    {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = property;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryPlannerTest
+{
+    private Agency agency;
+    private Property[] properties;
+
+    @BeforeEach
+    void setUp()
+    {
+        agency     = new Agency("Planner Ltd");
+        properties = new Property[1000];
+
+        for(int i = 0; i < properties.length; i++)
+        {
+            Address address = new Address(null, 1 + i, "street " + (i % 100), "v7n2m8", "surrey");
+
+            properties[i] = new Property(100000.0 + i * 1000.0, address, 1 + i % 4, i % 10 == 0,
+                    i % 2 == 0 ? "residence" : "retail", "p" + i);
+            agency.addProperty(properties[i]);
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        agency     = null;
+        properties = null;
+    }
+
+    @Test
+    void choosesSelectivePath()
+    {
+        QueryPlan narrowPrice = agency.plan(new ListingQuery().priceBetween(100000, 110000).ofType("residence"));
+        QueryPlan street      = agency.plan(new ListingQuery().onStreet("street 7").bedroomsBetween(1, 4));
+
+        assertEquals(QueryPlan.Access.PRICE_INDEX, narrowPrice.getAccess());
+        assertEquals(QueryPlan.Access.STREET_INDEX, street.getAccess());
+        assertEquals(10, street.getEstimatedRows());
+    }
+
+    @Test
+    void broadPredicateScans()
+    {
+        QueryPlan broad = agency.plan(new ListingQuery().priceBetween(0, 10000000).ofType("retail"));
+
+        assertEquals(QueryPlan.Access.FULL_SCAN, broad.getAccess());
+        assertEquals(1000, broad.getCost());
+        assertEquals(QueryPlan.Access.FULL_SCAN, agency.plan(new ListingQuery()).getAccess());
+    }
+
+    @Test
+    void priceEstimate()
+    {
+        QueryPlanner planner = new QueryPlanner(agency);
+
+        for(Property property : properties)
+        {
+            planner.add(property);
+        }
+
+        double estimate = planner.estimatePriceRange(200000, 400000);
+
+        assertTrue(estimate > 150 && estimate < 250, "estimate " + estimate);
+        assertEquals(0, planner.estimatePriceRange(5, 1));
+        assertEquals(100, planner.getDistinctStreetCount());
+        assertEquals(250, planner.getBedroomCount(2));
+        assertEquals(0, planner.getBedroomCount(21));
+    }
+
+    @Test
+    void samePathsSameResults()
+    {
+        ListingQuery[] queries = {
+                new ListingQuery().priceBetween(150000, 160000),
+                new ListingQuery().priceBetween(150000, 600000).bedroomsBetween(2, 2).withPool(),
+                new ListingQuery().onStreet("STREET 42").ofType("residence"),
+                new ListingQuery().ofType("retail").priceBetween(0, 120000),
+        };
+
+        for(ListingQuery query : queries)
+        {
+            ArrayList<Property> planned  = agency.getProperties(query);
+            ArrayList<Property> scanned  = agency.getPropertiesMatching(property -> {
+                for(java.util.function.Predicate<Property> filter : query.residualFilters(null))
+                {
+                    if(!filter.test(property))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            });
+
+            assertEquals(scanned == null ? 0 : scanned.size(), planned == null ? 0 : planned.size(), query.toString());
+            if(planned != null)
+            {
+                assertTrue(scanned.containsAll(planned));
+            }
+        }
+    }
+
+    @Test
+    void followsRemovals()
+    {
+        for(int i = 0; i < properties.length; i++)
+        {
+            if(i % 100 != 7)
+            {
+                agency.removeProperty("p" + i);
+            }
+        }
+
+        assertEquals(10, agency.getProperties(new ListingQuery().onStreet("street 7")).size());
+        assertNull(agency.getProperties(new ListingQuery().onStreet("street 8")));
+        assertEquals(10, agency.getProperties(new ListingQuery().ofType("retail").bedroomsBetween(4, 4)).size());
+        assertEquals(1, agency.getProperties(new ListingQuery().priceBetween(107000, 107000)).size());
+        assertEquals(0, agency.plan(new ListingQuery().bedroomsBetween(1, 3)).getEstimatedRows());
+    }
+
+    @Test
+    void followsPriceChanges()
+    {
+        ListingQuery cheap = new ListingQuery().priceBetween(0, 50000);
+
+        assertNull(agency.getProperties(cheap));
+
+        properties[500].setPriceUsd(1000);
+        agency.removeProperty("p1");
+
+        assertEquals(QueryPlan.Access.PRICE_INDEX, agency.plan(cheap).getAccess());
+        assertSame(properties[500], agency.getProperties(cheap).get(0));
+        assertNull(agency.getProperties(new ListingQuery().priceBetween(101000, 101000)));
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the range filter kernel run over the price and bedroom columns of an Agency.
+ * A kernel evaluates a range predicate over a whole column into a match bitmask (bit i of word i / 64 is
+ * set when row i matches), and compact turns a bitmask into the matching row ordinals.
+ * This base class is the portable scalar kernel; create returns the Vector API kernel when the
+ * jdk.incubator.vector module is available and falls back to this one otherwise.
+ */
+public class RangeFilterKernel
+{
+    private static final String VECTOR_KERNEL_CLASS = "VectorRangeFilterKernel";
+
+    /**
+     * Constructor, creates the scalar kernel.
+     */
+    RangeFilterKernel()
+    {
+    }
+
+    /**
+     * @return The vectorized kernel if the jdk.incubator.vector module is available, otherwise the scalar kernel.
+     */
+    static RangeFilterKernel create()
+    {
+        try
+        {
+            return (RangeFilterKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError e)
+        {
+            return new RangeFilterKernel();
+        }
+    }
+
+    /**
+     * @return True if the kernel uses the Vector API, otherwise false.
+     */
+    public boolean isVectorized()
+    {
+        return false;
+    }
+
+    /**
+     * @param prices The price column.
+     * @param size The number of rows in use.
+     * @param minUsd The minimum price, inclusive.
+     * @param maxUsd The maximum price, inclusive.
+     * @return The bitmask of the rows whose price falls in the range.
+     */
+    public long[] priceMask(final double[] prices, final int size, final double minUsd, final double maxUsd)
+    {
+        long[] mask;
+        mask = new long[words(size)];
+
+        for(int i = 0; i < size; i++)
+        {
+            // branch-free: the comparison result becomes the bit
+            mask[i >>> 6] |= (prices[i] >= minUsd & prices[i] <= maxUsd ? 1L : 0L) << i;
+        }
+        return mask;
+    }
+
+    /**
+     * @param bedrooms The bedroom column.
+     * @param size The number of rows in use.
+     * @param minBedrooms The minimum number of bedrooms, inclusive.
+     * @param maxBedrooms The maximum number of bedrooms, inclusive.
+     * @return The bitmask of the rows whose number of bedrooms falls in the range.
+     */
+    public long[] bedroomMask(final byte[] bedrooms, final int size, final int minBedrooms, final int maxBedrooms)
+    {
+        long[] mask;
+        mask = new long[words(size)];
+
+        for(int i = 0; i < size; i++)
+        {
+            mask[i >>> 6] |= (bedrooms[i] >= minBedrooms & bedrooms[i] <= maxBedrooms ? 1L : 0L) << i;
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask The bitmask to be compacted.
+     * @return The ordinals of the set bits, ascending.
+     */
+    public static int[] compact(final long[] mask)
+    {
+        int[] ordinals;
+        int   count;
+        int   next;
+
+        count = 0;
+        for(long word : mask)
+        {
+            count += Long.bitCount(word);
+        }
+
+        ordinals = new int[count];
+        next     = 0;
+
+        for(int w = 0; w < mask.length; w++)
+        {
+            long word;
+            word = mask[w];
+
+            while(word != 0)
+            {
+                ordinals[next++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * This method intersects the second bitmask into the first.
+     * @param mask The bitmask to be narrowed.
+     * @param other The bitmask to be intersected in, of the same length.
+     * @return The first bitmask.
+     */
+    public static long[] and(final long[] mask, final long[] other)
+    {
+        for(int w = 0; w < mask.length; w++)
+        {
+            mask[w] &= other[w];
+        }
+        return mask;
+    }
+
+    /**
+     * @param size The number of rows.
+     * @return The number of 64-bit words a bitmask of the rows needs.
+     */
+    static int words(final int size)
+    {
+        return (size + 63) >>> 6;
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeFilterKernelTest
+{
+    private RangeFilterKernel scalar;
+    private RangeFilterKernel best;
+    private double[] prices;
+    private byte[] bedrooms;
+
+    @BeforeEach
+    void setUp()
+    {
+        Random random = new Random(7);
+
+        scalar   = new RangeFilterKernel();
+        best     = RangeFilterKernel.create();
+        prices   = new double[1003];
+        bedrooms = new byte[1003];
+
+        for(int i = 0; i < prices.length; i++)
+        {
+            prices[i]   = random.nextInt(1000) * 1000.0;
+            bedrooms[i] = (byte) (1 + random.nextInt(20));
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        scalar   = null;
+        best     = null;
+        prices   = null;
+        bedrooms = null;
+    }
+
+    @Test
+    void priceMask()
+    {
+        long[] mask = scalar.priceMask(prices, prices.length, 200000, 300000);
+
+        for(int i = 0; i < prices.length; i++)
+        {
+            boolean expected = prices[i] >= 200000 && prices[i] <= 300000;
+            assertEquals(expected, (mask[i >>> 6] & (1L << i)) != 0);
+        }
+
+        assertArrayEquals(mask, best.priceMask(prices, prices.length, 200000, 300000));
+        assertArrayEquals(scalar.priceMask(prices, 70, 0, 1e9), best.priceMask(prices, 70, 0, 1e9));
+    }
+
+    @Test
+    void bedroomMask()
+    {
+        long[] mask = scalar.bedroomMask(bedrooms, bedrooms.length, 4, 12);
+
+        for(int i = 0; i < bedrooms.length; i++)
+        {
+            boolean expected = bedrooms[i] >= 4 && bedrooms[i] <= 12;
+            assertEquals(expected, (mask[i >>> 6] & (1L << i)) != 0);
+        }
+
+        assertArrayEquals(mask, best.bedroomMask(bedrooms, bedrooms.length, 4, 12));
+        assertArrayEquals(scalar.bedroomMask(bedrooms, bedrooms.length, -5, 500),
+                best.bedroomMask(bedrooms, bedrooms.length, -5, 500));
+        assertArrayEquals(scalar.bedroomMask(bedrooms, bedrooms.length, 300, 500),
+                best.bedroomMask(bedrooms, bedrooms.length, 300, 500));
+    }
+
+    @Test
+    void compact()
+    {
+        assertArrayEquals(new int[]{0, 3, 63, 64, 129}, RangeFilterKernel.compact(new long[]{
+                1L | 1L << 3 | 1L << 63, 1L, 1L << 1}));
+        assertArrayEquals(new int[0], RangeFilterKernel.compact(new long[2]));
+    }
+
+    @Test
+    void and()
+    {
+        assertArrayEquals(new long[]{2L, 0L}, RangeFilterKernel.and(new long[]{3L, 1L}, new long[]{6L, 2L}));
+    }
+}
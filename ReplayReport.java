@@ -0,0 +1,207 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the outcome of replaying a workload trace: the number of calls, errors and returned
+ * rows, the throughput, and the latency distribution of every call and of each kind of call. Latencies are
+ * kept in quantile sketches, so every quantile is within 1% of the measured latency at its rank however
+ * long the trace is.
+ */
+public class ReplayReport
+{
+    private final WorkloadReplayer.Mode                      mode;
+    private final QuantileSketch                             latencies;
+    private final Map<WorkloadRecorder.Call, QuantileSketch> callLatencies;
+    private final Map<WorkloadRecorder.Call, Long>           callErrors;
+    private long                                             errorCount;
+    private long                                             rowCount;
+    private long                                             elapsedNanos;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    /**
+     * Constructor, creates an empty report.
+     * @param mode How the replayed calls were paced.
+     */
+    ReplayReport(final WorkloadReplayer.Mode mode)
+    {
+        this.mode          = mode;
+        this.latencies     = new QuantileSketch();
+        this.callLatencies = new EnumMap<>(WorkloadRecorder.Call.class);
+        this.callErrors    = new EnumMap<>(WorkloadRecorder.Call.class);
+    }
+
+    /**
+     * This method counts one replayed call.
+     * @param call The call.
+     * @param latencyNanos The latency of the call, in nanoseconds.
+     * @param rows The number of rows the call returned.
+     * @param failed Whether the call threw.
+     */
+    void add(final WorkloadRecorder.Call call, final long latencyNanos, final long rows, final boolean failed)
+    {
+        long latency;
+        latency = Math.max(0, latencyNanos);
+
+        latencies.add(latency);
+        callLatencies.computeIfAbsent(call, key -> new QuantileSketch()).add(latency);
+        rowCount += rows;
+
+        if(failed)
+        {
+            callErrors.merge(call, 1L, Long::sum);
+            errorCount++;
+        }
+    }
+
+    /**
+     * This method records the wall-clock time of the whole replay.
+     * @param elapsedNanos The time from the start of the replay to the end of its last call, in nanoseconds.
+     */
+    void finish(final long elapsedNanos)
+    {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return How the replayed calls were paced.
+     */
+    public WorkloadReplayer.Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * @return The number of replayed calls.
+     */
+    public long getCount()
+    {
+        return latencies.getCount();
+    }
+
+    /**
+     * @param call The call to be counted, cannot be null.
+     * @return The number of times the call was replayed.
+     */
+    public long getCount(final WorkloadRecorder.Call call)
+    {
+        QuantileSketch sketch;
+        sketch = sketchOf(call);
+
+        return sketch == null ? 0 : sketch.getCount();
+    }
+
+    /**
+     * @return The number of replayed calls that threw.
+     */
+    public long getErrorCount()
+    {
+        return errorCount;
+    }
+
+    /**
+     * @param call The call to be counted, cannot be null.
+     * @return The number of times the call threw.
+     */
+    public long getErrorCount(final WorkloadRecorder.Call call)
+    {
+        sketchOf(call);
+        return callErrors.getOrDefault(call, 0L);
+    }
+
+    /**
+     * @return The number of rows the replayed calls returned together.
+     */
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return The wall-clock time of the replay, in nanoseconds.
+     */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return The replayed calls per second of wall-clock time, or 0 if no time passed.
+     */
+    public double getThroughput()
+    {
+        return elapsedNanos == 0 ? 0 : getCount() * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    /**
+     * @param q The quantile, from 0 to 1, such as 0.99 for the 99th percentile.
+     * @return The latency of every replayed call at the quantile, in nanoseconds, or NaN if none was replayed.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double getLatencyNanos(final double q)
+    {
+        return latencies.quantile(q);
+    }
+
+    /**
+     * @param call The call to be measured, cannot be null.
+     * @param q The quantile, from 0 to 1, such as 0.99 for the 99th percentile.
+     * @return The latency of the call at the quantile, in nanoseconds, or NaN if it was not replayed.
+     * @throws IllegalArgumentException If q is out of range.
+     */
+    public double getLatencyNanos(final WorkloadRecorder.Call call, final double q)
+    {
+        QuantileSketch sketch;
+        sketch = sketchOf(call);
+
+        if(!(q >= 0 && q <= 1))
+        {
+            throw new IllegalArgumentException("Invalid quantile: " + q);
+        }
+        return sketch == null ? Double.NaN : sketch.quantile(q);
+    }
+
+    /**
+     * @return A table with a row for each replayed call and one for all of them: the count, the errors,
+     * and the median, 99th percentile and maximum latencies in microseconds; then the throughput.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text;
+        text = new StringBuilder();
+
+        text.append(String.format("%-28s %10s %8s %10s %10s %10s%n", "call", "count", "errors", "p50 us",
+                "p99 us", "max us"));
+
+        for(Map.Entry<WorkloadRecorder.Call, QuantileSketch> entry : callLatencies.entrySet())
+        {
+            appendRow(text, entry.getKey().name().toLowerCase(), entry.getValue(),
+                    callErrors.getOrDefault(entry.getKey(), 0L));
+        }
+
+        appendRow(text, "all", latencies, errorCount);
+        return text.append(String.format("%s: %.1f calls/s", mode.name().toLowerCase(), getThroughput()))
+                .toString();
+    }
+
+    private static void appendRow(final StringBuilder text, final String name, final QuantileSketch sketch,
+                                  final long errors)
+    {
+        text.append(String.format("%-28s %10d %8d %10.1f %10.1f %10.1f%n", name, sketch.getCount(), errors,
+                sketch.quantile(0.5) / NANOS_PER_MICRO, sketch.quantile(0.99) / NANOS_PER_MICRO,
+                sketch.quantile(1) / NANOS_PER_MICRO));
+    }
+
+    private QuantileSketch sketchOf(final WorkloadRecorder.Call call)
+    {
+        if(call == null)
+        {
+            throw new NullPointerException("Invalid call: null");
+        }
+        return callLatencies.get(call);
+    }
+}
@@ -0,0 +1,322 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a spatial index over the properties whose address has coordinates. The globe is cut
+ * into a fixed grid of cells (about 1 km on a side at the equator) and each non-empty cell keeps a bucket of
+ * its properties, so a bounding-box or radius query only visits the cells it overlaps.
+ */
+public class SpatialIndex
+{
+    private final Map<Long, ArrayList<Property>> cells;
+    private int size;
+
+    private static final double CELL_DEGREES = 0.01;
+    private static final long   LATITUDE_CELLS = (long) Math.ceil(180.0 / CELL_DEGREES) + 1;
+    private static final long   LONGITUDE_CELLS = (long) Math.ceil(360.0 / CELL_DEGREES) + 1;
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180.0;
+
+    /**
+     * Constructor, creates an empty index.
+     */
+    SpatialIndex()
+    {
+        cells = new HashMap<>();
+    }
+
+    /**
+     * This method adds the property to the cell of its coordinates, if its address has coordinates.
+     * @param property The property to be added.
+     */
+    public void add(final Property property)
+    {
+        Address address;
+        address = property.getAddress();
+
+        if(address.hasCoordinates())
+        {
+            cells.computeIfAbsent(cellOf(address.getLatitude(), address.getLongitude()),
+                    k -> new ArrayList<>()).add(property);
+            size++;
+        }
+    }
+
+    /**
+     * This method removes the property from the cell of its coordinates.
+     * @param property The property to be removed.
+     */
+    public void remove(final Property property)
+    {
+        Address             address;
+        long                cell;
+        ArrayList<Property> bucket;
+
+        address = property.getAddress();
+
+        if(!address.hasCoordinates())
+        {
+            return;
+        }
+
+        cell   = cellOf(address.getLatitude(), address.getLongitude());
+        bucket = cells.get(cell);
+
+        if(bucket != null)
+        {
+            for(int i = 0; i < bucket.size(); i++)
+            {
+                if(bucket.get(i) == property)
+                {
+                    // swap-remove, order inside a bucket does not matter
+                    bucket.set(i, bucket.get(bucket.size() - 1));
+                    bucket.remove(bucket.size() - 1);
+                    size--;
+                    break;
+                }
+            }
+
+            if(bucket.isEmpty())
+            {
+                cells.remove(cell);
+            }
+        }
+    }
+
+    /**
+     * @return The number of properties in the index.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return The estimated bytes of the cells and their buckets, without the listings, see MemoryFootprint.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        // a reference and the size
+        bytes = MemoryFootprint.object(MemoryFootprint.REFERENCE + Integer.BYTES) + MemoryFootprint.hashMap(cells.size());
+
+        for(ArrayList<Property> bucket : cells.values())
+        {
+            bytes += MemoryFootprint.boxedLong() + MemoryFootprint.arrayList(bucket.size());
+        }
+        return bytes;
+    }
+
+    /**
+     * @param minLatitude The southern edge of the box, in degrees.
+     * @param minLongitude The western edge of the box, in degrees. It may be greater than maxLongitude
+     * when the box crosses the antimeridian.
+     * @param maxLatitude The northern edge of the box, in degrees.
+     * @param maxLongitude The eastern edge of the box, in degrees.
+     * @param filter The filter the properties in the box must also pass.
+     * @return An ArrayList of the properties inside the box that pass the filter.
+     */
+    public ArrayList<Property> within(final double minLatitude, final double minLongitude,
+                                      final double maxLatitude, final double maxLongitude,
+                                      final Predicate<Property> filter)
+    {
+        ArrayList<Property> matches;
+        matches = new ArrayList<>();
+
+        if(minLongitude <= maxLongitude)
+        {
+            collect(minLatitude, minLongitude, maxLatitude, maxLongitude, filter, matches);
+        }
+        else
+        {
+            collect(minLatitude, minLongitude, maxLatitude, 180.0, filter, matches);
+            collect(minLatitude, -180.0, maxLatitude, maxLongitude, filter, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * @param latitude The latitude of the centre, in degrees.
+     * @param longitude The longitude of the centre, in degrees.
+     * @param radiusKm The radius of the circle, in kilometres.
+     * @param filter The filter the properties in the circle must also pass.
+     * @return An ArrayList of the properties within the great-circle distance of the centre that pass the filter.
+     */
+    public ArrayList<Property> near(final double latitude, final double longitude, final double radiusKm,
+                                    final Predicate<Property> filter)
+    {
+        double latitudeDelta;
+        double minLatitude;
+        double maxLatitude;
+        double longitudeDelta;
+        Predicate<Property> inCircle;
+
+        latitudeDelta = radiusKm / KM_PER_DEGREE;
+        minLatitude   = Math.max(-90.0, latitude - latitudeDelta);
+        maxLatitude   = Math.min(90.0, latitude + latitudeDelta);
+
+        if(minLatitude <= -90.0 || maxLatitude >= 90.0)
+        {
+            // the circle covers a pole, so it spans every longitude
+            longitudeDelta = 180.0;
+        }
+        else
+        {
+            longitudeDelta = Math.toDegrees(Math.asin(Math.min(1.0,
+                    Math.sin(radiusKm / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(latitude)))));
+        }
+
+        inCircle = property -> distanceKm(latitude, longitude,
+                property.getAddress().getLatitude(), property.getAddress().getLongitude()) <= radiusKm;
+
+        if(longitudeDelta >= 180.0)
+        {
+            return within(minLatitude, -180.0, maxLatitude, 180.0, inCircle.and(filter));
+        }
+        return within(minLatitude, wrap(longitude - longitudeDelta), maxLatitude,
+                wrap(longitude + longitudeDelta), inCircle.and(filter));
+    }
+
+    /**
+     * @param latitude1 The latitude of the first point, in degrees.
+     * @param longitude1 The longitude of the first point, in degrees.
+     * @param latitude2 The latitude of the second point, in degrees.
+     * @param longitude2 The longitude of the second point, in degrees.
+     * @return The great-circle (haversine) distance between the points, in kilometres.
+     */
+    public static double distanceKm(final double latitude1, final double longitude1,
+                                    final double latitude2, final double longitude2)
+    {
+        double dLatitude;
+        double dLongitude;
+        double a;
+
+        dLatitude  = Math.toRadians(latitude2 - latitude1);
+        dLongitude = Math.toRadians(longitude2 - longitude1);
+        a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) +
+                Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) *
+                Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * This method adds the properties of the cells overlapping a box that does not cross the antimeridian.
+     */
+    private void collect(final double minLatitude, final double minLongitude,
+                         final double maxLatitude, final double maxLongitude,
+                         final Predicate<Property> filter, final ArrayList<Property> matches)
+    {
+        long minRow;
+        long maxRow;
+        long minColumn;
+        long maxColumn;
+
+        minRow    = row(minLatitude);
+        maxRow    = row(maxLatitude);
+        minColumn = column(minLongitude);
+        maxColumn = column(maxLongitude);
+
+        if((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > cells.size())
+        {
+            // a box wider than the populated area is cheaper to answer from the non-empty cells
+            for(Map.Entry<Long, ArrayList<Property>> entry : cells.entrySet())
+            {
+                long row;
+                long column;
+
+                row    = entry.getKey() / LONGITUDE_CELLS;
+                column = entry.getKey() % LONGITUDE_CELLS;
+
+                if(row >= minRow && row <= maxRow && column >= minColumn && column <= maxColumn)
+                {
+                    collectBucket(entry.getValue(), minLatitude, minLongitude, maxLatitude, maxLongitude,
+                            filter, matches);
+                }
+            }
+            return;
+        }
+
+        for(long row = minRow; row <= maxRow; row++)
+        {
+            for(long column = minColumn; column <= maxColumn; column++)
+            {
+                ArrayList<Property> bucket;
+                bucket = cells.get(row * LONGITUDE_CELLS + column);
+
+                if(bucket != null)
+                {
+                    collectBucket(bucket, minLatitude, minLongitude, maxLatitude, maxLongitude, filter, matches);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method adds the properties of one bucket that lie inside the box and pass the filter.
+     */
+    private static void collectBucket(final ArrayList<Property> bucket,
+                                      final double minLatitude, final double minLongitude,
+                                      final double maxLatitude, final double maxLongitude,
+                                      final Predicate<Property> filter, final ArrayList<Property> matches)
+    {
+        for(Property property : bucket)
+        {
+            double latitude;
+            double longitude;
+
+            latitude  = property.getAddress().getLatitude();
+            longitude = property.getAddress().getLongitude();
+
+            if(latitude >= minLatitude && latitude <= maxLatitude &&
+                    longitude >= minLongitude && longitude <= maxLongitude && filter.test(property))
+            {
+                matches.add(property);
+            }
+        }
+    }
+
+    /**
+     * @return The key of the grid cell holding the coordinates.
+     */
+    private static long cellOf(final double latitude, final double longitude)
+    {
+        return row(latitude) * LONGITUDE_CELLS + column(longitude);
+    }
+
+    /**
+     * @return The grid row of the latitude.
+     */
+    private static long row(final double latitude)
+    {
+        return Math.min(LATITUDE_CELLS - 1, (long) Math.floor((latitude + 90.0) / CELL_DEGREES));
+    }
+
+    /**
+     * @return The grid column of the longitude.
+     */
+    private static long column(final double longitude)
+    {
+        return Math.min(LONGITUDE_CELLS - 1, (long) Math.floor((longitude + 180.0) / CELL_DEGREES));
+    }
+
+    /**
+     * @return The longitude wrapped back into the range -180 to 180 degrees.
+     */
+    private static double wrap(final double longitude)
+    {
+        if(longitude > 180.0)
+        {
+            return longitude - 360.0;
+        }
+        if(longitude < -180.0)
+        {
+            return longitude + 360.0;
+        }
+        return longitude;
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpatialIndexTest
+{
+    private SpatialIndex index;
+
+    // downtown vancouver, about 1.1 km apart, then burnaby about 10 km east
+    private Property p1 = new Property(500000, new Address(null, 1, "robson street", "v6b1a1", "vancouver",
+            49.2827, -123.1207), 2, false, "residence", "1");
+    private Property p2 = new Property(900000, new Address(null, 2, "granville street", "v6b1a2", "vancouver",
+            49.2790, -123.1340), 3, true, "residence", "2");
+    private Property p3 = new Property(700000, new Address(null, 3, "kingsway", "v5h1a1", "burnaby",
+            49.2276, -122.9996), 4, true, "residence", "3");
+    private Property p4 = new Property(100000, new Address(null, 4, "fiji road", "00001", "suva",
+            -18.1416, 179.9990), 1, false, "residence", "4");
+    private Property p5 = new Property(100000, new Address(null, 5, "samoa road", "00002", "apia",
+            -18.1416, -179.9990), 1, false, "residence", "5");
+    private Property p6 = new Property(100000, new Address(null, 6, "no gps road", "00003", "nowhere"),
+            1, false, "residence", "6");
+
+    @BeforeEach
+    void setUp()
+    {
+        index = new SpatialIndex();
+
+        index.add(p1);
+        index.add(p2);
+        index.add(p3);
+        index.add(p4);
+        index.add(p5);
+        index.add(p6);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        index = null;
+    }
+
+    @Test
+    void size()
+    {
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    void distanceKm()
+    {
+        assertEquals(0.0, SpatialIndex.distanceKm(49.28, -123.12, 49.28, -123.12));
+        assertEquals(111.2, SpatialIndex.distanceKm(0, 0, 1, 0), 0.1);
+        assertEquals(10.9, SpatialIndex.distanceKm(49.2827, -123.1207, 49.2276, -122.9996), 0.2);
+    }
+
+    @Test
+    void within()
+    {
+        ArrayList<Property> downtown = index.within(49.27, -123.14, 49.29, -123.11, PropertyFilters.all());
+
+        assertEquals(2, downtown.size());
+        assertTrue(downtown.contains(p1) && downtown.contains(p2));
+
+        ArrayList<Property> withPool = index.within(49.0, -124.0, 50.0, -122.0, PropertyFilters.withPool());
+
+        assertEquals(2, withPool.size());
+        assertTrue(withPool.contains(p2) && withPool.contains(p3));
+
+        assertEquals(0, index.within(10, 10, 11, 11, PropertyFilters.all()).size());
+    }
+
+    @Test
+    void withinAcrossAntimeridian()
+    {
+        ArrayList<Property> pacific = index.within(-19, 179.5, -17, -179.5, PropertyFilters.all());
+
+        assertEquals(2, pacific.size());
+        assertTrue(pacific.contains(p4) && pacific.contains(p5));
+    }
+
+    @Test
+    void near()
+    {
+        ArrayList<Property> near = index.near(49.2827, -123.1207, 2.0, PropertyFilters.all());
+
+        assertEquals(2, near.size());
+        assertTrue(near.contains(p1) && near.contains(p2));
+
+        assertEquals(3, index.near(49.2827, -123.1207, 12.0, PropertyFilters.all()).size());
+        assertEquals(1, index.near(49.2827, -123.1207, 12.0, PropertyFilters.priceBetween(600000, 800000)).size());
+        assertEquals(2, index.near(-18.1416, 179.9995, 1.0, PropertyFilters.all()).size());
+        assertEquals(5, index.near(89.0, 0, 20000, PropertyFilters.all()).size());
+    }
+
+    @Test
+    void remove()
+    {
+        index.remove(p1);
+        index.remove(p6);
+
+        assertEquals(4, index.size());
+        assertEquals(1, index.near(49.2827, -123.1207, 2.0, PropertyFilters.all()).size());
+
+        index.remove(p2);
+        assertEquals(0, index.near(49.2827, -123.1207, 2.0, PropertyFilters.all()).size());
+    }
+}
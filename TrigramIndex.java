@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a trigram inverted index over short text terms (street names, city names).
+ * Each distinct term is split into padded, lower-case trigrams, and every trigram points at the terms
+ * that contain it, so a fuzzy lookup only touches the terms sharing at least one trigram with the query.
+ * The index is maintained incrementally as property IDs are added to and removed from a term.
+ */
+public class TrigramIndex
+{
+    private final Map<String, Term>      terms;
+    private final Map<String, Set<Term>> postings;
+
+    private static final double DEFAULT_MIN_SIMILARITY = 0.2;
+
+    /**
+     * Constructor, creates an empty index.
+     */
+    TrigramIndex()
+    {
+        terms    = new HashMap<>();
+        postings = new HashMap<>();
+    }
+
+    /**
+     * This method adds the property ID under the given term, indexing the term if it is new.
+     * @param text The term text, such as a street name.
+     * @param propertyId The property ID to be added.
+     */
+    public void add(final String text, final String propertyId)
+    {
+        String key;
+        Term   term;
+
+        key  = normalize(text);
+        term = terms.get(key);
+
+        if(term == null)
+        {
+            term = new Term(text, trigrams(key));
+            terms.put(key, term);
+
+            for(String trigram : term.trigrams)
+            {
+                postings.computeIfAbsent(trigram, k -> new HashSet<>()).add(term);
+            }
+        }
+        term.propertyIds.add(propertyId);
+    }
+
+    /**
+     * This method removes the property ID from the given term, dropping the term once no property uses it.
+     * @param text The term text, such as a street name.
+     * @param propertyId The property ID to be removed.
+     */
+    public void remove(final String text, final String propertyId)
+    {
+        String key;
+        Term   term;
+
+        key  = normalize(text);
+        term = terms.get(key);
+
+        if(term == null)
+        {
+            return;
+        }
+
+        term.propertyIds.remove(propertyId);
+
+        if(term.propertyIds.isEmpty())
+        {
+            terms.remove(key);
+
+            for(String trigram : term.trigrams)
+            {
+                Set<Term> posting;
+                posting = postings.get(trigram);
+                posting.remove(term);
+
+                if(posting.isEmpty())
+                {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param query The possibly misspelled text to be matched.
+     * @param maxResults The maximum number of terms to return.
+     * @return An ArrayList of matching terms ranked by descending trigram similarity, using the default
+     * minimum similarity.
+     */
+    public ArrayList<Match> search(final String query, final int maxResults)
+    {
+        return search(query, maxResults, DEFAULT_MIN_SIMILARITY);
+    }
+
+    /**
+     * @param query The possibly misspelled text to be matched.
+     * @param maxResults The maximum number of terms to return.
+     * @param minSimilarity The minimum Jaccard similarity, between 0 and 1, a term needs to be returned.
+     * @return An ArrayList of matching terms ranked by descending Jaccard similarity over trigrams.
+     */
+    public ArrayList<Match> search(final String query, final int maxResults, final double minSimilarity)
+    {
+        ArrayList<Match>   matches;
+        ArrayList<Match>   candidates;
+        Set<String>        queryTrigrams;
+        Map<Term, Integer> sharedCounts;
+
+        matches = new ArrayList<>();
+
+        if(query == null || maxResults <= 0)
+        {
+            return matches;
+        }
+
+        candidates    = new ArrayList<>();
+        queryTrigrams = trigrams(normalize(query));
+        sharedCounts  = new HashMap<>();
+
+        for(String trigram : queryTrigrams)
+        {
+            Set<Term> posting;
+            posting = postings.get(trigram);
+
+            if(posting != null)
+            {
+                for(Term term : posting)
+                {
+                    sharedCounts.merge(term, 1, Integer::sum);
+                }
+            }
+        }
+
+        for(Map.Entry<Term, Integer> entry : sharedCounts.entrySet())
+        {
+            Term   term;
+            int    shared;
+            double similarity;
+
+            term       = entry.getKey();
+            shared     = entry.getValue();
+            similarity = (double) shared / (queryTrigrams.size() + term.trigrams.size() - shared);
+
+            if(similarity >= minSimilarity)
+            {
+                candidates.add(new Match(term.text, similarity, term.propertyIds));
+            }
+        }
+
+        candidates.sort((m1, m2) -> Double.compare(m2.getScore(), m1.getScore()));
+
+        // only the returned terms pay for copying their property IDs
+        for(int i = 0; i < candidates.size() && i < maxResults; i++)
+        {
+            matches.add(candidates.get(i).detach());
+        }
+        return matches;
+    }
+
+    /**
+     * @return The number of distinct terms in the index.
+     */
+    public int size()
+    {
+        return terms.size();
+    }
+
+    /**
+     * This method lower-cases the text and collapses runs of whitespace, so that "Elm  Street" and
+     * "elm street" share one term.
+     * @param text The text to be normalized.
+     * @return The normalized text.
+     */
+    static String normalize(final String text)
+    {
+        return text.trim().toLowerCase().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @param key The normalized text.
+     * @return The set of trigrams of the text, with each word padded by two leading and one trailing space.
+     */
+    static Set<String> trigrams(final String key)
+    {
+        Set<String> trigrams;
+        trigrams = new HashSet<>();
+
+        for(String word : key.split(" "))
+        {
+            String padded;
+            padded = "  " + word + " ";
+
+            for(int i = 0; i + 3 <= padded.length(); i++)
+            {
+                trigrams.add(padded.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    /**
+     * @return The estimated bytes of the terms, their trigrams and the postings, without the property IDs,
+     * see MemoryFootprint. The text of a term is the string a listing holds, so only a normalized key that
+     * is a different string is counted.
+     */
+    long estimateBytes()
+    {
+        long bytes;
+
+        // two references
+        bytes = MemoryFootprint.object(2 * MemoryFootprint.REFERENCE) +
+                MemoryFootprint.hashMap(terms.size()) +
+                MemoryFootprint.hashMap(postings.size());
+
+        for(Map.Entry<String, Term> entry : terms.entrySet())
+        {
+            Term term;
+            term = entry.getValue();
+
+            // three references, and the trigrams each term holds; the postings are keyed by the first of them
+            bytes += MemoryFootprint.object(3 * MemoryFootprint.REFERENCE) +
+                    MemoryFootprint.hashSet(term.trigrams.size()) +
+                    MemoryFootprint.hashSet(term.propertyIds.size());
+
+            for(String trigram : term.trigrams)
+            {
+                bytes += MemoryFootprint.string(trigram);
+            }
+
+            if(entry.getKey() != term.text)
+            {
+                bytes += MemoryFootprint.string(entry.getKey());
+            }
+        }
+
+        for(Set<Term> posting : postings.values())
+        {
+            bytes += MemoryFootprint.hashSet(posting.size());
+        }
+        return bytes;
+    }
+
+    /**
+     * One indexed term with its trigrams and the property IDs using it.
+     */
+    private static final class Term
+    {
+        private final String      text;
+        private final Set<String> trigrams;
+        private final Set<String> propertyIds;
+
+        private Term(final String text, final Set<String> trigrams)
+        {
+            this.text        = text;
+            this.trigrams    = trigrams;
+            this.propertyIds = new HashSet<>();
+        }
+    }
+
+    /**
+     * A ranked search result: the matched term, its similarity score and the property IDs that use it.
+     */
+    public static final class Match
+    {
+        private final String      term;
+        private final double      score;
+        private final Set<String> propertyIds;
+
+        private Match(final String term, final double score, final Set<String> propertyIds)
+        {
+            this.term        = term;
+            this.score       = score;
+            this.propertyIds = propertyIds;
+        }
+
+        /**
+         * @return A copy of this match that no longer shares its property IDs with the index.
+         */
+        private Match detach()
+        {
+            return new Match(term, score, new HashSet<>(propertyIds));
+        }
+
+        /**
+         * @return The matched term, as first added to the index.
+         */
+        public String getTerm()
+        {
+            return term;
+        }
+
+        /**
+         * @return The Jaccard similarity between the query and the term, between 0 and 1.
+         */
+        public double getScore()
+        {
+            return score;
+        }
+
+        /**
+         * @return The property IDs indexed under the term.
+         */
+        public Set<String> getPropertyIds()
+        {
+            return propertyIds;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest
+{
+    private TrigramIndex index;
+
+    @BeforeEach
+    void setUp()
+    {
+        index = new TrigramIndex();
+
+        index.add("maple street", "1");
+        index.add("Maple  Street", "2");
+        index.add("elm street", "3");
+        index.add("56th avenue", "4");
+        index.add("pinnacle avenue", "5");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        index = null;
+    }
+
+    @Test
+    void size()
+    {
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void searchMisspelled()
+    {
+        ArrayList<TrigramIndex.Match> matches = index.search("mapel st", 10);
+
+        assertEquals(1, matches.size());
+        assertEquals("maple street", matches.get(0).getTerm());
+        assertEquals(2, matches.get(0).getPropertyIds().size());
+        assertTrue(matches.get(0).getPropertyIds().contains("1"));
+        assertTrue(matches.get(0).getPropertyIds().contains("2"));
+    }
+
+    @Test
+    void searchRanked()
+    {
+        ArrayList<TrigramIndex.Match> matches = index.search("56 ave", 10, 0.1);
+
+        assertEquals(2, matches.size());
+        assertEquals("56th avenue", matches.get(0).getTerm());
+        assertEquals("pinnacle avenue", matches.get(1).getTerm());
+        assertTrue(matches.get(0).getScore() > matches.get(1).getScore());
+
+        assertEquals(1, index.search("56 ave", 1, 0.1).size());
+    }
+
+    @Test
+    void searchExact()
+    {
+        ArrayList<TrigramIndex.Match> matches = index.search("ELM STREET", 10);
+
+        assertEquals("elm street", matches.get(0).getTerm());
+        assertEquals(1.0, matches.get(0).getScore());
+    }
+
+    @Test
+    void searchNoMatch()
+    {
+        assertEquals(0, index.search("zzz", 10).size());
+        assertEquals(0, index.search(null, 10).size());
+        assertEquals(0, index.search("elm street", 0).size());
+    }
+
+    @Test
+    void remove()
+    {
+        index.remove("maple street", "1");
+        assertEquals(4, index.size());
+
+        index.remove("maple street", "2");
+        assertEquals(3, index.size());
+        assertEquals(0, index.search("mapel st", 10).size());
+
+        index.remove("no such street", "9");
+        assertEquals(3, index.size());
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This enum models the reasons a listing is rejected, as reported by Address.validate, Property.validate and
+ * ListingParser without throwing. Each one names the check the Address or Property constructor would fail
+ * with the same values.
+ */
+public enum ValidationError
+{
+    /** The row does not have the expected fields, or a quote is not closed. */
+    MALFORMED_ROW,
+    /** The latitude and longitude are not both given or both missing. */
+    INVALID_COORDINATES,
+    /** The latitude is not a number between -90 and 90. */
+    INVALID_LATITUDE,
+    /** The longitude is not a number between -180 and 180. */
+    INVALID_LONGITUDE,
+    /** The unit number is too short or too long. */
+    INVALID_UNIT_NUMBER,
+    /** The street number is not a number within limits. */
+    INVALID_STREET_NUMBER,
+    /** The street name is missing. */
+    MISSING_STREET_NAME,
+    /** The street name is too short or too long. */
+    INVALID_STREET_NAME,
+    /** The postal code is missing. */
+    MISSING_POSTAL_CODE,
+    /** The postal code is too short or too long. */
+    INVALID_POSTAL_CODE,
+    /** The city is missing. */
+    MISSING_CITY,
+    /** The city is too short or too long. */
+    INVALID_CITY,
+    /** The price is not a finite number, or is negative. */
+    INVALID_PRICE,
+    /** The number of bedrooms is not a number within limits. */
+    INVALID_BEDROOMS,
+    /** The swimming pool flag is neither true nor false. */
+    INVALID_POOL,
+    /** The property type is missing. */
+    MISSING_TYPE,
+    /** The property type is not one of the valid types. */
+    INVALID_TYPE,
+    /** The property ID is missing. */
+    MISSING_ID,
+    /** The property ID is too short or too long. */
+    INVALID_ID
+}
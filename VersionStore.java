@@ -0,0 +1,540 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the multi-version storage of an Agency. Every add, remove and price change commits a
+ * new version number; for each property ID it keeps a chain of frozen copies, newest first, each visible
+ * from the version that wrote it until the version that replaced or removed it. A reader pins a version
+ * and walks the chains without locking, while the single writer keeps committing. A copy is freed once no
+ * pinned version and no retained history can see it: the writer unlinks superseded copies oldest first.
+ * Copies are only kept while a version is pinned or history is retained. With neither, a commit only
+ * advances the version number. When copies start being kept again, the listings of that version, the base,
+ * are copied lazily: the caller passes each listing to preserve, a batch at a time with the writer kept out,
+ * and the writer preserves a listing before it changes, removes or promotes it, so a listing copied late
+ * still has its state at the base. Readers wait until the base is complete. A copy shares the address and
+ * encoded price history of the listing it was taken from. Commits are serialized by the agency's write lock;
+ * the monitor orders them against pins and releases.
+ */
+class VersionStore
+{
+    private final Map<String, Version>  heads;
+    private final ArrayDeque<Version>   superseded;
+    private final TreeMap<Long, Integer> pins;
+    private final ArrayDeque<long[]>    commits;
+    private final LongSupplier          clock;
+    private volatile long               version;
+    private long                        retentionMillis;
+    private boolean                     tracking;
+    private long                        baseVersion;
+    private volatile boolean            basePending;
+
+    /**
+     * What tryPin returns when no copies are kept, so the version must be pinned from the listings.
+     */
+    static final long UNTRACKED = -1;
+
+    private static final long LIVE = Long.MAX_VALUE;
+
+    /**
+     * Constructor, creates an empty store at version 0.
+     * @param clock The source of commit timestamps, in epoch milliseconds.
+     */
+    VersionStore(final LongSupplier clock)
+    {
+        this.heads      = new ConcurrentHashMap<>();
+        this.superseded = new ArrayDeque<>();
+        this.pins       = new TreeMap<>();
+        this.commits    = new ArrayDeque<>();
+        this.clock      = clock;
+    }
+
+    /**
+     * This method commits a new version in which the property has its current price.
+     * @param property The added or re-priced property.
+     */
+    void put(final Property property)
+    {
+        commit(property.getPropertyId(), property);
+    }
+
+    /**
+     * This method commits a new version in which the property is removed.
+     * @param removed The removed property, as it was when it was removed.
+     */
+    void remove(final Property removed)
+    {
+        preserve(removed);
+        commit(removed.getPropertyId(), null);
+    }
+
+    /**
+     * @return The last committed version.
+     */
+    long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * This method keeps the versions of the last retentionMillis readable by pinAsOf. With a retention, the
+     * caller starts keeping copies through track.
+     * @param retentionMillis How long history is kept, in milliseconds; 0 keeps only pinned versions.
+     */
+    synchronized void setRetention(final long retentionMillis)
+    {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * This method pins the last committed version so that it stays readable until released, if copies are
+     * kept, without reading the listings.
+     * @return The pinned version, or UNTRACKED if no copies are kept.
+     */
+    synchronized long tryPin()
+    {
+        return tracking ? pinVersion(version) : UNTRACKED;
+    }
+
+    /**
+     * This method pins the last committed version so that it stays readable until released. The caller has
+     * started keeping copies through track, with the writer kept out.
+     * @return The pinned version.
+     */
+    synchronized long pin()
+    {
+        return pinVersion(version);
+    }
+
+    /**
+     * This method pins the version that was current at the time, if copies are kept, without reading the
+     * listings.
+     * @param epochMillis The time, in epoch milliseconds.
+     * @return The pinned version, or UNTRACKED if no copies are kept.
+     * @throws IllegalStateException If the history at that time is no longer retained.
+     */
+    synchronized long tryPinAsOf(final long epochMillis)
+    {
+        return tracking ? pinVersionAsOf(epochMillis) : UNTRACKED;
+    }
+
+    /**
+     * This method pins the version that was current at the time. The caller has started keeping copies
+     * through track, with the writer kept out.
+     * @param epochMillis The time, in epoch milliseconds.
+     * @return The pinned version.
+     * @throws IllegalStateException If the history at that time is no longer retained.
+     */
+    synchronized long pinAsOf(final long epochMillis)
+    {
+        return pinVersionAsOf(epochMillis);
+    }
+
+    /**
+     * This method starts keeping copies if none are kept, with the current version as the base. It takes no
+     * copies itself: the caller, keeping the writer out, must then pass every current listing to preserve,
+     * and call finishBase.
+     * @return True if copies were not kept and the base must be copied, otherwise false.
+     */
+    synchronized boolean track()
+    {
+        if(tracking)
+        {
+            return false;
+        }
+        tracking    = true;
+        baseVersion = version;
+        basePending = true;
+        return true;
+    }
+
+    /**
+     * This method copies a listing of the base that has no copy yet, as it is now. The writer calls it before
+     * it changes, removes or promotes a listing, so a listing without a copy is as it was at the base. It does
+     * nothing once the base is complete. The caller keeps the writer out.
+     * @param listing The listing, as it is now.
+     */
+    void preserve(final Property listing)
+    {
+        if(basePending)
+        {
+            heads.computeIfAbsent(listing.getPropertyId(),
+                    propertyId -> new Version(listing.copy(), baseVersion, null));
+        }
+    }
+
+    /**
+     * This method marks the base complete once every listing was passed to preserve.
+     */
+    synchronized void finishBase()
+    {
+        basePending = false;
+    }
+
+    /**
+     * @return True if copies started being kept and not every listing of the base is copied yet.
+     */
+    boolean isBasePending()
+    {
+        return basePending;
+    }
+
+    /**
+     * @return The version, pinned; the caller holds the monitor.
+     */
+    private long pinVersion(final long pinned)
+    {
+        pins.merge(pinned, 1, Integer::sum);
+        return pinned;
+    }
+
+    /**
+     * @return The version that was current at the time, pinned; the caller holds the monitor.
+     * @throws IllegalStateException If the history at that time is no longer retained.
+     */
+    private long pinVersionAsOf(final long epochMillis)
+    {
+        long pinned;
+
+        trimCommits();
+
+        if(epochMillis < clock.getAsLong() - retentionMillis)
+        {
+            throw new IllegalStateException("History not retained: " + epochMillis);
+        }
+
+        pinned = commits.isEmpty() ? version : commits.peekFirst()[1] - 1;
+
+        for(long[] commit : commits)
+        {
+            if(commit[0] > epochMillis)
+            {
+                break;
+            }
+            pinned = commit[1];
+        }
+        return pinVersion(pinned);
+    }
+
+    /**
+     * This method releases a pinned version; its copies are freed on a later commit.
+     * @param pinned The version returned by pin or pinAsOf.
+     */
+    synchronized void release(final long pinned)
+    {
+        Integer count;
+        count = pins.get(pinned);
+
+        if(count != null)
+        {
+            if(count == 1)
+            {
+                pins.remove(pinned);
+            }
+            else
+            {
+                pins.put(pinned, count - 1);
+            }
+        }
+    }
+
+    /**
+     * @param propertyId The property ID to be matched.
+     * @param at A pinned version.
+     * @return The frozen copy of the property at the version, or null if it did not exist then.
+     */
+    Property get(final String propertyId, final long at)
+    {
+        return visible(heads.get(propertyId), at);
+    }
+
+    /**
+     * This method performs the action on the frozen copy of every property that existed at the version.
+     * @param at A pinned version.
+     * @param action The action to be performed.
+     */
+    void forEach(final long at, final Consumer<Property> action)
+    {
+        for(Version head : heads.values())
+        {
+            Property property;
+            property = visible(head, at);
+
+            if(property != null)
+            {
+                action.accept(property);
+            }
+        }
+    }
+
+    /**
+     * @param at A pinned version.
+     * @return An iterator over the frozen copy of every property that existed at the version.
+     */
+    Iterator<Property> iterator(final long at)
+    {
+        Iterator<Version> chains;
+        chains = heads.values().iterator();
+
+        return new Iterator<Property>()
+        {
+            private Property next = advance();
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            @Override
+            public Property next()
+            {
+                Property current;
+
+                if(next == null)
+                {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next    = advance();
+                return current;
+            }
+
+            private Property advance()
+            {
+                while(chains.hasNext())
+                {
+                    Property property;
+                    property = visible(chains.next(), at);
+
+                    if(property != null)
+                    {
+                        return property;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return The number of superseded copies not yet freed.
+     */
+    int getRetainedVersionCount()
+    {
+        return superseded.size();
+    }
+
+    /**
+     * @return The copy in the chain that the version can see, or null.
+     */
+    private static Property visible(final Version head, final long at)
+    {
+        Version candidate;
+        candidate = head;
+
+        while(candidate != null && candidate.begin > at)
+        {
+            candidate = candidate.older;
+        }
+
+        if(candidate == null || candidate.end <= at)
+        {
+            return null;
+        }
+        return candidate.property;
+    }
+
+    /**
+     * This method ends the current copy of the ID, links a copy of the listing in front of it, publishes the
+     * version and frees what no reader can see any more. Without pins or retained history it drops every
+     * copy and only publishes the version. The caller holds the agency's write lock, so commits never overlap.
+     * @param live The listing as it is now, or null if it was removed.
+     */
+    private void commit(final String propertyId, final Property live)
+    {
+        Version  head;
+        Property frozen;
+        long     next;
+        long     horizon;
+
+        synchronized(this)
+        {
+            next     = version + 1;
+            tracking = tracking && (!pins.isEmpty() || retentionMillis > 0);
+
+            if(!tracking)
+            {
+                if(!heads.isEmpty())
+                {
+                    heads.clear();
+                    superseded.clear();
+                }
+                basePending = false;
+                version     = next;
+                return;
+            }
+        }
+
+        head   = heads.get(propertyId);
+        frozen = live == null ? null : live.copy();
+
+        if(head != null && head.end == LIVE)
+        {
+            head.end = next;
+            superseded.add(head);
+        }
+
+        if(frozen != null)
+        {
+            Version created;
+            created = new Version(frozen, next, head);
+
+            if(head != null)
+            {
+                head.newer = created;
+            }
+            heads.put(propertyId, created);
+        }
+
+        synchronized(this)
+        {
+            version = next;
+
+            if(retentionMillis > 0)
+            {
+                commits.add(new long[]{clock.getAsLong(), next});
+            }
+            horizon = horizon();
+        }
+        prune(horizon);
+    }
+
+    /**
+     * @return The oldest version a reader may still ask for: the oldest pin, the start of the retained
+     * history, or the current version. While the base is being copied, nothing after it is freed, so a
+     * removed listing of the base is not copied again as if it were still held.
+     */
+    private long horizon()
+    {
+        long horizon;
+
+        trimCommits();
+        horizon = basePending ? Math.min(version, baseVersion) : version;
+
+        if(!pins.isEmpty())
+        {
+            horizon = Math.min(horizon, pins.firstKey());
+        }
+        if(!commits.isEmpty())
+        {
+            horizon = Math.min(horizon, commits.peekFirst()[1] - 1);
+        }
+        return horizon;
+    }
+
+    /**
+     * This method drops the commit timestamps older than the retention window.
+     */
+    private void trimCommits()
+    {
+        long oldest;
+        oldest = clock.getAsLong() - retentionMillis;
+
+        while(!commits.isEmpty() && commits.peekFirst()[0] < oldest)
+        {
+            commits.pollFirst();
+        }
+    }
+
+    /**
+     * This method unlinks every superseded copy that ended at or before the horizon. Copies end in commit
+     * order, so each one is the oldest of its chain when it is unlinked.
+     */
+    private void prune(final long horizon)
+    {
+        while(!superseded.isEmpty() && superseded.peekFirst().end <= horizon)
+        {
+            Version dead;
+            dead = superseded.pollFirst();
+
+            if(dead.newer != null)
+            {
+                dead.newer.older = null;
+            }
+            else
+            {
+                heads.remove(dead.property.getPropertyId(), dead);
+            }
+        }
+    }
+
+    /**
+     * @param shared The test of whether the address of a frozen copy is also held by a listing on the heap,
+     * so it and its strings are not counted again.
+     * @return The estimated bytes of the chains of frozen copies, the pins and the retained commits,
+     * see MemoryFootprint.
+     */
+    long estimateBytes(final Predicate<Property> shared)
+    {
+        long         bytes;
+        Set<Address> counted;
+
+        // six references, the version, the retention, the base version and two flags
+        bytes   = MemoryFootprint.object(6 * MemoryFootprint.REFERENCE + 3 * Long.BYTES + 2) +
+                MemoryFootprint.concurrentHashMap(heads.size()) +
+                MemoryFootprint.arrayDeque(superseded.size()) +
+                MemoryFootprint.treeMap(pins.size()) + pins.size() * MemoryFootprint.boxedLong() +
+                MemoryFootprint.arrayDeque(commits.size()) + commits.size() * MemoryFootprint.array(2, Long.BYTES);
+        counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for(Version head : heads.values())
+        {
+            for(Version copy = head; copy != null; copy = copy.older)
+            {
+                // a reference, the begin and end, and the two links
+                bytes += MemoryFootprint.object(3 * MemoryFootprint.REFERENCE + 2 * Long.BYTES) +
+                        copy.property.estimateBytes() + copy.property.getPriceHistory().estimateBytes();
+
+                if(!shared.test(copy.property) && counted.add(copy.property.getAddress()))
+                {
+                    bytes += copy.property.getAddress().estimateBytes() +
+                            copy.property.getAddress().estimateStringBytes() +
+                            MemoryFootprint.string(copy.property.getPropertyId());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * One frozen copy of a property and the versions that can see it.
+     */
+    private static final class Version
+    {
+        private final Property   property;
+        private final long       begin;
+        private volatile long    end;
+        private volatile Version older;
+        private Version          newer;
+
+        private Version(final Property property, final long begin, final Version older)
+        {
+            this.property = property;
+            this.begin    = begin;
+            this.end      = LIVE;
+            this.older    = older;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionStoreTest
+{
+    private VersionStore store;
+    private long[] now;
+    private Property p1;
+
+    @BeforeEach
+    void setUp()
+    {
+        now   = new long[]{1000};
+        store = new VersionStore(() -> now[0]);
+        p1    = new Property(500000, new Address(null, 1, "elm street", "90210", "los angeles"), 3, false,
+                "residence", "p1");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        store = null;
+        p1    = null;
+    }
+
+    @Test
+    void pinnedVersionSeesOldPrice()
+    {
+        store.put(p1);
+
+        long pinned = pin(p1);
+
+        p1.setPriceUsd(600000);
+        store.put(p1);
+        store.remove(p1);
+
+        assertEquals(3, store.getVersion());
+        assertEquals(500000, store.get("p1", pinned).getPriceUsd());
+        assertEquals(600000, store.get("p1", 2).getPriceUsd());
+        assertNull(store.get("p1", 3));
+        assertNull(store.get("p1", 0));
+        assertEquals(2, store.getRetainedVersionCount());
+
+        store.release(pinned);
+        store.put(p1);
+
+        assertEquals(0, store.getRetainedVersionCount());
+        assertNull(store.get("p1", store.getVersion()));
+        assertEquals(VersionStore.UNTRACKED, store.tryPin());
+    }
+
+    @Test
+    void keepsNoCopiesWithoutPins()
+    {
+        long idle = store.estimateBytes(property -> false);
+
+        for(int i = 0; i < 100; i++)
+        {
+            p1.setPriceUsd(i);
+            store.put(p1);
+        }
+        assertEquals(100, store.getVersion());
+        assertNull(store.get("p1", store.getVersion()));
+        assertEquals(idle, store.estimateBytes(property -> false));
+    }
+
+    @Test
+    void copySharesAddressAndHistory()
+    {
+        long     pinned;
+        Property copy;
+
+        p1 = new Property(500000, p1.getAddress(), 3, false, "residence", "p1", 1000);
+        p1.setPriceUsd(550000, 2000);
+        store.put(p1);
+
+        pinned = pin(p1);
+        copy   = store.get("p1", pinned);
+
+        assertSame(p1.getAddress(), copy.getAddress());
+        assertEquals(p1.getPriceHistory().size(), copy.getPriceHistory().size());
+        assertEquals(p1.getPriceHistory().priceAt(1500), copy.getPriceHistory().priceAt(1500));
+        assertEquals(pinned, store.tryPin());
+
+        p1.setPriceUsd(600000, 3000);
+        copy.getPriceHistory().record(4000, 650000);
+
+        assertEquals(600000, p1.getPriceHistory().priceAt(3500));
+        assertEquals(550000, copy.getPriceHistory().priceAt(3500));
+        assertEquals(650000, copy.getPriceHistory().priceAt(4500));
+        assertEquals(600000, p1.getPriceHistory().priceAt(4500));
+    }
+
+    @Test
+    void unpinnedVersionsAreFreed()
+    {
+        for(int i = 0; i < 100; i++)
+        {
+            p1.setPriceUsd(i);
+            store.put(p1);
+        }
+        assertEquals(0, store.getRetainedVersionCount());
+    }
+
+    @Test
+    void retainedHistory()
+    {
+        store.setRetention(10000);
+        store.track();
+        store.finishBase();
+        store.put(p1);
+
+        now[0] = 2000;
+        p1.setPriceUsd(700000);
+        store.put(p1);
+
+        now[0] = 3000;
+        assertEquals(500000, store.get("p1", store.tryPinAsOf(1500)).getPriceUsd());
+        assertEquals(700000, store.get("p1", store.tryPinAsOf(2500)).getPriceUsd());
+        assertNull(store.get("p1", store.tryPinAsOf(999)));
+
+        now[0] = 20000;
+        assertThrows(IllegalStateException.class, () -> store.tryPinAsOf(2500));
+        assertEquals(700000, store.get("p1", store.tryPinAsOf(15000)).getPriceUsd());
+    }
+
+    @Test
+    void lateBaseCopyKeepsStateAtBase()
+    {
+        Property p2;
+        long     pinned;
+
+        p2 = new Property(300000, new Address(null, 2, "oak street", "90210", "los angeles"), 2, false,
+                "residence", "p2");
+        store.put(p1);
+        store.put(p2);
+
+        assertTrue(store.track());
+        assertFalse(store.track());
+        pinned = store.pin();
+
+        store.preserve(p1);
+        p1.setPriceUsd(600000);
+        store.put(p1);
+        store.preserve(p2);
+        store.remove(p2);
+
+        store.preserve(p1);
+        store.preserve(p2);
+        store.finishBase();
+
+        assertFalse(store.isBasePending());
+        assertEquals(500000, store.get("p1", pinned).getPriceUsd());
+        assertEquals(300000, store.get("p2", pinned).getPriceUsd());
+        assertEquals(600000, store.get("p1", store.getVersion()).getPriceUsd());
+        assertNull(store.get("p2", store.getVersion()));
+    }
+
+    private long pin(final Property... listings)
+    {
+        store.track();
+
+        for(Property listing : listings)
+        {
+            store.preserve(listing);
+        }
+        store.finishBase();
+        return store.pin();
+    }
+}
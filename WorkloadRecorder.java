@@ -0,0 +1,519 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models a recorder of the calls made to an Agency, for replaying a production workload offline
+ * with WorkloadReplayer. Once passed to Agency.startRecording, every call listed in Call that returns is
+ * recorded with its arguments, its start time and its duration. Calls taking a filter, an action or a query
+ * context are not recorded, as their code cannot be written to a trace; their effects on the listings are,
+ * where they go through removeProperty. A call never waits on the recorder: the event is put in a fixed-size
+ * ring buffer without locks, as ChangeFeed does, and dropped, and counted, if the ring is full. A background
+ * thread encodes the events in the ring to the stream.
+ * The trace starts with the magic bytes "PLW1"; each event is its call as a byte, the zigzag varint of its
+ * start time minus that of the previous event, and the varint of its duration, both in nanoseconds, followed
+ * by its arguments: text as a presence byte and modified UTF-8, numbers as doubles, a listing as its fields,
+ * and a query as a byte of the criteria set followed by their values.
+ */
+public class WorkloadRecorder implements AutoCloseable
+{
+    private final DataOutputStream            out;
+    private final AtomicReferenceArray<Event> ring;
+    private final int                         mask;
+    private final AtomicLong                  claimed;
+    private final AtomicLong                  written;
+    private final Thread                      writer;
+    private final AtomicLong                  recorded;
+    private final AtomicLong                  dropped;
+    private volatile boolean                  closed;
+    private IOException                       failure;
+
+    static final int MAGIC = 0x504C5731;
+    static final int LISTING_POOL = 1;
+    static final int LISTING_UNIT = 2;
+    static final int LISTING_COORDINATES = 4;
+    static final int QUERY_PRICE = 1;
+    static final int QUERY_BEDROOMS = 2;
+    static final int QUERY_TYPE = 4;
+    static final int QUERY_STREET = 8;
+    static final int QUERY_POOL = 16;
+
+    private static final int  DEFAULT_CAPACITY = 1 << 16;
+    private static final int  VALID_MAX_CAPACITY = 1 << 30;
+    private static final int  BUFFER_SIZE = 1 << 16;
+    private static final long IDLE_NANOS = 1000000;
+
+    /**
+     * The recorded calls, each named after the Agency method, with the argument it takes and its number
+     * of numeric arguments.
+     */
+    public enum Call
+    {
+        /** addProperty, with or without an expiry; expiries are replayed as the removals they cause. */
+        ADD_PROPERTY(Argument.LISTING, 0),
+        /** removeProperty. */
+        REMOVE_PROPERTY(Argument.TEXT, 0),
+        /** setPropertyPrice. */
+        SET_PROPERTY_PRICE(Argument.TEXT, 1),
+        /** getProperty. */
+        GET_PROPERTY(Argument.TEXT, 0),
+        /** getTotalPropertyValues. */
+        GET_TOTAL_PROPERTY_VALUES(Argument.NONE, 0),
+        /** findComparables. */
+        FIND_COMPARABLES(Argument.LISTING, 1),
+        /** getLargestPriceDrops. */
+        GET_LARGEST_PRICE_DROPS(Argument.NONE, 2),
+        /** getPropertiesWithPools. */
+        GET_PROPERTIES_WITH_POOLS(Argument.NONE, 0),
+        /** getPropertiesBetween. */
+        GET_PROPERTIES_BETWEEN(Argument.NONE, 2),
+        /** getPropertiesOn. */
+        GET_PROPERTIES_ON(Argument.TEXT, 0),
+        /** searchPropertiesOn. */
+        SEARCH_PROPERTIES_ON(Argument.TEXT, 1),
+        /** searchPropertiesIn. */
+        SEARCH_PROPERTIES_IN(Argument.TEXT, 1),
+        /** getPropertiesWithin, without a filter. */
+        GET_PROPERTIES_WITHIN(Argument.NONE, 4),
+        /** getPropertiesNear, without a filter. */
+        GET_PROPERTIES_NEAR(Argument.NONE, 3),
+        /** getProperties, without a query context. */
+        GET_PROPERTIES(Argument.QUERY, 0),
+        /** getPropertiesWithBedrooms. */
+        GET_PROPERTIES_WITH_BEDROOMS(Argument.NONE, 2),
+        /** getPropertiesOfType, without a query context. */
+        GET_PROPERTIES_OF_TYPE(Argument.TEXT, 0),
+        /** getTotalPropertyValues in a currency, the text. */
+        GET_TOTAL_PROPERTY_VALUES_IN(Argument.TEXT, 0),
+        /** getPropertiesBetween in a currency, the text. */
+        GET_PROPERTIES_BETWEEN_IN(Argument.TEXT, 2),
+        /** getMostExpensive, in the currency of the text. */
+        GET_MOST_EXPENSIVE(Argument.TEXT, 1);
+
+        private final Argument argument;
+        private final int      numbers;
+
+        Call(final Argument argument, final int numbers)
+        {
+            this.argument = argument;
+            this.numbers  = numbers;
+        }
+
+        Argument getArgument()
+        {
+            return argument;
+        }
+
+        int getNumberCount()
+        {
+            return numbers;
+        }
+    }
+
+    /**
+     * The kind of non-numeric argument a call takes.
+     */
+    enum Argument
+    {
+        NONE,
+        TEXT,
+        LISTING,
+        QUERY
+    }
+
+    /**
+     * Constructor, starts a recorder holding up to 65536 events.
+     * @param out The stream the trace is written to, cannot be null. It is flushed but not closed by close.
+     */
+    public WorkloadRecorder(final OutputStream out)
+    {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor, starts a recorder.
+     * @param out The stream the trace is written to, cannot be null. It is flushed but not closed by close.
+     * @param capacity The number of events held for the writer before further events are dropped, rounded up
+     * to a power of two, must be positive and at most 2^30.
+     * @throws IllegalArgumentException If the capacity is out of range.
+     */
+    public WorkloadRecorder(final OutputStream out, final int capacity)
+    {
+        if(out == null)
+        {
+            throw new NullPointerException("Invalid stream: null");
+        }
+
+        if(capacity < 1 || capacity > VALID_MAX_CAPACITY)
+        {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.out      = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.ring     = new AtomicReferenceArray<>(capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+        this.mask     = ring.length() - 1;
+        this.claimed  = new AtomicLong();
+        this.written  = new AtomicLong();
+        this.recorded = new AtomicLong();
+        this.dropped  = new AtomicLong();
+        this.writer   = new Thread(this::drain, "workload-recorder");
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * This method puts a finished call in the ring, without waiting. It is called by Agency.
+     * @param call The call.
+     * @param startNanos The System.nanoTime at which the call started.
+     * @param subject The text, listing or query the call takes, as its Argument says, or null.
+     * @param numbers The numeric arguments of the call, in the order the Agency method takes them.
+     */
+    void record(final Call call, final long startNanos, final Object subject, final double... numbers)
+    {
+        Event event;
+        long  slot;
+
+        if(closed)
+        {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        // a listing's price and a query's criteria can change after the call, so they are copied now
+        if(call.getArgument() == Argument.LISTING)
+        {
+            event = new Event(call, startNanos, System.nanoTime() - startNanos, subject, numbers,
+                    ((Property) subject).getPriceUsd());
+        }
+        else if(call.getArgument() == Argument.QUERY)
+        {
+            event = new Event(call, startNanos, System.nanoTime() - startNanos, copyOf((ListingQuery) subject),
+                    numbers, 0);
+        }
+        else
+        {
+            event = new Event(call, startNanos, System.nanoTime() - startNanos, subject, numbers, 0);
+        }
+
+        // callers on several threads claim slots in turn; a slot the writer has not freed yet means the ring is full
+        do
+        {
+            slot = claimed.get();
+
+            if(slot - written.get() > mask)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        while(!claimed.compareAndSet(slot, slot + 1));
+
+        ring.lazySet((int) (slot & mask), event);
+    }
+
+    /**
+     * @return The number of events written to the trace so far.
+     */
+    public long getRecordedCount()
+    {
+        return recorded.get();
+    }
+
+    /**
+     * @return The number of events dropped because the ring was full or the recorder was closed.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * This method stops recording, waits for the events in the ring to be written and flushes the stream.
+     * Calls recorded afterwards are dropped. Calling it again does nothing.
+     * @throws UncheckedIOException If the trace could not be written.
+     */
+    @Override
+    public void close()
+    {
+        if(!closed)
+        {
+            closed = true;
+
+            LockSupport.unpark(writer);
+
+            try
+            {
+                writer.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if(failure != null)
+            {
+                throw new UncheckedIOException(failure);
+            }
+        }
+    }
+
+    /**
+     * This method runs on the writer thread, encoding events in slot order until the recorder is closed and
+     * every claimed slot is written. It parks briefly while the ring is empty. After a write fails, it keeps
+     * freeing slots so no caller is dropped for it, and close reports the failure.
+     */
+    private void drain()
+    {
+        long previousStart;
+        long next;
+
+        previousStart = 0;
+        next          = 0;
+
+        try
+        {
+            out.writeInt(MAGIC);
+        }
+        catch(IOException e)
+        {
+            failure = e;
+        }
+
+        while(true)
+        {
+            Event event;
+            event = ring.get((int) (next & mask));
+
+            // a claimed slot is empty until its caller fills it
+            if(event == null)
+            {
+                if(closed && next == claimed.get())
+                {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+
+            // the slot is emptied before it is freed, so the next caller to claim it fills it afterwards
+            ring.lazySet((int) (next & mask), null);
+            written.lazySet(++next);
+
+            if(failure == null)
+            {
+                try
+                {
+                    write(event, previousStart);
+                    recorded.incrementAndGet();
+
+                    if(ring.get((int) (next & mask)) == null)
+                    {
+                        out.flush();
+                    }
+                }
+                catch(IOException e)
+                {
+                    failure = e;
+                }
+            }
+
+            // the first start is kept whole, so a trace can be related to the recording machine's clock
+            previousStart = event.startNanos;
+        }
+
+        try
+        {
+            out.flush();
+        }
+        catch(IOException e)
+        {
+            failure = failure == null ? e : failure;
+        }
+    }
+
+    private void write(final Event event, final long previousStart) throws IOException
+    {
+        out.writeByte(event.call.ordinal());
+        writeVarLong(zigzag(event.startNanos - previousStart));
+        writeVarLong(Math.max(0, event.durationNanos));
+
+        switch(event.call.getArgument())
+        {
+            case TEXT:
+                out.writeBoolean(event.subject != null);
+
+                if(event.subject != null)
+                {
+                    out.writeUTF((String) event.subject);
+                }
+                break;
+            case LISTING:
+                writeListing((Property) event.subject, event.price);
+                break;
+            case QUERY:
+                writeQuery((ListingQuery) event.subject);
+                break;
+            default:
+                break;
+        }
+
+        for(int i = 0; i < event.call.getNumberCount(); i++)
+        {
+            out.writeDouble(event.numbers[i]);
+        }
+    }
+
+    private void writeListing(final Property property, final double price) throws IOException
+    {
+        Address address;
+        int     flags;
+
+        address = property.getAddress();
+        flags   = (property.hasSwimmingPool() ? LISTING_POOL : 0) |
+                (address.getUnitNumber() != null ? LISTING_UNIT : 0) |
+                (address.hasCoordinates() ? LISTING_COORDINATES : 0);
+
+        out.writeUTF(property.getPropertyId());
+        out.writeDouble(price);
+        out.writeByte(property.getNumberOfBedrooms());
+        out.writeByte(flags);
+        out.writeUTF(property.getType());
+
+        if(address.getUnitNumber() != null)
+        {
+            out.writeUTF(address.getUnitNumber());
+        }
+
+        out.writeInt(address.getStreetNumber());
+        out.writeUTF(address.getStreetName());
+        out.writeUTF(address.getPostalCode());
+        out.writeUTF(address.getCity());
+
+        if(address.hasCoordinates())
+        {
+            out.writeDouble(address.getLatitude());
+            out.writeDouble(address.getLongitude());
+        }
+    }
+
+    private void writeQuery(final ListingQuery query) throws IOException
+    {
+        out.writeByte((query.hasPriceRange() ? QUERY_PRICE : 0) | (query.hasBedroomRange() ? QUERY_BEDROOMS : 0) |
+                (query.getType() != null ? QUERY_TYPE : 0) | (query.getStreetName() != null ? QUERY_STREET : 0) |
+                (query.isPoolRequired() ? QUERY_POOL : 0));
+
+        if(query.hasPriceRange())
+        {
+            out.writeDouble(query.getMinUsd());
+            out.writeDouble(query.getMaxUsd());
+        }
+
+        if(query.hasBedroomRange())
+        {
+            out.writeInt(query.getMinBedrooms());
+            out.writeInt(query.getMaxBedrooms());
+        }
+
+        if(query.getType() != null)
+        {
+            out.writeUTF(query.getType());
+        }
+
+        if(query.getStreetName() != null)
+        {
+            out.writeUTF(query.getStreetName());
+        }
+    }
+
+    private void writeVarLong(final long value) throws IOException
+    {
+        long rest;
+        rest = value;
+
+        while((rest & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (rest & 0x7F) | 0x80);
+            rest >>>= 7;
+        }
+        out.writeByte((int) rest);
+    }
+
+    private static long zigzag(final long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * @param query The query to be copied, or null.
+     * @return A query with the same criteria, or null.
+     */
+    static ListingQuery copyOf(final ListingQuery query)
+    {
+        ListingQuery copy;
+
+        if(query == null)
+        {
+            return null;
+        }
+
+        copy = new ListingQuery();
+
+        if(query.hasPriceRange())
+        {
+            copy.priceBetween(query.getMinUsd(), query.getMaxUsd());
+        }
+
+        if(query.hasBedroomRange())
+        {
+            copy.bedroomsBetween(query.getMinBedrooms(), query.getMaxBedrooms());
+        }
+
+        if(query.getType() != null)
+        {
+            copy.ofType(query.getType());
+        }
+
+        if(query.getStreetName() != null)
+        {
+            copy.onStreet(query.getStreetName());
+        }
+
+        if(query.isPoolRequired())
+        {
+            copy.withPool();
+        }
+        return copy;
+    }
+
+    /**
+     * One finished call waiting in the ring to be written.
+     */
+    private static final class Event
+    {
+        private final Call     call;
+        private final long     startNanos;
+        private final long     durationNanos;
+        private final Object   subject;
+        private final double[] numbers;
+        private final double   price;
+
+        private Event(final Call call, final long startNanos, final long durationNanos, final Object subject,
+                      final double[] numbers, final double price)
+        {
+            this.call          = call;
+            this.startNanos    = startNanos;
+            this.durationNanos = durationNanos;
+            this.subject       = subject;
+            this.numbers       = numbers;
+            this.price         = price;
+        }
+    }
+}
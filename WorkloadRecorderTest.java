@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadRecorderTest
+{
+    private final Property p1 = new Property(499000.00, new Address("1a", 777, "56th avenue", "v7n2m8", "surrey",
+            49.1044, -122.8012), 2, false, "residence", "abc123");
+    private final Property p2 = new Property(5999999.00, new Address(null, 123, "main street", "v7r2g2",
+            "west vancouver"), 5, true, "residence", "xyz789");
+
+    @Test
+    void recordCalls() throws IOException
+    {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        Agency agency = new Agency("recorded");
+        WorkloadRecorder recorder = new WorkloadRecorder(trace);
+
+        agency.addProperty(p1);
+        agency.startRecording(recorder);
+        agency.addProperty(p2, Long.MAX_VALUE);
+        agency.setPropertyPrice("xyz789", 5500000);
+        agency.getProperty("abc123");
+        agency.getProperty(null);
+        agency.getPropertiesBetween(100000, 1000000);
+        agency.getProperties(new ListingQuery().priceBetween(0, 600000).withPool());
+        agency.getPropertiesNear(49.1, -122.8, 5);
+        agency.getPropertiesOfType("residence");
+        agency.getPropertiesMatching(property -> true);
+        agency.removeProperty("abc123");
+        agency.stopRecording();
+        agency.getProperty("xyz789");
+        recorder.close();
+
+        Map<WorkloadRecorder.Call, Long> counts = new WorkloadReplayer(
+                new ByteArrayInputStream(trace.toByteArray())).getCallCounts();
+
+        assertEquals(9, recorder.getRecordedCount());
+        assertEquals(0, recorder.getDroppedCount());
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.ADD_PROPERTY));
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.SET_PROPERTY_PRICE));
+        assertEquals(2, (long) counts.get(WorkloadRecorder.Call.GET_PROPERTY));
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.GET_PROPERTIES));
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.GET_PROPERTIES_NEAR));
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.GET_PROPERTIES_OF_TYPE));
+        assertEquals(1, (long) counts.get(WorkloadRecorder.Call.REMOVE_PROPERTY));
+        assertNull(counts.get(WorkloadRecorder.Call.GET_PROPERTIES_WITHIN));
+    }
+
+    @Test
+    void closeDropsLaterCalls()
+    {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        Agency agency = new Agency("recorded");
+        WorkloadRecorder recorder = new WorkloadRecorder(trace, 1);
+
+        agency.startRecording(recorder);
+        agency.getTotalPropertyValues();
+        recorder.close();
+        recorder.close();
+        agency.getTotalPropertyValues();
+
+        assertEquals(1, recorder.getRecordedCount());
+        assertEquals(1, recorder.getDroppedCount());
+        assertTrue(trace.size() > 4);
+    }
+
+    @Test
+    void concurrentCallers() throws IOException, InterruptedException
+    {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        WorkloadRecorder recorder = new WorkloadRecorder(trace, 4);
+        Thread[] callers = new Thread[4];
+
+        for(int i = 0; i < callers.length; i++)
+        {
+            callers[i] = new Thread(() -> {
+                for(int j = 0; j < 10000; j++)
+                {
+                    recorder.record(WorkloadRecorder.Call.GET_PROPERTY, System.nanoTime(), "abc123");
+                }
+            });
+            callers[i].start();
+        }
+
+        for(Thread caller : callers)
+        {
+            caller.join();
+        }
+        recorder.close();
+
+        assertEquals(40000, recorder.getRecordedCount() + recorder.getDroppedCount());
+        assertEquals(recorder.getRecordedCount(), (long) new WorkloadReplayer(
+                new ByteArrayInputStream(trace.toByteArray())).getCallCounts().get(WorkloadRecorder.Call.GET_PROPERTY));
+    }
+
+    @Test
+    void writeFailure()
+    {
+        WorkloadRecorder recorder = new WorkloadRecorder(new OutputStream()
+        {
+            @Override
+            public void write(final int b) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+        });
+
+        recorder.record(WorkloadRecorder.Call.GET_TOTAL_PROPERTY_VALUES, System.nanoTime(), null);
+        assertThrows(UncheckedIOException.class, recorder::close);
+    }
+
+    @Test
+    void invalidArguments()
+    {
+        assertThrows(NullPointerException.class, () -> new WorkloadRecorder(null));
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadRecorder(new ByteArrayOutputStream(), 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new WorkloadRecorder(new ByteArrayOutputStream(), (1 << 30) + 1));
+        assertThrows(NullPointerException.class, () -> new Agency("recorded").startRecording(null));
+    }
+}
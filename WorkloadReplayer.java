@@ -0,0 +1,447 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the replay of a trace written by WorkloadRecorder against an Agency, so storage and
+ * index options can be compared on a recorded production workload. The calls are replayed one at a time
+ * in the order they started, so every replay of a trace against the same listings makes the same calls
+ * with the same results. Listings are rebuilt from the trace for every replay, with a fresh price history.
+ * Open-loop replay starts each call at its recorded offset from the first, and measures its latency from
+ * that time, so a call delayed behind a slow one counts the wait as clients would; closed-loop replay runs
+ * the calls back to back and measures the service time alone.
+ */
+public class WorkloadReplayer
+{
+    private final List<Entry> entries;
+
+    private static final int  BUFFER_SIZE = 1 << 16;
+    private static final long SPIN_NANOS = 50_000;
+
+    /**
+     * How the calls are paced.
+     */
+    public enum Mode
+    {
+        /** Each call starts at its recorded offset from the first, or at once if the replay is behind. */
+        OPEN_LOOP,
+        /** Each call starts as soon as the one before it returns. */
+        CLOSED_LOOP
+    }
+
+    /**
+     * Constructor, reads a whole trace.
+     * @param trace The stream the trace is read from, to its end, cannot be null. It is not closed.
+     * @throws IOException If the stream fails or does not hold a trace.
+     */
+    public WorkloadReplayer(final InputStream trace) throws IOException
+    {
+        DataInputStream in;
+        long            startNanos;
+        int             first;
+
+        if(trace == null)
+        {
+            throw new NullPointerException("Invalid trace: null");
+        }
+
+        in         = new DataInputStream(new BufferedInputStream(trace, BUFFER_SIZE));
+        entries    = new ArrayList<>();
+        startNanos = 0;
+
+        if(in.readInt() != WorkloadRecorder.MAGIC)
+        {
+            throw new IOException("Invalid trace format");
+        }
+
+        while((first = in.read()) >= 0)
+        {
+            WorkloadRecorder.Call call;
+            Entry                 entry;
+
+            if(first >= WorkloadRecorder.Call.values().length)
+            {
+                throw new IOException("Invalid trace call: " + first);
+            }
+
+            call       = WorkloadRecorder.Call.values()[first];
+            startNanos += unzigzag(readVarLong(in));
+            entry      = new Entry(call, startNanos, readVarLong(in));
+
+            switch(call.getArgument())
+            {
+                case TEXT:
+                    entry.text = in.readBoolean() ? in.readUTF() : null;
+                    break;
+                case LISTING:
+                    entry.listing = readListing(in);
+                    break;
+                case QUERY:
+                    entry.query = readQuery(in);
+                    break;
+                default:
+                    break;
+            }
+
+            entry.numbers = new double[call.getNumberCount()];
+
+            for(int i = 0; i < entry.numbers.length; i++)
+            {
+                entry.numbers[i] = in.readDouble();
+            }
+            entries.add(entry);
+        }
+
+        // events are written as calls finish, so concurrent calls are put back in the order they started
+        entries.sort(Comparator.comparingLong(entry -> entry.startNanos));
+    }
+
+    /**
+     * @return The number of calls in the trace.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return The time from the start of the first call in the trace to the end of the last, in nanoseconds.
+     */
+    public long getRecordedNanos()
+    {
+        long end;
+
+        if(entries.isEmpty())
+        {
+            return 0;
+        }
+
+        end = 0;
+
+        for(Entry entry : entries)
+        {
+            end = Math.max(end, entry.startNanos + entry.durationNanos - entries.get(0).startNanos);
+        }
+        return end;
+    }
+
+    /**
+     * @return The number of each call in the trace.
+     */
+    public Map<WorkloadRecorder.Call, Long> getCallCounts()
+    {
+        Map<WorkloadRecorder.Call, Long> counts;
+        counts = new EnumMap<>(WorkloadRecorder.Call.class);
+
+        for(Entry entry : entries)
+        {
+            counts.merge(entry.call, 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * This method replays every call of the trace against the agency. A call that throws is counted as an
+     * error and the replay goes on.
+     * @param agency The agency, configured as it is to be measured, cannot be null.
+     * @param mode How the calls are paced, cannot be null.
+     * @return The throughput and the latency distributions of the replay.
+     */
+    public ReplayReport replay(final Agency agency, final Mode mode)
+    {
+        ReplayReport report;
+        long         replayStart;
+
+        if(agency == null)
+        {
+            throw new NullPointerException("Invalid agency: null");
+        }
+
+        if(mode == null)
+        {
+            throw new NullPointerException("Invalid mode: null");
+        }
+
+        report      = new ReplayReport(mode);
+        replayStart = System.nanoTime();
+
+        for(Entry entry : entries)
+        {
+            Property listing;
+            long     start;
+            long     rows;
+            boolean  failed;
+
+            // the listing is built before the clock starts, as the recorded caller built it before the call
+            listing = entry.listing == null ? null : new Property(entry.listing.getPriceUsd(),
+                    entry.listing.getAddress(), entry.listing.getNumberOfBedrooms(), entry.listing.hasSwimmingPool(),
+                    entry.listing.getType(), entry.listing.getPropertyId());
+            rows    = 0;
+            failed  = false;
+
+            if(mode == Mode.OPEN_LOOP)
+            {
+                start = replayStart + entry.startNanos - entries.get(0).startNanos;
+                waitUntil(start);
+            }
+            else
+            {
+                start = System.nanoTime();
+            }
+
+            try
+            {
+                rows = execute(agency, entry, listing);
+            }
+            catch(RuntimeException e)
+            {
+                failed = true;
+            }
+
+            report.add(entry.call, System.nanoTime() - start, rows, failed);
+        }
+
+        report.finish(System.nanoTime() - replayStart);
+        return report;
+    }
+
+    /**
+     * @return The number of rows the call returned: the size of a result, 1 for a found listing or a value,
+     * otherwise 0.
+     */
+    private static long execute(final Agency agency, final Entry entry, final Property listing)
+    {
+        double[]                  n;
+        Property[]                between;
+        HashMap<String, Property> bedrooms;
+
+        n = entry.numbers;
+
+        switch(entry.call)
+        {
+            case ADD_PROPERTY:
+                agency.addProperty(listing);
+                return 0;
+            case REMOVE_PROPERTY:
+                agency.removeProperty(entry.text);
+                return 0;
+            case SET_PROPERTY_PRICE:
+                agency.setPropertyPrice(entry.text, n[0]);
+                return 0;
+            case GET_PROPERTY:
+                return agency.getProperty(entry.text) == null ? 0 : 1;
+            case GET_TOTAL_PROPERTY_VALUES:
+                agency.getTotalPropertyValues();
+                return 1;
+            case FIND_COMPARABLES:
+                return agency.findComparables(listing, (int) n[0]).size();
+            case GET_LARGEST_PRICE_DROPS:
+                return agency.getLargestPriceDrops((long) n[0], (int) n[1]).size();
+            case GET_PROPERTIES_WITH_POOLS:
+                return sizeOf(agency.getPropertiesWithPools());
+            case GET_PROPERTIES_BETWEEN:
+                between = agency.getPropertiesBetween(n[0], n[1]);
+                return between == null ? 0 : between.length;
+            case GET_PROPERTIES_ON:
+                return sizeOf(agency.getPropertiesOn(entry.text));
+            case SEARCH_PROPERTIES_ON:
+                return sizeOf(agency.searchPropertiesOn(entry.text, (int) n[0]));
+            case SEARCH_PROPERTIES_IN:
+                return sizeOf(agency.searchPropertiesIn(entry.text, (int) n[0]));
+            case GET_PROPERTIES_WITHIN:
+                return sizeOf(agency.getPropertiesWithin(n[0], n[1], n[2], n[3]));
+            case GET_PROPERTIES_NEAR:
+                return sizeOf(agency.getPropertiesNear(n[0], n[1], n[2]));
+            case GET_PROPERTIES:
+                return sizeOf(agency.getProperties(entry.query));
+            case GET_PROPERTIES_WITH_BEDROOMS:
+                bedrooms = agency.getPropertiesWithBedrooms((int) n[0], (int) n[1]);
+                return bedrooms == null ? 0 : bedrooms.size();
+            case GET_PROPERTIES_OF_TYPE:
+                return sizeOf(agency.getPropertiesOfType(entry.text));
+            case GET_TOTAL_PROPERTY_VALUES_IN:
+                agency.getTotalPropertyValues(entry.text);
+                return 1;
+            case GET_PROPERTIES_BETWEEN_IN:
+                between = agency.getPropertiesBetween(n[0], n[1], entry.text);
+                return between == null ? 0 : between.length;
+            case GET_MOST_EXPENSIVE:
+                return agency.getMostExpensive((int) n[0], entry.text).size();
+            default:
+                throw new IllegalStateException("Invalid call: " + entry.call);
+        }
+    }
+
+    private static long sizeOf(final Collection<?> results)
+    {
+        return results == null ? 0 : results.size();
+    }
+
+    /**
+     * This method parks until the time, then spins through the last stretch, where parking is too coarse.
+     */
+    private static void waitUntil(final long nanoTime)
+    {
+        long remaining;
+
+        while((remaining = nanoTime - System.nanoTime()) > 0)
+        {
+            if(remaining > SPIN_NANOS)
+            {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            }
+            else
+            {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static Property readListing(final DataInputStream in) throws IOException
+    {
+        String  propertyId;
+        double  price;
+        int     bedrooms;
+        int     flags;
+        String  type;
+        String  unit;
+        int     streetNumber;
+        String  street;
+        String  postal;
+        String  city;
+        Address address;
+
+        propertyId   = in.readUTF();
+        price        = in.readDouble();
+        bedrooms     = in.readUnsignedByte();
+        flags        = in.readUnsignedByte();
+        type         = in.readUTF();
+        unit         = (flags & WorkloadRecorder.LISTING_UNIT) != 0 ? in.readUTF() : null;
+        streetNumber = in.readInt();
+        street       = in.readUTF();
+        postal       = in.readUTF();
+        city         = in.readUTF();
+
+        try
+        {
+            if((flags & WorkloadRecorder.LISTING_COORDINATES) != 0)
+            {
+                address = new Address(unit, streetNumber, street, postal, city, in.readDouble(), in.readDouble());
+            }
+            else
+            {
+                address = new Address(unit, streetNumber, street, postal, city);
+            }
+            return new Property(price, address, bedrooms, (flags & WorkloadRecorder.LISTING_POOL) != 0, type,
+                    propertyId);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException("Invalid trace listing: " + propertyId, e);
+        }
+    }
+
+    private static ListingQuery readQuery(final DataInputStream in) throws IOException
+    {
+        ListingQuery query;
+        int          flags;
+
+        query = new ListingQuery();
+        flags = in.readUnsignedByte();
+
+        if((flags & WorkloadRecorder.QUERY_PRICE) != 0)
+        {
+            query.priceBetween(in.readDouble(), in.readDouble());
+        }
+
+        if((flags & WorkloadRecorder.QUERY_BEDROOMS) != 0)
+        {
+            query.bedroomsBetween(in.readInt(), in.readInt());
+        }
+
+        if((flags & WorkloadRecorder.QUERY_TYPE) != 0)
+        {
+            query.ofType(in.readUTF());
+        }
+
+        if((flags & WorkloadRecorder.QUERY_STREET) != 0)
+        {
+            query.onStreet(in.readUTF());
+        }
+
+        if((flags & WorkloadRecorder.QUERY_POOL) != 0)
+        {
+            query.withPool();
+        }
+        return query;
+    }
+
+    private static long readVarLong(final DataInputStream in) throws IOException
+    {
+        long value;
+        int  shift;
+        int  b;
+
+        value = 0;
+        shift = 0;
+
+        do
+        {
+            if(shift > 63)
+            {
+                throw new IOException("Invalid trace varint");
+            }
+
+            b = in.read();
+
+            if(b < 0)
+            {
+                throw new EOFException("Truncated trace");
+            }
+
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private static long unzigzag(final long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * One recorded call and its arguments.
+     */
+    private static final class Entry
+    {
+        private final WorkloadRecorder.Call call;
+        private final long                  startNanos;
+        private final long                  durationNanos;
+        private String                      text;
+        private Property                    listing;
+        private ListingQuery                query;
+        private double[]                    numbers;
+
+        private Entry(final WorkloadRecorder.Call call, final long startNanos, final long durationNanos)
+        {
+            this.call          = call;
+            this.startNanos    = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
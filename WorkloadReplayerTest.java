@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadReplayerTest
+{
+    @Test
+    void replayClosedLoop() throws IOException
+    {
+        Agency recorded = populated("recorded");
+        Agency replayed = populated("replayed");
+        WorkloadReplayer replayer = new WorkloadReplayer(new ByteArrayInputStream(record(recorded)));
+        ReplayReport report = replayer.replay(replayed, WorkloadReplayer.Mode.CLOSED_LOOP);
+
+        assertEquals(replayer.size(), report.getCount());
+        assertEquals(1, report.getErrorCount());
+        assertEquals(1, report.getErrorCount(WorkloadRecorder.Call.SET_PROPERTY_PRICE));
+        assertEquals(1, report.getCount(WorkloadRecorder.Call.GET_PROPERTIES));
+        assertEquals(1, report.getCount(WorkloadRecorder.Call.GET_TOTAL_PROPERTY_VALUES_IN));
+        assertEquals(1, report.getCount(WorkloadRecorder.Call.GET_PROPERTIES_BETWEEN_IN));
+        assertEquals(1, report.getCount(WorkloadRecorder.Call.GET_MOST_EXPENSIVE));
+        assertEquals(0, report.getCount(WorkloadRecorder.Call.SEARCH_PROPERTIES_IN));
+        assertTrue(Double.isNaN(report.getLatencyNanos(WorkloadRecorder.Call.SEARCH_PROPERTIES_IN, 0.5)));
+        assertTrue(report.getLatencyNanos(0.5) <= report.getLatencyNanos(1));
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.toString().contains("get_properties_between"));
+
+        // the replay makes the same changes as the recorded calls
+        assertEquals(recorded.getPropertyCount(), replayed.getPropertyCount());
+        assertEquals(recorded.getTotalPropertyValues(), replayed.getTotalPropertyValues());
+        assertEquals(recorded.getProperty("n7").getAddress(), replayed.getProperty("n7").getAddress());
+        assertNull(replayed.getProperty("p3"));
+    }
+
+    @Test
+    void replayOpenLoop() throws IOException
+    {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        Agency agency = populated("recorded");
+        WorkloadRecorder recorder = new WorkloadRecorder(trace);
+        long start = System.nanoTime();
+
+        // two calls 20 ms apart are replayed 20 ms apart
+        recorder.record(WorkloadRecorder.Call.GET_TOTAL_PROPERTY_VALUES, start, null);
+        recorder.record(WorkloadRecorder.Call.GET_PROPERTIES_WITH_BEDROOMS, start + 20_000_000, null, 1, 3);
+        recorder.close();
+
+        WorkloadReplayer replayer = new WorkloadReplayer(new ByteArrayInputStream(trace.toByteArray()));
+        ReplayReport report = replayer.replay(agency, WorkloadReplayer.Mode.OPEN_LOOP);
+
+        assertEquals(2, report.getCount());
+        assertEquals(WorkloadReplayer.Mode.OPEN_LOOP, report.getMode());
+        assertTrue(report.getElapsedNanos() >= 20_000_000);
+        assertTrue(replayer.getRecordedNanos() >= 20_000_000);
+    }
+
+    @Test
+    void invalidTrace()
+    {
+        assertThrows(IOException.class, () -> new WorkloadReplayer(new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+        assertThrows(IOException.class, () -> new WorkloadReplayer(new ByteArrayInputStream(new byte[] {
+                0x50, 0x4C, 0x57, 0x31, (byte) WorkloadRecorder.Call.GET_PROPERTY.ordinal(), (byte) 0x80})));
+        assertThrows(NullPointerException.class, () -> new WorkloadReplayer(null));
+        assertThrows(NullPointerException.class, () -> new WorkloadReplayer(new ByteArrayInputStream(new byte[] {
+                0x50, 0x4C, 0x57, 0x31})).replay(null, WorkloadReplayer.Mode.CLOSED_LOOP));
+    }
+
+    private static Agency populated(final String name)
+    {
+        Agency agency = new Agency(name);
+
+        for(int i = 0; i < 200; i++)
+        {
+            agency.addProperty(new Property(100000 + i * 1000, new Address(i % 4 == 0 ? "#" + i : null, i + 1,
+                    "street " + i % 10, "v7r2g2", "city " + i % 5, 49 + i / 1000.0, -123 + i / 1000.0), i % 6 + 1,
+                    i % 3 == 0, i % 2 == 0 ? "residence" : "retail", "p" + i));
+        }
+        return agency;
+    }
+
+    private static byte[] record(final Agency agency)
+    {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+
+        try(WorkloadRecorder recorder = new WorkloadRecorder(trace))
+        {
+            agency.startRecording(recorder);
+            agency.addProperty(new Property(725000, new Address("2b", 7, "new street", "v7r2g2", "city 1"), 3,
+                    true, "residence", "n7"));
+            agency.setPropertyPrice("p5", 99000);
+            agency.removeProperty("p3");
+            agency.getProperty("p9");
+            agency.getPropertiesBetween(150000, 200000);
+            agency.getPropertiesWithPools();
+            agency.getPropertiesOn("street 3");
+            agency.searchPropertiesOn("stret 4", 5);
+            agency.getPropertiesWithin(49, -123, 49.1, -122.9);
+            agency.getProperties(new ListingQuery().bedroomsBetween(2, 4).ofType("retail").onStreet("street 1"));
+            agency.getPropertiesWithBedrooms(5, 6);
+            agency.getLargestPriceDrops(0, 3);
+            agency.findComparables(agency.getProperty("p10"), 5);
+            agency.getPropertiesOfType("retail");
+            agency.getTotalPropertyValues("USD");
+            agency.getPropertiesBetween(150000, 200000, "USD");
+            agency.getMostExpensive(3, "USD");
+
+            // a call the agency rejects, as one recorded against another version might be
+            recorder.record(WorkloadRecorder.Call.SET_PROPERTY_PRICE, System.nanoTime(), "p11", -1);
+            agency.stopRecording();
+        }
+        return trace.toByteArray();
+    }
+}
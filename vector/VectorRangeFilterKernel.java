@@ -0,0 +1,96 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @author Tian Lan
+ * @version 1.0
+ * This class models the range filter kernel on the incubating Vector API. Each step compares a full
+ * vector of the column against both bounds and stores the lane mask straight into the match bitmask.
+ * The lane count of the preferred species always divides 64, so a step never straddles two words.
+ * It is only loaded through RangeFilterKernel.create, which falls back to the scalar kernel when
+ * the class or the jdk.incubator.vector module is missing. It is kept out of the default sources so that
+ * they compile without the incubator module; compile it after them into the same output directory with
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorRangeFilterKernel.java
+ * and run with --add-modules jdk.incubator.vector to enable it.
+ */
+class VectorRangeFilterKernel extends RangeFilterKernel
+{
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte>   BYTES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * Constructor, creates the vectorized kernel.
+     */
+    VectorRangeFilterKernel()
+    {
+    }
+
+    @Override
+    public boolean isVectorized()
+    {
+        return true;
+    }
+
+    @Override
+    public long[] priceMask(final double[] prices, final int size, final double minUsd, final double maxUsd)
+    {
+        long[] mask;
+        int    bound;
+        int    i;
+
+        mask  = new long[words(size)];
+        bound = DOUBLES.loopBound(size);
+
+        for(i = 0; i < bound; i += DOUBLES.length())
+        {
+            DoubleVector lanes;
+            lanes = DoubleVector.fromArray(DOUBLES, prices, i);
+            mask[i >>> 6] |= lanes.compare(VectorOperators.GE, minUsd)
+                    .and(lanes.compare(VectorOperators.LE, maxUsd)).toLong() << (i & 63);
+        }
+
+        for(; i < size; i++)
+        {
+            mask[i >>> 6] |= (prices[i] >= minUsd & prices[i] <= maxUsd ? 1L : 0L) << i;
+        }
+        return mask;
+    }
+
+    @Override
+    public long[] bedroomMask(final byte[] bedrooms, final int size, final int minBedrooms, final int maxBedrooms)
+    {
+        long[] mask;
+        int    bound;
+        int    i;
+        byte   low;
+        byte   high;
+
+        mask = new long[words(size)];
+
+        // bedroom counts are small and positive, so bounds outside a byte can be clamped
+        if(minBedrooms > Byte.MAX_VALUE || maxBedrooms < 0 || minBedrooms > maxBedrooms)
+        {
+            return mask;
+        }
+
+        low   = (byte) Math.max(minBedrooms, 0);
+        high  = (byte) Math.min(maxBedrooms, Byte.MAX_VALUE);
+        bound = BYTES.loopBound(size);
+
+        for(i = 0; i < bound; i += BYTES.length())
+        {
+            ByteVector column;
+            column = ByteVector.fromArray(BYTES, bedrooms, i);
+            mask[i >>> 6] |= column.compare(VectorOperators.GE, low)
+                    .and(column.compare(VectorOperators.LE, high)).toLong() << (i & 63);
+        }
+
+        for(; i < size; i++)
+        {
+            mask[i >>> 6] |= (bedrooms[i] >= low & bedrooms[i] <= high ? 1L : 0L) << i;
+        }
+        return mask;
+    }
+}